@@ -43,17 +43,12 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.imageio.ImageIO;
-import javax.media.opengl.GL2;
-import javax.media.opengl.GLAutoDrawable;
 import javax.media.opengl.GLCapabilities;
-import javax.media.opengl.GLEventListener;
-import javax.media.opengl.GLException;
 import javax.media.opengl.GLProfile;
 import javax.media.opengl.awt.GLCanvas;
-import javax.media.opengl.fixedfunc.GLLightingFunc;
-import javax.media.opengl.glu.GLU;
 import javax.swing.BoxLayout;
 import javax.swing.JApplet;
 import javax.swing.JFrame;
@@ -71,14 +66,14 @@ import casmi.graphics.object.Background;
 import casmi.graphics.object.Camera;
 import casmi.graphics.object.Light;
 import casmi.graphics.object.Projection;
+import casmi.image.FrameRecorder;
 import casmi.image.ImageType;
+import casmi.image.TiledCapture;
+import casmi.image.filter.FilterChain;
 import casmi.tween.Tweener;
 import casmi.ui.Component;
 import casmi.util.FileUtil;
 
-import com.jogamp.opengl.util.awt.Screenshot;
-import com.jogamp.opengl.util.gl2.GLUT;
-
 /**
  * casmi Applet
  *
@@ -272,6 +267,34 @@ abstract public class Applet extends JApplet implements GLCanvasPanelEventListen
         return panel.getWorkingFPS();
     }
 
+    /**
+     * Enables or disables the double-buffered scene state. When enabled,
+     * update() and rendering run in parallel; the renderer draws a copy of
+     * the positions, rotations, scales and colors of elements taken between
+     * two calls of update(), so a frame never shows a half-updated element.
+     */
+    public void setSceneDoubleBuffered(boolean doubleBuffered) {
+        panel.setSceneDoubleBuffered(doubleBuffered);
+    }
+
+    public boolean isSceneDoubleBuffered() {
+        return panel.isSceneDoubleBuffered();
+    }
+
+    /**
+     * Sets the FilterChain applied to every rendered frame, or null to draw
+     * the scene directly. The scene is rendered into an offscreen target of
+     * the window size and the filtered result is drawn to the window. A
+     * replaced chain is disposed on the rendering thread.
+     */
+    public void setPostProcess(FilterChain chain) {
+        panel.setPostProcess(chain);
+    }
+
+    public FilterChain getPostProcess() {
+        return panel.getPostProcess();
+    }
+
     public void setBackgroundColor(Color color) {
         panel.setBackgroundColor(color);
     }
@@ -284,6 +307,84 @@ abstract public class Applet extends JApplet implements GLCanvasPanelEventListen
         panel.capture(filepath);
     }
 
+    /**
+     * Captures the next frame as a PNG image of the given size, which may be
+     * larger than the window or the maximum texture size. The scene is
+     * rendered in tiles and the image is written without holding it in memory.
+     *
+     * @param filepath
+     *            The path of the PNG file.
+     * @param width
+     *            The width of the image.
+     * @param height
+     *            The height of the image.
+     */
+    public void captureTiled(String filepath, int width, int height) {
+        panel.captureTiled(new TiledCapture(new File(filepath), width, height));
+    }
+
+    /**
+     * Captures the next frame with the given TiledCapture.
+     *
+     * @see #captureTiled(String, int, int)
+     */
+    public void captureTiled(TiledCapture capture) {
+        panel.captureTiled(capture);
+    }
+
+    /**
+     * Starts to capture every frame to an image sequence. Pixels are read
+     * asynchronously and encoded on background threads.
+     *
+     * @param pathFormat
+     *            The format of the file path, e.g. {@code "out/frame%05d.png"}.
+     *            The frame number is passed to {@link String#format(String, Object...)}.
+     */
+    public void startRecording(String pathFormat) {
+        startRecording(pathFormat, false);
+    }
+
+    /**
+     * Starts to capture every frame to an image sequence.
+     *
+     * @param alpha
+     *            Keeps the alpha channel instead of the background if the
+     *            image type supports it.
+     * @see #startRecording(String)
+     */
+    public void startRecording(String pathFormat, boolean alpha) {
+        panel.startRecording(pathFormat, new FrameRecorder(), alpha);
+    }
+
+    /**
+     * Starts to capture every frame with the given FrameRecorder.
+     *
+     * @see #startRecording(String)
+     */
+    public void startRecording(String pathFormat, FrameRecorder recorder) {
+        startRecording(pathFormat, recorder, false);
+    }
+
+    /**
+     * Starts to capture every frame with the given FrameRecorder.
+     *
+     * @see #startRecording(String, boolean)
+     */
+    public void startRecording(String pathFormat, FrameRecorder recorder, boolean alpha) {
+        panel.startRecording(pathFormat, recorder, alpha);
+    }
+
+    /**
+     * Stops capturing frames. Remaining frames are written in background.
+     */
+    public void stopRecording() {
+        panel.stopRecording();
+    }
+
+    public boolean isRecording() {
+        return panel.isRecording();
+    }
+
     public Mouse getMouse() {
         return panel.getMouse();  // TODO modify to return immutable object
     }
@@ -391,13 +492,39 @@ implements GraphicsDrawable, MouseListener, MouseMotionListener, MouseWheelListe
 //	private Timeline rootTimeline;
 
 	private boolean rootObjectIsInitialized = false;
-	private RootCanvas rootCanvas = null;
+	private volatile RootCanvas rootCanvas = null;
+
+	// for capturing a window; the pixels are read in one frame and written
+	// out in the next, so the rendering thread does not wait for them
+	private static final class CaptureRequest {
+	    final File file;
+	    final boolean alpha;
+
+	    CaptureRequest(File file, boolean alpha) {
+	        this.file  = file;
+	        this.alpha = alpha;
+	    }
+	}
+
+	private final AtomicReference<CaptureRequest> captureRequest = new AtomicReference<CaptureRequest>();
+	private FrameRecorder captureRecorder;
+	private boolean captureFlushPending = false;
+
+	// for recording frames
+	private volatile FrameRecorder recorder;
+	private volatile String recordPathFormat;
+	private volatile boolean recordAlpha = false;
+	private List<FrameRecorder> stoppingRecorders = new ArrayList<FrameRecorder>();
+	private int recordFrame = 0;
 
-	// for capturing a window
-	private ImageType imageType = ImageType.JPG;
-	private boolean saveImageFlag = false;
-	private boolean saveBackground = true;
-	private String saveFile;
+	private volatile boolean sceneDoubleBuffered = false;
+
+	// for post-processing frames
+	private volatile FilterChain postProcess;
+	private List<FilterChain> disposingPostProcesses = new ArrayList<FilterChain>();
+
+	// for capturing a large image in tiles
+	private volatile TiledCapture tiledCapture;
 
 	private JPanel controlPanel;
 
@@ -409,8 +536,8 @@ implements GraphicsDrawable, MouseListener, MouseMotionListener, MouseWheelListe
 
 	    @Override
 	    public void run() {
-	        if (canvas != null && eventListener != null && eventListener.isAvailable()) {
-	            eventListener.update();
+	        if (canvas != null) {
+	            updateOnce();
 	        }
 	    }
 	}
@@ -505,6 +632,60 @@ implements GraphicsDrawable, MouseListener, MouseMotionListener, MouseWheelListe
 		return fps;
 	}
 
+	/**
+	 * Calls update() of the event listener once, if it is ready.
+	 */
+	void updateOnce() {
+	    if (eventListener != null && eventListener.isAvailable()) {
+	        // the lock only keeps snapshots consistent, so it is not needed
+	        // unless the scene is double-buffered
+	        RootCanvas root = rootCanvas;
+	        boolean locked = root != null && root.isDoubleBuffered();
+	        if (locked) {
+	            root.beginUpdate();
+	        }
+	        try {
+	            eventListener.update();
+	        } finally {
+	            if (locked) {
+	                root.endUpdate();
+	            }
+	        }
+	    }
+	}
+
+	void setSceneDoubleBuffered(boolean doubleBuffered) {
+	    this.sceneDoubleBuffered = doubleBuffered;
+	    if (rootCanvas != null) {
+	        rootCanvas.setDoubleBuffered(sceneDoubleBuffered);
+	    }
+	}
+
+	boolean isSceneDoubleBuffered() {
+	    return sceneDoubleBuffered;
+	}
+
+	synchronized void setPostProcess(FilterChain chain) {
+	    if (postProcess != null && postProcess != chain) {
+	        // the chain is disposed on the GL thread
+	        disposingPostProcesses.add(postProcess);
+	    }
+	    postProcess = chain;
+	}
+
+	FilterChain getPostProcess() {
+	    return postProcess;
+	}
+
+	private synchronized void disposePostProcesses(Graphics g) {
+	    if (!disposingPostProcesses.isEmpty()) {
+	        for (FilterChain c : disposingPostProcesses) {
+	            c.dispose(g.getGL());
+	        }
+	        disposingPostProcesses.clear();
+	    }
+	}
+
 	public double getWorkingFPS() {
 	    return workingFPS;
 	}
@@ -774,11 +955,86 @@ implements GraphicsDrawable, MouseListener, MouseMotionListener, MouseWheelListe
 		}
 	}
 
+	/**
+	 * Captures the next frame. The image type is decided from the suffix of
+	 * the file, as before; the file is written in background after the frame.
+	 */
 	public void capture(String file, boolean background, ImageType type) {
-		saveImageFlag = true;
-		imageType = type;
-		saveBackground = background;
-		saveFile = file;
+	    captureRequest.set(new CaptureRequest(new File(file), !background));
+	}
+
+	private void processCapture(Graphics g) {
+	    if (captureFlushPending) {
+	        captureRecorder.flush(g.getGL());
+	        captureFlushPending = false;
+	    }
+
+	    CaptureRequest r = captureRequest.getAndSet(null);
+	    if (r == null) {
+	        return;
+	    }
+
+	    if (captureRecorder == null) {
+	        // two PBOs, so that the pixels read in a frame are mapped in the next
+	        captureRecorder = new FrameRecorder(2, 1, 2, FrameRecorder.OverflowMode.BLOCK);
+	    }
+	    captureRecorder.capture(g.getGL(), panelWidth, panelHeight, r.file, r.alpha);
+	    captureFlushPending = true;
+	}
+
+	public void captureTiled(TiledCapture capture) {
+	    this.tiledCapture = capture;
+	}
+
+	private void processTiledCapture(Graphics g) {
+	    TiledCapture c = tiledCapture;
+	    if (c == null) {
+	        return;
+	    }
+	    tiledCapture = null;
+
+	    try {
+	        c.capture(g, rootCanvas);
+	    } catch (IOException e) {
+	        e.printStackTrace();
+	    }
+	}
+
+	public synchronized void startRecording(String pathFormat, FrameRecorder recorder, boolean alpha) {
+	    if (this.recorder != null) {
+	        stopRecording();
+	    }
+
+	    this.recordFrame = 0;
+	    this.recordPathFormat = pathFormat;
+	    this.recordAlpha = alpha;
+	    this.recorder = recorder;
+	}
+
+	public synchronized void stopRecording() {
+	    if (recorder != null) {
+	        // the recorder is disposed on the GL thread
+	        stoppingRecorders.add(recorder);
+	        recorder = null;
+	    }
+	}
+
+	public boolean isRecording() {
+	    return recorder != null;
+	}
+
+	private synchronized void processRecording(Graphics g) {
+	    if (!stoppingRecorders.isEmpty()) {
+	        for (FrameRecorder r : stoppingRecorders) {
+	            r.dispose(g.getGL());
+	        }
+	        stoppingRecorders.clear();
+	    }
+
+	    if (recorder != null) {
+	        File file = new File(String.format(recordPathFormat, recordFrame++));
+	        recorder.capture(g.getGL(), panelWidth, panelHeight, file, recordAlpha);
+	    }
 	}
 
 	// -------------------------------------------------------------------------
@@ -787,6 +1043,7 @@ implements GraphicsDrawable, MouseListener, MouseMotionListener, MouseWheelListe
 	public void initGraphics(Graphics g) {
 	    rootObjectIsInitialized = true;
 	    rootCanvas = new RootCanvas();
+	    rootCanvas.setDoubleBuffered(sceneDoubleBuffered);
 
 	    eventListener.start();
 
@@ -813,10 +1070,22 @@ implements GraphicsDrawable, MouseListener, MouseMotionListener, MouseWheelListe
 	    }
 	}
 
+	@Override
+	public void resizeGraphics(int width, int height) {
+	    if (!isInitializing()) {
+	        setPanelSize(width, height);
+	    }
+	}
+
 	@Override
 	public void drawWithGraphics(Graphics g) {
         eventListener.refresh();
 
+        disposePostProcesses(g);
+
+        // rendered before the frame so that the last tile is not displayed
+        processTiledCapture(g);
+
 	    drawObjects(g);
 
 		// Calculate real fps.
@@ -831,28 +1100,9 @@ implements GraphicsDrawable, MouseListener, MouseMotionListener, MouseWheelListe
 		    }
 		}
 
-		// capture image
-		if (saveImageFlag) {
-			saveImageFlag = false;
-
-			try {
-				switch (imageType) {
-				case JPG:
-				case PNG:
-				case BMP:
-				case GIF:
-				default:
-				    // TODO fix to use com.jogamp.opengl.util.GLReadBufferUtil
-					Screenshot.writeToFile(new File(saveFile),
-					                       panelWidth, panelHeight, !saveBackground);
-					break;
-				}
-			} catch (GLException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
+		processRecording(g);
+
+		processCapture(g);
 	}
 
 //	public boolean isRunAsApplication() {
@@ -944,7 +1194,18 @@ implements GraphicsDrawable, MouseListener, MouseMotionListener, MouseWheelListe
 	}
 
     private final void drawObjects(Graphics g) {
-        rootCanvas.render(g, getMouseX(), getMouseY());
+        FilterChain chain = postProcess;
+        if (chain == null) {
+            rootCanvas.render(g, getMouseX(), getMouseY());
+            return;
+        }
+
+        chain.beginCapture(g.getGL(), panelWidth, panelHeight);
+        try {
+            rootCanvas.render(g, getMouseX(), getMouseY());
+        } finally {
+            chain.endCapture(g.getGL());
+        }
     }
 
     public void addTweener(Tweener t) {
@@ -1152,112 +1413,3 @@ implements GraphicsDrawable, MouseListener, MouseMotionListener, MouseWheelListe
     public void componentHidden(ComponentEvent e) {
     }
 }
-
-/**
- * implement draw function using casmi Graphics
- *
- * @author Takashi AOKI <federkasten@me.com>
- *
- */
-interface GraphicsDrawable {
-    public void drawWithGraphics(Graphics g);
-
-    public void resetGraphics(Graphics g);
-    public void initGraphics(Graphics g);
-}
-
-/**
- * JOGL Events wrap class
- *
- * @author Takashi AOKI <federkasten@me.com>
- *
- */
-class AppletGLEventListener implements GLEventListener {
-
-	public int width;
-	public int height;
-
-	private GL2 gl;
-	GLU glu;
-	GLUT glut;
-
-	private Graphics g = null;
-	private GraphicsDrawable d = null;
-	private boolean initialized = false;
-
-	public AppletGLEventListener(GraphicsDrawable drawable, int w, int h) {
-		this.width = w;
-		this.height = h;
-		this.d = drawable;
-	}
-
-	@Override
-	public void init(GLAutoDrawable drawable) {
-		gl = drawable.getGL().getGL2();
-		glu = new GLU();
-		glut = new GLUT();
-
-		g = new Graphics(gl, glu, glut, width, height);
-
-		if (isInitialized()) {
-			d.resetGraphics(g);
-		} else {
-			d.initGraphics(g);
-		}
-
-		this.initialized = true;
-	}
-
-	@Override
-	public void display(GLAutoDrawable drawable) {
-		synchronized (this) {
-			gl.glViewport(0, 0, width, height);
-
-	        gl.glClearStencil(0);
-
-			g.setOrtho();
-
-			gl.glBlendFunc(GL2.GL_SRC_ALPHA, GL2.GL_ONE_MINUS_SRC_ALPHA);
-			gl.glEnable(GL2.GL_BLEND);
-
-	        gl.glShadeModel(GLLightingFunc.GL_SMOOTH);
-			gl.glEnable(GL2.GL_LINE_SMOOTH);
-
-			if (d != null) {
-				d.drawWithGraphics(g);
-			}
-
-			gl.glFlush();
-		}
-	}
-
-	@Override
-	public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
-	    GLCanvasPanel panel = (GLCanvasPanel) d;
-	    if (!panel.isInitializing()) {
-	        panel.setPanelSize(width, height);
-	    }
-
-	    this.setSize(width, height);
-	}
-
-	public void displayChanged(GLAutoDrawable drawable, boolean modeChanged, boolean deviceChanged) {
-	}
-
-	public void setSize(int w, int h) {
-		this.width = w;
-		this.height = h;
-		if (this.initialized) {
-		    this.g.setWidth(w);
-		    this.g.setHeight(h);
-		}
-	}
-
-	@Override
-	public void dispose(GLAutoDrawable arg0) {
-	}
-
-    public boolean isInitialized() {
-        return initialized;
-    }
-}
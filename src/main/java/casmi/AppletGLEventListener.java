@@ -0,0 +1,156 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi;
+
+import javax.media.opengl.GL2;
+import javax.media.opengl.GLAutoDrawable;
+import javax.media.opengl.GLContext;
+import javax.media.opengl.GLEventListener;
+import javax.media.opengl.GLException;
+import javax.media.opengl.fixedfunc.GLLightingFunc;
+import javax.media.opengl.glu.GLU;
+
+import casmi.graphics.Graphics;
+import casmi.image.GLUploader;
+import casmi.image.ImageLoader;
+import casmi.image.TextureManager;
+
+import com.jogamp.opengl.util.gl2.GLUT;
+
+/**
+ * JOGL Events wrap class
+ *
+ * @author Takashi AOKI <federkasten@me.com>
+ *
+ */
+class AppletGLEventListener implements GLEventListener {
+
+	public int width;
+	public int height;
+
+	private GL2 gl;
+	GLU glu;
+	GLUT glut;
+
+	private Graphics g = null;
+	private GraphicsDrawable d = null;
+	private boolean initialized = false;
+
+	public AppletGLEventListener(GraphicsDrawable drawable, int w, int h) {
+		this.width = w;
+		this.height = h;
+		this.d = drawable;
+	}
+
+	@Override
+	public void init(GLAutoDrawable drawable) {
+		gl = drawable.getGL().getGL2();
+		glu = new GLU();
+		glut = new GLUT();
+
+		g = new Graphics(gl, glu, glut, width, height);
+
+		startUploader(drawable.getContext());
+
+		if (isInitialized()) {
+			d.resetGraphics(g);
+		} else {
+			d.initGraphics(g);
+		}
+
+		this.initialized = true;
+	}
+
+	@Override
+	public void display(GLAutoDrawable drawable) {
+		synchronized (this) {
+			gl.glViewport(0, 0, width, height);
+
+	        gl.glClearStencil(0);
+
+			g.setOrtho();
+
+			gl.glBlendFunc(GL2.GL_SRC_ALPHA, GL2.GL_ONE_MINUS_SRC_ALPHA);
+			gl.glEnable(GL2.GL_BLEND);
+
+	        gl.glShadeModel(GLLightingFunc.GL_SMOOTH);
+			gl.glEnable(GL2.GL_LINE_SMOOTH);
+
+			if (d != null) {
+			    TextureManager.getDefault().nextFrame(gl);
+			    ImageLoader.advanceFrame();
+			    GLUploader uploader = GLUploader.getDefault();
+			    if (uploader != null) {
+			        uploader.poll(gl);
+			    }
+
+				d.drawWithGraphics(g);
+			}
+
+			gl.glFlush();
+		}
+	}
+
+	@Override
+	public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
+	    d.resizeGraphics(width, height);
+
+	    this.setSize(width, height);
+	}
+
+	public void displayChanged(GLAutoDrawable drawable, boolean modeChanged, boolean deviceChanged) {
+	}
+
+	public void setSize(int w, int h) {
+		this.width = w;
+		this.height = h;
+		if (this.initialized) {
+		    this.g.setWidth(w);
+		    this.g.setHeight(h);
+		}
+	}
+
+	@Override
+	public void dispose(GLAutoDrawable arg0) {
+	    stopUploader();
+	}
+
+	// uploads textures in the background, sharing objects with the context
+	private static void startUploader(GLContext context) {
+	    stopUploader();
+	    try {
+	        GLUploader.setDefault(new GLUploader(context));
+	    } catch (GLException e) {
+	        // no shared context; textures are uploaded on the rendering thread
+	    }
+	}
+
+	private static void stopUploader() {
+	    GLUploader uploader = GLUploader.getDefault();
+	    if (uploader != null) {
+	        GLUploader.setDefault(null);
+	        uploader.shutdown();
+	    }
+	}
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi;
+
+import casmi.graphics.Graphics;
+
+/**
+ * implement draw function using casmi Graphics
+ *
+ * @author Takashi AOKI <federkasten@me.com>
+ *
+ */
+interface GraphicsDrawable {
+    public void drawWithGraphics(Graphics g);
+
+    public void resetGraphics(Graphics g);
+    public void initGraphics(Graphics g);
+    public void resizeGraphics(int width, int height);
+}
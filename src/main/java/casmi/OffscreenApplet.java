@@ -0,0 +1,245 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import casmi.graphics.Graphics;
+import casmi.graphics.canvas.Canvas;
+import casmi.graphics.canvas.RootCanvas;
+import casmi.graphics.color.Color;
+import casmi.graphics.color.ColorSet;
+import casmi.graphics.color.RGBColor;
+import casmi.graphics.element.Element;
+import casmi.graphics.object.Background;
+import casmi.graphics.object.Camera;
+import casmi.graphics.object.Light;
+import casmi.graphics.object.Projection;
+import casmi.image.filter.FilterChain;
+import casmi.tween.Tweener;
+
+/**
+ * Sketch rendered by {@link OffscreenRunner}.
+ * <p>
+ * It has the scene methods of {@link Applet}, but no window, mouse or
+ * keyboard, so that it can be created and rendered without any AWT
+ * component, e.g. with {@code java.awt.headless=true} on a server with Mesa.
+ * setup() is called when the offscreen framebuffer is created, and update()
+ * at the rate of the update timer of an Applet.
+ *
+ * @author Xcoo Inc.
+ */
+abstract public class OffscreenApplet implements GraphicsDrawable {
+
+    abstract public void setup();
+
+    abstract public void update();
+
+    /**
+     * Called before each frame is rendered.
+     */
+    public void refresh() {}
+
+    /**
+     * Called when the OffscreenRunner is disposed.
+     */
+    public void exit() {}
+
+    private int width = 100;
+    private int height = 100;
+
+    private volatile RootCanvas rootCanvas = null;
+    private boolean sceneDoubleBuffered = false;
+
+    private volatile FilterChain postProcess;
+    private final List<FilterChain> disposingPostProcesses = new ArrayList<FilterChain>();
+
+    void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getAppletWidth() {
+        return width;
+    }
+
+    public int getAppletHeight() {
+        return height;
+    }
+
+    /**
+     * Calls update() once, if setup() has been called.
+     */
+    void updateOnce() {
+        RootCanvas root = rootCanvas;
+        if (root == null) {
+            return;
+        }
+        if (!root.isDoubleBuffered()) {
+            update();
+            return;
+        }
+
+        root.beginUpdate();
+        try {
+            update();
+        } finally {
+            root.endUpdate();
+        }
+    }
+
+    @Override
+    public void initGraphics(Graphics g) {
+        rootCanvas = new RootCanvas();
+        rootCanvas.setDoubleBuffered(sceneDoubleBuffered);
+
+        setup();
+    }
+
+    @Override
+    public void resetGraphics(Graphics g) {
+        if (rootCanvas != null) {
+            rootCanvas.reset(g);
+        }
+    }
+
+    @Override
+    public void resizeGraphics(int width, int height) {
+        setSize(width, height);
+    }
+
+    @Override
+    public void drawWithGraphics(Graphics g) {
+        refresh();
+
+        synchronized (this) {
+            for (FilterChain c : disposingPostProcesses) {
+                c.dispose(g.getGL());
+            }
+            disposingPostProcesses.clear();
+        }
+
+        // there is no mouse; the selection pass finds nothing
+        FilterChain chain = postProcess;
+        if (chain == null) {
+            rootCanvas.render(g, -1.0, -1.0);
+            return;
+        }
+
+        chain.beginCapture(g.getGL(), width, height);
+        try {
+            rootCanvas.render(g, -1.0, -1.0);
+        } finally {
+            chain.endCapture(g.getGL());
+        }
+    }
+
+    public void setSceneDoubleBuffered(boolean doubleBuffered) {
+        this.sceneDoubleBuffered = doubleBuffered;
+        if (rootCanvas != null) {
+            rootCanvas.setDoubleBuffered(doubleBuffered);
+        }
+    }
+
+    public boolean isSceneDoubleBuffered() {
+        return sceneDoubleBuffered;
+    }
+
+    /**
+     * Sets the filters applied to every frame, or null to render the scene
+     * directly. See {@link Applet#setPostProcess(FilterChain)}.
+     */
+    public synchronized void setPostProcess(FilterChain chain) {
+        if (postProcess != null && postProcess != chain) {
+            // the chain is disposed on the GL thread
+            disposingPostProcesses.add(postProcess);
+        }
+        postProcess = chain;
+    }
+
+    public FilterChain getPostProcess() {
+        return postProcess;
+    }
+
+    public void addObject(Element e) {
+        rootCanvas.add(e);
+    }
+
+    public void addObject(int index, Element e) {
+        rootCanvas.add(index, e);
+    }
+
+    public void removeObject(Element e) {
+        rootCanvas.remove(e);
+    }
+
+    public Object getObject(int index) {
+        return rootCanvas.get(index);
+    }
+
+    public void clearObject() {
+        rootCanvas.clear();
+    }
+
+    public void addCanvas(Canvas c) {
+        rootCanvas.addCanvas(c);
+    }
+
+    public void removeCanvas(Canvas c) {
+        rootCanvas.removeCanvas(c);
+    }
+
+    public void addTweener(Tweener t) {
+        rootCanvas.addTweener(t);
+    }
+
+    public void removeTweener(Tweener t) {
+        rootCanvas.removeTweener(t);
+    }
+
+    public void removeAllTweeners() {
+        rootCanvas.removeAllTweeners();
+    }
+
+    public void setProjection(Projection p) {
+        rootCanvas.setProjection(p);
+    }
+
+    public void setCamera(Camera c) {
+        rootCanvas.setCamera(c);
+    }
+
+    public void addLight(Light l) {
+        rootCanvas.addLight(l);
+    }
+
+    public void removeLight(Light l) {
+        rootCanvas.removeLight(l);
+    }
+
+    public void setBackgroundColor(Color color) {
+        rootCanvas.setBackground(new Background(color));
+    }
+
+    public void setBackgroundColor(ColorSet colorSet) {
+        setBackgroundColor(new RGBColor(colorSet));
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi;
+
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.media.opengl.GLAutoDrawable;
+import javax.media.opengl.GLCapabilities;
+import javax.media.opengl.GLDrawableFactory;
+import javax.media.opengl.GLEventListener;
+import javax.media.opengl.GLException;
+import javax.media.opengl.GLOffscreenAutoDrawable;
+import javax.media.opengl.GLProfile;
+
+import casmi.exception.CasmiRuntimeException;
+import casmi.image.FrameRecorder;
+import casmi.tween.Tweener;
+import casmi.util.Clock;
+import casmi.util.FrameClock;
+
+/**
+ * Renders an {@link OffscreenApplet} into an offscreen framebuffer and writes
+ * each frame to an image sequence.
+ * <p>
+ * Frames are rendered as fast as possible with a deterministic clock:
+ * every frame advances the time by {@code 1000 / fps} milliseconds, update()
+ * is called at the same rate as an on-screen Applet and Tweeners use the same
+ * clock. No AWT component is created, so this also works with
+ * {@code java.awt.headless=true}.
+ *
+ * <pre>
+ * OffscreenRunner runner = new OffscreenRunner(new MyOffscreenApplet(), 3840, 2160);
+ * runner.setFPS(30.0);
+ * runner.render("out/frame%05d.png", 30 * 600);
+ * runner.dispose();
+ * </pre>
+ *
+ * @author Xcoo Inc.
+ */
+public class OffscreenRunner {
+
+    // the rate of the update timer of Applet
+    private static final double UPDATE_FPS = 24.0;
+
+    private final OffscreenApplet applet;
+
+    private final int width;
+    private final int height;
+
+    private double fps = 30.0;
+    private FrameClock clock;
+    private double updateTime = 0.0;
+
+    private GLOffscreenAutoDrawable drawable;
+    private AppletGLEventListener listener;
+    private FrameWriter writer;
+
+    private int frame = 0;
+
+    /**
+     * Creates a new OffscreenRunner.
+     *
+     * @param applet
+     *            The sketch to render.
+     * @param width
+     *            The width of the output frames.
+     * @param height
+     *            The height of the output frames.
+     */
+    public OffscreenRunner(OffscreenApplet applet, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Width and height must be more than zero.");
+        }
+
+        this.applet = applet;
+        this.width  = width;
+        this.height = height;
+
+        applet.setSize(width, height);
+    }
+
+    /**
+     * Renders the given number of frames and writes them to files.
+     *
+     * @param pathFormat
+     *            The format of the file path, e.g. {@code "out/frame%05d.png"}.
+     *            The frame number is passed to {@link String#format(String, Object...)}.
+     *            The image type is decided from the suffix.
+     * @param frames
+     *            The number of frames to render.
+     */
+    public void render(String pathFormat, int frames) {
+        for (int i = 0; i < frames; i++) {
+            renderFrame(new File(String.format(pathFormat, frame)));
+        }
+    }
+
+    /**
+     * Steps the sketch by one frame and renders it.
+     *
+     * @param file
+     *            The file to write the frame to, or {@code null} to skip writing.
+     */
+    public void renderFrame(File file) {
+        if (drawable == null) {
+            init();
+        }
+
+        Clock prevClock = Tweener.getClock();
+        Tweener.setClock(clock);
+        try {
+            // the first display() calls setup()
+            if (frame > 0) {
+                stepUpdates();
+            }
+
+            writer.setFile(file);
+            drawable.display();
+
+            clock.advance();
+            frame++;
+        } finally {
+            Tweener.setClock(prevClock);
+        }
+    }
+
+    private void init() {
+        GLProfile profile = GLProfile.get(GLProfile.GL2);
+        GLCapabilities caps = new GLCapabilities(profile);
+        caps.setStencilBits(8);
+        caps.setOnscreen(false);
+        caps.setFBO(true);
+        caps.setDoubleBuffered(false);
+
+        try {
+            GLDrawableFactory factory = GLDrawableFactory.getFactory(profile);
+            drawable = factory.createOffscreenAutoDrawable(null, caps, null, width, height);
+        } catch (GLException e) {
+            throw new CasmiRuntimeException("Failed to create offscreen drawable", e);
+        }
+
+        clock = new FrameClock(fps);
+        updateTime = 0.0;
+
+        listener = new AppletGLEventListener(applet, width, height);
+        writer = new FrameWriter();
+
+        drawable.addGLEventListener(listener);
+        drawable.addGLEventListener(writer);
+    }
+
+    /**
+     * Calls update() as many times as the update timer of an on-screen Applet
+     * would have been fired during one frame.
+     */
+    private void stepUpdates() {
+        double updateInterval = 1000.0 / UPDATE_FPS;
+        double now = clock.currentTimeMillis();
+
+        while (updateTime <= now) {
+            applet.updateOnce();
+            updateTime += updateInterval;
+        }
+    }
+
+    /**
+     * Waits until all frames are written and releases the offscreen framebuffer.
+     */
+    public void dispose() {
+        if (drawable != null) {
+            drawable.destroy();
+            drawable = null;
+            // off the rendering loop, so waiting for the encoders is fine here
+            writer.awaitWritten();
+            applet.exit();
+        }
+    }
+
+    public OffscreenApplet getApplet() {
+        return applet;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Sets the frame rate of the output sequence. This only affects the clock,
+     * frames are rendered as fast as possible.
+     */
+    public void setFPS(double fps) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("FPS must be more than zero.");
+        }
+        if (drawable != null) {
+            throw new IllegalStateException("FPS cannot be changed after rendering is started.");
+        }
+
+        this.fps = fps;
+    }
+
+    public double getFPS() {
+        return fps;
+    }
+
+    /**
+     * Returns the number of rendered frames.
+     */
+    public int getFrameCount() {
+        return frame;
+    }
+
+    /**
+     * Renders a sketch offscreen and writes the frames to files.
+     *
+     * @see #render(String, int)
+     */
+    public static void run(OffscreenApplet applet, int width, int height, double fps, String pathFormat, int frames) {
+        OffscreenRunner runner = new OffscreenRunner(applet, width, height);
+        runner.setFPS(fps);
+        try {
+            runner.render(pathFormat, frames);
+        } finally {
+            runner.dispose();
+        }
+    }
+
+    public static void run(String className, int width, int height, double fps, String pathFormat, int frames) {
+        final OffscreenApplet applet;
+
+        try {
+            Class<?> c = Thread.currentThread().getContextClassLoader().loadClass(className);
+            applet = (OffscreenApplet)c.getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw new CasmiRuntimeException("Failed to create instance of " + className, e);
+        }
+
+        run(applet, width, height, fps, pathFormat, frames);
+    }
+
+    /**
+     * Reads back the framebuffer after the sketch has been drawn.
+     */
+    private static class FrameWriter implements GLEventListener {
+
+        private FrameRecorder recorder;
+        private File file;
+        private Future<?> written;
+
+        void setFile(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void init(GLAutoDrawable drawable) {
+            // never drops frames, but lets readback and encoding overlap with rendering
+            recorder = new FrameRecorder();
+        }
+
+        @Override
+        public void display(GLAutoDrawable drawable) {
+            if (file != null) {
+                recorder.capture(drawable.getGL().getGL2(), drawable.getWidth(), drawable.getHeight(), file, false);
+            }
+        }
+
+        @Override
+        public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
+        }
+
+        @Override
+        public void dispose(GLAutoDrawable drawable) {
+            if (recorder != null) {
+                written = recorder.dispose(drawable.getGL().getGL2());
+            }
+        }
+
+        void awaitWritten() {
+            if (written == null) {
+                return;
+            }
+            try {
+                written.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new CasmiRuntimeException("Failed to write frames", e);
+            }
+        }
+    }
+}
@@ -19,8 +19,12 @@
 
 package casmi;
 
+import java.nio.DoubleBuffer;
+
 import casmi.graphics.canvas.Canvas;
 import casmi.graphics.object.Camera;
+import casmi.matrix.Matrix3D;
+import casmi.matrix.Quaternion;
 
 /**
  * Class for Trackball manipulation.
@@ -37,22 +41,32 @@ public class Trackball {
     private int width, height;
     private Camera camera = null;
 
-    class Quaternion {
-
-        double x = 0.0, y = 0.0, z = 0.0;
-        double w = 1.0;
-
-        public Quaternion() {}
-
-        public Quaternion(double x, double y, double z, double w) {
-            this.x = x;
-            this.y = y;
-            this.z = z;
-            this.w = w;
-        }
-    }
-
-    private Quaternion curQuat = new Quaternion();
+    private final Quaternion curQuat = new Quaternion();
+
+    // work areas reused by every call to avoid allocation
+    private final Quaternion lastQuat = new Quaternion();
+    private final double[] p1 = new double[3];
+    private final double[] p2 = new double[3];
+    private final double[] axis = new double[3];
+    private final double[] diff = new double[3];
+    private final double[] axis4 = new double[4];
+    private final double[] result4 = new double[4];
+    private final double[] viewMatrix = new double[16];
+    private final double[] invMatrix = new double[16];
+    private final double[] invWork = new double[16];
+    private final double[] rotMatrix = new double[16];
+    private final double[] translateMatrix = new double[16];
+    private final double[] invTranslateMatrix = new double[16];
+    private final double[] workMatrix = new double[16];
+    private final Matrix3D quatMatrix = new Matrix3D();
+
+    // alternately passed to Canvas.applyMatrix() so that the matrix being
+    // rendered is not overwritten by the next update
+    private final double[][] applyMatrices = new double[2][16];
+    private final DoubleBuffer[] applyBuffers = {
+        DoubleBuffer.wrap(applyMatrices[0]), DoubleBuffer.wrap(applyMatrices[1])
+    };
+    private int applyIndex = 0;
 
     public Trackball(int width, int height) {
         if (width <= 0 || height <= 0) {
@@ -74,18 +88,47 @@ public class Trackball {
         double normalizedPrevMouseX = (2.0 * prevMouseX - width) / width;
         double normalizedPrevMouseY = (2.0 * prevMouseY - height) / height;
 
-        Quaternion lastQuat =
-            calcQuat(normalizedPrevMouseX, normalizedPrevMouseY, normalizedMouseX, normalizedMouseY);
+        calcQuat(normalizedPrevMouseX, normalizedPrevMouseY, normalizedMouseX, normalizedMouseY, lastQuat);
+
+        curQuat.multLocal(lastQuat);
 
-        curQuat = addQuats(lastQuat, curQuat);
+        if (RENORM_COUNT < ++count) {
+            count = 0;
+            curQuat.normalizeLocal();
+        }
     }
 
     public void reset() {
-        curQuat = new Quaternion();
+        curQuat.setIdentity();
+    }
+
+    /**
+     * Returns a copy of the current rotation.
+     */
+    public Quaternion getOrientation() {
+        return new Quaternion(curQuat);
+    }
+
+    /**
+     * Sets the current rotation.
+     */
+    public void setOrientation(Quaternion q) {
+        curQuat.set(q);
     }
 
     public double[] getRotationMatrix() {
-        return calcRotMatrix();
+        return calcRotMatrix(new double[16]);
+    }
+
+    /**
+     * Writes the rotation matrix to a 16 entry array.
+     * If target is null (or not the correct size), a new array will be created.
+     */
+    public double[] getRotationMatrix(double[] target) {
+        if (target == null || target.length != 16) {
+            target = new double[16];
+        }
+        return calcRotMatrix(target);
     }
 
     public void rotate(Canvas obj) {
@@ -93,38 +136,35 @@ public class Trackball {
     }
 
     public void rotate(Canvas obj, double baseX, double baseY, double baseZ) {
-        double[] rotMat = calcRotMatrix();
+        calcRotMatrix(rotMatrix);
 
-        double[] mat1 =
-            {1.0, 0.0, 0.0, 0.0, 0.0, 1.0, 0.0, 0.0, 0.0, 0.0, 1.0, 0.0, -baseX, -baseY, -baseZ, 1.0};
+        setTranslateMatrix(invTranslateMatrix, -baseX, -baseY, -baseZ);
+        setTranslateMatrix(translateMatrix, baseX, baseY, baseZ);
 
-        double[] mat2 =
-            {1.0, 0.0, 0.0, 0.0, 0.0, 1.0, 0.0, 0.0, 0.0, 0.0, 1.0, 0.0, baseX, baseY, baseZ, 1.0};
+        applyIndex = (applyIndex + 1) % applyMatrices.length;
 
-        double[] mat = multMatrix(mat1, multMatrix(rotMat, mat2));
+        multMatrix(rotMatrix, translateMatrix, workMatrix);
+        multMatrix(invTranslateMatrix, workMatrix, applyMatrices[applyIndex]);
 
-        obj.applyMatrix(mat);
+        obj.applyMatrix(applyBuffers[applyIndex]);
     }
 
+    private static void setTranslateMatrix(double[] mat, double x, double y, double z) {
+        for (int i = 0; i < 16; i++) {
+            mat[i] = (i % 5 == 0) ? 1.0 : 0.0;
+        }
+        mat[12] = x;
+        mat[13] = y;
+        mat[14] = z;
+    }
 
-
-    private final Quaternion calcQuat(double x1, double y1, double x2, double y2) {
-
-        Quaternion quat = new Quaternion();
-
-        double[] a = new double[3];
+    private final void calcQuat(double x1, double y1, double x2, double y2, Quaternion quat) {
         double phi;
-        double[] p1 = new double[3];
-        double[] p2 = new double[3];
-        double[] d = new double[3];
         double t;
 
         if (x1 == x2 && y1 == y2) {
-            quat.x = 0.0;
-            quat.y = 0.0;
-            quat.z = 0.0;
-            quat.w = 1.0;
-            return quat;
+            quat.setIdentity();
+            return;
         }
 
         p1[0] = x1;
@@ -135,11 +175,11 @@ public class Trackball {
         p2[1] = y2;
         p2[2] = tbProjectToSphere(TRACKBALL_SIZE, x2, y2);
 
-        a = vcross(p2, p1);
-        a = applyCameraMatrix(a);
+        vcross(p2, p1, axis);
+        applyCameraMatrix(axis);
 
-        d = vsub(p1, p2);
-        t = vlength(d) / (2.0 * TRACKBALL_SIZE);
+        vsub(p1, p2, diff);
+        t = vlength(diff) / (2.0 * TRACKBALL_SIZE);
 
         if (1.0 < t) {
             t = 1.0;
@@ -147,92 +187,30 @@ public class Trackball {
             t = -1.0;
         }
         phi = 2.0 * Math.asin(t);
-        quat = axisToQuat(a, phi);
-
-        return quat;
+        quat.setAxisAngle(phi, axis[0], axis[1], axis[2]);
     }
 
-    private double[] applyCameraMatrix(double[] mat) {
-        if(this.camera!=null){
-            double[] axis = {mat[0], mat[1], mat[2], 1};
-
-            double[] eye = this.camera.getViewMatrix();
-            double[] inv = inverseMatrix(eye);
-            inv[12] = inv[13]= inv[14] = 0;
-            axis = multMatrix(axis, inv);
-            double[] result = {axis[0], axis[1], axis[2]};
-            return result;
-        } else
-            return mat;
-    }
-
-    private final Quaternion addQuats(Quaternion quat1, Quaternion quat2) {
-
-        Quaternion ret = new Quaternion();
-
-        double[] q1 = {quat1.x, quat1.y, quat1.z, quat1.w};
-        double[] q2 = {quat2.x, quat2.y, quat2.z, quat2.w};
-        double[] t1 = new double[3];
-        double[] t2 = new double[3];
-        double[] t3 = new double[3];
-        double[] tf = new double[4];
-
-        t1[0] = q1[0];
-        t1[1] = q1[1];
-        t1[2] = q1[2];
-        t1 = vscale(t1, q2[3]);
-
-        t2[0] = q2[0];
-        t2[1] = q2[1];
-        t2[2] = q2[2];
-        t2 = vscale(t2, q1[3]);
-
-        t3 = vcross(q2, q1);
-        tf[0] = t1[0] + t2[0];
-        tf[1] = t1[1] + t2[1];
-        tf[2] = t1[2] + t2[2];
-        tf[0] += t3[0];
-        tf[1] += t3[1];
-        tf[2] += t3[2];
-        tf[3] = q1[3] * q2[3] - vdot(q1, q2);
-
-        ret.x = tf[0];
-        ret.y = tf[1];
-        ret.z = tf[2];
-        ret.w = tf[3];
-
-        if (RENORM_COUNT < ++count) {
-            count = 0;
-            ret = normalizeQuat(ret);
+    private void applyCameraMatrix(double[] vec) {
+        if (this.camera != null) {
+            axis4[0] = vec[0];
+            axis4[1] = vec[1];
+            axis4[2] = vec[2];
+            axis4[3] = 1;
+
+            this.camera.getViewMatrix(viewMatrix);
+            inverseMatrix(viewMatrix, invMatrix);
+            invMatrix[12] = invMatrix[13] = invMatrix[14] = 0;
+            multVector(axis4, invMatrix, result4);
+
+            vec[0] = result4[0];
+            vec[1] = result4[1];
+            vec[2] = result4[2];
         }
-
-        return ret;
     }
 
-    private final double[] calcRotMatrix() {
-        double[] rotMatrix = new double[16];
-
-        rotMatrix[0] = 1.0 - 2.0 * (curQuat.y * curQuat.y + curQuat.z * curQuat.z);
-        rotMatrix[1] = 2.0 * (curQuat.x * curQuat.y - curQuat.z * curQuat.w);
-        rotMatrix[2] = 2.0 * (curQuat.z * curQuat.x + curQuat.y * curQuat.w);
-        rotMatrix[3] = 0.0;
-
-        rotMatrix[4] = 2.0 * (curQuat.x * curQuat.y + curQuat.z * curQuat.w);
-        rotMatrix[5] = 1.0 - 2.0 * (curQuat.z * curQuat.z + curQuat.x * curQuat.x);
-        rotMatrix[6] = 2.0 * (curQuat.y * curQuat.z - curQuat.x * curQuat.w);
-        rotMatrix[7] = 0.0;
-
-        rotMatrix[8] = 2.0 * (curQuat.z * curQuat.x - curQuat.y * curQuat.w);
-        rotMatrix[9] = 2.0 * (curQuat.y * curQuat.z + curQuat.x * curQuat.w);
-        rotMatrix[10] = 1.0 - 2.0 * (curQuat.y * curQuat.y + curQuat.x * curQuat.x);
-        rotMatrix[11] = 0.0;
-
-        rotMatrix[12] = 0.0;
-        rotMatrix[13] = 0.0;
-        rotMatrix[14] = 0.0;
-        rotMatrix[15] = 1.0;
-
-        return rotMatrix;
+    private final double[] calcRotMatrix(double[] rotMatrix) {
+        // row-major, passed to OpenGL as is (i.e. read transposed)
+        return curQuat.toMatrix3D(quatMatrix).get(rotMatrix);
     }
 
     public void setSize(int width, int height) {
@@ -259,80 +237,22 @@ public class Trackball {
         return z;
     }
 
-    private final double[] vcross(final double[] v1, final double[] v2) {
-        double[] ret = new double[3];
-
+    private static void vcross(final double[] v1, final double[] v2, double[] ret) {
         ret[0] = (v1[1] * v2[2]) - (v1[2] * v2[1]);
         ret[1] = (v1[2] * v2[0]) - (v1[0] * v2[2]);
         ret[2] = (v1[0] * v2[1]) - (v1[1] * v2[0]);
-
-        return ret;
     }
 
-    private final double[] vsub(double[] src1, double[] src2) {
-        double[] ret = new double[3];
-
+    private static void vsub(double[] src1, double[] src2, double[] ret) {
         ret[0] = src1[0] - src2[0];
         ret[1] = src1[1] - src2[1];
         ret[2] = src1[2] - src2[2];
-
-        return ret;
     }
 
-    private final double[] vnormal(double[] v) {
-        return vscale(v, 1.0 / vlength(v));
-    }
-
-    private final double[] vscale(final double[] v, final double div) {
-        double[] ret = new double[3];
-
-        ret[0] = v[0] * div;
-        ret[1] = v[1] * div;
-        ret[2] = v[2] * div;
-
-        return ret;
-    }
-
-    private final double vlength(final double[] v) {
+    private static double vlength(final double[] v) {
         return Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
     }
 
-    private final double vdot(final double[] v1, final double[] v2) {
-        return v1[0] * v2[0] + v1[1] * v2[1] + v1[2] * v2[2];
-    }
-
-    private final Quaternion normalizeQuat(Quaternion q) {
-        Quaternion ret = new Quaternion();
-
-        double mag = Math.sqrt(q.x * q.x + q.y * q.y + q.z * q.z + q.w * q.w);
-
-        ret.x = q.x / mag;
-        ret.y = q.y / mag;
-        ret.z = q.z / mag;
-        ret.w = q.w / mag;
-
-        return ret;
-    }
-
-    private final Quaternion axisToQuat(double[] a, double phi) {
-
-        double[] ret = new double[4];
-
-        a = vnormal(a);
-        ret[0] = a[0];
-        ret[1] = a[1];
-        ret[2] = a[2];
-
-        double[] tmp = vscale(ret, Math.sin(phi / 2.0));
-
-        ret[0] = tmp[0];
-        ret[1] = tmp[1];
-        ret[2] = tmp[2];
-        ret[3] = Math.cos(phi / 2.0);
-
-        return new Quaternion(ret[0], ret[1], ret[2], ret[3]);
-    }
-
     private final double calcDeterminate(final double[] mat) {
         return  mat[12] * mat[9] * mat[6] * mat[3] - mat[8] * mat[13] * mat[6] * mat[3] -
             mat[12] * mat[5] * mat[10] * mat[3] + mat[4] * mat[13] * mat[10] * mat[3] +
@@ -348,9 +268,8 @@ public class Trackball {
             mat[4] * mat[1] * mat[10] * mat[15] + mat[0] * mat[5] * mat[10] * mat[15] ;
     }
 
-    private final double[] inverseMatrix(final double[] mat) {
-        double[] inv = new double[16];
-        double[] result = new double[16];
+    private final double[] inverseMatrix(final double[] mat, double[] result) {
+        double[] inv = invWork;
         double det = 1.0f / calcDeterminate(mat);
 
         inv[0]   = mat[6]*mat[11]*mat[13] - mat[7]*mat[10]*mat[13]
@@ -427,38 +346,34 @@ public class Trackball {
         return result;
     }
 
-    private final double[] multMatrix(final double[] mat1, final double[] mat2) {
-        double [] ret;
-        if(mat1.length == 16){
-            ret = new double[16];
-
-            ret[0]  = mat1[0] * mat2[0] + mat1[1] * mat2[4] + mat1[2] * mat2[8] + mat1[3] * mat2[12];
-            ret[1]  = mat1[0] * mat2[1] + mat1[1] * mat2[5] + mat1[2] * mat2[9] + mat1[3] * mat2[13];
-            ret[2]  = mat1[0] * mat2[2] + mat1[1] * mat2[6] + mat1[2] * mat2[10] + mat1[3] * mat2[14];
-            ret[3]  = mat1[0] * mat2[3] + mat1[1] * mat2[7] + mat1[2] * mat2[11] + mat1[3] * mat2[15];
-
-            ret[4]  = mat1[4] * mat2[0] + mat1[5] * mat2[4] + mat1[6] * mat2[8] + mat1[7] * mat2[12];
-            ret[5]  = mat1[4] * mat2[1] + mat1[5] * mat2[5] + mat1[6] * mat2[9] + mat1[7] * mat2[13];
-            ret[6]  = mat1[4] * mat2[2] + mat1[5] * mat2[6] + mat1[6] * mat2[10] + mat1[7] * mat2[14];
-            ret[7]  = mat1[4] * mat2[3] + mat1[5] * mat2[7] + mat1[6] * mat2[11] + mat1[7] * mat2[15];
-
-            ret[8]  = mat1[8] * mat2[0] + mat1[9] * mat2[4] + mat1[10] * mat2[8] + mat1[11] * mat2[12];
-            ret[9]  = mat1[8] * mat2[1] + mat1[9] * mat2[5] + mat1[10] * mat2[9] + mat1[11] * mat2[13];
-            ret[10] = mat1[8] * mat2[2] + mat1[9] * mat2[6] + mat1[10] * mat2[10] + mat1[11] * mat2[14];
-            ret[11] = mat1[8] * mat2[3] + mat1[9] * mat2[7] + mat1[10] * mat2[11] + mat1[11] * mat2[15];
-
-            ret[12] = mat1[12] * mat2[0] + mat1[13] * mat2[4] + mat1[14] * mat2[8] + mat1[15] * mat2[12];
-            ret[13] = mat1[12] * mat2[1] + mat1[13] * mat2[5] + mat1[14] * mat2[9] + mat1[15] * mat2[13];
-            ret[14] = mat1[12] * mat2[2] + mat1[13] * mat2[6] + mat1[14] * mat2[10] + mat1[15] * mat2[14];
-            ret[15] = mat1[12] * mat2[3] + mat1[13] * mat2[7] + mat1[14] * mat2[11] + mat1[15] * mat2[15];
-        } else {
-            ret = new double[4];
-
-            ret[0]  = mat1[0] * mat2[0] + mat1[1] * mat2[4] + mat1[2] * mat2[8] + mat1[3] * mat2[12];
-            ret[1]  = mat1[0] * mat2[1] + mat1[1] * mat2[5] + mat1[2] * mat2[9] + mat1[3] * mat2[13];
-            ret[2]  = mat1[0] * mat2[2] + mat1[1] * mat2[6] + mat1[2] * mat2[10] + mat1[3] * mat2[14];
-            ret[3]  = mat1[0] * mat2[3] + mat1[1] * mat2[7] + mat1[2] * mat2[11] + mat1[3] * mat2[15];
-        }
-        return ret;
+    // ret must not be mat1 or mat2
+    private static void multMatrix(final double[] mat1, final double[] mat2, double[] ret) {
+        ret[0]  = mat1[0] * mat2[0] + mat1[1] * mat2[4] + mat1[2] * mat2[8] + mat1[3] * mat2[12];
+        ret[1]  = mat1[0] * mat2[1] + mat1[1] * mat2[5] + mat1[2] * mat2[9] + mat1[3] * mat2[13];
+        ret[2]  = mat1[0] * mat2[2] + mat1[1] * mat2[6] + mat1[2] * mat2[10] + mat1[3] * mat2[14];
+        ret[3]  = mat1[0] * mat2[3] + mat1[1] * mat2[7] + mat1[2] * mat2[11] + mat1[3] * mat2[15];
+
+        ret[4]  = mat1[4] * mat2[0] + mat1[5] * mat2[4] + mat1[6] * mat2[8] + mat1[7] * mat2[12];
+        ret[5]  = mat1[4] * mat2[1] + mat1[5] * mat2[5] + mat1[6] * mat2[9] + mat1[7] * mat2[13];
+        ret[6]  = mat1[4] * mat2[2] + mat1[5] * mat2[6] + mat1[6] * mat2[10] + mat1[7] * mat2[14];
+        ret[7]  = mat1[4] * mat2[3] + mat1[5] * mat2[7] + mat1[6] * mat2[11] + mat1[7] * mat2[15];
+
+        ret[8]  = mat1[8] * mat2[0] + mat1[9] * mat2[4] + mat1[10] * mat2[8] + mat1[11] * mat2[12];
+        ret[9]  = mat1[8] * mat2[1] + mat1[9] * mat2[5] + mat1[10] * mat2[9] + mat1[11] * mat2[13];
+        ret[10] = mat1[8] * mat2[2] + mat1[9] * mat2[6] + mat1[10] * mat2[10] + mat1[11] * mat2[14];
+        ret[11] = mat1[8] * mat2[3] + mat1[9] * mat2[7] + mat1[10] * mat2[11] + mat1[11] * mat2[15];
+
+        ret[12] = mat1[12] * mat2[0] + mat1[13] * mat2[4] + mat1[14] * mat2[8] + mat1[15] * mat2[12];
+        ret[13] = mat1[12] * mat2[1] + mat1[13] * mat2[5] + mat1[14] * mat2[9] + mat1[15] * mat2[13];
+        ret[14] = mat1[12] * mat2[2] + mat1[13] * mat2[6] + mat1[14] * mat2[10] + mat1[15] * mat2[14];
+        ret[15] = mat1[12] * mat2[3] + mat1[13] * mat2[7] + mat1[14] * mat2[11] + mat1[15] * mat2[15];
+    }
+
+    // multiplies a row vector by a matrix; ret must not be vec
+    private static void multVector(final double[] vec, final double[] mat, double[] ret) {
+        ret[0] = vec[0] * mat[0] + vec[1] * mat[4] + vec[2] * mat[8] + vec[3] * mat[12];
+        ret[1] = vec[0] * mat[1] + vec[1] * mat[5] + vec[2] * mat[9] + vec[3] * mat[13];
+        ret[2] = vec[0] * mat[2] + vec[1] * mat[6] + vec[2] * mat[10] + vec[3] * mat[14];
+        ret[3] = vec[0] * mat[3] + vec[1] * mat[7] + vec[2] * mat[11] + vec[3] * mat[15];
     }
 }
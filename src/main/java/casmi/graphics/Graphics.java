@@ -51,6 +51,10 @@ public class Graphics {
 
 	private double alpha = 1.0;
 
+	// sub-region of the projection for tiled rendering, normalized to 0.0-1.0
+	private boolean tiled = false;
+	private double tileLeft, tileRight, tileBottom, tileTop;
+
     public void render(Renderable r, boolean selection) {
         if (r == null) {
             return;
@@ -730,7 +734,7 @@ public class Graphics {
 	public void setPerspective(double fov, double aspect, double zNear, double zFar) {
 		matrixMode(MatrixMode.PROJECTION);
 		resetMatrix();
-		glu.gluPerspective(fov, aspect, zNear, zFar);
+		perspective(fov, aspect, zNear, zFar);
 		matrixMode(MatrixMode.MODELVIEW);
 		resetMatrix();
 	}
@@ -746,7 +750,7 @@ public class Graphics {
 		double cameraZ = ((height / 2.0) / Math.tan(Math.PI * 60.0 / 360.0));
 		matrixMode(MatrixMode.PROJECTION);
 		resetMatrix();
-		glu.gluPerspective(Math.PI / 3.0, this.width
+		perspective(Math.PI / 3.0, this.width
 				/ this.height, cameraZ / 10.0, cameraZ * 10.0);
 		matrixMode(MatrixMode.MODELVIEW);
 		resetMatrix();
@@ -781,7 +785,7 @@ public class Graphics {
 			double near, double far) {
 		matrixMode(MatrixMode.PROJECTION);
 		resetMatrix();
-		gl.glOrtho(left, right, bottom, top, near, far);
+		ortho(left, right, bottom, top, near, far);
 		matrixMode(MatrixMode.MODELVIEW);
 		resetMatrix();
 	}
@@ -797,7 +801,7 @@ public class Graphics {
 	public void setOrtho() {
 		matrixMode(MatrixMode.PROJECTION);
 		resetMatrix();
-		gl.glOrtho(0, this.width, 0, this.height, -1.0e10, 1.0e10);
+		ortho(0, this.width, 0, this.height, -1.0e10, 1.0e10);
 		matrixMode(MatrixMode.MODELVIEW);
 		resetMatrix();
 	}
@@ -827,7 +831,7 @@ public class Graphics {
 			double near, double far) {
 		matrixMode(MatrixMode.PROJECTION);
 		resetMatrix();
-		gl.glFrustum(left, right, bottom, top, near, far);
+		frustum(left, right, bottom, top, near, far);
 		matrixMode(MatrixMode.MODELVIEW);
 		resetMatrix();
 	}
@@ -840,7 +844,7 @@ public class Graphics {
 	public void setFrustum() {
 		matrixMode(MatrixMode.PROJECTION);
 		resetMatrix();
-		gl.glFrustum(0, this.width, 0, this.height, -1.0e10, 1.0e10);
+		frustum(0, this.width, 0, this.height, -1.0e10, 1.0e10);
 		matrixMode(MatrixMode.MODELVIEW);
 		resetMatrix();
 	}
@@ -850,6 +854,72 @@ public class Graphics {
 		}
 
 	/**
+	 * Restricts the following projections to a sub-region of the view volume.
+	 * The region is normalized to 0.0-1.0 with the origin at the lower left.
+	 * Used for tiled rendering of images larger than the viewport.
+	 *
+	 * @param left
+	 *             left edge of the tile
+	 * @param bottom
+	 *             bottom edge of the tile
+	 * @param right
+	 *             right edge of the tile
+	 * @param top
+	 *             top edge of the tile
+	 */
+	public void setTile(double left, double bottom, double right, double top) {
+	    this.tiled      = true;
+	    this.tileLeft   = left;
+	    this.tileBottom = bottom;
+	    this.tileRight  = right;
+	    this.tileTop    = top;
+	}
+
+	/**
+	 * Removes the sub-region set by setTile().
+	 */
+	public void clearTile() {
+	    this.tiled = false;
+	}
+
+	public boolean isTiled() {
+	    return tiled;
+	}
+
+	private void perspective(double fov, double aspect, double zNear, double zFar) {
+	    if (tiled) {
+	        // same volume as gluPerspective, which takes fov in degrees
+	        double top   = zNear * Math.tan(fov * Math.PI / 360.0);
+	        double right = top * aspect;
+	        frustum(-right, right, -top, top, zNear, zFar);
+	    } else {
+	        glu.gluPerspective(fov, aspect, zNear, zFar);
+	    }
+	}
+
+	private void frustum(double left, double right, double bottom, double top, double near, double far) {
+	    if (tiled) {
+	        double w = right - left;
+	        double h = top - bottom;
+	        gl.glFrustum(left + w * tileLeft, left + w * tileRight,
+	                     bottom + h * tileBottom, bottom + h * tileTop, near, far);
+	    } else {
+	        gl.glFrustum(left, right, bottom, top, near, far);
+	    }
+	}
+
+	private void ortho(double left, double right, double bottom, double top, double near, double far) {
+	    if (tiled) {
+	        double w = right - left;
+	        double h = top - bottom;
+	        gl.glOrtho(left + w * tileLeft, left + w * tileRight,
+	                   bottom + h * tileBottom, bottom + h * tileTop, near, far);
+	    } else {
+	        gl.glOrtho(left, right, bottom, top, near, far);
+	    }
+	}
+
+	/**
 	 * Sets the position of the camera through setting the eye position, the
 	 * center of the scene, and which axis is facing upward. Moving the eye
 	 * position and the direction it is pointing (the center of the scene)
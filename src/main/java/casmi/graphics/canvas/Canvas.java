@@ -1,8 +1,14 @@
 package casmi.graphics.canvas;
 
 import java.nio.DoubleBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import casmi.MouseEvent;
@@ -15,17 +21,55 @@ import casmi.graphics.object.Resettable;
 
 /**
  * Graphics Object
+ * <p>
+ * Adding, removing and reordering elements and lights can be done from any
+ * thread. The changes are queued and applied together at the beginning of
+ * the next frame, so they never contend with rendering. Call
+ * {@link #applyCommands()} to apply them immediately; {@link #get(int)} and
+ * {@link #getSize()} also apply them, so they include the changes made
+ * before. Applying builds a new element list and publishes it when done, so
+ * none of these calls waits for a frame being rendered.
  *
  * @author Y. Ban
  * @author Takashi AOKI <federkasten@me.com>
  */
 public class Canvas {
 
-    protected List<Element> elementList;
+    /** The applied elements. Never modified once published; replaced as a whole. */
+    protected volatile List<Element> elementList;
+    private final Set<Element> elementSet;
 
     protected List<Light> lights;
-    protected Camera camera;
-    protected Projection projection;
+
+    private enum CommandType {
+        ADD,
+        ADD_AT,
+        REMOVE,
+        MOVE,
+        REPLACE,
+        CLEAR,
+        ADD_LIGHT,
+        ADD_LIGHT_AT,
+        REMOVE_LIGHT,
+        CLEAR_LIGHTS
+    }
+
+    private static final class Command {
+        final CommandType type;
+        final Object target;
+        final int index;
+
+        Command(CommandType type, Object target, int index) {
+            this.type   = type;
+            this.target = target;
+            this.index  = index;
+        }
+    }
+
+    private final Queue<Command> commands = new ConcurrentLinkedQueue<Command>();
+    private final Object applyLock = new Object();
+    protected volatile Camera camera;
+    protected volatile Projection projection;
 
     protected enum ObjectMatrixMode {
         APPLY,
@@ -42,45 +86,61 @@ public class Canvas {
 	private double x = 0.0, y = 0.0, z = 0.0;
 
 	public Canvas() {
-		elementList = new CopyOnWriteArrayList<Element>();
+		elementList = new ArrayList<Element>();
+		elementSet = Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>());
 		lights = new CopyOnWriteArrayList<Light>();
 		camera = null;
 		projection = null;
 	}
 
+	/**
+	 * Adds an element to the end. An element already in the canvas is ignored.
+	 */
 	public void add(Element e) {
-	    if( !this.elementList.contains(e) ) {
-	        this.elementList.add(e);
-	    }
+	    commands.add(new Command(CommandType.ADD, e, -1));
 	}
 
-	public synchronized void replace(Collection<? extends Element> elements) {
-	    this.elementList.clear();
-	    this.elementList.addAll(elements);
+	/**
+	 * Replaces all elements. Duplicated elements are added only once.
+	 */
+	public void replace(Collection<? extends Element> elements) {
+	    commands.add(new Command(CommandType.REPLACE, new ArrayList<Element>(elements), -1));
 	}
 
-	public synchronized void addLight(Light l) {
-		l.setIndex(lights.size());
-		this.lights.add(l);
+	public void addLight(Light l) {
+	    commands.add(new Command(CommandType.ADD_LIGHT, l, -1));
 	}
 
-	public synchronized void setCamera(Camera c) {
+	public void setCamera(Camera c) {
 		this.camera = c;
 	}
 
-	public synchronized void setProjection(Projection p) {
+	public void setProjection(Projection p) {
 		this.projection = p;
 	}
 
-	public synchronized void remove(Element e) {
-		elementList.remove(e);
+	public void remove(Element e) {
+	    commands.add(new Command(CommandType.REMOVE, e, -1));
+	}
+
+	public void removeLight(Light l) {
+	    commands.add(new Command(CommandType.REMOVE_LIGHT, l, -1));
 	}
 
-	public synchronized void removeLight(Light l) {
-		lights.remove(l);
+	/**
+	 * Moves an element already in the canvas to the given index, which
+	 * changes the drawing order.
+	 */
+	public void move(Element e, int index) {
+	    commands.add(new Command(CommandType.MOVE, e, index));
 	}
 
+	/**
+	 * Returns the element at the index. Queued changes are applied first, so
+	 * that an element is found right after it is added.
+	 */
 	public Element get(int index) {
+	    applyCommands();
 		return elementList.get(index);
 	}
 
@@ -92,20 +152,145 @@ public class Canvas {
 		return this.projection;
 	}
 
-	public synchronized void add(int index, Element r) {
-		elementList.add(index, r);
+	/**
+	 * Inserts an element at the given index. An element already in the canvas
+	 * is ignored; use {@link #move(Element, int)} to reorder it.
+	 */
+	public void add(int index, Element r) {
+	    commands.add(new Command(CommandType.ADD_AT, r, index));
+	}
+
+	public void addLight(int index, Light r) {
+	    commands.add(new Command(CommandType.ADD_LIGHT_AT, r, index));
 	}
 
-	public synchronized void addLight(int index, Light r) {
-		lights.add(index, r);
+	public void clear() {
+	    commands.add(new Command(CommandType.CLEAR, null, -1));
 	}
 
-	public synchronized void clear() {
-		elementList.clear();
+	public void clearLight() {
+	    commands.add(new Command(CommandType.CLEAR_LIGHTS, null, -1));
 	}
 
-	public synchronized void clearLight() {
-		lights.clear();
+	/**
+	 * Applies the queued changes of elements and lights in the order they
+	 * were made. Called by the rendering thread before each frame.
+	 * <p>
+	 * The changes are made on a copy of the element list, which replaces the
+	 * current one at the end, so a frame being rendered keeps iterating the
+	 * old list.
+	 */
+	public void applyCommands() {
+	    // taken even with an empty queue, so that a change being applied by
+	    // another thread is published before this returns
+	    synchronized (applyLock) {
+	        if (commands.isEmpty()) {
+	            return;
+	        }
+
+	        List<Element> list = new ArrayList<Element>(elementList);
+	        Set<Element> removals = null;
+
+	        Command c;
+	        while ((c = commands.poll()) != null) {
+	            // consecutive removals are done in a single pass
+	            if (c.type == CommandType.REMOVE) {
+	                if (elementSet.contains(c.target)) {
+	                    if (removals == null) {
+	                        removals = Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>());
+	                    }
+	                    removals.add((Element)c.target);
+	                }
+	                continue;
+	            }
+
+	            if (removals != null && !removals.isEmpty()) {
+	                removeElements(list, removals);
+	                removals.clear();
+	            }
+
+	            applyCommand(list, c);
+	        }
+
+	        if (removals != null && !removals.isEmpty()) {
+	            removeElements(list, removals);
+	        }
+
+	        elementList = list;
+	    }
+	}
+
+	@SuppressWarnings("unchecked")
+	private void applyCommand(List<Element> list, Command c) {
+	    switch (c.type) {
+	    case ADD:
+	        if (elementSet.add((Element)c.target)) {
+	            list.add((Element)c.target);
+	        }
+	        break;
+	    case ADD_AT:
+	        if (elementSet.add((Element)c.target)) {
+	            list.add(clampIndex(c.index, list.size()), (Element)c.target);
+	        }
+	        break;
+	    case MOVE:
+	        if (elementSet.contains(c.target)) {
+	            list.remove(c.target);
+	            list.add(clampIndex(c.index, list.size()), (Element)c.target);
+	        }
+	        break;
+	    case REPLACE:
+	        list.clear();
+	        elementSet.clear();
+	        for (Element e : (List<Element>)c.target) {
+	            if (elementSet.add(e)) {
+	                list.add(e);
+	            }
+	        }
+	        break;
+	    case CLEAR:
+	        list.clear();
+	        elementSet.clear();
+	        break;
+	    case ADD_LIGHT:
+	        ((Light)c.target).setIndex(lights.size());
+	        lights.add((Light)c.target);
+	        break;
+	    case ADD_LIGHT_AT:
+	        lights.add(clampIndex(c.index, lights.size()), (Light)c.target);
+	        break;
+	    case REMOVE_LIGHT:
+	        lights.remove(c.target);
+	        break;
+	    case CLEAR_LIGHTS:
+	        lights.clear();
+	        break;
+	    default:
+	        break;
+	    }
+	}
+
+	private void removeElements(List<Element> list, Set<Element> removals) {
+	    int j = 0;
+	    for (int i = 0; i < list.size(); i++) {
+	        Element e = list.get(i);
+	        if (!removals.contains(e)) {
+	            list.set(j++, e);
+	        }
+	    }
+	    list.subList(j, list.size()).clear();
+	    elementSet.removeAll(removals);
+	}
+
+	private static int clampIndex(int index, int size) {
+	    return Math.max(0, Math.min(index, size));
+	}
+
+	/**
+	 * Returns true if there are changes which are not applied yet.
+	 */
+	public boolean hasPendingCommands() {
+	    return !commands.isEmpty();
 	}
 
 	public synchronized void applyMatrix(double[] matrix) {
@@ -260,7 +445,12 @@ public class Canvas {
 		}
 	}
 
+	/**
+	 * Returns the number of elements, including those added by queued
+	 * changes, which are applied first.
+	 */
 	public int getSize() {
+	    applyCommands();
 		return elementList.size();
 	}
 
@@ -281,6 +471,21 @@ public class Canvas {
 //		this.resetObject = resetObject;
 //	}
 
+	/**
+	 * Takes snapshots of the transform and colors of all elements.
+	 */
+	protected synchronized void takeSnapshots() {
+	    for (Element e : elementList) {
+	        e.takeSnapshot();
+	    }
+	}
+
+	protected synchronized void clearSnapshots() {
+	    for (Element e : elementList) {
+	        e.clearSnapshot();
+	    }
+	}
+
 	protected synchronized void resetObjects(Graphics g) {
 		for (Element e : elementList) {
 		    if (e instanceof Resettable) {
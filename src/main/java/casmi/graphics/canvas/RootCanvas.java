@@ -24,6 +24,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.media.opengl.GL2;
 
@@ -49,10 +50,16 @@ public class RootCanvas extends Canvas {
 
     protected int SELECTION_BUFFER_SIZE = 1024*1024;
 
-    private List<Canvas> canvases = new CopyOnWriteArrayList<Canvas>();
+    private volatile List<Canvas> canvases = new CopyOnWriteArrayList<Canvas>();
 
     protected List<Tweener> tweeners = new CopyOnWriteArrayList<Tweener>();
 
+    // held while updating and while taking snapshots; the renderer only
+    // tries it, so it never waits for an update
+    private final ReentrantLock stateLock = new ReentrantLock();
+    private volatile boolean doubleBuffered = false;
+    private boolean snapshotTaken = false;
+
     public RootCanvas() {
         super();
 
@@ -75,9 +82,55 @@ public class RootCanvas extends Canvas {
         }
     }
 
-    public synchronized void render(Graphics g, double mouseX, double mouseY) {
-        animate();
+    public void render(Graphics g, double mouseX, double mouseY) {
+        prepareFrame();
+
+        synchronized (this) {
+            renderWithSelection(g, mouseX, mouseY);
+        }
+    }
+
+    /**
+     * Applies the queued changes and animates Tweeners. In the double-buffered
+     * mode, this also takes the snapshots, unless an update is running; then
+     * the previous snapshots are drawn again and Tweeners are animated in the
+     * next frame. Called by the rendering thread without holding the monitor,
+     * so update code may call any method of the canvases meanwhile.
+     */
+    void prepareFrame() {
+        applyCommands();
+        for (Canvas c : canvases) {
+            c.applyCommands();
+        }
 
+        if (doubleBuffered) {
+            if (stateLock.tryLock()) {
+                try {
+                    animate();
+
+                    takeSnapshots();
+                    for (Canvas c : canvases) {
+                        c.takeSnapshots();
+                    }
+                    snapshotTaken = true;
+                } finally {
+                    stateLock.unlock();
+                }
+            }
+        } else {
+            if (snapshotTaken) {
+                clearSnapshots();
+                for (Canvas c : canvases) {
+                    c.clearSnapshots();
+                }
+                snapshotTaken = false;
+            }
+
+            animate();
+        }
+    }
+
+    private void renderWithSelection(Graphics g, double mouseX, double mouseY) {
         // render
 
 //        if (removeObject) {
@@ -88,14 +141,7 @@ public class RootCanvas extends Canvas {
 //            removeObject = false;
 //        }
 
-        if (background != null) background.render(g);
-        g.clear();
-
-        renderAll(g);
-
-        for (Canvas c : canvases) {
-            c.renderAll(g);
-        }
+        renderScene(g);
 
         // render for selection
 
@@ -141,6 +187,49 @@ public class RootCanvas extends Canvas {
         }
     }
 
+    /**
+     * Draws the background and all canvases without animating Tweeners and
+     * without processing mouse selection.
+     */
+    public synchronized void renderScene(Graphics g) {
+        if (background != null) background.render(g);
+        g.clear();
+
+        renderAll(g);
+
+        for (Canvas c : canvases) {
+            c.renderAll(g);
+        }
+    }
+
+    /**
+     * Enables or disables the double-buffered mode. In this mode, the
+     * transform and colors of elements are copied at the beginning of each
+     * frame and the renderer only reads the copies, so update code can
+     * modify elements while the frame is rendered. Update code must be
+     * surrounded by beginUpdate() and endUpdate(); a frame which begins
+     * during an update draws the previous copies instead of waiting.
+     */
+    public void setDoubleBuffered(boolean doubleBuffered) {
+        this.doubleBuffered = doubleBuffered;
+    }
+
+    public boolean isDoubleBuffered() {
+        return doubleBuffered;
+    }
+
+    /**
+     * Marks the beginning of modifications of elements. Snapshots are not
+     * taken until endUpdate() is called.
+     */
+    public void beginUpdate() {
+        stateLock.lock();
+    }
+
+    public void endUpdate() {
+        stateLock.unlock();
+    }
+
     public synchronized void reset(Graphics g) {
         resetObjects(g);
 
@@ -157,20 +246,20 @@ public class RootCanvas extends Canvas {
         }
     }
 
-    public synchronized void addCanvas(Canvas c) {
+    public void addCanvas(Canvas c) {
         canvases.add(c);
     }
 
-    public synchronized void removeCanvas(Canvas c) {
+    public void removeCanvas(Canvas c) {
         canvases.remove(c);
     }
 
-    public synchronized void replaceCanvases(Collection<? extends Canvas> c) {
-        canvases.clear();
-        canvases.addAll(c);
+    public void replaceCanvases(Collection<? extends Canvas> c) {
+        // swapped at once, so a frame never sees the canvases half replaced
+        canvases = new CopyOnWriteArrayList<Canvas>(c);
     }
 
-    public synchronized void clearCanvases() {
+    public void clearCanvases() {
         canvases.clear();
     }
 
@@ -182,15 +271,15 @@ public class RootCanvas extends Canvas {
         }
     }
 
-    public synchronized void addTweener(Tweener t) {
+    public void addTweener(Tweener t) {
         tweeners.add(t);
     }
 
-    public synchronized void removeTweener(Tweener t) {
+    public void removeTweener(Tweener t) {
         tweeners.remove(t);
     }
 
-    public synchronized void removeAllTweeners() {
+    public void removeAllTweeners() {
         tweeners.clear();
     }
 }
@@ -235,7 +235,7 @@ public class Arc extends Element {
             precision = 5.0;
         }
 
-        if (this.fillColor.getAlpha() < 1.0 || this.strokeColor.getAlpha() < 1.0
+        if (getSceneFillColor().getAlpha() < 1.0 || getSceneStrokeColor().getAlpha() < 1.0
             || this.isDepthTest() == false) {
             gl.glDisable(GL2.GL_DEPTH_TEST);
         }
@@ -286,7 +286,7 @@ public class Arc extends Element {
 
         gl.glPopMatrix();
 
-        if (this.fillColor.getAlpha() < 1.0 || this.strokeColor.getAlpha() < 1.0
+        if (getSceneFillColor().getAlpha() < 1.0 || getSceneStrokeColor().getAlpha() < 1.0
             || this.isDepthTest() == false) {
             gl.glEnable(GL2.GL_DEPTH_TEST);
         }
@@ -182,7 +182,7 @@ public class Bezier extends Element {
 
     @Override
     public void render(GL2 gl, GLU glu, int width, int height, boolean selection) {
-        if (this.fillColor.getAlpha() < 0.001 || this.strokeColor.getAlpha() < 0.001
+        if (getSceneFillColor().getAlpha() < 0.001 || getSceneStrokeColor().getAlpha() < 0.001
             || this.isDepthTest() == false) {
             gl.glDisable(GL2.GL_DEPTH_TEST);
         }
@@ -246,7 +246,7 @@ public class Bezier extends Element {
         }
         gl.glPopMatrix();
 
-        if (this.fillColor.getAlpha() < 0.001 || this.strokeColor.getAlpha() < 0.001
+        if (getSceneFillColor().getAlpha() < 0.001 || getSceneStrokeColor().getAlpha() < 0.001
             || this.isDepthTest() == false) {
             gl.glEnable(GL2.GL_DEPTH_TEST);
         }
@@ -37,6 +37,8 @@ public class Cone extends Element {
     private int slices = 30;
     private int stacks = 30;
 
+    private final LevelOfDetail detail = new LevelOfDetail();
+
     /**
      * Creates a new Cone object using base size and height.
      *
@@ -125,15 +127,22 @@ public class Cone extends Element {
             gl.glEnable(GL2.GL_POLYGON_OFFSET_FILL);
             gl.glPolygonOffset(1f, 1f);
 
+            double h = getHeight();
+            // the pick matrix of the selection pass would distort the projected size
+            int level = selection ? detail.getLevel()
+                                  : detail.update(gl, 0.0, h / 2.0, 0.0, Math.sqrt(base * base + h * h / 4.0), slices);
+            int s = LevelOfDetail.segments(slices, level, 6);
+            int t = LevelOfDetail.segments(stacks, level, 1);
+
             gl.glPushMatrix();
             {
                 gl.glRotated(90.0, -1.0, 0.0, 0.0);
                 if (this.fill) {
                     getSceneFillColor().setup(gl);
-                    drawSolidCone(glu, base, getHeight(), slices, stacks);
+                    drawSolidCone(glu, base, h, s, t);
                 } else if (this.stroke) {
                     getSceneStrokeColor().setup(gl);
-                    drawWireCone(glu, base, getHeight(), slices, stacks);
+                    drawWireCone(glu, base, h, s, t);
                 }
             }
             gl.glPopMatrix();
@@ -245,6 +254,14 @@ public class Cone extends Element {
         return this.stacks;
     }
 
+    /**
+     * Returns the automatic level of detail, which reduces the slices and
+     * stacks when the Cone is small on the screen.
+     */
+    public LevelOfDetail getLevelOfDetail() {
+        return detail;
+    }
+
     @Override
     public void reset(GL2 gl) {
         // TODO Auto-generated method stub
@@ -40,6 +40,8 @@ public class Cylinder extends Element {
     private int slices = 30;
     private int stacks = 30;
 
+    private final LevelOfDetail detail = new LevelOfDetail();
+
     /**
      * Creates a new Cylinder object using radius and height.
      *
@@ -113,7 +115,7 @@ public class Cylinder extends Element {
     @Override
     public void render(GL2 gl, GLU glu, int width, int height, boolean selection) {
 
-        if (this.fillColor.getAlpha() < 0.001 || this.strokeColor.getAlpha() < 0.001 || !this.isDepthTest()) {
+        if (getSceneFillColor().getAlpha() < 0.001 || getSceneStrokeColor().getAlpha() < 0.001 || !this.isDepthTest()) {
             gl.glDisable(GL2.GL_DEPTH_TEST);
         }
 
@@ -122,19 +124,26 @@ public class Cylinder extends Element {
 
         gl.glTranslated(x, y, z);
 
+        double h = getHeight();
+        // the pick matrix of the selection pass would distort the projected size
+        int level = selection ? detail.getLevel()
+                              : detail.update(gl, 0.0, 0.0, h / 2.0, Math.sqrt(radius * radius + h * h / 4.0), slices);
+        int s = LevelOfDetail.segments(slices, level, 6);
+        int t = LevelOfDetail.segments(stacks, level, 1);
+
         if (this.fill) {
             getSceneFillColor().setup(gl);
-            drawSolidCylinder(gl, glu, radius, getHeight(), slices, stacks);
+            drawSolidCylinder(gl, glu, radius, h, s, t);
         }
 
         if (this.stroke) {
             getSceneStrokeColor().setup(gl);
-            drawWireCylinder(glu, radius, getHeight(), slices, stacks);
+            drawWireCylinder(glu, radius, h, s, t);
         }
 
         gl.glPopMatrix();
 
-        if (this.fillColor.getAlpha() < 0.001 || this.strokeColor.getAlpha() < 0.001 || !this.isDepthTest()) {
+        if (getSceneFillColor().getAlpha() < 0.001 || getSceneStrokeColor().getAlpha() < 0.001 || !this.isDepthTest()) {
             gl.glEnable(GL2.GL_DEPTH_TEST);
         }
     }
@@ -250,6 +259,14 @@ public class Cylinder extends Element {
         this.stacks = stacks;
     }
 
+    /**
+     * Returns the automatic level of detail, which reduces the slices and
+     * stacks when the Cylinder is small on the screen.
+     */
+    public LevelOfDetail getLevelOfDetail() {
+        return detail;
+    }
+
     @Override
     public void reset(GL2 gl) {}
 }
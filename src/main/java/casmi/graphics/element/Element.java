@@ -37,6 +37,9 @@ import casmi.graphics.color.RGBColor;
 import casmi.graphics.material.Material;
 import casmi.graphics.object.Renderable;
 import casmi.graphics.object.Resettable;
+import casmi.matrix.Matrix3D;
+import casmi.matrix.Quaternion;
+import casmi.matrix.ScratchPool;
 import casmi.matrix.Vector3D;
 
 /**
@@ -72,6 +75,10 @@ abstract public class Element implements Cloneable, Renderable, Resettable {
 
 	protected double rotate = 0.0;
 
+	// if not null, used instead of rotateX, rotateY and rotate
+	protected Quaternion orientation = null;
+	private double[] orientationMatrix = null;
+
 	protected Color strokeColor      = new RGBColor(strokeRed, strokeGreen, strokeBlue, 1.0);
 	protected Color fillColor        = new RGBColor(fillRed, fillGreen, fillBlue, 1.0);
 	protected Color sceneStrokeColor = new RGBColor(strokeRed, strokeGreen, strokeBlue, 1.0 * sceneA);
@@ -97,6 +104,16 @@ abstract public class Element implements Cloneable, Renderable, Resettable {
 	protected boolean reset = false;
 	protected boolean init = true;
 
+	// transform and colors read by the renderer in the double-buffered mode
+	private Snapshot snapshot = null;
+
+	// cached transforms used while this element belongs to a Group
+	private Group parent = null;
+	private Matrix3D localMatrix = null;
+	private Matrix3D worldMatrix = null;
+	private double[] localParams = null;
+	private double[] glWorldMatrix = null;
+
 	/**
 	 * Returns the width of this Element's stroke.
 	 *
@@ -274,6 +291,9 @@ abstract public class Element implements Cloneable, Renderable, Resettable {
 	}
 
 	public Color getSceneStrokeColor() {
+	    if (snapshot != null) {
+	        return snapshot.strokeColor;
+	    }
 //		sceneStrokeColor = strokeColor.clone();
 //		if (tween) {
 //			sceneStrokeColor.setAlpha(this.strokeAlpha * sceneA);
@@ -285,6 +305,9 @@ abstract public class Element implements Cloneable, Renderable, Resettable {
 	}
 
 	public Color getSceneFillColor() {
+	    if (snapshot != null) {
+	        return snapshot.fillColor;
+	    }
 //	    sceneFillColor = fillColor.clone();
 //		if (tween) {
 //			sceneFillColor.setAlpha(this.fillAlpha * sceneA);
@@ -325,11 +348,60 @@ abstract public class Element implements Cloneable, Renderable, Resettable {
 //	}
 
 	protected void move(GL2 gl) {
+	    if (parent != null && glWorldMatrix != null) {
+	        gl.glMultMatrixd(glWorldMatrix, 0);
+	        return;
+	    }
+
+	    if (snapshot != null) {
+	        Snapshot s = snapshot;
+	        applyTransform(gl, s.x, s.y, s.z, s.scaleX, s.scaleY, s.scaleZ,
+	                       s.rotate, s.rotateX, s.rotateY, s.hasOrientation ? s.orientation : null);
+	        return;
+	    }
+
+	    applyTransform(gl, x, y, z, scaleX, scaleY, scaleZ, rotate, rotateX, rotateY, orientation);
+	}
+
+	private void applyTransform(GL2 gl, double x, double y, double z,
+	                            double scaleX, double scaleY, double scaleZ,
+	                            double rotate, double rotateX, double rotateY, Quaternion q) {
 	    gl.glTranslated(x, y, z);
 	    gl.glScaled(scaleX, scaleY, scaleZ);
-	    gl.glRotated(rotate,  0.0, 0.0, 1.0);
-	    gl.glRotated(rotateX, 1.0, 0.0, 0.0);
-	    gl.glRotated(rotateY, 0.0, 1.0, 0.0);
+
+	    if (q != null) {
+	        orientationMatrix = q.getColumnMajor(orientationMatrix);
+	        gl.glMultMatrixd(orientationMatrix, 0);
+	    } else {
+	        gl.glRotated(rotate,  0.0, 0.0, 1.0);
+	        gl.glRotated(rotateX, 1.0, 0.0, 0.0);
+	        gl.glRotated(rotateY, 0.0, 1.0, 0.0);
+	    }
+	}
+
+	/**
+	 * Returns the rotation as a quaternion, or null if the rotation is given
+	 * by angles.
+	 */
+	public Quaternion getOrientation() {
+	    return orientation;
+	}
+
+	/**
+	 * Sets the rotation as a quaternion. While it is set, the rotation angles
+	 * are ignored and the rotation is applied as a single matrix.
+	 *
+	 * @param q
+	 *            The rotation, which is copied, or null to use the angles again.
+	 */
+	public void setOrientation(Quaternion q) {
+	    if (q == null) {
+	        orientation = null;
+	    } else if (orientation == null) {
+	        orientation = new Quaternion(q);
+	    } else {
+	        orientation.set(q);
+	    }
 	}
 
 //	public double getStrokeAlpha() {
@@ -797,6 +869,11 @@ abstract public class Element implements Cloneable, Renderable, Resettable {
 	public Element clone() {
 		try {
 			Element r = (Element) super.clone();
+			r.snapshot = null;
+			r.orientation = orientation == null ? null : new Quaternion(orientation);
+			r.orientationMatrix = null;
+			r.parent = null;
+			r.clearTransformCache();
 			return r;
 		} catch (CloneNotSupportedException ce) {
 			ce.printStackTrace();
@@ -879,4 +956,182 @@ abstract public class Element implements Cloneable, Renderable, Resettable {
 
 	@Override
     public void reset(GL2 gl) {}
+
+    /**
+     * Copies the current transform and colors to the snapshot used for
+     * rendering. Until clearSnapshot() is called, changes made after this call
+     * are not drawn until the next snapshot is taken.
+     */
+    public void takeSnapshot() {
+        if (snapshot == null) {
+            snapshot = new Snapshot();
+        }
+        snapshot.copy(this);
+    }
+
+    /**
+     * Discards the snapshot. The current values are drawn again.
+     */
+    public void clearSnapshot() {
+        snapshot = null;
+    }
+
+    public boolean hasSnapshot() {
+        return snapshot != null;
+    }
+
+    /**
+     * Returns the Group which contains this Element, or null.
+     */
+    public Group getParent() {
+        return parent;
+    }
+
+    void setParent(Group parent) {
+        this.parent = parent;
+        clearTransformCache();
+    }
+
+    /**
+     * Returns a copy of the cached world matrix relative to the outermost
+     * Group, or null if this Element is not in a Group or not rendered yet.
+     */
+    public Matrix3D getWorldMatrix() {
+        return worldMatrix == null ? null : worldMatrix.get();
+    }
+
+    void clearTransformCache() {
+        localMatrix = null;
+        worldMatrix = null;
+        localParams = null;
+        glWorldMatrix = null;
+    }
+
+    /**
+     * Updates the cached world matrix if the transform of this Element or of
+     * its parent has changed.
+     *
+     * @return true if the world matrix was recomputed.
+     */
+    boolean updateWorldMatrix(Matrix3D parentWorld, boolean parentChanged) {
+        boolean changed = updateLocalMatrix() | parentChanged;
+
+        if (changed || worldMatrix == null) {
+            if (worldMatrix == null) {
+                worldMatrix = new Matrix3D();
+                glWorldMatrix = new double[16];
+            }
+
+            if (parentWorld == null) {
+                worldMatrix.set(localMatrix);
+            } else {
+                worldMatrix.set(parentWorld);
+                worldMatrix.apply(localMatrix);
+            }
+
+            worldMatrix.getColumnMajor(glWorldMatrix);
+            return true;
+        }
+
+        return false;
+    }
+
+    Matrix3D getCachedWorldMatrix() {
+        return worldMatrix;
+    }
+
+    // rebuilds the local matrix only if position, rotation or scale changed
+    private boolean updateLocalMatrix() {
+        Snapshot s = snapshot;
+        double tx = s != null ? s.x : x;
+        double ty = s != null ? s.y : y;
+        double tz = s != null ? s.z : z;
+        double rz = s != null ? s.rotate  : rotate;
+        double rx = s != null ? s.rotateX : rotateX;
+        double ry = s != null ? s.rotateY : rotateY;
+        double sx = s != null ? s.scaleX : scaleX;
+        double sy = s != null ? s.scaleY : scaleY;
+        double sz = s != null ? s.scaleZ : scaleZ;
+        Quaternion q = s != null ? (s.hasOrientation ? s.orientation : null) : orientation;
+        double hasQ = q != null ? 1.0 : 0.0;
+        double qx = q != null ? q.getX() : 0.0;
+        double qy = q != null ? q.getY() : 0.0;
+        double qz = q != null ? q.getZ() : 0.0;
+        double qw = q != null ? q.getW() : 0.0;
+
+        double[] p = localParams;
+        if (p != null &&
+            p[0] == tx && p[1] == ty && p[2] == tz &&
+            p[3] == rz && p[4] == rx && p[5] == ry &&
+            p[6] == sx && p[7] == sy && p[8] == sz &&
+            p[9] == hasQ && p[10] == qx && p[11] == qy && p[12] == qz && p[13] == qw) {
+            return false;
+        }
+
+        if (p == null) {
+            p = localParams = new double[14];
+            localMatrix = new Matrix3D();
+        }
+        p[0] = tx; p[1] = ty; p[2] = tz;
+        p[3] = rz; p[4] = rx; p[5] = ry;
+        p[6] = sx; p[7] = sy; p[8] = sz;
+        p[9] = hasQ; p[10] = qx; p[11] = qy; p[12] = qz; p[13] = qw;
+
+        // same order as move(GL2)
+        localMatrix.reset();
+        localMatrix.translate(tx, ty, tz);
+        localMatrix.scale(sx, sy, sz);
+        if (q != null) {
+            ScratchPool pool = ScratchPool.get();
+            pool.push();
+            try {
+                localMatrix.apply(q.toMatrix3D(pool.matrix3D()));
+            } finally {
+                pool.pop();
+            }
+        } else {
+            localMatrix.rotateZ(Math.toRadians(rz));
+            localMatrix.rotateX(Math.toRadians(rx));
+            localMatrix.rotateY(Math.toRadians(ry));
+        }
+        return true;
+    }
+
+    private static final class Snapshot {
+        double x, y, z;
+        double rotate, rotateX, rotateY;
+        double scaleX, scaleY, scaleZ;
+        boolean hasOrientation;
+        final Quaternion orientation = new Quaternion();
+        final RGBColor strokeColor = new RGBColor(0.0, 0.0, 0.0, 1.0);
+        final RGBColor fillColor   = new RGBColor(1.0, 1.0, 1.0, 1.0);
+
+        void copy(Element e) {
+            x = e.x;
+            y = e.y;
+            z = e.z;
+            rotate  = e.rotate;
+            rotateX = e.rotateX;
+            rotateY = e.rotateY;
+            scaleX = e.scaleX;
+            scaleY = e.scaleY;
+            scaleZ = e.scaleZ;
+            hasOrientation = e.orientation != null;
+            if (hasOrientation) {
+                orientation.set(e.orientation);
+            }
+            copyColor(e.strokeColor, strokeColor);
+            copyColor(e.fillColor, fillColor);
+        }
+
+        private static void copyColor(Color src, RGBColor dst) {
+            if (src == null) {
+                return;
+            }
+            dst.setRed(src.getRed());
+            dst.setGreen(src.getGreen());
+            dst.setBlue(src.getBlue());
+            dst.setAlpha(src.getAlpha());
+        }
+    }
 }
@@ -239,7 +239,7 @@ public class Ellipse extends Element {
 
     @Override
     public void render(GL2 gl, GLU glu, int width, int height, boolean selection) {
-        if (this.fillColor.getAlpha() < 0.001 || this.strokeColor.getAlpha() < 0.001 || !this.isDepthTest())
+        if (getSceneFillColor().getAlpha() < 0.001 || getSceneStrokeColor().getAlpha() < 0.001 || !this.isDepthTest())
             gl.glDisable(GL2.GL_DEPTH_TEST);
 
         gl.glPushMatrix();
@@ -292,7 +292,7 @@ public class Ellipse extends Element {
         }
         gl.glPopMatrix();
 
-        if (this.fillColor.getAlpha() < 0.001 || this.strokeColor.getAlpha() < 0.001 || !this.isDepthTest())
+        if (getSceneFillColor().getAlpha() < 0.001 || getSceneStrokeColor().getAlpha() < 0.001 || !this.isDepthTest())
             gl.glEnable(GL2.GL_DEPTH_TEST);
     }
 
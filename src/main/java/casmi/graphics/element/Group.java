@@ -0,0 +1,185 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.graphics.element;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.media.opengl.GL2;
+import javax.media.opengl.glu.GLU;
+
+import casmi.matrix.Matrix3D;
+
+/**
+ * Group class. Holds child Elements whose position, rotation and scale are
+ * relative to the Group.
+ * <p>
+ * The world matrix of each child is cached and recomputed only when the
+ * transform of the child or one of its ancestors has changed. Each child
+ * is drawn with a single matrix multiplication on top of the camera, so
+ * hierarchies can be deeper than the GL matrix stack.
+ * <p>
+ * An Element can belong to only one Group at a time. Mouse events of
+ * children are not handled.
+ *
+ * @author Xcoo Inc.
+ */
+public class Group extends Element {
+
+    private List<Element> children = new CopyOnWriteArrayList<Element>();
+
+    /**
+     * Creates a new empty Group.
+     */
+    public Group() {
+    }
+
+    /**
+     * Adds a child to this Group.
+     *
+     * @param e
+     *            The child Element.
+     *
+     * @throws IllegalArgumentException
+     *             If the Element already belongs to a Group or is this Group
+     *             or one of its ancestors.
+     */
+    public void add(Element e) {
+        if (e.getParent() != null) {
+            throw new IllegalArgumentException("The element already belongs to a group.");
+        }
+        for (Group g = this; g != null; g = g.getParent()) {
+            if (g == e) {
+                throw new IllegalArgumentException("A group cannot contain itself.");
+            }
+        }
+
+        e.setParent(this);
+        children.add(e);
+    }
+
+    /**
+     * Removes a child from this Group.
+     */
+    public void remove(Element e) {
+        if (children.remove(e)) {
+            e.setParent(null);
+        }
+    }
+
+    /**
+     * Removes all children.
+     */
+    public void clear() {
+        for (Element e : children) {
+            e.setParent(null);
+        }
+        children.clear();
+    }
+
+    /**
+     * Returns an unmodifiable view of the children.
+     */
+    public List<Element> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    public int size() {
+        return children.size();
+    }
+
+    @Override
+    public void render(GL2 gl, GLU glu, int width, int height, boolean selection) {
+        // nested Groups are drawn by the outermost one
+        if (getParent() != null) {
+            return;
+        }
+
+        updateWorldMatrix(null, false);
+        renderChildren(gl, glu, width, height, selection);
+    }
+
+    @Override
+    boolean updateWorldMatrix(Matrix3D parentWorld, boolean parentChanged) {
+        boolean changed = super.updateWorldMatrix(parentWorld, parentChanged);
+
+        Matrix3D world = getCachedWorldMatrix();
+        for (Element e : children) {
+            e.updateWorldMatrix(world, changed);
+        }
+
+        return changed;
+    }
+
+    private void renderChildren(GL2 gl, GLU glu, int width, int height, boolean selection) {
+        for (Element e : children) {
+            if (!e.isVisible()) {
+                continue;
+            }
+
+            if (e instanceof Group) {
+                ((Group)e).renderChildren(gl, glu, width, height, selection);
+            } else {
+                gl.glPushMatrix();
+                {
+                    e.render(gl, glu, width, height, selection);
+                }
+                gl.glPopMatrix();
+            }
+        }
+    }
+
+    @Override
+    public void takeSnapshot() {
+        super.takeSnapshot();
+        for (Element e : children) {
+            e.takeSnapshot();
+        }
+    }
+
+    @Override
+    public void clearSnapshot() {
+        super.clearSnapshot();
+        for (Element e : children) {
+            e.clearSnapshot();
+        }
+    }
+
+    @Override
+    public void reset(GL2 gl) {
+        for (Element e : children) {
+            e.reset(gl);
+        }
+    }
+
+    /**
+     * Returns a copy of this Group with copies of all children.
+     */
+    @Override
+    public Group clone() {
+        Group g = (Group)super.clone();
+        g.children = new CopyOnWriteArrayList<Element>();
+        for (Element e : children) {
+            g.add(e.clone());
+        }
+        return g;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.graphics.element;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+/**
+ * Chooses the tessellation of a 3D primitive from its size on the screen.
+ * <p>
+ * The bounding sphere of the primitive is projected with the current
+ * modelview and projection matrices, i.e. after the Camera, the Projection
+ * and the transforms of the element are applied. The level is the number of
+ * times the configured slices and stacks are halved; it changes only when
+ * the ideal level is more than half a level plus a margin away, so that a
+ * primitive near a boundary does not switch back and forth every frame.
+ *
+ * @author Xcoo Inc.
+ */
+public class LevelOfDetail {
+
+    // screen length of one segment of the outline at quality bias 0
+    private static final double PIXELS_PER_SEGMENT = 6.0;
+
+    // margin beyond half a level before the level changes
+    private static final double HYSTERESIS = 0.25;
+
+    private static volatile double qualityBias = 0.0;
+
+    private boolean enabled = true;
+    private int level = 0;
+    private double projectedSize = Double.POSITIVE_INFINITY;
+
+    private final double[] model = new double[16];
+    private final double[] projection = new double[16];
+    private final int[] viewport = new int[4];
+
+    /**
+     * Sets the quality bias of all primitives. Each step of +1 doubles the
+     * segments used at a given size, and each step of -1 halves them. The
+     * default is 0.
+     */
+    public static void setQualityBias(double bias) {
+        qualityBias = bias;
+    }
+
+    public static double getQualityBias() {
+        return qualityBias;
+    }
+
+    /**
+     * Enables or disables automatic detail. When disabled, the configured
+     * slices and stacks are always used.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            level = 0;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the current level; 0 is the full detail.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns the projected diameter of the bounding sphere in pixels at
+     * the last frame.
+     */
+    public double getProjectedSize() {
+        return projectedSize;
+    }
+
+    /**
+     * Updates the level from the bounding sphere in the current model
+     * coordinates.
+     *
+     * @param maxSegments
+     *            The segments of the outline at the full detail.
+     *
+     * @return The new level.
+     */
+    int update(GL2 gl, double cx, double cy, double cz, double radius, int maxSegments) {
+        if (!enabled || maxSegments <= 1) {
+            level = 0;
+            return level;
+        }
+
+        gl.glGetDoublev(GL2.GL_MODELVIEW_MATRIX, model, 0);
+        gl.glGetDoublev(GL2.GL_PROJECTION_MATRIX, projection, 0);
+        gl.glGetIntegerv(GL.GL_VIEWPORT, viewport, 0);
+
+        return update(model, projection, viewport[3], cx, cy, cz, radius, maxSegments);
+    }
+
+    /**
+     * Updates the level from the bounding sphere with column-major matrices
+     * as returned by glGetDoublev.
+     *
+     * @param viewportHeight
+     *            The height of the viewport in pixels.
+     */
+    int update(double[] model, double[] projection, int viewportHeight,
+               double cx, double cy, double cz, double radius, int maxSegments) {
+        if (!enabled || maxSegments <= 1) {
+            level = 0;
+            return level;
+        }
+
+        double ex = model[0] * cx + model[4] * cy + model[8]  * cz + model[12];
+        double ey = model[1] * cx + model[5] * cy + model[9]  * cz + model[13];
+        double ez = model[2] * cx + model[6] * cy + model[10] * cz + model[14];
+
+        // the largest scale of the transforms
+        double scale = Math.max(length(model[0], model[1], model[2]),
+                       Math.max(length(model[4], model[5], model[6]), length(model[8], model[9], model[10])));
+        double eyeRadius = Math.abs(radius) * scale;
+
+        // w of the center in clip coordinates: -z for perspective, 1 for ortho
+        double w = projection[3] * ex + projection[7] * ey + projection[11] * ez + projection[15];
+
+        double pixelRadius;
+        if (ex * ex + ey * ey + ez * ez <= eyeRadius * eyeRadius) {
+            // the camera is inside
+            pixelRadius = Double.POSITIVE_INFINITY;
+        } else if (w <= 0.0) {
+            // behind the camera
+            pixelRadius = 0.0;
+        } else {
+            pixelRadius = eyeRadius * Math.abs(projection[5]) * viewportHeight * 0.5 / w;
+        }
+        projectedSize = 2.0 * pixelRadius;
+
+        int maxLevel = 31 - Integer.numberOfLeadingZeros(maxSegments);
+        double desired = 2.0 * Math.PI * pixelRadius / PIXELS_PER_SEGMENT * Math.pow(2.0, qualityBias);
+        double ideal;
+        if (desired >= maxSegments) {
+            ideal = 0.0;
+        } else if (desired <= 1.0) {
+            ideal = maxLevel;
+        } else {
+            ideal = Math.min(maxLevel, Math.log(maxSegments / desired) / Math.log(2.0));
+        }
+
+        if (Math.abs(ideal - level) > 0.5 + HYSTERESIS || level > maxLevel) {
+            level = Math.min(maxLevel, (int) Math.round(ideal));
+        }
+        return level;
+    }
+
+    /**
+     * Returns the segments at the level, halving the full detail but not
+     * below the minimum.
+     */
+    static int segments(int full, int level, int min) {
+        return Math.max(Math.min(full, min), full >> level);
+    }
+
+    private static double length(double x, double y, double z) {
+        return Math.sqrt(x * x + y * y + z * z);
+    }
+}
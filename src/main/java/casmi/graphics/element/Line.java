@@ -452,7 +452,7 @@ public class Line extends Element {
 
     @Override
     public void render(GL2 gl, GLU glu, int width, int height, boolean selection) {
-        if (this.fillColor.getAlpha() < 0.001 || this.strokeColor.getAlpha() < 0.001
+        if (getSceneFillColor().getAlpha() < 0.001 || getSceneStrokeColor().getAlpha() < 0.001
             || this.isDepthTest() == false) {
             gl.glDisable(GL2.GL_DEPTH_TEST);
         }
@@ -473,7 +473,7 @@ public class Line extends Element {
         }
         gl.glPopMatrix();
 
-        if (this.fillColor.getAlpha() < 0.001 || this.strokeColor.getAlpha() < 0.001
+        if (getSceneFillColor().getAlpha() < 0.001 || getSceneStrokeColor().getAlpha() < 0.001
             || this.isDepthTest() == false) {
             gl.glEnable(GL2.GL_DEPTH_TEST);
         }
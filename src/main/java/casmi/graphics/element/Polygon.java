@@ -166,7 +166,7 @@ public class Polygon extends Element {
 
     @Override
     public void render(GL2 gl, GLU glu, int width, int height, boolean selection) {
-        if (this.fillColor.getAlpha() < 0.001 || this.strokeColor.getAlpha() < 0.001 || !this.isDepthTest()) {
+        if (getSceneFillColor().getAlpha() < 0.001 || getSceneStrokeColor().getAlpha() < 0.001 || !this.isDepthTest()) {
             gl.glDisable(GL2.GL_DEPTH_TEST);
         }
 
@@ -206,7 +206,7 @@ public class Polygon extends Element {
             break;
         case LINES_3D:
             if (this.fill) {
-                this.fillColor.setup(gl);
+                getSceneFillColor().setup(gl);
                 gl.glBegin(GL2.GL_POLYGON);
                 for (int i = 0; i < this.size; i++) {
                     tmpx = this.cornerX.get(i);
@@ -220,7 +220,7 @@ public class Polygon extends Element {
 
             if (this.stroke) {
                 gl.glLineWidth(this.strokeWidth);
-                this.strokeColor.setup(gl);
+                getSceneStrokeColor().setup(gl);
                 gl.glBegin(GL2.GL_LINE_STRIP);
                 for (int i = 0; i < cornerX.size(); i++) {
                     tmpx = this.cornerX.get(i);
@@ -242,7 +242,7 @@ public class Polygon extends Element {
 
         gl.glPopMatrix();
 
-        if (this.fillColor.getAlpha() < 0.001 || this.strokeColor.getAlpha() < 0.001 || !this.isDepthTest()) {
+        if (getSceneFillColor().getAlpha() < 0.001 || getSceneStrokeColor().getAlpha() < 0.001 || !this.isDepthTest()) {
             gl.glEnable(GL2.GL_DEPTH_TEST);
         }
     }
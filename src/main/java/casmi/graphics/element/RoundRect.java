@@ -188,7 +188,7 @@ public class RoundRect extends Element {
     public void render(GL2 gl, GLU glu, int width, int height, boolean selection) {
         calcRect();
 
-        if (this.fillColor.getAlpha() < 0.001 || this.strokeColor.getAlpha() < 0.001
+        if (getSceneFillColor().getAlpha() < 0.001 || getSceneStrokeColor().getAlpha() < 0.001
             || !this.isDepthTest()) {
             gl.glDisable(GL2.GL_DEPTH_TEST);
         }
@@ -250,7 +250,7 @@ public class RoundRect extends Element {
         }
         gl.glPopMatrix();
 
-        if (this.fillColor.getAlpha() < 0.001 || this.strokeColor.getAlpha() < 0.001
+        if (getSceneFillColor().getAlpha() < 0.001 || getSceneStrokeColor().getAlpha() < 0.001
             || !this.isDepthTest()) {
             gl.glEnable(GL2.GL_DEPTH_TEST);
         }
@@ -40,6 +40,8 @@ public class Sphere extends Element implements Renderable, Resettable {
     private int slices = 30;
     private int stacks = 30;
 
+    private final LevelOfDetail detail = new LevelOfDetail();
+
     private Texture texture;
 
     /**
@@ -102,6 +104,14 @@ public class Sphere extends Element implements Renderable, Resettable {
         this.stacks = stacks;
     }
 
+    /**
+     * Returns the automatic level of detail, which reduces the slices and
+     * stacks when the Sphere is small on the screen.
+     */
+    public LevelOfDetail getLevelOfDetail() {
+        return detail;
+    }
+
     @Override
     public void render(GL2 gl, GLU glu, int width, int height, boolean selection) {
         if (this.enableTexture && this.texture != null) {
@@ -109,7 +119,7 @@ public class Sphere extends Element implements Renderable, Resettable {
             this.texture.enableTexture(gl);
         }
 
-        if (this.fillColor.getAlpha() < 0.001 || this.strokeColor.getAlpha() < 0.001 || !this.isDepthTest()) {
+        if (getSceneFillColor().getAlpha() < 0.001 || getSceneStrokeColor().getAlpha() < 0.001 || !this.isDepthTest()) {
             gl.glDisable(GL2.GL_DEPTH_TEST);
         }
 
@@ -120,14 +130,20 @@ public class Sphere extends Element implements Renderable, Resettable {
             this.move(gl);
             if (this.ismaterial) material.setup(gl);
 
+            // the pick matrix of the selection pass would distort the projected size
+            int level = selection ? detail.getLevel()
+                                  : detail.update(gl, 0.0, 0.0, 0.0, r, slices);
+            int s = LevelOfDetail.segments(slices, level, 6);
+            int t = LevelOfDetail.segments(stacks, level, 4);
+
             if (this.fill) {
                 getSceneFillColor().setup(gl);
-                drawSolidSphere(glu, (float)r, slices, stacks);
+                drawSolidSphere(glu, (float)r, s, t);
             }
 
             if (this.stroke) {
                 getSceneStrokeColor().setup(gl);
-                drawWireSphere(glu, (float)r, slices, stacks);
+                drawWireSphere(glu, (float)r, s, t);
             }
         }
         gl.glPopMatrix();
@@ -138,7 +154,7 @@ public class Sphere extends Element implements Renderable, Resettable {
             this.texture.disableTexture(gl);
         }
 
-        if (this.fillColor.getAlpha() < 0.001 || this.strokeColor.getAlpha() < 0.001 || !this.isDepthTest()) {
+        if (getSceneFillColor().getAlpha() < 0.001 || getSceneStrokeColor().getAlpha() < 0.001 || !this.isDepthTest()) {
             gl.glEnable(GL2.GL_DEPTH_TEST);
         }
     }
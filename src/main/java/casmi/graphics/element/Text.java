@@ -158,7 +158,7 @@ public class Text extends Element {
 
     @Override
     public void render(GL2 gl, GLU glu, int width, int height, boolean selection) {
-        if (fillColor.getAlpha() < 1.0 || strokeColor.getAlpha() < 1.0 || !isDepthTest())
+        if (getSceneFillColor().getAlpha() < 1.0 || getSceneStrokeColor().getAlpha() < 1.0 || !isDepthTest())
             gl.glDisable(GL2.GL_DEPTH_TEST);
 
         gl.glPushMatrix();
@@ -237,7 +237,7 @@ public class Text extends Element {
         }
         gl.glPopMatrix();
 
-        if (fillColor.getAlpha() < 1.0 || strokeColor.getAlpha() < 1.0 || !isDepthTest())
+        if (getSceneFillColor().getAlpha() < 1.0 || getSceneStrokeColor().getAlpha() < 1.0 || !isDepthTest())
             gl.glEnable(GL2.GL_DEPTH_TEST);
     }
 
@@ -0,0 +1,480 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.graphics.element;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import javax.media.opengl.glu.GLU;
+
+import casmi.image.ImageLoader;
+import casmi.image.TilePyramid;
+
+/**
+ * Element showing a {@link TilePyramid}, for images far larger than memory.
+ * <p>
+ * Every frame, the part of the image visible through the current
+ * Projection and Camera is found by unprojecting the viewport, and the
+ * level whose pixels are closest to screen pixels is chosen. Visible tiles
+ * of that level are read on the worker threads of the {@link ImageLoader}
+ * and uploaded within its upload budget; until a tile arrives, the nearest
+ * coarser tile is drawn in its place. Uploaded tiles are kept in an LRU
+ * cache of textures under a memory budget.
+ * <p>
+ * The image is centered at the position of the element, with the top row of
+ * the image at the top.
+ *
+ * @author Xcoo Inc.
+ */
+public class TiledImage extends Element {
+
+    public static final long DEFAULT_CACHE_BUDGET = 256L * 1024 * 1024;
+
+    // at most this many tiles are drawn; a coarser level is used otherwise
+    private static final int MAX_VISIBLE_TILES = 512;
+    private static final int MAX_PENDING_TILES = 32;
+    private static final int MAX_FREE_BUFFERS = 16;
+
+    private final TilePyramid pyramid;
+    private final ImageLoader loader;
+    private final int tileBytes;
+
+    private double w, h;
+    private double lodBias = 0.0;
+    private volatile long cacheBudget = DEFAULT_CACHE_BUDGET;
+
+    // used on the rendering thread only, in LRU order
+    private final LinkedHashMap<Long, Tile> tiles = new LinkedHashMap<Long, Tile>(64, 0.75f, true);
+    private int pending = 0;
+    private long residentBytes = 0;
+    private int frame = 0;
+    private int level = -1;
+
+    private final ConcurrentLinkedQueue<Tile> loaded = new ConcurrentLinkedQueue<Tile>();
+    private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private final double[] model = new double[16];
+    private final double[] projection = new double[16];
+    private final int[] viewport = new int[4];
+    private final double[] point = new double[3];
+
+    private static class Tile {
+        final int level, column, row;
+        volatile ByteBuffer data;
+        volatile boolean failed;
+        int texture = 0;
+        int lastFrame;
+
+        Tile(int level, int column, int row) {
+            this.level = level;
+            this.column = column;
+            this.row = row;
+        }
+    }
+
+    /**
+     * Creates a new TiledImage of the size of the pyramid in pixels.
+     */
+    public TiledImage(TilePyramid pyramid) {
+        this(pyramid, pyramid.getWidth(), pyramid.getHeight());
+    }
+
+    /**
+     * Creates a new TiledImage.
+     *
+     * @param pyramid The pyramid to show.
+     * @param width The width of the element.
+     * @param height The height of the element.
+     */
+    public TiledImage(TilePyramid pyramid, double width, double height) {
+        this(pyramid, width, height, ImageLoader.getDefault());
+    }
+
+    /**
+     * Creates a new TiledImage which reads tiles on the threads of the loader.
+     */
+    public TiledImage(TilePyramid pyramid, double width, double height, ImageLoader loader) {
+        this.pyramid = pyramid;
+        this.loader = loader;
+        this.w = width;
+        this.h = height;
+        this.tileBytes = pyramid.getTileSize() * pyramid.getTileSize() * 4;
+    }
+
+    public TilePyramid getPyramid() {
+        return pyramid;
+    }
+
+    public void set(double width, double height) {
+        this.w = width;
+        this.h = height;
+    }
+
+    public double getWidth() {
+        return w;
+    }
+
+    public double getHeight() {
+        return h;
+    }
+
+    /**
+     * Sets the bias added to the chosen level; positive values choose coarser
+     * levels and use less memory.
+     */
+    public void setLodBias(double bias) {
+        this.lodBias = bias;
+    }
+
+    public double getLodBias() {
+        return lodBias;
+    }
+
+    /**
+     * Sets the memory budget of the cached tile textures in bytes.
+     */
+    public void setCacheBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("The budget must not be negative.");
+        }
+        this.cacheBudget = bytes;
+    }
+
+    public long getCacheBudget() {
+        return cacheBudget;
+    }
+
+    /**
+     * Returns the bytes of the tile textures in GPU memory.
+     */
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * Returns the level drawn in the last frame, 0 being the full resolution.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public void render(GL2 gl, GLU glu, int width, int height, boolean selection) {
+        if (getSceneFillColor().getAlpha() < 1.0 || !isDepthTest())
+            gl.glDisable(GL2.GL_DEPTH_TEST);
+
+        gl.glPushMatrix();
+        {
+            move(gl);
+
+            if (selection) {
+                gl.glBegin(GL2.GL_QUADS);
+                gl.glVertex2d(-w / 2,  h / 2);
+                gl.glVertex2d(-w / 2, -h / 2);
+                gl.glVertex2d( w / 2, -h / 2);
+                gl.glVertex2d( w / 2,  h / 2);
+                gl.glEnd();
+            } else {
+                frame++;
+                upload(gl);
+                draw(gl, glu);
+                evict(gl);
+            }
+        }
+        gl.glPopMatrix();
+
+        if (getSceneFillColor().getAlpha() < 1.0 || !isDepthTest())
+            gl.glEnable(GL2.GL_DEPTH_TEST);
+    }
+
+    private void draw(GL2 gl, GLU glu) {
+        int imageWidth = pyramid.getWidth(), imageHeight = pyramid.getHeight();
+        int ts = pyramid.getTileSize();
+        int levels = pyramid.getLevelCount();
+
+        gl.glGetDoublev(GL2.GL_MODELVIEW_MATRIX, model, 0);
+        gl.glGetDoublev(GL2.GL_PROJECTION_MATRIX, projection, 0);
+        gl.glGetIntegerv(GL.GL_VIEWPORT, viewport, 0);
+
+        // visible part in pixels of level 0
+        double[] box = {0.0, 0.0, imageWidth, imageHeight};
+        visibleBox(glu, box);
+        if (box[2] <= box[0] || box[3] <= box[1]) {
+            return;
+        }
+
+        // screen pixels per image pixel at the center of the visible part
+        double cx = (box[0] + box[2]) / 2, cy = (box[1] + box[3]) / 2;
+        double[] c  = project(glu, cx, cy);
+        double[] dx = project(glu, cx + 1, cy);
+        double[] dy = project(glu, cx, cy + 1);
+        double scale = Math.max(Math.hypot(dx[0] - c[0], dx[1] - c[1]),
+                                Math.hypot(dy[0] - c[0], dy[1] - c[1]));
+
+        int l = scale > 0.0 ? (int) Math.floor(Math.log(1.0 / scale) / Math.log(2.0) + lodBias) : levels - 1;
+        l = Math.max(0, Math.min(levels - 1, l));
+        while (l < levels - 1 && tileCount(box, l, ts) > MAX_VISIBLE_TILES) {
+            l++;
+        }
+        level = l;
+
+        // the coarsest tile is always kept as a fallback
+        tile(levels - 1, 0, 0);
+
+        long span = (long) ts << l;
+        int c0 = (int) (box[0] / span), c1 = (int) Math.min(pyramid.getColumns(l) - 1, (long) Math.ceil(box[2] / span) - 1);
+        int r0 = (int) (box[1] / span), r1 = (int) Math.min(pyramid.getRows(l) - 1, (long) Math.ceil(box[3] / span) - 1);
+
+        getSceneFillColor().setup(gl);
+        gl.glEnable(GL.GL_TEXTURE_2D);
+        int bound = 0;
+        gl.glBegin(GL2.GL_QUADS);
+        for (int r = r0; r <= r1; r++) {
+            for (int col = c0; col <= c1; col++) {
+                Tile t = tile(l, col, r);
+                int al = l, ac = col, ar = r;
+                while (t == null || t.texture == 0) {
+                    if (++al >= levels) {
+                        t = null;
+                        break;
+                    }
+                    ac >>= 1;
+                    ar >>= 1;
+                    t = tiles.get(key(al, ac, ar));
+                }
+                if (t == null) {
+                    continue;
+                }
+                t.lastFrame = frame;
+
+                if (t.texture != bound) {
+                    gl.glEnd();
+                    gl.glBindTexture(GL.GL_TEXTURE_2D, t.texture);
+                    bound = t.texture;
+                    gl.glBegin(GL2.GL_QUADS);
+                }
+
+                // the tile in pixels of level 0, and in the drawn texture
+                double x0 = (double) col * span, x1 = Math.min(imageWidth,  (col + 1.0) * span);
+                double y0 = (double) r * span,   y1 = Math.min(imageHeight, (r + 1.0) * span);
+                double tspan = (double) ((long) ts << al);
+                double u0 = (x0 - (double) ac * tspan) / tspan, u1 = (x1 - (double) ac * tspan) / tspan;
+                double v0 = (y0 - (double) ar * tspan) / tspan, v1 = (y1 - (double) ar * tspan) / tspan;
+
+                gl.glTexCoord2d(u0, v0);
+                gl.glVertex2d(localX(x0), localY(y0));
+                gl.glTexCoord2d(u0, v1);
+                gl.glVertex2d(localX(x0), localY(y1));
+                gl.glTexCoord2d(u1, v1);
+                gl.glVertex2d(localX(x1), localY(y1));
+                gl.glTexCoord2d(u1, v0);
+                gl.glVertex2d(localX(x1), localY(y0));
+            }
+        }
+        gl.glEnd();
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+        gl.glDisable(GL.GL_TEXTURE_2D);
+    }
+
+    private double localX(double px) {
+        return -w / 2 + px * w / pyramid.getWidth();
+    }
+
+    private double localY(double py) {
+        return h / 2 - py * h / pyramid.getHeight();
+    }
+
+    private double[] project(GLU glu, double px, double py) {
+        double[] win = new double[3];
+        glu.gluProject(localX(px), localY(py), 0.0, model, 0, projection, 0, viewport, 0, win, 0);
+        return win;
+    }
+
+    // narrows the box to the part hit by rays through the viewport corners
+    private void visibleBox(GLU glu, double[] box) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        double[] near = new double[3];
+        for (int i = 0; i < 4; i++) {
+            double wx = viewport[0] + ((i & 1) == 0 ? 0 : viewport[2]);
+            double wy = viewport[1] + ((i & 2) == 0 ? 0 : viewport[3]);
+            if (!glu.gluUnProject(wx, wy, 0.0, model, 0, projection, 0, viewport, 0, near, 0) ||
+                !glu.gluUnProject(wx, wy, 1.0, model, 0, projection, 0, viewport, 0, point, 0)) {
+                return;
+            }
+            double dz = point[2] - near[2];
+            double t = dz == 0.0 ? -1.0 : -near[2] / dz;
+            if (t < 0.0) {
+                // the image plane is not in front of this corner
+                return;
+            }
+            double lx = near[0] + (point[0] - near[0]) * t;
+            double ly = near[1] + (point[1] - near[1]) * t;
+            double px = (lx + w / 2) * pyramid.getWidth() / w;
+            double py = (h / 2 - ly) * pyramid.getHeight() / h;
+            minX = Math.min(minX, px);
+            maxX = Math.max(maxX, px);
+            minY = Math.min(minY, py);
+            maxY = Math.max(maxY, py);
+        }
+        box[0] = Math.max(box[0], minX);
+        box[1] = Math.max(box[1], minY);
+        box[2] = Math.min(box[2], maxX);
+        box[3] = Math.min(box[3], maxY);
+    }
+
+    private static long tileCount(double[] box, int level, int ts) {
+        double span = (double) ((long) ts << level);
+        long cols = (long) Math.ceil(box[2] / span) - (long) (box[0] / span);
+        long rows = (long) Math.ceil(box[3] / span) - (long) (box[1] / span);
+        return cols * rows;
+    }
+
+    private static long key(int level, int column, int row) {
+        return (long) level << 48 | (long) row << 24 | column;
+    }
+
+    // returns the cached tile, requesting it if it is not
+    private Tile tile(int level, int column, int row) {
+        long k = key(level, column, row);
+        Tile t = tiles.get(k);
+        if (t == null && pending < MAX_PENDING_TILES) {
+            t = new Tile(level, column, row);
+            t.lastFrame = frame;
+            tiles.put(k, t);
+            pending++;
+            request(t);
+        }
+        return t;
+    }
+
+    private void request(final Tile t) {
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ByteBuffer src = pyramid.getTile(t.level, t.column, t.row);
+                    ByteBuffer data = freeBuffers.poll();
+                    if (data == null) {
+                        data = ByteBuffer.allocateDirect(tileBytes).order(ByteOrder.nativeOrder());
+                    }
+                    data.clear();
+                    data.asIntBuffer().put(src.asIntBuffer());
+                    t.data = data;
+                } catch (IOException e) {
+                    t.failed = true;
+                } catch (RuntimeException e) {
+                    t.failed = true;
+                }
+                loaded.add(t);
+            }
+        });
+    }
+
+    private void upload(GL2 gl) {
+        int ts = pyramid.getTileSize();
+        Tile t;
+        while (loader.canUpload() && (t = loaded.poll()) != null) {
+            pending--;
+            if (t.failed || tiles.get(key(t.level, t.column, t.row)) != t) {
+                recycle(t);
+                continue;
+            }
+
+            long start = System.nanoTime();
+            int[] id = new int[1];
+            gl.glGenTextures(1, id, 0);
+            gl.glBindTexture(GL.GL_TEXTURE_2D, id[0]);
+            gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR);
+            gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+            gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+            gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+            gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 4);
+            t.data.rewind();
+            gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA8, ts, ts, 0,
+                            GL.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, t.data);
+            gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+            loader.addUploadTime(System.nanoTime() - start);
+
+            t.texture = id[0];
+            residentBytes += tileBytes;
+            recycle(t);
+        }
+    }
+
+    // failed tiles stay in the cache without a texture, so they are not read
+    // again and their parents are drawn instead
+    private void recycle(Tile t) {
+        ByteBuffer data = t.data;
+        t.data = null;
+        if (data != null && freeBuffers.size() < MAX_FREE_BUFFERS) {
+            freeBuffers.add(data);
+        }
+    }
+
+    private void evict(GL2 gl) {
+        int coarsest = pyramid.getLevelCount() - 1;
+        Iterator<Map.Entry<Long, Tile>> it = tiles.entrySet().iterator();
+        while (residentBytes > cacheBudget && it.hasNext()) {
+            Tile t = it.next().getValue();
+            if (t.texture == 0 || t.lastFrame == frame || t.level == coarsest) {
+                continue;
+            }
+            gl.glDeleteTextures(1, new int[] {t.texture}, 0);
+            residentBytes -= tileBytes;
+            it.remove();
+        }
+    }
+
+    /**
+     * Deletes the tile textures. Tiles are read again when they are drawn
+     * next.
+     */
+    public void dispose(GL2 gl) {
+        Iterator<Tile> it = tiles.values().iterator();
+        while (it.hasNext()) {
+            Tile t = it.next();
+            if (t.texture != 0) {
+                gl.glDeleteTextures(1, new int[] {t.texture}, 0);
+                it.remove();
+            }
+        }
+        residentBytes = 0;
+    }
+
+    @Override
+    public void reset(GL2 gl) {
+        // the textures belong to the lost context
+        Iterator<Tile> it = tiles.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().texture != 0) {
+                it.remove();
+            }
+        }
+        residentBytes = 0;
+    }
+}
@@ -38,6 +38,8 @@ public class Torus extends Element {
     private int nside = 32;
     private int rings = 16;
 
+    private final LevelOfDetail detail = new LevelOfDetail();
+
     /**
      * Creates a new Torus object using inner radius and outer radius.
      *
@@ -111,7 +113,7 @@ public class Torus extends Element {
 
     @Override
     public void render(GL2 gl, GLU glu, int width, int height, boolean selection) {
-        if (this.fillColor.getAlpha() < 0.001 || this.strokeColor.getAlpha() < 0.001 || !this.isDepthTest()) {
+        if (getSceneFillColor().getAlpha() < 0.001 || getSceneStrokeColor().getAlpha() < 0.001 || !this.isDepthTest()) {
             gl.glDisable(GL2.GL_DEPTH_TEST);
         }
 
@@ -120,20 +122,25 @@ public class Torus extends Element {
             gl.glTranslated(x, y, z);
             this.move(gl);
 
+            // the pick matrix of the selection pass would distort the projected size
+            int level = selection ? detail.getLevel()
+                                  : detail.update(gl, 0.0, 0.0, 0.0, Math.abs(out) + Math.abs(in), Math.max(nside, rings));
+            int s = LevelOfDetail.segments(nside, level, 4);
+            int r = LevelOfDetail.segments(rings, level, 6);
+
             if (this.fill) {
                 getSceneFillColor().setup(gl);
-                drawSolidTorus(gl, glu, in, out, nside, rings);
+                drawSolidTorus(gl, glu, in, out, s, r);
             }
 
             if (this.stroke) {
                 getSceneStrokeColor().setup(gl);
-                this.strokeColor.setup(gl);
-                drawWireTorus(gl, glu, in, out, nside, rings);
+                drawWireTorus(gl, glu, in, out, s, r);
             }
         }
         gl.glPopMatrix();
 
-        if (this.fillColor.getAlpha() < 0.001 || this.strokeColor.getAlpha() < 0.001 || !this.isDepthTest()) {
+        if (getSceneFillColor().getAlpha() < 0.001 || getSceneStrokeColor().getAlpha() < 0.001 || !this.isDepthTest()) {
             gl.glEnable(GL2.GL_DEPTH_TEST);
         }
     }
@@ -188,6 +195,14 @@ public class Torus extends Element {
         }
     }
 
+    /**
+     * Returns the automatic level of detail, which reduces the sides and
+     * rings when the Torus is small on the screen.
+     */
+    public LevelOfDetail getLevelOfDetail() {
+        return detail;
+    }
+
     @Override
     public void reset(GL2 gl) {
         // TODO Auto-generated method stub
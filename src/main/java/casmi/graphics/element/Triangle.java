@@ -255,7 +255,7 @@ public class Triangle extends Element {
 
     @Override
     public void render(GL2 gl, GLU glu, int width, int height, boolean selection) {
-        if (this.fillColor.getAlpha() < 0.001 || this.strokeColor.getAlpha() < 0.001 || !this.isDepthTest()) {
+        if (getSceneFillColor().getAlpha() < 0.001 || getSceneStrokeColor().getAlpha() < 0.001 || !this.isDepthTest()) {
             gl.glDisable(GL2.GL_DEPTH_TEST);
         }
 
@@ -311,7 +311,7 @@ public class Triangle extends Element {
 
             case TRIANGLE_3D:
                 if (this.fill) {
-                    this.fillColor.setup(gl);
+                    getSceneFillColor().setup(gl);
                     gl.glBegin(GL2.GL_TRIANGLE_FAN);
                     if (isGradation()) getSceneColor(cornerColor[0]).setup(gl);
                     gl.glVertex3d(x1 - x, y1 - y, z1);
@@ -324,7 +324,7 @@ public class Triangle extends Element {
 
                 if (this.stroke) {
                     gl.glLineWidth(this.strokeWidth);
-                    this.strokeColor.setup(gl);
+                    getSceneStrokeColor().setup(gl);
                     gl.glBegin(GL2.GL_LINES);
                     if (isGradation()) getSceneColor(cornerColor[0]).setup(gl);
                     gl.glVertex3d(x1 - x, y1 - y, z1);
@@ -354,7 +354,7 @@ public class Triangle extends Element {
             texture.disableTexture(gl);
         }
 
-        if (this.fillColor.getAlpha() < 0.001 || this.strokeColor.getAlpha() < 0.001 || !this.isDepthTest()) {
+        if (getSceneFillColor().getAlpha() < 0.001 || getSceneStrokeColor().getAlpha() < 0.001 || !this.isDepthTest()) {
             gl.glEnable(GL2.GL_DEPTH_TEST);
         }
     }
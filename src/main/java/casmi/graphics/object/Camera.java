@@ -333,9 +333,22 @@ public class Camera {
         return getViewMatrix(this.eyeX, this.eyeY, this.eyeZ, this.centerX, this.centerY, this.centerZ, this.upX, this.upY, this.upZ);
     }
 
+    /**
+     * Writes the view matrix to a 16 entry array in column-major order.
+     * If target is null (or not the correct size), a new array will be created.
+     */
+    public double[] getViewMatrix(double[] target) {
+        return getViewMatrix(this.eyeX, this.eyeY, this.eyeZ, this.centerX, this.centerY, this.centerZ, this.upX, this.upY, this.upZ, target);
+    }
+
     public static final double[] getViewMatrix(double ex, double ey, double ez, double tx, double ty, double tz,
         double ux, double uy, double uz) {
-        double[] matrix = new double[16];
+        return getViewMatrix(ex, ey, ez, tx, ty, tz, ux, uy, uz, null);
+    }
+
+    public static final double[] getViewMatrix(double ex, double ey, double ez, double tx, double ty, double tz,
+        double ux, double uy, double uz, double[] target) {
+        double[] matrix = (target == null || target.length != 16) ? new double[16] : target;
         double l;
 
         // z axis = e - t
@@ -0,0 +1,164 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.media.opengl.GL2;
+
+/**
+ * Texture whose image is decoded by an {@link ImageLoader}.
+ * <p>
+ * The placeholder is shown until the image is decoded and uploaded. If the
+ * default {@link GLUploader} is running, the image is uploaded on its
+ * thread; otherwise the upload is done in {@link #render(GL2)} within the
+ * loader's time budget per frame. If decoding fails, the placeholder stays.
+ *
+ * @author Xcoo Inc.
+ */
+public class AsyncTexture extends Texture {
+
+    private static Image defaultPlaceholder = null;
+
+    private final ImageLoader loader;
+    private final Future<Image> future;
+    private GLUploader.Upload upload = null;
+
+    private volatile boolean loaded = false;
+    private volatile boolean failed = false;
+    private boolean disposed = false;
+
+    /**
+     * Creates a new AsyncTexture.
+     *
+     * @param loader
+     *            The loader whose upload budget is used.
+     * @param future
+     *            The image being decoded.
+     * @param placeholder
+     *            The Image shown until the image is uploaded.
+     */
+    public AsyncTexture(ImageLoader loader, Future<Image> future, Image placeholder) {
+        super(placeholder);
+        this.loader = loader;
+        this.future = future;
+    }
+
+    /**
+     * Returns the shared placeholder, a small gray image.
+     */
+    public static synchronized Image getDefaultPlaceholder() {
+        if (defaultPlaceholder == null) {
+            BufferedImage img = new BufferedImage(2, 2, BufferedImage.TYPE_INT_ARGB);
+            for (int y = 0; y < 2; y++) {
+                for (int x = 0; x < 2; x++) {
+                    img.setRGB(x, y, 0xff808080);
+                }
+            }
+            defaultPlaceholder = Image.wrap(img);
+        }
+        return defaultPlaceholder;
+    }
+
+    /**
+     * Returns the future of the decoded image.
+     */
+    public Future<Image> getFuture() {
+        return future;
+    }
+
+    /**
+     * Returns true if the image has been uploaded and replaced the
+     * placeholder.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Returns true if the image could not be decoded.
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    @Override
+    public void render(GL2 gl) {
+        if (!loaded && !failed && !disposed && future.isDone()) {
+            GLUploader uploader = GLUploader.getDefault();
+            if (upload == null && uploader != null) {
+                Image decoded = getDecoded();
+                if (decoded != null) {
+                    upload = uploader.upload(decoded);
+                }
+            } else if (upload == null || upload.isFailed()) {
+                if (loader.canUpload()) {
+                    swap(gl);
+                }
+            } else if (upload.isDone()) {
+                // already resident, so this does not upload again
+                swap(gl);
+            }
+        }
+        super.render(gl);
+    }
+
+    private Image getDecoded() {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            failed = true;
+        } catch (CancellationException e) {
+            failed = true;
+        }
+        return null;
+    }
+
+    private void swap(GL2 gl) {
+        Image decoded = getDecoded();
+        if (decoded == null) {
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        replaceImage(gl, decoded);
+        loaded = true;
+
+        loader.addUploadTime(System.nanoTime() - start);
+    }
+
+    /**
+     * Cancels decoding if it has not finished, and releases the image.
+     */
+    @Override
+    public void dispose() {
+        if (!disposed) {
+            disposed = true;
+            future.cancel(true);
+        }
+        super.dispose();
+    }
+}
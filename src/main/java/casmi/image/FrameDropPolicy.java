@@ -0,0 +1,38 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image;
+
+/**
+ * What a {@link SequenceTexture} does when a frame is not decoded by the
+ * time it should be shown.
+ * <p>
+ * DROP keeps playback locked to the clock: the latest decoded frame up to the
+ * current time is shown and late frames are skipped. HOLD shows every frame:
+ * the clock waits until the next frame is decoded, so playback slows down
+ * instead of skipping.
+ *
+ * @author Xcoo Inc.
+ */
+public enum FrameDropPolicy {
+
+    DROP,
+
+    HOLD
+}
@@ -0,0 +1,501 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+import casmi.util.FileUtil;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * Captures frames from the framebuffer without stalling the rendering thread.
+ * <p>
+ * Pixels are read into a ring of pixel buffer objects (PBO) and mapped a few
+ * frames later, when the transfer has finished. Encoding and writing the
+ * image files is done by a bounded pool of worker threads. If the workers
+ * cannot keep up, the recorder either blocks the rendering thread or drops
+ * the frame, depending on the {@link OverflowMode}.
+ * <p>
+ * All methods taking GL must be called on the rendering thread.
+ *
+ * @author Xcoo Inc.
+ */
+public class FrameRecorder {
+
+    /**
+     * Behavior when the number of frames waiting to be encoded exceeds the limit.
+     */
+    public enum OverflowMode {
+        /** Waits until a worker is free. No frame is lost. */
+        BLOCK,
+
+        /** Discards the frame and counts it as dropped. */
+        DROP
+    }
+
+    private static final int DEFAULT_NUM_BUFFERS = 3;
+    private static final int DEFAULT_MAX_PENDING = 8;
+
+    private final int numBuffers;
+    private final int maxPending;
+    private final OverflowMode overflowMode;
+
+    private final Slot[] slots;
+    private int writeIndex = 0;
+    private int bufferWidth = 0, bufferHeight = 0;
+    private boolean usePBO;
+    private boolean initialized = false;
+
+    private final ExecutorService encoder;
+    private final Semaphore pending;
+    private final ConcurrentLinkedQueue<BufferedImage> imagePool = new ConcurrentLinkedQueue<BufferedImage>();
+
+    private final AtomicLong capturedFrames = new AtomicLong();
+    private final AtomicLong writtenFrames  = new AtomicLong();
+    private final AtomicLong droppedFrames  = new AtomicLong();
+    private final AtomicLong failedFrames   = new AtomicLong();
+
+    private IntBuffer syncBuffer;
+
+    private static class Slot {
+        int pbo = 0;
+        File file;
+        boolean alpha;
+        int width, height;
+    }
+
+    /**
+     * Creates a new FrameRecorder with the default settings: three PBOs, one
+     * encoding thread per available processor and blocking back-pressure.
+     */
+    public FrameRecorder() {
+        this(DEFAULT_NUM_BUFFERS, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_PENDING,
+             OverflowMode.BLOCK);
+    }
+
+    /**
+     * Creates a new FrameRecorder.
+     *
+     * @param numBuffers
+     *            The number of PBOs in the ring. Frames are mapped
+     *            {@code numBuffers - 1} frames after they are read.
+     * @param numThreads
+     *            The number of encoding threads.
+     * @param maxPending
+     *            The maximum number of frames waiting to be encoded.
+     * @param overflowMode
+     *            Behavior when {@code maxPending} frames are waiting.
+     */
+    public FrameRecorder(int numBuffers, int numThreads, int maxPending, OverflowMode overflowMode) {
+        if (numBuffers < 1 || numThreads < 1 || maxPending < 1) {
+            throw new IllegalArgumentException("numBuffers, numThreads and maxPending must be more than zero.");
+        }
+
+        this.numBuffers   = numBuffers;
+        this.maxPending   = maxPending;
+        this.overflowMode = overflowMode;
+
+        this.slots = new Slot[numBuffers];
+        for (int i = 0; i < numBuffers; i++) {
+            slots[i] = new Slot();
+        }
+
+        this.pending = new Semaphore(maxPending);
+        this.encoder = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "casmi-frame-encoder");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Starts reading the current framebuffer. The image is written to the file
+     * after a few frames, or when {@link #flush(GL2)} is called.
+     *
+     * @param gl
+     *            The GL of the rendering thread.
+     * @param width
+     *            The width of the region to read from the lower left corner.
+     * @param height
+     *            The height of the region to read from the lower left corner.
+     * @param file
+     *            The output file. The image type is decided from the suffix.
+     * @param alpha
+     *            Keeps the alpha channel if the image type supports it.
+     */
+    public void capture(GL2 gl, int width, int height, File file, boolean alpha) {
+        if (!initialized) {
+            init(gl);
+        }
+
+        capturedFrames.incrementAndGet();
+
+        if (!usePBO) {
+            captureSync(gl, width, height, file, alpha);
+            return;
+        }
+
+        if (width != bufferWidth || height != bufferHeight) {
+            flush(gl);
+            resizeBuffers(gl, width, height);
+        }
+
+        Slot slot = slots[writeIndex];
+        if (slot.file != null) {
+            collect(gl, slot);
+        }
+
+        gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, slot.pbo);
+        gl.glPixelStorei(GL.GL_PACK_ALIGNMENT, 4);
+        gl.glReadPixels(0, 0, width, height, GL2.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, 0);
+        gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, 0);
+
+        slot.file   = file;
+        slot.alpha  = alpha;
+        slot.width  = width;
+        slot.height = height;
+
+        writeIndex = (writeIndex + 1) % numBuffers;
+
+        Slot oldest = slots[writeIndex];
+        if (oldest.file != null) {
+            collect(gl, oldest);
+        }
+    }
+
+    /**
+     * Hands all frames still in the PBO ring over to the encoding threads.
+     */
+    public void flush(GL2 gl) {
+        if (!initialized || !usePBO) {
+            return;
+        }
+
+        for (int i = 0; i < numBuffers; i++) {
+            Slot slot = slots[(writeIndex + i) % numBuffers];
+            if (slot.file != null) {
+                collect(gl, slot);
+            }
+        }
+    }
+
+    /**
+     * Flushes the remaining frames and releases the PBOs without waiting for
+     * the encoding threads, which write the remaining frames in background.
+     *
+     * @return
+     *            A Future which is done when all frames are written;
+     *            cancelling it discards the frames not written yet.
+     */
+    public Future<?> dispose(GL2 gl) {
+        flush(gl);
+
+        encoder.shutdown();
+
+        if (initialized && usePBO) {
+            int[] names = new int[numBuffers];
+            for (int i = 0; i < numBuffers; i++) {
+                names[i] = slots[i].pbo;
+                slots[i].pbo = 0;
+            }
+            gl.glDeleteBuffers(numBuffers, names, 0);
+        }
+
+        imagePool.clear();
+        initialized = false;
+
+        return new Future<Object>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                encoder.shutdownNow();
+                return true;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+
+            @Override
+            public boolean isDone() {
+                return encoder.isTerminated();
+            }
+
+            @Override
+            public Object get() throws InterruptedException {
+                while (!encoder.awaitTermination(1, TimeUnit.SECONDS)) {
+                    // wait until all frames are written
+                }
+                return null;
+            }
+
+            @Override
+            public Object get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+                if (!encoder.awaitTermination(timeout, unit)) {
+                    throw new TimeoutException();
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Waits until the frames are written after {@link #dispose(GL2)}. Must
+     * not be called on the rendering thread.
+     *
+     * @return
+     *            true if all frames are written, false if the timeout elapsed.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return encoder.awaitTermination(timeout, unit);
+    }
+
+    private void init(GL2 gl) {
+        usePBO = gl.isFunctionAvailable("glMapBuffer") &&
+                 (gl.isExtensionAvailable("GL_ARB_pixel_buffer_object") ||
+                  gl.isExtensionAvailable("GL_VERSION_2_1"));
+
+        if (usePBO) {
+            int[] names = new int[numBuffers];
+            gl.glGenBuffers(numBuffers, names, 0);
+            for (int i = 0; i < numBuffers; i++) {
+                slots[i].pbo = names[i];
+            }
+        }
+
+        initialized = true;
+    }
+
+    private void resizeBuffers(GL2 gl, int width, int height) {
+        long size = (long)width * height * 4;
+        for (Slot slot : slots) {
+            gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, slot.pbo);
+            gl.glBufferData(GL2.GL_PIXEL_PACK_BUFFER, size, null, GL2.GL_STREAM_READ);
+        }
+        gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, 0);
+
+        bufferWidth  = width;
+        bufferHeight = height;
+        imagePool.clear();
+    }
+
+    /**
+     * Maps a PBO, copies the pixels into an image and passes it to the encoder.
+     */
+    private void collect(GL2 gl, Slot slot) {
+        File file = slot.file;
+        slot.file = null;
+
+        if (!acquire()) {
+            return;
+        }
+
+        gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, slot.pbo);
+        ByteBuffer mapped = gl.glMapBuffer(GL2.GL_PIXEL_PACK_BUFFER, GL2.GL_READ_ONLY);
+        if (mapped == null) {
+            gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, 0);
+            pending.release();
+            failedFrames.incrementAndGet();
+            return;
+        }
+
+        BufferedImage image = obtainImage(slot.width, slot.height, slot.alpha && supportsAlpha(file));
+        copyFlipped(mapped.order(ByteOrder.nativeOrder()).asIntBuffer(), image, slot.width, slot.height);
+
+        gl.glUnmapBuffer(GL2.GL_PIXEL_PACK_BUFFER);
+        gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, 0);
+
+        submit(image, file);
+    }
+
+    private void captureSync(GL2 gl, int width, int height, File file, boolean alpha) {
+        if (!acquire()) {
+            return;
+        }
+
+        int size = width * height;
+        if (syncBuffer == null || syncBuffer.capacity() < size) {
+            syncBuffer = Buffers.newDirectIntBuffer(size);
+        }
+        syncBuffer.clear();
+
+        gl.glPixelStorei(GL.GL_PACK_ALIGNMENT, 4);
+        gl.glReadPixels(0, 0, width, height, GL2.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, syncBuffer);
+
+        BufferedImage image = obtainImage(width, height, alpha && supportsAlpha(file));
+        copyFlipped(syncBuffer, image, width, height);
+
+        submit(image, file);
+    }
+
+    private boolean acquire() {
+        if (overflowMode == OverflowMode.DROP) {
+            if (!pending.tryAcquire()) {
+                droppedFrames.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        try {
+            pending.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            droppedFrames.incrementAndGet();
+            return false;
+        }
+    }
+
+    private void submit(final BufferedImage image, final File file) {
+        encoder.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(image, file);
+                    writtenFrames.incrementAndGet();
+                } catch (IOException e) {
+                    failedFrames.incrementAndGet();
+                    e.printStackTrace();
+                } finally {
+                    imagePool.offer(image);
+                    pending.release();
+                }
+            }
+        });
+    }
+
+    private static void write(BufferedImage image, File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+
+        String format = formatName(file);
+        if (!ImageIO.write(image, format, file)) {
+            throw new IOException("No writer for the image type: " + format);
+        }
+    }
+
+    private BufferedImage obtainImage(int width, int height, boolean alpha) {
+        int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+        for (int i = imagePool.size(); 0 < i; i--) {
+            BufferedImage image = imagePool.poll();
+            if (image == null) {
+                break;
+            }
+            if (image.getWidth() == width && image.getHeight() == height && image.getType() == type) {
+                return image;
+            }
+            if (image.getWidth() == width && image.getHeight() == height) {
+                imagePool.offer(image);
+            }
+        }
+
+        return new BufferedImage(width, height, type);
+    }
+
+    /**
+     * Copies bottom-up GL rows into a top-down image.
+     */
+    private static void copyFlipped(IntBuffer src, BufferedImage image, int width, int height) {
+        int[] dst = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+        for (int y = 0; y < height; y++) {
+            src.position((height - 1 - y) * width);
+            src.get(dst, y * width, width);
+        }
+    }
+
+    private static String formatName(File file) {
+        String suffix = FileUtil.getSuffix(file).toLowerCase();
+        if (suffix.equals("jpeg")) {
+            return "jpg";
+        }
+        return suffix;
+    }
+
+    private static boolean supportsAlpha(File file) {
+        String format = formatName(file);
+        return format.equals("png") || format.equals("gif");
+    }
+
+    /**
+     * Returns the number of frames passed to {@link #capture}.
+     */
+    public long getCapturedFrames() {
+        return capturedFrames.get();
+    }
+
+    /**
+     * Returns the number of frames written to files.
+     */
+    public long getWrittenFrames() {
+        return writtenFrames.get();
+    }
+
+    /**
+     * Returns the number of frames discarded because the encoders were busy.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * Returns the number of frames which could not be read or written.
+     */
+    public long getFailedFrames() {
+        return failedFrames.get();
+    }
+
+    /**
+     * Returns the number of frames waiting to be encoded.
+     */
+    public int getPendingFrames() {
+        return maxPending - pending.availablePermits();
+    }
+
+    public OverflowMode getOverflowMode() {
+        return overflowMode;
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import javax.media.opengl.GL3ES3;
+import javax.media.opengl.GLCapabilities;
+import javax.media.opengl.GLContext;
+import javax.media.opengl.GLDrawableFactory;
+import javax.media.opengl.GLException;
+import javax.media.opengl.GLOffscreenAutoDrawable;
+import javax.media.opengl.GLProfile;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.util.texture.Texture;
+import com.jogamp.opengl.util.texture.TextureData;
+
+/**
+ * Uploads textures and buffers on a background thread, whose GL context
+ * shares objects with the context of the Applet.
+ * <p>
+ * Each upload is followed by a fence. {@link #poll(GL2)}, which the Applet
+ * calls every frame, hands the uploads whose fences have passed to the
+ * rendering thread without waiting; textures of Images are then set to the
+ * Images and made resident in the {@link TextureManager}. If the driver
+ * does not support sync objects, the upload thread waits with glFinish
+ * instead.
+ * <p>
+ * The Applet starts the default uploader when its GL context is created;
+ * {@link #getDefault()} returns null if a shared context is not available,
+ * and textures are uploaded on the rendering thread as before.
+ *
+ * @author Xcoo Inc.
+ */
+public class GLUploader {
+
+    private static volatile GLUploader defaultUploader = null;
+
+    /**
+     * An upload queued to a GLUploader.
+     */
+    abstract public static class Upload {
+
+        private volatile boolean done = false;
+        private volatile boolean failed = false;
+        private volatile RuntimeException error = null;
+
+        private long sync = 0;
+        int name = 0;
+
+        /**
+         * Returns true if the upload is finished and visible to the
+         * rendering thread, or has failed.
+         */
+        public final boolean isDone() {
+            return done;
+        }
+
+        public final boolean isFailed() {
+            return failed;
+        }
+
+        /**
+         * Returns the exception thrown by the upload, or null if it did not
+         * fail or failed because the uploader stopped.
+         */
+        public final RuntimeException getError() {
+            return error;
+        }
+
+        final void fail() {
+            failed = true;
+            done = true;
+        }
+
+        /**
+         * Returns the name of the uploaded texture or buffer, or 0 if the
+         * upload is not done.
+         */
+        public final int getName() {
+            return done ? name : 0;
+        }
+
+        // called on the upload thread
+        abstract void run(GL2 gl);
+
+        // called on the rendering thread after the fence
+        void complete(GL2 gl) {
+        }
+    }
+
+    private static class ImageUpload extends Upload {
+        private final Image image;
+        private TextureData data;
+        private Texture texture;
+
+        ImageUpload(Image image, TextureData data) {
+            this.image = image;
+            this.data = data;
+        }
+
+        @Override
+        void run(GL2 gl) {
+            texture = new Texture(gl, data);
+            name = texture.getTextureObject(gl);
+            data = null;
+        }
+
+        @Override
+        void complete(GL2 gl) {
+            image.setTexture(gl, texture);
+            TextureManager.getDefault().adopt(gl, image);
+        }
+    }
+
+    private static class BufferUpload extends Upload {
+        private final int target;
+        private final int usage;
+        private Buffer data;
+
+        BufferUpload(int target, Buffer data, int usage) {
+            this.target = target;
+            this.usage = usage;
+            this.data = data;
+        }
+
+        @Override
+        void run(GL2 gl) {
+            int[] ids = new int[1];
+            gl.glGenBuffers(1, ids, 0);
+            name = ids[0];
+            gl.glBindBuffer(target, name);
+            gl.glBufferData(target, (long) data.remaining() * Buffers.sizeOfBufferElem(data), data, usage);
+            gl.glBindBuffer(target, 0);
+            data = null;
+        }
+    }
+
+    private final GLOffscreenAutoDrawable drawable;
+    private final Thread thread;
+
+    private final BlockingQueue<Upload> queue = new LinkedBlockingQueue<Upload>();
+
+    // uploads waiting for their fences, in the order of uploading
+    private final List<Upload> fenced = new ArrayList<Upload>();
+
+    private volatile boolean running = true;
+    private volatile Throwable failure = null;
+
+    /**
+     * Creates a new GLUploader and starts its thread. If the upload context
+     * cannot be made current on the thread, the uploader stops and all
+     * uploads fail.
+     *
+     * @param shareWith
+     *            The context whose objects are shared with the upload
+     *            context.
+     *
+     * @throws GLException
+     *             if the shared context cannot be created.
+     */
+    public GLUploader(GLContext shareWith) {
+        GLProfile profile = shareWith.getGLDrawable().getGLProfile();
+        GLCapabilities caps = new GLCapabilities(profile);
+        caps.setOnscreen(false);
+        drawable = GLDrawableFactory.getFactory(profile)
+                                    .createOffscreenAutoDrawable(null, caps, null, 1, 1);
+        drawable.setSharedContext(shareWith);
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "casmi-gl-uploader");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        thread.start();
+    }
+
+    /**
+     * Returns the uploader started by the Applet, or null if there is none.
+     */
+    public static GLUploader getDefault() {
+        return defaultUploader;
+    }
+
+    /**
+     * Sets the default uploader. The previous one is not shut down.
+     */
+    public static void setDefault(GLUploader uploader) {
+        defaultUploader = uploader;
+    }
+
+    /**
+     * Queues the pixels of the image to be uploaded to a new texture, with
+     * mipmaps. The pixels are taken when this is called, so the image can
+     * be modified afterwards. When the upload is done, the texture replaces
+     * the texture of the image.
+     */
+    public Upload upload(Image image) {
+        return enqueue(new ImageUpload(image, image.newTextureData()));
+    }
+
+    /**
+     * Queues the remaining elements of the buffer to be uploaded to a new
+     * buffer object, e.g. a vertex buffer. The buffer must not be modified
+     * until the upload is done.
+     *
+     * @param target
+     *            The target to bind the buffer object to, e.g.
+     *            GL.GL_ARRAY_BUFFER.
+     * @param data
+     *            The data to upload.
+     * @param usage
+     *            The usage hint, e.g. GL.GL_STATIC_DRAW.
+     */
+    public Upload upload(int target, Buffer data, int usage) {
+        return enqueue(new BufferUpload(target, data, usage));
+    }
+
+    /**
+     * Returns false if the uploader is shut down or could not start, in
+     * which case uploads fail at once.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Returns the exception which kept the upload context from starting, or
+     * null.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    private Upload enqueue(Upload upload) {
+        queue.add(upload);
+        if (!running) {
+            // the thread may have drained the queue already
+            failQueued();
+        }
+        return upload;
+    }
+
+    private void failQueued() {
+        Upload upload;
+        while ((upload = queue.poll()) != null) {
+            upload.fail();
+        }
+    }
+
+    // their sync objects are left to the share group, as they can only be
+    // deleted on a current context
+    private void failFenced() {
+        synchronized (fenced) {
+            for (Upload upload : fenced) {
+                upload.fail();
+            }
+            fenced.clear();
+        }
+    }
+
+    /**
+     * Returns the number of uploads which are queued or waiting for their
+     * fences.
+     */
+    public int getPendingCount() {
+        synchronized (fenced) {
+            return queue.size() + fenced.size();
+        }
+    }
+
+    private void loop() {
+        GLContext context;
+        try {
+            // creates the context sharing with the Applet's on this thread
+            drawable.display();
+            context = drawable.getContext();
+            if (context == null || context.makeCurrent() == GLContext.CONTEXT_NOT_CURRENT) {
+                throw new GLException("Cannot make the upload context current");
+            }
+        } catch (RuntimeException e) {
+            failure = e;
+            running = false;
+            failQueued();
+            drawable.destroy();
+            return;
+        }
+
+        GL2 gl = context.getGL().getGL2();
+        boolean fences = hasFenceSync(gl);
+        try {
+            while (running) {
+                Upload upload = queue.take();
+                try {
+                    upload.run(gl);
+                    if (fences) {
+                        upload.sync = ((GL3ES3) gl).glFenceSync(GL3ES3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+                        // the fence must reach the GPU before other contexts wait for it
+                        gl.glFlush();
+                    } else {
+                        gl.glFinish();
+                    }
+                    synchronized (fenced) {
+                        fenced.add(upload);
+                    }
+                } catch (RuntimeException e) {
+                    upload.error = e;
+                    upload.fail();
+                }
+            }
+        } catch (InterruptedException e) {
+            // shut down
+        } finally {
+            running = false;
+            failQueued();
+            failFenced();
+            context.release();
+            drawable.destroy();
+        }
+    }
+
+    private static boolean hasFenceSync(GL gl) {
+        return gl instanceof GL3ES3 && gl.isFunctionAvailable("glFenceSync");
+    }
+
+    /**
+     * Hands the uploads whose fences have passed to the rendering thread.
+     * Called by the Applet every frame; must be called on the rendering
+     * thread.
+     */
+    public void poll(GL2 gl) {
+        List<Upload> ready = null;
+        synchronized (fenced) {
+            for (Iterator<Upload> it = fenced.iterator(); it.hasNext();) {
+                Upload upload = it.next();
+                if (upload.sync != 0) {
+                    GL3ES3 gl3 = (GL3ES3) gl;
+                    int status = gl3.glClientWaitSync(upload.sync, 0, 0);
+                    if (status == GL3ES3.GL_TIMEOUT_EXPIRED) {
+                        continue;
+                    }
+                    gl3.glDeleteSync(upload.sync);
+                    upload.sync = 0;
+                    if (status == GL3ES3.GL_WAIT_FAILED) {
+                        upload.fail();
+                        it.remove();
+                        continue;
+                    }
+                }
+                it.remove();
+                if (ready == null) {
+                    ready = new ArrayList<Upload>();
+                }
+                ready.add(upload);
+            }
+        }
+
+        if (ready != null) {
+            for (Upload upload : ready) {
+                upload.complete(gl);
+                upload.done = true;
+            }
+        }
+    }
+
+    /**
+     * Stops the upload thread and destroys its context. Queued uploads and
+     * uploads waiting for their fences fail, so that their users can upload
+     * on the rendering thread instead; objects already uploaded stay in the
+     * shared context.
+     */
+    public void shutdown() {
+        running = false;
+        thread.interrupt();
+        failFenced();
+    }
+}
@@ -20,21 +20,36 @@
 package casmi.image;
 
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferInt;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
+import javax.media.opengl.GLContext;
 import javax.media.opengl.GLProfile;
 
-import casmi.exception.CasmiRuntimeException;
 import casmi.graphics.color.Color;
 import casmi.graphics.color.RGBColor;
 
 import com.jogamp.opengl.util.texture.Texture;
+import com.jogamp.opengl.util.texture.TextureData;
 import com.jogamp.opengl.util.texture.awt.AWTTextureIO;
 
 /**
@@ -55,6 +70,21 @@ public class Image {
 
     private BufferedImage img;
 
+    // regions written since the last upload: writes grow the box, a write
+    // apart from it moves the box to dirtyRects, which are merged when
+    // uploading; the box is empty if dirtyX0 >= dirtyX1
+    private static final int MAX_DIRTY_RECTS = 8;
+    private static final int MAX_PENDING_RECTS = 64;
+    private final Object dirtyLock = new Object();
+    private int dirtyX0 = 0, dirtyY0 = 0, dirtyX1 = 0, dirtyY1 = 0;
+    private final List<Rectangle> dirtyRects = new ArrayList<Rectangle>();
+    private boolean usePBO = false;
+    private int pbo = 0;
+
+    // levels mapped from the TextureCache, uploaded by loadTexture unless
+    // the pixels are modified before
+    private volatile ByteBuffer[] cachedLevels = null;
+
     /**
      * Creates a new Image object using width and height.
      *
@@ -77,11 +107,16 @@ public class Image {
      *                     The path of this Image.
      */
     public Image(String path) {
-        java.io.File imgLoc = new java.io.File(path);
-
         try {
-           BufferedImage preimg = ImageIO.read(imgLoc);
-           img =  convertByteToInt(preimg);
+           File file = new File(path);
+           TextureCache cache = TextureCache.getDefault();
+           TextureCache.Entry entry = cache == null ? null : cache.load(file);
+           if (entry != null) {
+               img = entry.toBufferedImage();
+               cachedLevels = entry.levels;
+           } else {
+               img = readIntARGB(file);
+           }
         } catch (IOException e) {
            e.printStackTrace();
         }
@@ -98,8 +133,7 @@ public class Image {
      */
     public Image(URL url) {
         try {
-            BufferedImage preimg = ImageIO.read(url);
-            img = convertByteToInt(preimg);
+            img = readIntARGB(url);
          } catch (IOException e) {
             e.printStackTrace();
          }
@@ -121,11 +155,133 @@ public class Image {
      * @see java.awt.image.BufferedImage
      */
     public Image(BufferedImage image) {
-         this.img = copyImage(image);
+         this(image, true);
+    }
+
+    private Image(BufferedImage image, boolean copy) {
+         this.img = copy ? copyImage(image) : image;
          this.width  = this.img.getWidth();
          this.height = this.img.getHeight();
     }
 
+    /**
+     * Creates an Image which uses the TYPE_INT_ARGB image without copying it.
+     */
+    static Image wrap(BufferedImage argbImage) {
+        return new Image(argbImage, false);
+    }
+
+    /**
+     * Decodes the file, or reads it from the default {@link TextureCache}
+     * and stores it there on a miss.
+     */
+    static BufferedImage readIntARGB(File file) throws IOException {
+        if (!file.isFile()) {
+            throw new IOException("Cannot read " + file);
+        }
+        TextureCache cache = TextureCache.getDefault();
+        if (cache != null) {
+            TextureCache.Entry entry = cache.load(file);
+            if (entry != null) {
+                return entry.toBufferedImage();
+            }
+        }
+
+        ImageInputStream in = ImageIO.createImageInputStream(file);
+        if (in == null) {
+            throw new IOException("Cannot read " + file);
+        }
+        BufferedImage image;
+        try {
+            image = readIntARGB(in, null);
+        } finally {
+            in.close();
+        }
+        if (cache != null) {
+            cache.store(file, image);
+        }
+        return image;
+    }
+
+    /**
+     * Decodes the file into the TYPE_INT_ARGB destination, which must have
+     * the size of the image, so that frames of a sequence reuse one buffer.
+     */
+    static void readIntARGB(File file, BufferedImage destination) throws IOException {
+        if (!file.isFile()) {
+            throw new IOException("Cannot read " + file);
+        }
+        ImageInputStream in = ImageIO.createImageInputStream(file);
+        if (in == null) {
+            throw new IOException("Cannot read " + file);
+        }
+        try {
+            readIntARGB(in, destination);
+        } finally {
+            in.close();
+        }
+    }
+
+    static BufferedImage readIntARGB(URL url) throws IOException {
+        InputStream is = url.openStream();
+        try {
+            ImageInputStream in = ImageIO.createImageInputStream(is);
+            try {
+                return readIntARGB(in, null);
+            } finally {
+                in.close();
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    // decodes straight into TYPE_INT_ARGB if the reader supports it
+    private static BufferedImage readIntARGB(ImageInputStream in, BufferedImage destination) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            throw new IOException("Unsupported image format");
+        }
+
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(in, true, true);
+            if (destination != null &&
+                (reader.getWidth(0) != destination.getWidth() || reader.getHeight(0) != destination.getHeight())) {
+                throw new IOException("The size of the image differs from the destination");
+            }
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            boolean intARGB = false;
+            Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+            while (types.hasNext()) {
+                if (types.next().getBufferedImageType() == BufferedImage.TYPE_INT_ARGB) {
+                    intARGB = true;
+                    break;
+                }
+            }
+
+            if (destination == null) {
+                if (intARGB) {
+                    param.setDestinationType(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB));
+                }
+                return convertToIntARGB(reader.read(0, param));
+            }
+
+            if (intARGB) {
+                param.setDestination(destination);
+                reader.read(0, param);
+            } else {
+                BufferedImage src = reader.read(0, param);
+                int[] pixels = ((DataBufferInt)(destination.getRaster().getDataBuffer())).getData();
+                src.getRGB(0, 0, src.getWidth(), src.getHeight(), pixels, 0, src.getWidth());
+            }
+            return destination;
+        } finally {
+            reader.dispose();
+        }
+    }
+
     /**
      * Copies a Image object using BuffedImage.
      *
@@ -147,7 +303,18 @@ public class Image {
         return newImage;
     }
 
-    private BufferedImage convertByteToInt(BufferedImage src) {
+    private static BufferedImage convertToIntARGB(BufferedImage src) {
+        int type = src.getType();
+        if (type == BufferedImage.TYPE_INT_ARGB) {
+            return src;
+        }
+        if (type != BufferedImage.TYPE_4BYTE_ABGR && type != BufferedImage.TYPE_3BYTE_BGR) {
+            BufferedImage dst = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            int[] pixels = ((DataBufferInt)(dst.getRaster().getDataBuffer())).getData();
+            src.getRGB(0, 0, src.getWidth(), src.getHeight(), pixels, 0, src.getWidth());
+            return dst;
+        }
+
     	BufferedImage dst = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_INT_ARGB);
     	int[] pixels = ((DataBufferInt)(dst.getRaster().getDataBuffer())).getData();
     	byte[] binary = ((DataBufferByte)(src.getRaster().getDataBuffer())).getData();
@@ -188,15 +355,290 @@ public class Image {
      * Loads a texture using image data.
      */
     public final void loadTexture() {
-        texture = null;
-        texture = AWTTextureIO.newTexture(GLProfile.get(GLProfile.GL2), img, true);
+        loadTexture(GLContext.getCurrentGL().getGL2());
+    }
+
+    /**
+     * Loads a texture using image data, deleting the previous texture.
+     *
+     * @param gl
+     *                     The variable of GL2.
+     */
+    public final void loadTexture(GL2 gl) {
+        unloadTexture(gl);
+        synchronized (dirtyLock) {
+            dirtyRects.clear();
+            dirtyX0 = dirtyX1 = 0;
+        }
+        texture = new Texture(gl, newTextureData());
+    }
+
+    /**
+     * Returns the pixels to upload with mipmaps, which are the levels from
+     * the {@link TextureCache} if the pixels have not been modified.
+     */
+    TextureData newTextureData() {
+        ByteBuffer[] levels = cachedLevels;
+        cachedLevels = null;
+        if (levels != null && levels.length == 1) {
+            // cached without mipmaps; an array of one level would be taken
+            // as an incomplete mipmap chain
+            return new TextureData(GLProfile.get(GLProfile.GL2), GL.GL_RGBA8,
+                                   width, height, 0, GL.GL_BGRA, GL.GL_UNSIGNED_BYTE,
+                                   false, false, true, levels[0], null);
+        }
+        if (levels != null) {
+            // BGRA bytes of the cached levels, rows from the top like AWT
+            return new TextureData(GLProfile.get(GLProfile.GL2), GL.GL_RGBA8,
+                                   width, height, 0, GL.GL_BGRA, GL.GL_UNSIGNED_BYTE,
+                                   false, true, levels, null);
+        }
+        return AWTTextureIO.newTextureData(GLProfile.get(GLProfile.GL2), img, true);
+    }
+
+    /**
+     * Replaces the texture with one uploaded on another context of the same
+     * share group, deleting the previous texture.
+     */
+    final void setTexture(GL2 gl, Texture uploaded) {
+        unloadTexture(gl);
+        texture = uploaded;
+    }
+
+    /**
+     * Deletes the texture of this Image, if it is loaded.
+     *
+     * @param gl
+     *                     The variable of GL2.
+     */
+    public final void unloadTexture(GL2 gl) {
+        if (texture != null) {
+            texture.destroy(gl);
+            texture = null;
+        }
+        if (pbo != 0) {
+            gl.glDeleteBuffers(1, new int[] {pbo}, 0);
+            pbo = 0;
+        }
+    }
+
+    /**
+     * Returns the estimated bytes of the texture in video memory, including
+     * mipmaps, or 0 if the texture is not loaded.
+     */
+    public final long getTextureBytes() {
         if (texture == null) {
-            throw new CasmiRuntimeException("Cannot load texture");
+            return 0;
         }
+        long base = (long) texture.getWidth() * texture.getHeight() * 4;
+        return base + base / 3;
     }
 
+    /**
+     * Uploads the pixels to the texture. If regions were written by the
+     * setters or marked by {@link #markDirty(int, int, int, int)}, only
+     * those regions are uploaded; otherwise the whole image is.
+     *
+     * @param gl
+     *                     The variable of GL2.
+     */
     public final void reloadTexture(GL2 gl) {
-        texture.updateImage(gl, AWTTextureIO.newTextureData(GLProfile.get(GLProfile.GL2), img, false));
+        List<Rectangle> rects;
+        synchronized (dirtyLock) {
+            rects = new ArrayList<Rectangle>(dirtyRects);
+            dirtyRects.clear();
+            if (dirtyX0 < dirtyX1) {
+                rects.add(new Rectangle(dirtyX0, dirtyY0, dirtyX1 - dirtyX0, dirtyY1 - dirtyY0));
+                dirtyX0 = dirtyX1 = 0;
+            }
+        }
+        mergeRects(rects, MAX_DIRTY_RECTS);
+
+        if (rects.isEmpty() || img.getType() != BufferedImage.TYPE_INT_ARGB) {
+            texture.updateImage(gl, AWTTextureIO.newTextureData(GLProfile.get(GLProfile.GL2), img, false));
+            return;
+        }
+
+        int[] pixels = ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+        int target = texture.getTarget();
+
+        texture.bind(gl);
+        gl.glPushClientAttrib(GL2.GL_CLIENT_PIXEL_STORE_BIT);
+        gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 4);
+
+        List<Rectangle> clientRects = rects;
+        if (usePBO) {
+            clientRects = new ArrayList<Rectangle>();
+            if (pbo == 0) {
+                int[] ids = new int[1];
+                gl.glGenBuffers(1, ids, 0);
+                pbo = ids[0];
+            }
+            gl.glBindBuffer(GL2.GL_PIXEL_UNPACK_BUFFER, pbo);
+            for (Rectangle r : rects) {
+                long bytes = (long) r.width * r.height * 4;
+                // orphan the previous storage so the driver need not wait for it
+                gl.glBufferData(GL2.GL_PIXEL_UNPACK_BUFFER, bytes, null, GL2.GL_STREAM_DRAW);
+                ByteBuffer mapped = gl.glMapBuffer(GL2.GL_PIXEL_UNPACK_BUFFER, GL2.GL_WRITE_ONLY);
+                if (mapped == null) {
+                    // e.g. out of memory; upload it from client memory below
+                    clientRects.add(r);
+                    continue;
+                }
+                IntBuffer dst = mapped.order(ByteOrder.nativeOrder()).asIntBuffer();
+                for (int y = r.y; y < r.y + r.height; y++) {
+                    dst.put(pixels, r.x + y * width, r.width);
+                }
+                gl.glUnmapBuffer(GL2.GL_PIXEL_UNPACK_BUFFER);
+                gl.glTexSubImage2D(target, 0, r.x, r.y, r.width, r.height,
+                                   GL.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, 0L);
+            }
+            gl.glBindBuffer(GL2.GL_PIXEL_UNPACK_BUFFER, 0);
+        }
+
+        if (!clientRects.isEmpty()) {
+            IntBuffer src = IntBuffer.wrap(pixels);
+            gl.glPixelStorei(GL2.GL_UNPACK_ROW_LENGTH, width);
+            for (Rectangle r : clientRects) {
+                gl.glPixelStorei(GL2.GL_UNPACK_SKIP_PIXELS, r.x);
+                gl.glPixelStorei(GL2.GL_UNPACK_SKIP_ROWS, r.y);
+                gl.glTexSubImage2D(target, 0, r.x, r.y, r.width, r.height,
+                                   GL.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, src);
+            }
+        }
+
+        gl.glPopClientAttrib();
+        updateMipmaps(gl, target);
+    }
+
+    // level 0 was updated; rebuild the rest unless the driver does it itself
+    private static void updateMipmaps(GL2 gl, int target) {
+        int[] param = new int[1];
+        gl.glGetTexParameteriv(target, GL.GL_TEXTURE_MIN_FILTER, param, 0);
+        if (param[0] == GL.GL_NEAREST || param[0] == GL.GL_LINEAR) {
+            return;
+        }
+        gl.glGetTexParameteriv(target, GL2.GL_GENERATE_MIPMAP, param, 0);
+        if (param[0] == GL.GL_TRUE) {
+            return;
+        }
+        if (gl.isFunctionAvailable("glGenerateMipmap")) {
+            gl.glGenerateMipmap(target);
+        }
+    }
+
+    /**
+     * Marks a region as modified, e.g. after drawing into {@link #getImg()}
+     * directly. The region is uploaded by the next {@link #reloadTexture(GL2)}.
+     */
+    public final void markDirty(int x, int y, int w, int h) {
+        if (cachedLevels != null) {
+            cachedLevels = null;
+        }
+        int x0 = Math.max(x, 0);
+        int y0 = Math.max(y, 0);
+        int x1 = (int) Math.min((long) x + w, width);
+        int y1 = (int) Math.min((long) y + h, height);
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+
+        synchronized (dirtyLock) {
+            if (dirtyX0 >= dirtyX1) {
+                dirtyX0 = x0;
+                dirtyY0 = y0;
+                dirtyX1 = x1;
+                dirtyY1 = y1;
+                return;
+            }
+
+            if (x0 > dirtyX1 || x1 < dirtyX0 || y0 > dirtyY1 || y1 < dirtyY0) {
+                // apart from the box; keep the box and start a new one
+                dirtyRects.add(new Rectangle(dirtyX0, dirtyY0, dirtyX1 - dirtyX0, dirtyY1 - dirtyY0));
+                if (dirtyRects.size() > MAX_PENDING_RECTS) {
+                    mergeRects(dirtyRects, MAX_DIRTY_RECTS);
+                }
+                dirtyX0 = x0;
+                dirtyY0 = y0;
+                dirtyX1 = x1;
+                dirtyY1 = y1;
+            } else {
+                dirtyX0 = Math.min(dirtyX0, x0);
+                dirtyY0 = Math.min(dirtyY0, y0);
+                dirtyX1 = Math.max(dirtyX1, x1);
+                dirtyY1 = Math.max(dirtyY1, y1);
+            }
+        }
+    }
+
+    // merges touching rectangles, then the pairs which add the least area
+    // until at most max are left
+    static void mergeRects(List<Rectangle> rects, int max) {
+        boolean merged;
+        do {
+            merged = false;
+            for (int i = 0; i < rects.size(); i++) {
+                Rectangle a = rects.get(i);
+                for (int j = rects.size() - 1; j > i; j--) {
+                    Rectangle b = rects.get(j);
+                    if (a.x <= b.x + b.width && b.x <= a.x + a.width &&
+                        a.y <= b.y + b.height && b.y <= a.y + a.height) {
+                        a.add(b);
+                        rects.remove(j);
+                        merged = true;
+                    }
+                }
+            }
+        } while (merged);
+
+        while (rects.size() > max) {
+            int bestI = 0, bestJ = 1;
+            long bestGrowth = Long.MAX_VALUE;
+            for (int i = 0; i < rects.size(); i++) {
+                Rectangle a = rects.get(i);
+                for (int j = i + 1; j < rects.size(); j++) {
+                    Rectangle b = rects.get(j);
+                    Rectangle u = a.union(b);
+                    long growth = (long) u.width * u.height
+                        - (long) a.width * a.height - (long) b.width * b.height;
+                    if (growth < bestGrowth) {
+                        bestGrowth = growth;
+                        bestI = i;
+                        bestJ = j;
+                    }
+                }
+            }
+            Rectangle b = rects.remove(bestJ);
+            rects.get(bestI).add(b);
+        }
+    }
+
+    /**
+     * Marks the whole image as modified.
+     */
+    public final void markDirty() {
+        markDirty(0, 0, width, height);
+    }
+
+    /**
+     * Returns true if regions are waiting to be uploaded.
+     */
+    public final boolean isDirty() {
+        synchronized (dirtyLock) {
+            return dirtyX0 < dirtyX1 || !dirtyRects.isEmpty();
+        }
+    }
+
+    /**
+     * Sets whether modified regions are uploaded through a pixel unpack
+     * buffer, which lets the driver copy them asynchronously.
+     */
+    public final void setStreamingPBO(boolean usePBO) {
+        this.usePBO = usePBO;
+    }
+
+    public final boolean isStreamingPBO() {
+        return usePBO;
     }
 
     /**
@@ -367,6 +809,7 @@ public class Image {
                                 red   << 16 |
                                 green << 8  |
                                 blue;
+        markDirty(x, y, 1, 1);
     }
 
     /**
@@ -389,6 +832,7 @@ public class Image {
                             tmpR << 16 |
                             tmpG << 8  |
                             tmpB;
+        markDirty(x, y, 1, 1);
     }
 
     /**
@@ -417,6 +861,7 @@ public class Image {
                               blue;
             }
         }
+        markDirty(0, 0, width, (colors.length + width - 1) / width);
     }
 
     /**
@@ -482,6 +927,168 @@ public class Image {
     }
 
     public BufferedImage getImg() {
+        cachedLevels = null;
         return img;
     }
+
+    /**
+     * Returns the ARGB pixel array backing this Image, without copying.
+     * Call {@link #markDirty(int, int, int, int)} after writing to it.
+     *
+     * @return
+     *                     The pixels, row by row from the top.
+     */
+    public final int[] getPixelData() {
+        cachedLevels = null;
+        return ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+    }
+
+    private void checkRect(int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > width || y + h > height) {
+            throw new IllegalArgumentException("The rectangle is out of the Image.");
+        }
+    }
+
+    private static void checkArray(int length, int offset, int scansize, int w, int h) {
+        if (h > 0 && (offset < 0 || scansize < w || offset + (long) (h - 1) * scansize + w > length)) {
+            throw new IllegalArgumentException("The array is too small for the rectangle.");
+        }
+    }
+
+    /**
+     * Copies all pixels as ARGB values into dest.
+     */
+    public final void getPixels(int[] dest) {
+        getPixels(0, 0, width, height, dest, 0, width);
+    }
+
+    /**
+     * Copies the pixels of a rectangle as ARGB values into dest.
+     *
+     * @param offset
+     *                     The index of the first pixel in dest.
+     * @param scansize
+     *                     The distance between rows in dest.
+     */
+    public final void getPixels(int x, int y, int w, int h, int[] dest, int offset, int scansize) {
+        checkRect(x, y, w, h);
+        checkArray(dest.length, offset, scansize, w, h);
+        int[] pixels = getPixelData();
+        for (int j = 0; j < h; j++) {
+            System.arraycopy(pixels, x + (y + j) * width, dest, offset + j * scansize, w);
+        }
+    }
+
+    /**
+     * Copies the pixels of a rectangle as ARGB values into dest, row by row
+     * from its position.
+     */
+    public final void getPixels(int x, int y, int w, int h, IntBuffer dest) {
+        checkRect(x, y, w, h);
+        if (dest.remaining() < w * h) {
+            throw new IllegalArgumentException("The buffer is too small for the rectangle.");
+        }
+        int[] pixels = getPixelData();
+        for (int j = 0; j < h; j++) {
+            dest.put(pixels, x + (y + j) * width, w);
+        }
+    }
+
+    /**
+     * Sets all pixels from ARGB values.
+     */
+    public final void setPixels(int[] src) {
+        setPixels(0, 0, width, height, src, 0, width);
+    }
+
+    /**
+     * Sets the pixels of a rectangle from ARGB values.
+     *
+     * @param offset
+     *                     The index of the first pixel in src.
+     * @param scansize
+     *                     The distance between rows in src.
+     */
+    public final void setPixels(int x, int y, int w, int h, int[] src, int offset, int scansize) {
+        checkRect(x, y, w, h);
+        checkArray(src.length, offset, scansize, w, h);
+        int[] pixels = getPixelData();
+        for (int j = 0; j < h; j++) {
+            System.arraycopy(src, offset + j * scansize, pixels, x + (y + j) * width, w);
+        }
+        markDirty(x, y, w, h);
+    }
+
+    /**
+     * Sets the pixels of a rectangle from ARGB values, read row by row from
+     * the position of src.
+     */
+    public final void setPixels(int x, int y, int w, int h, IntBuffer src) {
+        checkRect(x, y, w, h);
+        if (src.remaining() < w * h) {
+            throw new IllegalArgumentException("The buffer is too small for the rectangle.");
+        }
+        int[] pixels = getPixelData();
+        for (int j = 0; j < h; j++) {
+            src.get(pixels, x + (y + j) * width, w);
+        }
+        markDirty(x, y, w, h);
+    }
+
+    /**
+     * Copies the channels into separate arrays of width * height values from
+     * 0.0 to 1.0. Any of the arrays can be null to skip the channel.
+     */
+    public final void getChannels(float[] red, float[] green, float[] blue, float[] alpha) {
+        int n = width * height;
+        checkChannel(red, n);
+        checkChannel(green, n);
+        checkChannel(blue, n);
+        checkChannel(alpha, n);
+
+        final float scale = 1.0f / 255.0f;
+        int[] pixels = getPixelData();
+        for (int i = 0; i < n; i++) {
+            int p = pixels[i];
+            if (red   != null) red[i]   = ((p >> 16) & 0xff) * scale;
+            if (green != null) green[i] = ((p >> 8)  & 0xff) * scale;
+            if (blue  != null) blue[i]  = ( p        & 0xff) * scale;
+            if (alpha != null) alpha[i] = ( p >>> 24)        * scale;
+        }
+    }
+
+    /**
+     * Sets the channels from separate arrays of width * height values from
+     * 0.0 to 1.0, which are clamped. A null array leaves the channel as it is.
+     */
+    public final void setChannels(float[] red, float[] green, float[] blue, float[] alpha) {
+        int n = width * height;
+        checkChannel(red, n);
+        checkChannel(green, n);
+        checkChannel(blue, n);
+        checkChannel(alpha, n);
+
+        int[] pixels = getPixelData();
+        for (int i = 0; i < n; i++) {
+            int p = pixels[i];
+            int a = alpha != null ? toByte(alpha[i]) : p >>> 24;
+            int r = red   != null ? toByte(red[i])   : (p >> 16) & 0xff;
+            int g = green != null ? toByte(green[i]) : (p >> 8)  & 0xff;
+            int b = blue  != null ? toByte(blue[i])  :  p        & 0xff;
+            pixels[i] = a << 24 | r << 16 | g << 8 | b;
+        }
+        markDirty();
+    }
+
+    private static void checkChannel(float[] channel, int n) {
+        if (channel != null && channel.length < n) {
+            throw new IllegalArgumentException("The channel array is smaller than the Image.");
+        }
+    }
+
+    private static int toByte(float v) {
+        if (v <= 0.0f) return 0;
+        if (v >= 1.0f) return 255;
+        return (int)(v * 255.0f + 0.5f);
+    }
 }
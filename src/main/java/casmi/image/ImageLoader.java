@@ -0,0 +1,292 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes images on a pool of worker threads.
+ * <p>
+ * Images are decoded straight into TYPE_INT_ARGB when the image reader
+ * supports it, and converted on the worker otherwise, so nothing but the GL
+ * upload is left for the rendering thread. {@link AsyncTexture}s created by
+ * {@link #loadTexture(String)} upload themselves within a time budget per
+ * frame, so that many textures finishing at once do not stall a frame.
+ *
+ * @author Xcoo Inc.
+ */
+public class ImageLoader {
+
+    public static final long DEFAULT_UPLOAD_BUDGET = 4000000L;    // 4 ms
+
+    private static final ImageLoader DEFAULT =
+        new ImageLoader(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+
+    private final ExecutorService executor;
+
+    private final AtomicInteger submitted = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed    = new AtomicInteger();
+    private final AtomicInteger cancelled = new AtomicInteger();
+
+    // frame stamp shared by all loaders, advanced by the Applet
+    private static volatile long frame = 0;
+
+    private volatile long uploadBudget = DEFAULT_UPLOAD_BUDGET;
+
+    // used on the rendering thread only
+    private long uploadTime = 0;
+    private long uploadFrame = -1;
+
+    /**
+     * Creates a new ImageLoader.
+     *
+     * @param numThreads
+     *            The number of decoding threads.
+     */
+    public ImageLoader(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be more than zero.");
+        }
+
+        executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "casmi-image-loader-" + count.incrementAndGet());
+                t.setDaemon(true);
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Returns the loader used by the Applet, which has one thread less than
+     * the number of processors.
+     */
+    public static ImageLoader getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Starts decoding the file.
+     */
+    public Future<Image> load(String path) {
+        final File file = new File(path);
+        return submit(new Callable<BufferedImage>() {
+            @Override
+            public BufferedImage call() throws Exception {
+                return Image.readIntARGB(file);
+            }
+        });
+    }
+
+    /**
+     * Starts decoding the URL.
+     */
+    public Future<Image> load(final URL url) {
+        return submit(new Callable<BufferedImage>() {
+            @Override
+            public BufferedImage call() throws Exception {
+                return Image.readIntARGB(url);
+            }
+        });
+    }
+
+    /**
+     * Starts decoding the file and returns a Texture showing the placeholder
+     * until the image is uploaded.
+     */
+    public AsyncTexture loadTexture(String path) {
+        return new AsyncTexture(this, load(path), AsyncTexture.getDefaultPlaceholder());
+    }
+
+    /**
+     * Starts decoding the URL and returns a Texture showing the placeholder
+     * until the image is uploaded.
+     */
+    public AsyncTexture loadTexture(URL url) {
+        return new AsyncTexture(this, load(url), AsyncTexture.getDefaultPlaceholder());
+    }
+
+    /**
+     * Runs a task on the worker threads, for elements which read or decode
+     * data themselves. The task is not counted in the progress.
+     */
+    public Future<?> execute(Runnable task) {
+        return executor.submit(task);
+    }
+
+    private Future<Image> submit(final Callable<BufferedImage> decode) {
+        // counted in done(), which runs once whether the task finishes,
+        // fails or is cancelled before it starts
+        FutureTask<Image> task = new FutureTask<Image>(new Callable<Image>() {
+            @Override
+            public Image call() throws Exception {
+                return Image.wrap(decode.call());
+            }
+        }) {
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    cancelled.incrementAndGet();
+                    return;
+                }
+                try {
+                    get();
+                    completed.incrementAndGet();
+                } catch (ExecutionException e) {
+                    failed.incrementAndGet();
+                } catch (InterruptedException e) {
+                    // not reached; the task is done
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        submitted.incrementAndGet();
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Returns the number of images submitted so far.
+     */
+    public int getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public int getCompletedCount() {
+        return completed.get();
+    }
+
+    public int getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the number of images cancelled before they were decoded,
+     * e.g. by {@link AsyncTexture#dispose()}.
+     */
+    public int getCancelledCount() {
+        return cancelled.get();
+    }
+
+    /**
+     * Returns the number of images waiting or being decoded.
+     */
+    public int getPendingCount() {
+        return submitted.get() - completed.get() - failed.get() - cancelled.get();
+    }
+
+    /**
+     * Returns the finished fraction of submitted images, from 0 to 1.
+     * Cancelled images count as finished.
+     */
+    public double getProgress() {
+        int s = submitted.get();
+        return s == 0 ? 1.0 : (double) (completed.get() + failed.get() + cancelled.get()) / s;
+    }
+
+    public long getUploadBudget() {
+        return uploadBudget;
+    }
+
+    /**
+     * Sets the time spent on uploading textures per frame. At least one
+     * texture is uploaded per frame regardless of the budget.
+     *
+     * @param nanos
+     *            The budget in nanoseconds.
+     */
+    public void setUploadBudget(long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("budget must not be negative");
+        }
+        this.uploadBudget = nanos;
+    }
+
+    /**
+     * Starts a new frame for every loader, so that each gets its full upload
+     * budget again. The Applet calls this every frame.
+     */
+    public static void advanceFrame() {
+        frame++;
+    }
+
+    /**
+     * Resets the upload time of this loader within the current frame.
+     */
+    public void nextFrame() {
+        uploadTime = 0;
+        uploadFrame = frame;
+    }
+
+    private void checkFrame() {
+        long f = frame;
+        if (uploadFrame != f) {
+            uploadTime = 0;
+            uploadFrame = f;
+        }
+    }
+
+    /**
+     * Returns true if the uploads of the frame have not used up the budget.
+     * Must be called on the rendering thread.
+     */
+    public boolean canUpload() {
+        checkFrame();
+        return uploadTime == 0 || uploadTime < uploadBudget;
+    }
+
+    /**
+     * Adds the time spent on an upload to the budget of the frame. Must be
+     * called on the rendering thread.
+     */
+    public void addUploadTime(long nanos) {
+        checkFrame();
+        // at least 1 so that the first upload of a frame is always counted
+        uploadTime += Math.max(1, nanos);
+    }
+
+    /**
+     * Stops the worker threads. Images which are not decoded yet are
+     * cancelled.
+     */
+    public void shutdown() {
+        for (Runnable r : executor.shutdownNow()) {
+            if (r instanceof Future) {
+                ((Future<?>) r).cancel(false);
+            }
+        }
+    }
+}
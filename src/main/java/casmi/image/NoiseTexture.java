@@ -0,0 +1,434 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image;
+
+import java.nio.ShortBuffer;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+import casmi.exception.CasmiRuntimeException;
+import casmi.graphics.color.Color;
+import casmi.graphics.color.RGBColor;
+import casmi.util.Noise;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * Texture filled with {@link Noise} by a fragment shader.
+ * <p>
+ * The shader evaluates the same noise as {@link Noise#get(float, float, float)}
+ * for the same seed, octaves and falloff: pixel (i, j) gets the value at
+ * {@code (x + i * stepX, y + j * stepY, z)}, mapped from the low color to the
+ * high color. The texture is regenerated on the GPU only when a parameter
+ * changes, so animating z costs no CPU time per pixel.
+ * <p>
+ * It can be set to any element which takes a {@link Texture}. Methods taking
+ * GL must be called on the rendering thread.
+ *
+ * @author Xcoo Inc.
+ */
+public class NoiseTexture extends Texture {
+
+    private static final int MAX_OCTAVES = 16;
+    private static final int TABLE_SIZE = 64;   // 64 * 64 = 4096 entries
+
+    private static final String VERTEX_SHADER =
+        "#version 120\n" +
+        "void main() {\n" +
+        "    gl_Position = gl_Vertex;\n" +
+        "}\n";
+
+    // same algorithm as casmi.util.Noise, including the 0.5 degree cosine table
+    private static final String FRAGMENT_SHADER =
+        "#version 120\n" +
+        "uniform sampler2D table;\n" +
+        "uniform int octaves;\n" +
+        "uniform float falloff;\n" +
+        "uniform vec3 origin;\n" +
+        "uniform vec2 pixelStep;\n" +
+        "uniform vec4 lowColor;\n" +
+        "uniform vec4 highColor;\n" +
+        "const float PI = 3.14159265358979;\n" +
+        "float perlin(float i) {\n" +
+        "    i = mod(i, 4096.0);\n" +
+        "    return texture2D(table, (vec2(mod(i, 64.0), floor(i / 64.0)) + 0.5) / 64.0).r;\n" +
+        "}\n" +
+        "float fsc(float f) {\n" +
+        "    return 0.5 * (1.0 - cos(floor(f * 360.0) * PI / 360.0));\n" +
+        "}\n" +
+        "float noise(vec3 p) {\n" +
+        "    p = abs(p);\n" +
+        "    vec3 i = floor(p);\n" +
+        "    vec3 f = p - i;\n" +
+        "    float r = 0.0;\n" +
+        "    float ampl = 0.5;\n" +
+        "    for (int o = 0; o < " + MAX_OCTAVES + "; o++) {\n" +
+        "        if (o >= octaves) break;\n" +
+        "        float of = i.x + i.y * 16.0 + i.z * 256.0;\n" +
+        "        float rxf = fsc(f.x);\n" +
+        "        float ryf = fsc(f.y);\n" +
+        "        float n1 = perlin(of);\n" +
+        "        n1 += rxf * (perlin(of + 1.0) - n1);\n" +
+        "        float n2 = perlin(of + 16.0);\n" +
+        "        n2 += rxf * (perlin(of + 17.0) - n2);\n" +
+        "        n1 += ryf * (n2 - n1);\n" +
+        "        of += 256.0;\n" +
+        "        n2 = perlin(of);\n" +
+        "        n2 += rxf * (perlin(of + 1.0) - n2);\n" +
+        "        float n3 = perlin(of + 16.0);\n" +
+        "        n3 += rxf * (perlin(of + 17.0) - n3);\n" +
+        "        n2 += ryf * (n3 - n2);\n" +
+        "        n1 += fsc(f.z) * (n2 - n1);\n" +
+        "        r += n1 * ampl;\n" +
+        "        ampl *= falloff;\n" +
+        "        i *= 2.0;\n" +
+        "        f *= 2.0;\n" +
+        "        vec3 carry = step(1.0, f);\n" +
+        "        i += carry;\n" +
+        "        f -= carry;\n" +
+        "    }\n" +
+        "    return r;\n" +
+        "}\n" +
+        "void main() {\n" +
+        "    vec3 p = origin + vec3((gl_FragCoord.xy - 0.5) * pixelStep, 0.0);\n" +
+        "    gl_FragColor = mix(lowColor, highColor, noise(p));\n" +
+        "}\n";
+
+    private final int textureWidth, textureHeight;
+
+    private Noise noise;
+    private float x = 0f, y = 0f, z = 0f;
+    private float stepX, stepY;
+    private final float[] lowColor  = {0f, 0f, 0f, 1f};
+    private final float[] highColor = {1f, 1f, 1f, 1f};
+
+    private boolean tableChanged = true;
+    private boolean changed = true;
+
+    private int program = 0;
+    private int fbo = 0;
+    private int texture = 0;
+    private int tableTexture = 0;
+
+    /**
+     * Creates a new NoiseTexture using the default generator of
+     * {@link Noise}, sampled at 0.01 per pixel.
+     */
+    public NoiseTexture(int width, int height) {
+        this(width, height, Noise.getDefault());
+    }
+
+    /**
+     * Creates a new NoiseTexture using the generator, sampled at 0.01 per
+     * pixel.
+     *
+     * @param width The width of the Texture in pixels.
+     * @param height The height of the Texture in pixels.
+     * @param noise The generator which gives the seed, octaves and falloff.
+     */
+    public NoiseTexture(int width, int height, Noise noise) {
+        super(width, height);
+
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Width and height must be more than zero.");
+        }
+
+        this.textureWidth = width;
+        this.textureHeight = height;
+        this.stepX = this.stepY = 0.01f;
+        setNoise(noise);
+    }
+
+    public Noise getNoise() {
+        return noise;
+    }
+
+    /**
+     * Sets the generator which gives the seed, octaves and falloff.
+     */
+    public void setNoise(Noise noise) {
+        if (noise.getOctaves() > MAX_OCTAVES) {
+            throw new IllegalArgumentException("octaves must not be more than " + MAX_OCTAVES);
+        }
+        this.noise = noise;
+        tableChanged = true;
+        changed = true;
+    }
+
+    /**
+     * Sets the point in the noise space sampled by pixel (0, 0).
+     */
+    public void setOrigin(float x, float y, float z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        changed = true;
+    }
+
+    /**
+     * Sets the z coordinate of the sampled plane, typically the time.
+     */
+    public void setZ(float z) {
+        this.z = z;
+        changed = true;
+    }
+
+    public float getZ() {
+        return z;
+    }
+
+    /**
+     * Sets the distance in the noise space between neighbouring pixels.
+     */
+    public void setStep(float stepX, float stepY) {
+        this.stepX = stepX;
+        this.stepY = stepY;
+        changed = true;
+    }
+
+    /**
+     * Sets the colors for noise values 0 and 1. The defaults are opaque black
+     * and white.
+     */
+    public void setColors(Color low, Color high) {
+        copyColor(low, lowColor);
+        copyColor(high, highColor);
+        changed = true;
+    }
+
+    private static void copyColor(Color c, float[] dest) {
+        dest[0] = (float) c.getRed();
+        dest[1] = (float) c.getGreen();
+        dest[2] = (float) c.getBlue();
+        dest[3] = (float) c.getAlpha();
+    }
+
+    public Color getLowColor() {
+        return new RGBColor(lowColor[0], lowColor[1], lowColor[2], lowColor[3]);
+    }
+
+    public Color getHighColor() {
+        return new RGBColor(highColor[0], highColor[1], highColor[2], highColor[3]);
+    }
+
+    /**
+     * Regenerates the texture if a parameter has changed since the last call.
+     */
+    @Override
+    public void render(GL2 gl) {
+        if (program == 0) {
+            init(gl);
+        }
+        if (tableChanged) {
+            uploadTable(gl);
+            tableChanged = false;
+        }
+        if (changed) {
+            generate(gl);
+            changed = false;
+        }
+    }
+
+    @Override
+    public void enableTexture(GL2 gl) {
+        gl.glEnable(GL.GL_TEXTURE_2D);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, texture);
+    }
+
+    @Override
+    public void disableTexture(GL2 gl) {
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+        gl.glDisable(GL.GL_TEXTURE_2D);
+    }
+
+    /**
+     * Returns the GL name of the generated texture, or 0 before the first
+     * {@link #render(GL2)}.
+     */
+    public int getTextureId() {
+        return texture;
+    }
+
+    /**
+     * Deletes the GL objects. The texture is created again by the next
+     * {@link #render(GL2)}.
+     */
+    public void dispose(GL2 gl) {
+        if (program != 0) {
+            gl.glDeleteProgram(program);
+            gl.glDeleteFramebuffers(1, new int[] {fbo}, 0);
+            gl.glDeleteTextures(2, new int[] {texture, tableTexture}, 0);
+            program = fbo = texture = tableTexture = 0;
+        }
+        tableChanged = true;
+        changed = true;
+    }
+
+    private void init(GL2 gl) {
+        int vs = compileShader(gl, GL2.GL_VERTEX_SHADER, VERTEX_SHADER);
+        int fs = compileShader(gl, GL2.GL_FRAGMENT_SHADER, FRAGMENT_SHADER);
+
+        int p = gl.glCreateProgram();
+        gl.glAttachShader(p, vs);
+        gl.glAttachShader(p, fs);
+        gl.glLinkProgram(p);
+        gl.glDeleteShader(vs);
+        gl.glDeleteShader(fs);
+
+        int[] status = new int[1];
+        gl.glGetProgramiv(p, GL2.GL_LINK_STATUS, status, 0);
+        if (status[0] == GL.GL_FALSE) {
+            String log = programLog(gl, p);
+            gl.glDeleteProgram(p);
+            throw new CasmiRuntimeException("Failed to link noise shader: " + log);
+        }
+
+        int[] ids = new int[2];
+        gl.glGenTextures(2, ids, 0);
+        texture = ids[0];
+        tableTexture = ids[1];
+
+        gl.glPushAttrib(GL2.GL_TEXTURE_BIT);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, texture);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+        gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA8, textureWidth, textureHeight, 0,
+                        GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, null);
+
+        gl.glBindTexture(GL.GL_TEXTURE_2D, tableTexture);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_NEAREST);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_NEAREST);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+        gl.glPopAttrib();
+
+        int[] prevFbo = new int[1];
+        gl.glGetIntegerv(GL.GL_FRAMEBUFFER_BINDING, prevFbo, 0);
+        gl.glGenFramebuffers(1, ids, 0);
+        fbo = ids[0];
+        gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, fbo);
+        gl.glFramebufferTexture2D(GL.GL_FRAMEBUFFER, GL.GL_COLOR_ATTACHMENT0, GL.GL_TEXTURE_2D, texture, 0);
+        int fboStatus = gl.glCheckFramebufferStatus(GL.GL_FRAMEBUFFER);
+        gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, prevFbo[0]);
+
+        program = p;
+
+        if (fboStatus != GL.GL_FRAMEBUFFER_COMPLETE) {
+            dispose(gl);
+            throw new CasmiRuntimeException("Noise framebuffer is incomplete: 0x" + Integer.toHexString(fboStatus));
+        }
+    }
+
+    private void uploadTable(GL2 gl) {
+        float[] table = noise.getTable();
+        ShortBuffer data = Buffers.newDirectShortBuffer(table.length);
+        for (float v : table) {
+            data.put((short) Math.round(v * 65535f));
+        }
+        data.flip();
+
+        gl.glPushAttrib(GL2.GL_TEXTURE_BIT);
+        gl.glPushClientAttrib(GL2.GL_CLIENT_PIXEL_STORE_BIT);
+        gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 2);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, tableTexture);
+        gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL2.GL_LUMINANCE16, TABLE_SIZE, TABLE_SIZE, 0,
+                        GL.GL_LUMINANCE, GL.GL_UNSIGNED_SHORT, data);
+        gl.glPopClientAttrib();
+        gl.glPopAttrib();
+    }
+
+    private void generate(GL2 gl) {
+        int[] prev = new int[2];
+        gl.glGetIntegerv(GL.GL_FRAMEBUFFER_BINDING, prev, 0);
+        gl.glGetIntegerv(GL2.GL_CURRENT_PROGRAM, prev, 1);
+
+        gl.glPushAttrib(GL2.GL_VIEWPORT_BIT | GL2.GL_ENABLE_BIT | GL2.GL_TEXTURE_BIT | GL2.GL_TRANSFORM_BIT);
+        gl.glMatrixMode(GL2.GL_PROJECTION);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+
+        gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, fbo);
+        gl.glViewport(0, 0, textureWidth, textureHeight);
+        gl.glDisable(GL.GL_DEPTH_TEST);
+        gl.glDisable(GL.GL_BLEND);
+        gl.glDisable(GL.GL_CULL_FACE);
+        gl.glDisable(GL2.GL_LIGHTING);
+
+        gl.glActiveTexture(GL.GL_TEXTURE0);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, tableTexture);
+
+        gl.glUseProgram(program);
+        gl.glUniform1i(gl.glGetUniformLocation(program, "table"), 0);
+        gl.glUniform1i(gl.glGetUniformLocation(program, "octaves"), noise.getOctaves());
+        gl.glUniform1f(gl.glGetUniformLocation(program, "falloff"), noise.getFalloff());
+        gl.glUniform3f(gl.glGetUniformLocation(program, "origin"), x, y, z);
+        gl.glUniform2f(gl.glGetUniformLocation(program, "pixelStep"), stepX, stepY);
+        gl.glUniform4fv(gl.glGetUniformLocation(program, "lowColor"), 1, lowColor, 0);
+        gl.glUniform4fv(gl.glGetUniformLocation(program, "highColor"), 1, highColor, 0);
+
+        gl.glBegin(GL2.GL_QUADS);
+        gl.glVertex2f(-1f, -1f);
+        gl.glVertex2f( 1f, -1f);
+        gl.glVertex2f( 1f,  1f);
+        gl.glVertex2f(-1f,  1f);
+        gl.glEnd();
+
+        gl.glUseProgram(prev[1]);
+        gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, prev[0]);
+
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glPopMatrix();
+        gl.glMatrixMode(GL2.GL_PROJECTION);
+        gl.glPopMatrix();
+        gl.glPopAttrib();
+    }
+
+    private static int compileShader(GL2 gl, int type, String source) {
+        int shader = gl.glCreateShader(type);
+        gl.glShaderSource(shader, 1, new String[] {source}, (int[]) null, 0);
+        gl.glCompileShader(shader);
+
+        int[] status = new int[1];
+        gl.glGetShaderiv(shader, GL2.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == GL.GL_FALSE) {
+            int[] length = new int[1];
+            gl.glGetShaderiv(shader, GL2.GL_INFO_LOG_LENGTH, length, 0);
+            byte[] log = new byte[Math.max(length[0], 1)];
+            gl.glGetShaderInfoLog(shader, log.length, length, 0, log, 0);
+            gl.glDeleteShader(shader);
+            throw new CasmiRuntimeException("Failed to compile noise shader: " + new String(log, 0, length[0]));
+        }
+        return shader;
+    }
+
+    private static String programLog(GL2 gl, int program) {
+        int[] length = new int[1];
+        gl.glGetProgramiv(program, GL2.GL_INFO_LOG_LENGTH, length, 0);
+        byte[] log = new byte[Math.max(length[0], 1)];
+        gl.glGetProgramInfoLog(program, log.length, length, 0, log, 0);
+        return new String(log, 0, length[0]);
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a PNG file row by row.
+ * <p>
+ * Rows are compressed and written as soon as they are passed, so the whole
+ * image never has to be held in memory. Used to save images larger than
+ * a BufferedImage can hold.
+ *
+ * @author Xcoo Inc.
+ */
+public class PNGStreamWriter implements Closeable {
+
+    private static final byte[] SIGNATURE = {
+        (byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'
+    };
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final int width;
+    private final int height;
+    private final boolean alpha;
+    private final int bytesPerPixel;
+
+    private final DataOutputStream out;
+    private final DeflaterOutputStream idat;
+    private final Deflater deflater;
+
+    private final byte[] row;
+    private final byte[] filtered;
+    private int rowsWritten = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a new PNGStreamWriter and writes the header to the file.
+     *
+     * @param file
+     *            The output file.
+     * @param width
+     *            The width of the image.
+     * @param height
+     *            The height of the image.
+     * @param alpha
+     *            If true, writes the alpha channel.
+     */
+    public PNGStreamWriter(File file, int width, int height, boolean alpha) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Size of the image must be positive.");
+        }
+
+        this.width = width;
+        this.height = height;
+        this.alpha = alpha;
+        this.bytesPerPixel = alpha ? 4 : 3;
+
+        this.row = new byte[1 + width * bytesPerPixel];
+        this.filtered = new byte[row.length];
+
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), CHUNK_SIZE));
+
+        out.write(SIGNATURE);
+
+        byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, width);
+        putInt(ihdr, 4, height);
+        ihdr[8]  = 8;                     // bit depth
+        ihdr[9]  = (byte)(alpha ? 6 : 2); // truecolor with or without alpha
+        ihdr[10] = 0;                     // deflate
+        ihdr[11] = 0;                     // adaptive filtering
+        ihdr[12] = 0;                     // no interlace
+        writeChunk("IHDR", ihdr, 0, ihdr.length);
+
+        this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        this.idat = new DeflaterOutputStream(new ChunkOutputStream(), deflater, CHUNK_SIZE);
+    }
+
+    /**
+     * Writes rows of ARGB pixels from top to bottom.
+     *
+     * @param argb
+     *            The pixels.
+     * @param offset
+     *            The index of the first pixel.
+     * @param scanline
+     *            The distance between rows in the array.
+     * @param rows
+     *            The number of rows to write.
+     */
+    public void writeRows(int[] argb, int offset, int scanline, int rows) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("The writer is already closed.");
+        }
+        if (rowsWritten + rows > height) {
+            throw new IllegalArgumentException("Too many rows for the image height.");
+        }
+
+        for (int y = 0; y < rows; y++) {
+            int src = offset + y * scanline;
+            int dst = 1;
+            for (int x = 0; x < width; x++) {
+                int p = argb[src + x];
+                row[dst++] = (byte)(p >> 16);
+                row[dst++] = (byte)(p >> 8);
+                row[dst++] = (byte)p;
+                if (alpha) {
+                    row[dst++] = (byte)(p >>> 24);
+                }
+            }
+            writeFilteredRow();
+            rowsWritten++;
+        }
+    }
+
+    // Applies the Sub filter, which is cheap and works well for rendered images.
+    private void writeFilteredRow() throws IOException {
+        System.arraycopy(row, 1, filtered, 1, row.length - 1);
+        filtered[0] = 1;
+        for (int i = 1 + bytesPerPixel; i < row.length; i++) {
+            filtered[i] = (byte)(row[i] - row[i - bytesPerPixel]);
+        }
+        idat.write(filtered, 0, filtered.length);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * Finishes the image and closes the file.
+     *
+     * @throws IOException
+     *             If writing failed or fewer rows than the height were written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            idat.finish();
+            writeChunk("IEND", new byte[0], 0, 0);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+
+        if (rowsWritten != height) {
+            throw new IOException("Only " + rowsWritten + " of " + height + " rows were written.");
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int off, int len) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, off, len);
+
+        out.writeInt(len);
+        out.write(typeBytes);
+        out.write(data, off, len);
+        out.writeInt((int)crc.getValue());
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off]     = (byte)(v >>> 24);
+        b[off + 1] = (byte)(v >>> 16);
+        b[off + 2] = (byte)(v >>> 8);
+        b[off + 3] = (byte)v;
+    }
+
+    // Splits the compressed stream into IDAT chunks.
+    private class ChunkOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, CHUNK_SIZE);
+                writeChunk("IDAT", b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+}
@@ -0,0 +1,552 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+import casmi.exception.CasmiRuntimeException;
+import casmi.tween.Tweener;
+
+/**
+ * Texture playing a sequence of image files.
+ * <p>
+ * Frames ahead of the current one are decoded on the worker threads of an
+ * {@link ImageLoader} into a ring of reusable buffers, so the rendering
+ * thread never decodes. The current frame is uploaded through a pixel buffer
+ * object, and the frame shown is chosen from the time since
+ * {@link #play()} on the clock of {@link Tweener} and the frame rate,
+ * following the {@link FrameDropPolicy}. Uploads count against the
+ * per-frame budget of the loader.
+ * <p>
+ * All frames must have the size of the first frame; frames which cannot be
+ * decoded are skipped.
+ *
+ * @author Xcoo Inc.
+ */
+public class SequenceTexture extends Texture {
+
+    public static final int DEFAULT_RING_SIZE = 8;
+
+    private static final int FREE = 0, DECODING = 1, READY = 2, FAILED = 3;
+
+    private final List<File> frames;
+    private final ImageLoader loader;
+    private final int frameWidth, frameHeight;
+
+    private double fps;
+    private boolean loop = true;
+    private FrameDropPolicy policy = FrameDropPolicy.DROP;
+
+    // the clock: position startPosition at startMillis of Tweener's clock
+    private boolean playing = false;
+    private long startMillis;
+    private long startPosition = 0;
+
+    // absolute position of the uploaded frame, counting loops
+    private long displayed = -1;
+    private long droppedFrames = 0;
+    private long prefetchBase = 0;
+    private long failedFrames = 0;
+
+    private final Slot[] ring;
+    private boolean disposed = false;
+
+    private int texture = 0;
+    private final int[] pbos = new int[2];
+    private int pboIndex = 0;
+
+    private class Slot implements Runnable {
+        volatile int state = FREE;
+        long position = -1;
+        BufferedImage image;
+        Future<?> future;
+
+        @Override
+        public void run() {
+            try {
+                if (image == null) {
+                    image = new BufferedImage(frameWidth, frameHeight, BufferedImage.TYPE_INT_ARGB);
+                }
+                Image.readIntARGB(frames.get((int) (position % frames.size())), image);
+                state = READY;
+            } catch (IOException e) {
+                state = FAILED;
+            } catch (RuntimeException e) {
+                state = FAILED;
+            }
+        }
+    }
+
+    /**
+     * Creates a new SequenceTexture playing the image files in the directory
+     * in the order of their names.
+     */
+    public SequenceTexture(String directory, double fps) {
+        this(listImages(new File(directory)), fps);
+    }
+
+    /**
+     * Creates a new SequenceTexture playing the files.
+     */
+    public SequenceTexture(List<File> frames, double fps) {
+        this(frames, fps, DEFAULT_RING_SIZE, ImageLoader.getDefault());
+    }
+
+    /**
+     * Creates a new SequenceTexture.
+     *
+     * @param frames The image files of the frames.
+     * @param fps The frames per second.
+     * @param ringSize The number of frames decoded ahead.
+     * @param loader The loader whose threads decode the frames.
+     */
+    public SequenceTexture(List<File> frames, double fps, int ringSize, ImageLoader loader) {
+        super(0, 0);
+
+        if (frames.isEmpty()) {
+            throw new IllegalArgumentException("There are no frames.");
+        }
+        if (ringSize < 1) {
+            throw new IllegalArgumentException("ringSize must be more than zero.");
+        }
+        setFPS(fps);
+
+        this.frames = new ArrayList<File>(frames);
+        this.loader = loader;
+
+        int[] size = readSize(this.frames.get(0));
+        this.frameWidth = size[0];
+        this.frameHeight = size[1];
+        this.width = frameWidth;
+        this.height = frameHeight;
+
+        ring = new Slot[ringSize];
+        for (int i = 0; i < ringSize; i++) {
+            ring[i] = new Slot();
+        }
+    }
+
+    private static List<File> listImages(File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File f) {
+                String name = f.getName().toLowerCase();
+                return f.isFile() && (name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg") ||
+                                      name.endsWith(".bmp") || name.endsWith(".gif"));
+            }
+        });
+        if (files == null) {
+            throw new CasmiRuntimeException("Cannot list " + directory);
+        }
+        Arrays.sort(files);
+        List<File> list = new ArrayList<File>();
+        Collections.addAll(list, files);
+        return list;
+    }
+
+    private static int[] readSize(File file) {
+        try {
+            ImageInputStream in = ImageIO.createImageInputStream(file);
+            if (in == null) {
+                throw new CasmiRuntimeException("Cannot read " + file);
+            }
+            try {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+                if (!readers.hasNext()) {
+                    throw new CasmiRuntimeException("Unsupported image format: " + file);
+                }
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(in, true, true);
+                    return new int[] {reader.getWidth(0), reader.getHeight(0)};
+                } finally {
+                    reader.dispose();
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new CasmiRuntimeException(e);
+        }
+    }
+
+    /**
+     * Starts or resumes playback.
+     */
+    public synchronized void play() {
+        if (!playing) {
+            startMillis = now();
+            playing = true;
+        }
+    }
+
+    public synchronized void pause() {
+        if (playing) {
+            startPosition = clock(now());
+            playing = false;
+        }
+    }
+
+    /**
+     * Pauses and goes back to the first frame.
+     */
+    public synchronized void stop() {
+        pause();
+        seek(0);
+    }
+
+    /**
+     * Jumps to the frame.
+     */
+    public synchronized void seek(int frame) {
+        if (frame < 0 || frame >= frames.size()) {
+            throw new IllegalArgumentException("The frame is out of the sequence.");
+        }
+        startPosition = frame;
+        startMillis = now();
+        displayed = -1;
+    }
+
+    public synchronized boolean isPlaying() {
+        return playing;
+    }
+
+    public synchronized void setFPS(double fps) {
+        if (fps <= 0.0) {
+            throw new IllegalArgumentException("fps must be more than zero.");
+        }
+        if (playing) {
+            long now = now();
+            startPosition = clock(now);
+            startMillis = now;
+        }
+        this.fps = fps;
+    }
+
+    public synchronized double getFPS() {
+        return fps;
+    }
+
+    public synchronized void setLoop(boolean loop) {
+        this.loop = loop;
+    }
+
+    public synchronized boolean isLoop() {
+        return loop;
+    }
+
+    public synchronized void setDropPolicy(FrameDropPolicy policy) {
+        this.policy = policy;
+    }
+
+    public synchronized FrameDropPolicy getDropPolicy() {
+        return policy;
+    }
+
+    public int getFrameCount() {
+        return frames.size();
+    }
+
+    /**
+     * Returns the index of the frame shown, or -1 before the first frame is
+     * uploaded.
+     */
+    public synchronized int getCurrentFrame() {
+        return displayed < 0 ? -1 : (int) (displayed % frames.size());
+    }
+
+    /**
+     * Returns the number of frames skipped because they were late.
+     */
+    public synchronized long getDroppedFrameCount() {
+        return droppedFrames;
+    }
+
+    /**
+     * Returns the number of frames skipped because they could not be decoded.
+     */
+    public synchronized long getFailedFrameCount() {
+        return failedFrames;
+    }
+
+    // the time of the clock shared with Tweeners, so that offscreen
+    // rendering plays sequences at the frame rate of the recording
+    private static long now() {
+        return Tweener.getClock().currentTimeMillis();
+    }
+
+    private long clock(long now) {
+        if (!playing) {
+            return startPosition;
+        }
+        return startPosition + (long) Math.floor((now - startMillis) * fps / 1e3);
+    }
+
+    /**
+     * Uploads the frame of the current time, if it is decoded, and schedules
+     * decoding of the following frames.
+     */
+    @Override
+    public synchronized void render(GL2 gl) {
+        if (disposed) {
+            return;
+        }
+        if (requireToReload) {
+            // the GL objects belong to a lost context
+            texture = pbos[0] = pbos[1] = 0;
+            displayed = -1;
+            requireToReload = false;
+        }
+        if (texture == 0) {
+            init(gl);
+        }
+
+        if (!loader.canUpload()) {
+            // the uploads of this frame used up the budget; the clock runs
+            // on and the next frame picks up by the drop policy
+            prefetch();
+            return;
+        }
+
+        Slot show = select(now());
+        if (show != null) {
+            if (show.state == READY) {
+                upload(gl, show);
+            }
+            show.state = FREE;
+        }
+        prefetch();
+    }
+
+    // chooses the frame to show at the time, or null to keep the current one
+    private Slot select(long now) {
+        long target = clock(now);
+        if (displayed < 0) {
+            // the clock starts when the first frame is shown
+            target = startPosition;
+            startMillis = now;
+        }
+        if (!loop && target >= frames.size() - 1) {
+            target = frames.size() - 1;
+            if (playing && displayed == target) {
+                playing = false;
+                startPosition = target;
+            }
+        }
+        prefetchBase = Math.max(displayed + 1, target);
+
+        if (target == displayed) {
+            return null;
+        }
+
+        Slot show;
+        if (policy == FrameDropPolicy.HOLD && displayed >= 0 && target > displayed) {
+            show = find(displayed + 1);
+            if (show == null || show.state == DECODING) {
+                // wait for the frame; the clock restarts from the shown one
+                startPosition = displayed;
+                startMillis = now;
+                prefetchBase = displayed + 1;
+                return null;
+            }
+            if (target > show.position) {
+                startPosition = show.position;
+                startMillis = now;
+            }
+            prefetchBase = show.position + 1;
+        } else {
+            show = find(target);
+            if ((show == null || show.state == DECODING) && displayed >= 0 && target > displayed) {
+                show = latestReady(displayed, target);
+            }
+            if (show == null || show.state == DECODING) {
+                return null;
+            }
+        }
+
+        if (displayed >= 0 && show.position > displayed + 1) {
+            droppedFrames += show.position - displayed - 1;
+        }
+        if (show.state == FAILED) {
+            failedFrames++;
+        }
+        displayed = show.position;
+        prefetchBase = Math.max(prefetchBase, displayed + 1);
+        return show;
+    }
+
+    private Slot find(long position) {
+        for (Slot s : ring) {
+            if (s.position == position && s.state != FREE) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    // the latest decoded frame in (from, to)
+    private Slot latestReady(long from, long to) {
+        Slot best = null;
+        for (Slot s : ring) {
+            if ((s.state == READY || s.state == FAILED) && s.position > from && s.position < to &&
+                (best == null || s.position > best.position)) {
+                best = s;
+            }
+        }
+        return best;
+    }
+
+    private void prefetch() {
+        long base = prefetchBase;
+        long end = base + ring.length;
+        if (!loop) {
+            end = Math.min(end, frames.size());
+        }
+
+        // frames behind the base are not shown any more
+        for (Slot s : ring) {
+            if ((s.state == READY || s.state == FAILED) && (s.position < base || s.position >= end)) {
+                s.state = FREE;
+            }
+        }
+
+        for (long p = base; p < end; p++) {
+            if (find(p) != null) {
+                continue;
+            }
+            Slot free = null;
+            for (Slot s : ring) {
+                if (s.state == FREE) {
+                    free = s;
+                    break;
+                }
+            }
+            if (free == null) {
+                return;
+            }
+            free.position = p;
+            free.state = DECODING;
+            free.future = loader.execute(free);
+        }
+    }
+
+    private void init(GL2 gl) {
+        int[] ids = new int[1];
+        gl.glGenTextures(1, ids, 0);
+        texture = ids[0];
+
+        gl.glPushAttrib(GL2.GL_TEXTURE_BIT);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, texture);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+        gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA8, frameWidth, frameHeight, 0,
+                        GL.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, null);
+        gl.glPopAttrib();
+
+        gl.glGenBuffers(2, pbos, 0);
+    }
+
+    // copies the frame into a PBO and updates the texture from it
+    private void upload(GL2 gl, Slot slot) {
+        long start = System.nanoTime();
+        int[] pixels = ((DataBufferInt) slot.image.getRaster().getDataBuffer()).getData();
+        long bytes = (long) pixels.length * 4;
+
+        pboIndex ^= 1;
+        gl.glBindBuffer(GL2.GL_PIXEL_UNPACK_BUFFER, pbos[pboIndex]);
+        // orphans the storage so that the driver need not wait for the last upload
+        gl.glBufferData(GL2.GL_PIXEL_UNPACK_BUFFER, bytes, null, GL2.GL_STREAM_DRAW);
+        ByteBuffer mapped = gl.glMapBuffer(GL2.GL_PIXEL_UNPACK_BUFFER, GL2.GL_WRITE_ONLY);
+        if (mapped != null) {
+            mapped.order(ByteOrder.nativeOrder()).asIntBuffer().put(pixels);
+            gl.glUnmapBuffer(GL2.GL_PIXEL_UNPACK_BUFFER);
+
+            gl.glPushAttrib(GL2.GL_TEXTURE_BIT);
+            gl.glPushClientAttrib(GL2.GL_CLIENT_PIXEL_STORE_BIT);
+            gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 4);
+            gl.glBindTexture(GL.GL_TEXTURE_2D, texture);
+            gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, 0, 0, frameWidth, frameHeight,
+                               GL.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, 0L);
+            gl.glPopClientAttrib();
+            gl.glPopAttrib();
+        }
+        gl.glBindBuffer(GL2.GL_PIXEL_UNPACK_BUFFER, 0);
+
+        loader.addUploadTime(System.nanoTime() - start);
+    }
+
+    @Override
+    public void enableTexture(GL2 gl) {
+        gl.glEnable(GL.GL_TEXTURE_2D);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, texture);
+    }
+
+    @Override
+    public void disableTexture(GL2 gl) {
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+        gl.glDisable(GL.GL_TEXTURE_2D);
+    }
+
+    /**
+     * Stops decoding. The GL objects are deleted by {@link #dispose(GL2)}.
+     */
+    @Override
+    public synchronized void dispose() {
+        disposed = true;
+        playing = false;
+        for (Slot s : ring) {
+            if (s.future != null) {
+                s.future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Stops decoding and deletes the texture and the pixel buffers.
+     */
+    public synchronized void dispose(GL2 gl) {
+        dispose();
+        if (texture != 0) {
+            gl.glDeleteTextures(1, new int[] {texture}, 0);
+            gl.glDeleteBuffers(2, pbos, 0);
+            texture = pbos[0] = pbos[1] = 0;
+        }
+    }
+}
@@ -46,36 +46,55 @@ public class Texture {
     protected boolean requireToLoad = false;
     protected boolean requireToReload = false;
 
+    private TextureManager.Handle handle = null;
+
     private float[][] corner = { {0.0f, 1.0f}, {0.0f, 0.0f}, {1.0f, 0.0f}, {1.0f, 1.0f}};
 
+    // part of the GL texture mapped by the corners, e.g. a region of an atlas
+    private float regionU0 = 0.0f, regionV0 = 0.0f, regionU1 = 1.0f, regionV1 = 1.0f;
+
     /**
      * Creates a new Texture using the Image's path.
+     * <p>
+     * Textures of the same file share one Image and GL texture, so pixels
+     * changed through {@link #getImage()} show on all of them. Use
+     * {@link #Texture(Image)} with a new {@link Image} for a private copy.
      *
      * @param path The path of Image.
      *
      */
     public Texture(String path) {
-        this(new Image(path));
+        init(TextureManager.getDefault().acquire(path));
     }
 
     /**
      * Creates a new Texture using the Image's url.
+     * <p>
+     * Textures of the same URL share one Image and GL texture, so pixels
+     * changed through {@link #getImage()} show on all of them. Use
+     * {@link #Texture(Image)} with a new {@link Image} for a private copy.
      *
      * @param url The url of Image.
      *
      */
     public Texture(URL url) {
-        this(new Image(url));
+        init(TextureManager.getDefault().acquire(url));
     }
 
     /**
-     * Creates a new Texture using the Image.
+     * Creates a new Texture using the Image. Textures of the same Image
+     * share one GL texture.
      *
      * @param image The Image of this Texture.
      *
      */
     public Texture(Image image) {
+        init(TextureManager.getDefault().acquire(image));
+    }
+
+    private void init(Image image) {
         this.image = image;
+        handle = TextureManager.getDefault().hold(this, image);
         width = image.getWidth();
         height = image.getHeight();
 
@@ -83,26 +102,41 @@ public class Texture {
         requireToReload = false;
     }
 
+    /**
+     * Creates a new Texture without an Image, for textures which are
+     * generated on the GPU. Subclasses must override
+     * {@link #enableTexture(GL2)} and {@link #disableTexture(GL2)}.
+     *
+     * @param width The width of the Texture.
+     * @param height The height of the Texture.
+     */
+    protected Texture(double width, double height) {
+        this.image = null;
+        this.width = width;
+        this.height = height;
+    }
+
     public final Image getImage() {
         return this.image;
     }
 
-    public final void enableTexture(GL2 gl) {
+    public void enableTexture(GL2 gl) {
+        TextureManager.getDefault().use(gl, image);
         image.enableTexture(gl);
     }
 
-    public final void disableTexture(GL2 gl) {
+    public void disableTexture(GL2 gl) {
         image.disableTexture(gl);
     }
 
     public void render(GL2 gl) {
         if (requireToLoad) {
-            image.loadTexture();
+            TextureManager.getDefault().use(gl, image);
             requireToLoad = false;
         }
 
         if (requireToReload) {
-            image.reloadTexture(gl);
+            TextureManager.getDefault().reload(gl, image);
             requireToReload = false;
         }
     }
@@ -190,8 +224,46 @@ public class Texture {
 		corner[index][1] = (float)y;
 	}
 
+	/**
+	 * Returns a texture coordinate of a corner in the GL texture, within the
+	 * region of this Texture.
+	 */
 	public float getTextureCorner(int index1,int index2){
-		return corner[index1][index2];
+		float c = corner[index1][index2];
+		if (index2 == 0) {
+		    return regionU0 + c * (regionU1 - regionU0);
+		} else {
+		    return regionV0 + c * (regionV1 - regionV0);
+		}
+	}
+
+	/**
+	 * Sets the part of the GL texture which this Texture shows, in texture
+	 * coordinates where v = 0 is the top of the image. The corners set by
+	 * {@link #setTextureCorner(int, double, double)}, rotation and flip are
+	 * relative to this region.
+	 */
+	public void setRegion(double u0, double v0, double u1, double v1) {
+	    regionU0 = (float)u0;
+	    regionV0 = (float)v0;
+	    regionU1 = (float)u1;
+	    regionV1 = (float)v1;
+	}
+
+	public float getRegionU0() {
+	    return regionU0;
+	}
+
+	public float getRegionV0() {
+	    return regionV0;
+	}
+
+	public float getRegionU1() {
+	    return regionU1;
+	}
+
+	public float getRegionV1() {
+	    return regionV1;
 	}
 
 	public void reload() {
@@ -202,7 +274,31 @@ public class Texture {
 	    requireToLoad = true;
 	}
 
+	/**
+	 * Replaces the Image of this Texture with an acquired and resident one,
+	 * releasing the previous Image.
+	 */
+	void replaceImage(GL2 gl, Image image) {
+	    TextureManager manager = TextureManager.getDefault();
+	    manager.swap(handle, image);
+	    manager.use(gl, image);
+	    this.image = image;
+	    width = image.getWidth();
+	    height = image.getHeight();
+	}
+
+	/**
+	 * Releases the Image of this Texture. The GL texture is deleted when no
+	 * other Texture uses the same Image. A Texture which is garbage
+	 * collected without being disposed releases its Image at a later frame.
+	 */
+	public void dispose() {
+	    if (handle != null) {
+	        TextureManager.getDefault().unhold(handle);
+	    }
+	}
+
 	public BufferedImage getBufferedImage() {
-	    return image.getImg();
+	    return image == null ? null : image.getImg();
 	}
 }
@@ -0,0 +1,293 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Packs many small Images into a few large page Images, so that Textures
+ * of the atlas share a GL texture per page.
+ * <p>
+ * Each Image is placed by the MaxRects algorithm (best short side fit) with
+ * a border of padding pixels, filled by repeating its edge pixels so that
+ * linear filtering does not bleed neighbours in. A new page is opened when
+ * an Image fits in no page. The Texture returned by {@link #add(Image)} maps
+ * its corners to the region in the page, so it can be set to Rect, Quad,
+ * Triangle or Box like any other Texture; elements using the same page bind
+ * the same texture.
+ * <p>
+ * Images can be added after the pages are uploaded; only the modified
+ * regions are uploaded again.
+ *
+ * @author Xcoo Inc.
+ */
+public class TextureAtlas {
+
+    private final int pageWidth, pageHeight;
+    private final int padding;
+
+    private final List<Page> pages = new ArrayList<Page>();
+
+    /**
+     * Creates a new TextureAtlas with 2048x2048 pages and 2 pixels of padding.
+     */
+    public TextureAtlas() {
+        this(2048, 2048, 2);
+    }
+
+    /**
+     * Creates a new TextureAtlas.
+     *
+     * @param pageWidth The width of the pages.
+     * @param pageHeight The height of the pages.
+     * @param padding The pixels repeated around each Image.
+     */
+    public TextureAtlas(int pageWidth, int pageHeight, int padding) {
+        if (pageWidth <= 0 || pageHeight <= 0) {
+            throw new IllegalArgumentException("Width and height must be more than zero.");
+        }
+        if (padding < 0) {
+            throw new IllegalArgumentException("padding must not be negative.");
+        }
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+        this.padding = padding;
+    }
+
+    /**
+     * Adds the Image and returns a Texture showing it from a page.
+     *
+     * @throws IllegalArgumentException
+     *             if the Image with padding is larger than a page.
+     */
+    public synchronized Texture add(Image image) {
+        int w = image.getWidth() + 2 * padding;
+        int h = image.getHeight() + 2 * padding;
+        if (w > pageWidth || h > pageHeight) {
+            throw new IllegalArgumentException("The Image is larger than a page of the atlas.");
+        }
+
+        int[] position = new int[2];
+        for (Page page : pages) {
+            if (page.insert(w, h, position)) {
+                return copy(page, image, position[0], position[1]);
+            }
+        }
+
+        Page page = new Page(pageWidth, pageHeight);
+        pages.add(page);
+        page.insert(w, h, position);
+        return copy(page, image, position[0], position[1]);
+    }
+
+    /**
+     * Adds the Image at the path.
+     */
+    public Texture add(String path) {
+        return add(new Image(path));
+    }
+
+    /**
+     * Adds the Images, largest first, which packs tighter than adding them one
+     * by one. The Textures are returned in the order of the collection.
+     */
+    public synchronized List<Texture> addAll(Collection<Image> images) {
+        final List<Image> list = new ArrayList<Image>(images);
+        List<Integer> order = new ArrayList<Integer>(list.size());
+        for (int i = 0; i < list.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                Image ia = list.get(a), ib = list.get(b);
+                int sa = Math.max(ia.getWidth(), ia.getHeight());
+                int sb = Math.max(ib.getWidth(), ib.getHeight());
+                if (sa != sb) {
+                    return sa > sb ? -1 : 1;
+                }
+                long aa = (long) ia.getWidth() * ia.getHeight();
+                long ab = (long) ib.getWidth() * ib.getHeight();
+                return aa > ab ? -1 : (aa < ab ? 1 : 0);
+            }
+        });
+
+        Texture[] textures = new Texture[list.size()];
+        for (int i : order) {
+            textures[i] = add(list.get(i));
+        }
+        List<Texture> result = new ArrayList<Texture>(textures.length);
+        Collections.addAll(result, textures);
+        return result;
+    }
+
+    public synchronized int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Returns the Image of the page.
+     */
+    public synchronized Image getPage(int index) {
+        return pages.get(index).image;
+    }
+
+    /**
+     * Returns the ratio of the area used by Images and padding to the area of
+     * all pages.
+     */
+    public synchronized double getOccupancy() {
+        if (pages.isEmpty()) {
+            return 0.0;
+        }
+        long used = 0;
+        for (Page p : pages) {
+            used += p.usedArea;
+        }
+        return (double) used / ((long) pageWidth * pageHeight * pages.size());
+    }
+
+    public int getPageWidth() {
+        return pageWidth;
+    }
+
+    public int getPageHeight() {
+        return pageHeight;
+    }
+
+    public int getPadding() {
+        return padding;
+    }
+
+    private Texture copy(Page page, Image image, int x, int y) {
+        int w = image.getWidth(), h = image.getHeight();
+        int p = padding;
+        int[] pixels = page.image.getPixelData();
+
+        // the image, then its edges repeated into the padding
+        image.getPixels(0, 0, w, h, pixels, (y + p) * pageWidth + x + p, pageWidth);
+        for (int j = 0; j < h; j++) {
+            int row = (y + p + j) * pageWidth + x;
+            int left = pixels[row + p], right = pixels[row + p + w - 1];
+            for (int i = 0; i < p; i++) {
+                pixels[row + i] = left;
+                pixels[row + p + w + i] = right;
+            }
+        }
+        int rowWidth = w + 2 * p;
+        for (int i = 0; i < p; i++) {
+            System.arraycopy(pixels, (y + p) * pageWidth + x, pixels, (y + i) * pageWidth + x, rowWidth);
+            System.arraycopy(pixels, (y + p + h - 1) * pageWidth + x, pixels, (y + p + h + i) * pageWidth + x, rowWidth);
+        }
+        page.image.markDirty(x, y, rowWidth, h + 2 * p);
+
+        Texture t = new Texture(page.image);
+        t.width = w;
+        t.height = h;
+        t.setRegion((double) (x + p) / pageWidth,     (double) (y + p) / pageHeight,
+                    (double) (x + p + w) / pageWidth, (double) (y + p + h) / pageHeight);
+        return t;
+    }
+
+    // MaxRects bin with best short side fit
+    private static class Page {
+        final Image image;
+        final List<int[]> free = new ArrayList<int[]>();   // {x, y, w, h}
+        long usedArea = 0;
+
+        Page(int width, int height) {
+            image = new Image(width, height);
+            free.add(new int[] {0, 0, width, height});
+        }
+
+        boolean insert(int w, int h, int[] position) {
+            int[] best = null;
+            int bestShort = Integer.MAX_VALUE, bestLong = Integer.MAX_VALUE;
+            for (int[] f : free) {
+                if (f[2] >= w && f[3] >= h) {
+                    int dw = f[2] - w, dh = f[3] - h;
+                    int s = Math.min(dw, dh), l = Math.max(dw, dh);
+                    if (s < bestShort || (s == bestShort && l < bestLong)) {
+                        best = f;
+                        bestShort = s;
+                        bestLong = l;
+                    }
+                }
+            }
+            if (best == null) {
+                return false;
+            }
+
+            int x = best[0], y = best[1];
+            split(x, y, w, h);
+            position[0] = x;
+            position[1] = y;
+            usedArea += (long) w * h;
+            return true;
+        }
+
+        private void split(int x, int y, int w, int h) {
+            List<int[]> added = new ArrayList<int[]>();
+            for (int i = free.size() - 1; i >= 0; i--) {
+                int[] f = free.get(i);
+                if (x >= f[0] + f[2] || x + w <= f[0] || y >= f[1] + f[3] || y + h <= f[1]) {
+                    continue;
+                }
+                free.remove(i);
+                if (x > f[0]) {
+                    added.add(new int[] {f[0], f[1], x - f[0], f[3]});
+                }
+                if (x + w < f[0] + f[2]) {
+                    added.add(new int[] {x + w, f[1], f[0] + f[2] - x - w, f[3]});
+                }
+                if (y > f[1]) {
+                    added.add(new int[] {f[0], f[1], f[2], y - f[1]});
+                }
+                if (y + h < f[1] + f[3]) {
+                    added.add(new int[] {f[0], y + h, f[2], f[1] + f[3] - y - h});
+                }
+            }
+            free.addAll(added);
+
+            // remove free rectangles contained in others
+            for (int i = 0; i < free.size(); i++) {
+                int[] a = free.get(i);
+                for (int j = i + 1; j < free.size(); j++) {
+                    int[] b = free.get(j);
+                    if (contains(a, b)) {
+                        free.remove(j--);
+                    } else if (contains(b, a)) {
+                        free.remove(i--);
+                        break;
+                    }
+                }
+            }
+        }
+
+        private static boolean contains(int[] a, int[] b) {
+            return b[0] >= a[0] && b[1] >= a[1] &&
+                   b[0] + b[2] <= a[0] + a[2] && b[1] + b[3] <= a[1] + a[3];
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Cache of decoded images on disk, to skip decoding PNG and JPEG files at
+ * startup.
+ * <p>
+ * The cache is off unless a default cache is set by
+ * {@link #setDefault(TextureCache)}. Then Images read from files are looked
+ * up by the canonical path, modification time and size of the file; a miss
+ * decodes the file as usual and stores the pixels, and optionally the
+ * mipmap levels, as raw BGRA bytes. A hit maps the cache file and copies the
+ * pixels, and the texture of the Image is uploaded straight from the mapped
+ * levels without generating mipmaps.
+ *
+ * <pre>
+ * TextureCache.setDefault(new TextureCache(new File("cache")));
+ * </pre>
+ *
+ * @author Xcoo Inc.
+ */
+public class TextureCache {
+
+    private static final int MAGIC = 0x43524742;    // "CRGB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    private static volatile TextureCache defaultCache = null;
+
+    private final File directory;
+    private volatile boolean mipmaps = true;
+
+    /**
+     * Level images mapped from a cache file, largest first, as BGRA bytes.
+     */
+    static class Entry {
+        final int width, height;
+        final ByteBuffer[] levels;
+
+        Entry(int width, int height, ByteBuffer[] levels) {
+            this.width = width;
+            this.height = height;
+            this.levels = levels;
+        }
+
+        BufferedImage toBufferedImage() {
+            BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+            levels[0].duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(pixels);
+            return img;
+        }
+    }
+
+    /**
+     * Creates a new TextureCache storing files in the directory, which is
+     * created if it does not exist.
+     */
+    public TextureCache(File directory) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create " + directory);
+        }
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the cache used by Image, or null if caching is off.
+     */
+    public static TextureCache getDefault() {
+        return defaultCache;
+    }
+
+    /**
+     * Sets the cache used by Image; null turns caching off.
+     */
+    public static void setDefault(TextureCache cache) {
+        defaultCache = cache;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Sets whether mipmap levels are stored with new entries. The default is
+     * true.
+     */
+    public void setMipmaps(boolean mipmaps) {
+        this.mipmaps = mipmaps;
+    }
+
+    public boolean isMipmaps() {
+        return mipmaps;
+    }
+
+    /**
+     * Deletes all cache files.
+     */
+    public void clear() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.getName().endsWith(".rgba")) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the cached entry of the source file, or null if there is none
+     * or it is outdated.
+     */
+    Entry load(File source) {
+        File file = cacheFile(source);
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                // the mapping stays valid after the channel is closed
+                ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                                         .order(ByteOrder.LITTLE_ENDIAN);
+                if (data.remaining() < HEADER_SIZE || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+                    return null;
+                }
+                int width = data.getInt(8), height = data.getInt(12), levelCount = data.getInt(16);
+                if (width <= 0 || height <= 0 || levelCount < 1 ||
+                    levelCount > 32 - Integer.numberOfLeadingZeros(Math.max(width, height))) {
+                    return null;
+                }
+
+                ByteBuffer[] levels = new ByteBuffer[levelCount];
+                long position = HEADER_SIZE;
+                int w = width, h = height;
+                for (int l = 0; l < levelCount; l++) {
+                    long bytes = (long) w * h * 4;
+                    if (position + bytes > data.capacity()) {
+                        return null;
+                    }
+                    ByteBuffer b = data.duplicate();
+                    b.position((int) position);
+                    b.limit((int) (position + bytes));
+                    levels[l] = b.slice().order(ByteOrder.LITTLE_ENDIAN);
+                    position += bytes;
+                    w = Math.max(1, w / 2);
+                    h = Math.max(1, h / 2);
+                }
+                return new Entry(width, height, levels);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the decoded TYPE_INT_ARGB image of the source file. Failures are
+     * ignored, as the cache is only an optimization.
+     */
+    void store(File source, BufferedImage image) {
+        File file = cacheFile(source);
+        if (file == null || image.getType() != BufferedImage.TYPE_INT_ARGB) {
+            return;
+        }
+
+        int width = image.getWidth(), height = image.getHeight();
+        int[] level = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int levelCount = 1;
+        if (mipmaps) {
+            for (int w = width, h = height; w > 1 || h > 1; w = Math.max(1, w / 2), h = Math.max(1, h / 2)) {
+                levelCount++;
+            }
+        }
+
+        File temp = new File(directory, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+            try {
+                FileChannel channel = raf.getChannel();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(levelCount);
+                header.clear();
+                write(channel, header);
+
+                int w = width, h = height;
+                for (int l = 0; l < levelCount; l++) {
+                    if (l > 0) {
+                        level = downsample(level, w, h);
+                        w = Math.max(1, w / 2);
+                        h = Math.max(1, h / 2);
+                    }
+                    ByteBuffer b = ByteBuffer.allocateDirect(w * h * 4).order(ByteOrder.LITTLE_ENDIAN);
+                    b.asIntBuffer().put(level, 0, w * h);
+                    write(channel, b);
+                }
+            } finally {
+                raf.close();
+            }
+
+            // replaced at once so that readers never see a partial file
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    temp.delete();
+                }
+            }
+        } catch (IOException e) {
+            temp.delete();
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            channel.write(b);
+        }
+    }
+
+    // next mipmap level by averaging up to 2x2 pixels
+    static int[] downsample(int[] src, int w, int h) {
+        int dw = Math.max(1, w / 2), dh = Math.max(1, h / 2);
+        int[] dst = new int[dw * dh];
+        for (int y = 0; y < dh; y++) {
+            int y0 = Math.min(2 * y, h - 1), y1 = Math.min(2 * y + 1, h - 1);
+            for (int x = 0; x < dw; x++) {
+                int x0 = Math.min(2 * x, w - 1), x1 = Math.min(2 * x + 1, w - 1);
+                int p0 = src[y0 * w + x0], p1 = src[y0 * w + x1];
+                int p2 = src[y1 * w + x0], p3 = src[y1 * w + x1];
+                int result = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int sum = ((p0 >>> shift) & 0xff) + ((p1 >>> shift) & 0xff) +
+                              ((p2 >>> shift) & 0xff) + ((p3 >>> shift) & 0xff);
+                    result |= ((sum + 2) >> 2) << shift;
+                }
+                dst[y * dw + x] = result;
+            }
+        }
+        return dst;
+    }
+
+    // named by a hash of the path, the modification time and the size
+    private File cacheFile(File source) {
+        try {
+            String key = source.getCanonicalPath() + "\u0000" + source.lastModified() + "\u0000" + source.length();
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(directory, sb.append(".rgba").toString());
+        } catch (IOException e) {
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+}
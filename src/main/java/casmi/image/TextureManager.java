@@ -0,0 +1,414 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.media.opengl.GL2;
+
+/**
+ * Shares images and their GL textures between {@link Texture} objects.
+ * <p>
+ * Images loaded from the same path or URL are decoded once and uploaded
+ * once. Each {@link #acquire(String)} must be paired with a
+ * {@link #release(Image)}; when the last reference is released, the GL
+ * texture is deleted at the start of the next frame. If the textures in
+ * video memory exceed the budget, the least recently used ones are deleted
+ * and uploaded again when they are next used. Textures used in the current
+ * frame are never evicted.
+ * <p>
+ * A {@link Texture} holds its reference through a weak handle, so a Texture
+ * which becomes unreachable without {@link Texture#dispose()}, e.g. after
+ * it is replaced on an element, releases its image at a following frame.
+ * <p>
+ * Methods taking GL must be called on the rendering thread; the others can
+ * be called from any thread.
+ *
+ * @author Xcoo Inc.
+ */
+public class TextureManager {
+
+    public static final long DEFAULT_BUDGET = 256L * 1024 * 1024;
+
+    private static final TextureManager DEFAULT = new TextureManager(DEFAULT_BUDGET);
+
+    private static class Entry {
+        final Object key;
+        final Image image;
+        int refs = 0;
+        long bytes = 0;
+        long lastUsedFrame = -1;
+
+        Entry(Object key, Image image) {
+            this.key = key;
+            this.image = image;
+        }
+    }
+
+    /**
+     * The reference of a Texture to its image. It is released when the
+     * Texture is disposed or garbage collected.
+     */
+    static final class Handle extends WeakReference<Texture> {
+        Image image;
+
+        Handle(Texture texture, Image image, ReferenceQueue<Texture> queue) {
+            super(texture, queue);
+            this.image = image;
+        }
+    }
+
+    private final Map<Object, Entry> sources = new HashMap<Object, Entry>();
+    private final Map<Image, Entry> entries = new IdentityHashMap<Image, Entry>();
+
+    // resident entries in access order, least recently used first
+    private final LinkedHashMap<Image, Entry> resident = new LinkedHashMap<Image, Entry>(16, 0.75f, true);
+
+    // released images whose textures are deleted on the rendering thread
+    private final List<Image> garbage = new ArrayList<Image>();
+
+    // handles of live Textures; collected ones are enqueued to dropped
+    private final Set<Handle> handles = new HashSet<Handle>();
+    private final ReferenceQueue<Texture> dropped = new ReferenceQueue<Texture>();
+
+    private long budget;
+    private long residentBytes = 0;
+    private long frame = 0;
+
+    /**
+     * Creates a new TextureManager.
+     *
+     * @param budget
+     *            The maximum bytes of textures kept in video memory.
+     */
+    public TextureManager(long budget) {
+        setBudget(budget);
+    }
+
+    /**
+     * Returns the manager used by {@link Texture}.
+     */
+    public static TextureManager getDefault() {
+        return DEFAULT;
+    }
+
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    public synchronized void setBudget(long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("budget must be more than zero");
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the estimated bytes of the textures in video memory.
+     */
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public synchronized int getResidentCount() {
+        return resident.size();
+    }
+
+    /**
+     * Returns the number of images which have references.
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the shared image of the file, decoding it on the first call,
+     * and adds a reference.
+     */
+    public Image acquire(String path) {
+        Object key = fileKey(path);
+        synchronized (this) {
+            Entry e = sources.get(key);
+            if (e != null) {
+                e.refs++;
+                return e.image;
+            }
+        }
+
+        Image image = new Image(path);
+        return addSource(key, image);
+    }
+
+    /**
+     * Returns the shared image of the URL, decoding it on the first call,
+     * and adds a reference.
+     */
+    public Image acquire(URL url) {
+        Object key = url.toExternalForm();
+        synchronized (this) {
+            Entry e = sources.get(key);
+            if (e != null) {
+                e.refs++;
+                return e.image;
+            }
+        }
+
+        Image image = new Image(url);
+        return addSource(key, image);
+    }
+
+    /**
+     * Adds a reference to the image, so that the texture of the image is
+     * shared by everything acquiring the same object.
+     */
+    public synchronized Image acquire(Image image) {
+        Entry e = entries.get(image);
+        if (e == null) {
+            e = new Entry(null, image);
+            entries.put(image, e);
+        }
+        e.refs++;
+        return image;
+    }
+
+    private synchronized Image addSource(Object key, Image image) {
+        // another thread may have decoded the same source meanwhile
+        Entry e = sources.get(key);
+        if (e == null) {
+            e = new Entry(key, image);
+            sources.put(key, e);
+            entries.put(image, e);
+        }
+        e.refs++;
+        return e.image;
+    }
+
+    private static Object fileKey(String path) {
+        try {
+            return new File(path).getCanonicalFile();
+        } catch (IOException e) {
+            return new File(path).getAbsoluteFile();
+        }
+    }
+
+    /**
+     * Removes a reference. The texture of the image is deleted at the next
+     * frame after the last reference is removed.
+     *
+     * @throws IllegalStateException
+     *             if the image has no reference.
+     */
+    public synchronized void release(Image image) {
+        Entry e = entries.get(image);
+        if (e == null || e.refs <= 0) {
+            throw new IllegalStateException("Image is not acquired");
+        }
+
+        if (--e.refs == 0) {
+            entries.remove(image);
+            if (e.key != null) {
+                sources.remove(e.key);
+            }
+            if (resident.remove(image) != null) {
+                residentBytes -= e.bytes;
+                garbage.add(image);
+            }
+        }
+    }
+
+    /**
+     * Ties an acquired reference of the image to the texture.
+     */
+    synchronized Handle hold(Texture texture, Image image) {
+        Handle h = new Handle(texture, image, dropped);
+        handles.add(h);
+        return h;
+    }
+
+    /**
+     * Moves the handle to another image, acquiring the new one before
+     * releasing the old one. Does nothing if the handle is released.
+     */
+    synchronized void swap(Handle handle, Image image) {
+        if (!handles.contains(handle)) {
+            return;
+        }
+        acquire(image);
+        release(handle.image);
+        handle.image = image;
+    }
+
+    /**
+     * Releases the reference of the handle. Does nothing if it is already
+     * released.
+     */
+    synchronized void unhold(Handle handle) {
+        if (handles.remove(handle)) {
+            handle.clear();
+            release(handle.image);
+        }
+    }
+
+    private void releaseDropped() {
+        Reference<? extends Texture> r;
+        while ((r = dropped.poll()) != null) {
+            Handle h = (Handle) r;
+            if (handles.remove(h)) {
+                release(h.image);
+            }
+        }
+    }
+
+    /**
+     * Makes the texture of the image resident, uploading it if necessary,
+     * and marks it as used in the current frame. If the image has dirty
+     * regions, e.g. an Image added to a {@link TextureAtlas} page, they are
+     * uploaded again.
+     */
+    public synchronized void use(GL2 gl, Image image) {
+        Entry e = entries.get(image);
+        if (e == null) {
+            // not acquired; kept until it is evicted
+            e = new Entry(null, image);
+            entries.put(image, e);
+        }
+
+        if (resident.get(image) == null || image.getTexture() == null) {
+            upload(gl, e);
+        } else if (image.isDirty()) {
+            image.reloadTexture(gl);
+        }
+        e.lastUsedFrame = frame;
+    }
+
+    /**
+     * Uploads the pixels of the image again, e.g. after they are modified.
+     */
+    public synchronized void reload(GL2 gl, Image image) {
+        Entry e = entries.get(image);
+        if (e != null && resident.get(image) != null && image.getTexture() != null) {
+            image.reloadTexture(gl);
+            e.lastUsedFrame = frame;
+        } else {
+            use(gl, image);
+        }
+    }
+
+    /**
+     * Makes the texture which was uploaded by the {@link GLUploader} and set
+     * to the image resident, without uploading it again.
+     */
+    synchronized void adopt(GL2 gl, Image image) {
+        Entry e = entries.get(image);
+        if (e == null) {
+            e = new Entry(null, image);
+            entries.put(image, e);
+        }
+        if (resident.remove(image) != null) {
+            residentBytes -= e.bytes;
+        }
+
+        e.bytes = image.getTextureBytes();
+        e.lastUsedFrame = frame;
+        resident.put(image, e);
+        residentBytes += e.bytes;
+
+        evict(gl);
+    }
+
+    private void upload(GL2 gl, Entry e) {
+        if (resident.remove(e.image) != null) {
+            residentBytes -= e.bytes;
+        }
+
+        e.image.loadTexture(gl);
+        e.bytes = e.image.getTextureBytes();
+        resident.put(e.image, e);
+        residentBytes += e.bytes;
+
+        evict(gl);
+    }
+
+    private void evict(GL2 gl) {
+        Iterator<Entry> it = resident.values().iterator();
+        while (residentBytes > budget && it.hasNext()) {
+            Entry e = it.next();
+            if (e.lastUsedFrame == frame) {
+                // everything after this was used even more recently
+                break;
+            }
+            it.remove();
+            residentBytes -= e.bytes;
+            e.image.unloadTexture(gl);
+            if (e.refs == 0 && e.key == null) {
+                entries.remove(e.image);
+            }
+        }
+    }
+
+    /**
+     * Starts a new frame: releases the images of garbage collected
+     * Textures, deletes the textures of released images and evicts
+     * textures over the budget. Called by the Applet every frame.
+     */
+    public synchronized void nextFrame(GL2 gl) {
+        frame++;
+
+        releaseDropped();
+
+        for (Image image : garbage) {
+            image.unloadTexture(gl);
+        }
+        garbage.clear();
+
+        evict(gl);
+    }
+
+    /**
+     * Deletes all textures. Images which are still acquired are uploaded
+     * again when they are used.
+     */
+    public synchronized void dispose(GL2 gl) {
+        for (Entry e : resident.values()) {
+            e.image.unloadTexture(gl);
+        }
+        resident.clear();
+        residentBytes = 0;
+
+        for (Image image : garbage) {
+            image.unloadTexture(gl);
+        }
+        garbage.clear();
+    }
+}
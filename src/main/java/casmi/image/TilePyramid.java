@@ -0,0 +1,354 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Image pyramid stored as raw ARGB tiles in a file, for images too large to
+ * be held in memory.
+ * <p>
+ * Level 0 is the full resolution and each following level is half the size
+ * of the previous one, down to a level which fits in a single tile. Tiles
+ * are square, stored row by row from the top of each level as little-endian
+ * ARGB ints, and edge tiles are padded with transparent pixels. The file is
+ * memory-mapped in segments and {@link #getTile(int, int, int)} returns a view
+ * of the mapped tile without copying, so it can be called from any thread.
+ * <p>
+ * A pyramid is created once from an ordinary image file by
+ * {@link #build(File, File, int)}.
+ *
+ * @author Xcoo Inc.
+ */
+public class TilePyramid implements Closeable {
+
+    private static final int MAGIC = 0x43545031;    // "CTP1"
+    private static final int HEADER_SIZE = 64;
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+    private static final int MAX_TILE_SIZE = 16384;     // a tile fits in a segment
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    private final int width, height, tileSize, levels;
+    private final long[] levelTiles;    // index of the first tile of each level
+    private final int tileBytes;
+    private final int tilesPerSegment;
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * Opens a pyramid created by {@link #build(File, File, int)}.
+     */
+    public TilePyramid(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        channel = file.getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < 20 || header.getInt() != MAGIC) {
+            close();
+            throw new IOException("Not a tile pyramid: " + path);
+        }
+        width = header.getInt();
+        height = header.getInt();
+        tileSize = header.getInt();
+        levels = header.getInt();
+
+        // build() always writes levelCount levels of tiles of even size
+        if (width <= 0 || height <= 0 || tileSize <= 0 || tileSize % 2 != 0 ||
+            tileSize > MAX_TILE_SIZE || levels != levelCount(width, height, tileSize)) {
+            close();
+            throw new IOException("Tile pyramid has a broken header: " + path);
+        }
+
+        levelTiles = tileIndices(width, height, tileSize, levels);
+        tileBytes = tileSize * tileSize * 4;
+        tilesPerSegment = (int) Math.max(1, MAX_SEGMENT_SIZE / tileBytes);
+        long tiles = levelTiles[levels];
+
+        if (channel.size() < HEADER_SIZE + tiles * tileBytes) {
+            close();
+            throw new IOException("Tile pyramid is truncated: " + path);
+        }
+        segments = new MappedByteBuffer[(int) ((tiles + tilesPerSegment - 1) / tilesPerSegment)];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getLevelCount() {
+        return levels;
+    }
+
+    /**
+     * Returns the width of the level in pixels.
+     */
+    public int getLevelWidth(int level) {
+        return levelSize(width, level);
+    }
+
+    public int getLevelHeight(int level) {
+        return levelSize(height, level);
+    }
+
+    /**
+     * Returns the number of tile columns of the level.
+     */
+    public int getColumns(int level) {
+        return (getLevelWidth(level) + tileSize - 1) / tileSize;
+    }
+
+    public int getRows(int level) {
+        return (getLevelHeight(level) + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * Returns the pixels of a tile as little-endian ARGB ints, tileSize
+     * squared, mapped from the file.
+     */
+    public ByteBuffer getTile(int level, int column, int row) throws IOException {
+        if (level < 0 || level >= levels || column < 0 || column >= getColumns(level) ||
+            row < 0 || row >= getRows(level)) {
+            throw new IllegalArgumentException("The tile is out of the pyramid.");
+        }
+
+        long index = levelTiles[level] + (long) row * getColumns(level) + column;
+        int s = (int) (index / tilesPerSegment);
+        int position = (int) (index % tilesPerSegment) * tileBytes;
+
+        ByteBuffer b = segment(s).duplicate();
+        b.position(position);
+        b.limit(position + tileBytes);
+        return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private synchronized MappedByteBuffer segment(int s) throws IOException {
+        if (segments[s] == null) {
+            long start = HEADER_SIZE + (long) s * tilesPerSegment * tileBytes;
+            long size = Math.min((long) tilesPerSegment * tileBytes,
+                                 HEADER_SIZE + levelTiles[levels] * tileBytes - start);
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        }
+        return segments[s];
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private static int levelSize(int size, int level) {
+        return (int) (((long) size + (1L << level) - 1) >> level);
+    }
+
+    private static int levelCount(int width, int height, int tileSize) {
+        int levels = 1;
+        while (levelSize(width, levels - 1) > tileSize || levelSize(height, levels - 1) > tileSize) {
+            levels++;
+        }
+        return levels;
+    }
+
+    private static long[] tileIndices(int width, int height, int tileSize, int levels) {
+        long[] indices = new long[levels + 1];
+        for (int l = 0; l < levels; l++) {
+            long cols = (levelSize(width, l) + tileSize - 1) / tileSize;
+            long rows = (levelSize(height, l) + tileSize - 1) / tileSize;
+            indices[l + 1] = indices[l] + cols * rows;
+        }
+        return indices;
+    }
+
+    /**
+     * Creates a pyramid from an image file readable by ImageIO.
+     * <p>
+     * The source is read in bands of one tile row, so only a band is held in
+     * memory. Readers without random access decode the rows above each band
+     * again, which makes the conversion slow for very large files; it is
+     * meant to be done once, offline.
+     *
+     * @param source The image file.
+     * @param destination The pyramid file to write.
+     * @param tileSize The width and height of tiles, an even number such as 256.
+     */
+    public static void build(File source, File destination, int tileSize) throws IOException {
+        if (tileSize <= 0 || tileSize % 2 != 0 || tileSize > MAX_TILE_SIZE) {
+            throw new IllegalArgumentException("tileSize must be a positive even number up to " + MAX_TILE_SIZE + ".");
+        }
+
+        ImageInputStream in = ImageIO.createImageInputStream(source);
+        if (in == null) {
+            throw new IOException("Cannot read " + source);
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + source);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, false, true);
+                build(reader, destination, tileSize);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void build(ImageReader reader, File destination, int tileSize) throws IOException {
+        int width = reader.getWidth(0), height = reader.getHeight(0);
+        int levels = levelCount(width, height, tileSize);
+        long[] levelTiles = tileIndices(width, height, tileSize, levels);
+        int tileBytes = tileSize * tileSize * 4;
+
+        RandomAccessFile out = new RandomAccessFile(destination, "rw");
+        try {
+            FileChannel channel = out.getChannel();
+            out.setLength(HEADER_SIZE + levelTiles[levels] * tileBytes);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(width).putInt(height).putInt(tileSize).putInt(levels);
+            header.clear();
+            channel.write(header, 0);
+
+            ByteBuffer tile = ByteBuffer.allocateDirect(tileBytes).order(ByteOrder.LITTLE_ENDIAN);
+            IntBuffer tilePixels = tile.asIntBuffer();
+
+            // level 0 from the source, a band of tiles at a time
+            int cols = (width + tileSize - 1) / tileSize;
+            int rows = (height + tileSize - 1) / tileSize;
+            int[] band = new int[width * tileSize];
+            ImageReadParam param = reader.getDefaultReadParam();
+            for (int r = 0; r < rows; r++) {
+                int y = r * tileSize;
+                int h = Math.min(tileSize, height - y);
+                param.setSourceRegion(new Rectangle(0, y, width, h));
+                BufferedImage img = reader.read(0, param);
+                img.getRGB(0, 0, width, h, band, 0, width);
+
+                for (int c = 0; c < cols; c++) {
+                    int x = c * tileSize;
+                    int w = Math.min(tileSize, width - x);
+                    tilePixels.clear();
+                    for (int j = 0; j < tileSize; j++) {
+                        for (int i = 0; i < tileSize; i++) {
+                            tilePixels.put(i < w && j < h ? band[j * width + x + i] : 0);
+                        }
+                    }
+                    writeTile(channel, tile, HEADER_SIZE + ((long) r * cols + c) * tileBytes);
+                }
+            }
+
+            // each level from the previous one by averaging 2x2 pixels
+            ByteBuffer child = ByteBuffer.allocateDirect(tileBytes).order(ByteOrder.LITTLE_ENDIAN);
+            IntBuffer childPixels = child.asIntBuffer();
+            int[] pixels = new int[tileSize * tileSize];
+            for (int l = 1; l < levels; l++) {
+                int pw = levelSize(width, l - 1), ph = levelSize(height, l - 1);
+                int pcols = (pw + tileSize - 1) / tileSize, prows = (ph + tileSize - 1) / tileSize;
+                cols = (levelSize(width, l) + tileSize - 1) / tileSize;
+                rows = (levelSize(height, l) + tileSize - 1) / tileSize;
+
+                for (int r = 0; r < rows; r++) {
+                    for (int c = 0; c < cols; c++) {
+                        Arrays.fill(pixels, 0);
+                        for (int q = 0; q < 4; q++) {
+                            int cc = 2 * c + (q & 1), cr = 2 * r + (q >> 1);
+                            if (cc >= pcols || cr >= prows) {
+                                continue;
+                            }
+                            child.clear();
+                            channel.read(child, HEADER_SIZE + (levelTiles[l - 1] + (long) cr * pcols + cc) * tileBytes);
+                            childPixels.clear();
+
+                            // valid pixels of the child tile
+                            int vw = Math.min(tileSize, pw - cc * tileSize);
+                            int vh = Math.min(tileSize, ph - cr * tileSize);
+                            int ox = (q & 1) * tileSize / 2, oy = (q >> 1) * tileSize / 2;
+                            downsample(childPixels, vw, vh, tileSize, pixels, ox, oy);
+                        }
+                        tilePixels.clear();
+                        tilePixels.put(pixels);
+                        writeTile(channel, tile, HEADER_SIZE + (levelTiles[l] + (long) r * cols + c) * tileBytes);
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void downsample(IntBuffer src, int vw, int vh, int tileSize,
+                                   int[] dst, int ox, int oy) {
+        for (int y = 0; y < (vh + 1) / 2; y++) {
+            for (int x = 0; x < (vw + 1) / 2; x++) {
+                int a = 0, r = 0, g = 0, b = 0, n = 0;
+                for (int j = 2 * y; j < Math.min(2 * y + 2, vh); j++) {
+                    for (int i = 2 * x; i < Math.min(2 * x + 2, vw); i++) {
+                        int p = src.get(j * tileSize + i);
+                        a += p >>> 24;
+                        r += (p >> 16) & 0xff;
+                        g += (p >> 8) & 0xff;
+                        b += p & 0xff;
+                        n++;
+                    }
+                }
+                dst[(oy + y) * tileSize + ox + x] =
+                    (a + n / 2) / n << 24 | (r + n / 2) / n << 16 | (g + n / 2) / n << 8 | (b + n / 2) / n;
+            }
+        }
+    }
+
+    private static void writeTile(FileChannel channel, ByteBuffer tile, long position) throws IOException {
+        tile.clear();
+        while (tile.hasRemaining()) {
+            position += channel.write(tile, position);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+import casmi.graphics.Graphics;
+import casmi.graphics.canvas.RootCanvas;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * Captures an image larger than the viewport by rendering the scene in tiles.
+ * <p>
+ * Each tile is rendered through a sub-region of the current projection
+ * (Perspective, Ortho, Frustum or the default one) and read back. A row of
+ * tiles is written to a PNG file at a time, so the memory used is bounded
+ * by the width of the image times the height of a tile.
+ * <p>
+ * The scene keeps its logical size; only the resolution is increased. The
+ * aspect ratio of the captured image should be the same as the one of the
+ * window to avoid distortion.
+ *
+ * @author Xcoo Inc.
+ */
+public class TiledCapture {
+
+    private final File file;
+    private final int width;
+    private final int height;
+
+    private int tileWidth  = 0;
+    private int tileHeight = 0;
+    private boolean alpha  = false;
+
+    /**
+     * Creates a new TiledCapture.
+     *
+     * @param file
+     *            The output PNG file.
+     * @param width
+     *            The width of the captured image.
+     * @param height
+     *            The height of the captured image.
+     */
+    public TiledCapture(File file, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Size of the image must be positive.");
+        }
+
+        this.file = file;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Renders all tiles and writes the image. Must be called on the rendering
+     * thread. Tweeners are not animated during the capture.
+     *
+     * @param g
+     *            The Graphics of the rendering thread.
+     * @param root
+     *            The canvas to render.
+     */
+    public void capture(Graphics g, RootCanvas root) throws IOException {
+        GL2 gl = g.getGL();
+
+        int[] viewport = new int[4];
+        gl.glGetIntegerv(GL.GL_VIEWPORT, viewport, 0);
+
+        // tiles must fit in the framebuffer
+        int tw = Math.min(tileWidth  > 0 ? tileWidth  : viewport[2], width);
+        int th = Math.min(tileHeight > 0 ? tileHeight : viewport[3], height);
+        tw = Math.min(tw, viewport[2]);
+        th = Math.min(th, viewport[3]);
+
+        int[] band = new int[width * th];
+        IntBuffer pixels = Buffers.newDirectIntBuffer(tw * th);
+
+        PNGStreamWriter writer = new PNGStreamWriter(file, width, height, alpha);
+        try {
+            gl.glPixelStorei(GL.GL_PACK_ALIGNMENT, 4);
+
+            // PNG is written from top to bottom, while GL is bottom-up
+            for (int top = 0; top < height; top += th) {
+                int h  = Math.min(th, height - top);
+                int y0 = height - top - h;
+
+                for (int x0 = 0; x0 < width; x0 += tw) {
+                    int w = Math.min(tw, width - x0);
+
+                    g.setTile((double)x0 / width,        (double)y0 / height,
+                              (double)(x0 + w) / width,  (double)(y0 + h) / height);
+                    gl.glViewport(0, 0, w, h);
+                    root.renderScene(g);
+
+                    pixels.clear();
+                    gl.glReadPixels(0, 0, w, h, GL.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, pixels);
+
+                    for (int y = 0; y < h; y++) {
+                        pixels.position((h - 1 - y) * w);
+                        pixels.get(band, y * width + x0, w);
+                    }
+                }
+
+                writer.writeRows(band, 0, width, h);
+            }
+
+            writer.close();
+        } finally {
+            g.clearTile();
+            gl.glViewport(viewport[0], viewport[1], viewport[2], viewport[3]);
+
+            try {
+                writer.close();
+            } catch (IOException e) {
+                // the original exception is thrown
+            }
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    /**
+     * Sets the size of a tile. The size is limited to the viewport. If 0 is
+     * set, the size of the viewport is used.
+     */
+    public void setTileSize(int tileWidth, int tileHeight) {
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+    }
+
+    public boolean isAlpha() {
+        return alpha;
+    }
+
+    /**
+     * If true, writes the alpha channel instead of an opaque image.
+     */
+    public void setAlpha(boolean alpha) {
+        this.alpha = alpha;
+    }
+}
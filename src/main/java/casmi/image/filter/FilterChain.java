@@ -0,0 +1,335 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image.filter;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+import casmi.exception.CasmiRuntimeException;
+
+/**
+ * Sequence of {@link ShaderFilter}s rendered on the GPU through framebuffer
+ * objects.
+ * <p>
+ * Passes alternate between two render targets which are allocated once and
+ * reused every frame; they are reallocated only when the size changes. The
+ * chain can filter a texture (see {@link FilteredTexture}) or the whole
+ * scene, by rendering it between {@link #beginCapture(GL2, int, int)} and
+ * {@link #endCapture(GL2)} (see {@code Applet.setPostProcess}).
+ * <p>
+ * Methods taking GL must be called on the rendering thread.
+ *
+ * @author Xcoo Inc.
+ */
+public class FilterChain {
+
+    private final List<ShaderFilter> filters = new CopyOnWriteArrayList<ShaderFilter>();
+
+    // ping-pong targets
+    private final int[] fbos = new int[2];
+    private final int[] textures = new int[2];
+    private int width = 0, height = 0;
+
+    // scene capture
+    private int sceneFbo = 0, sceneTexture = 0, sceneDepth = 0;
+    private int sceneWidth = 0, sceneHeight = 0;
+    private final int[] captureState = new int[5];
+    private boolean capturing = false;
+
+    private int copyProgram = 0;
+
+    public FilterChain add(ShaderFilter filter) {
+        if (filter == null) {
+            throw new IllegalArgumentException("filter must not be null.");
+        }
+        filters.add(filter);
+        return this;
+    }
+
+    public FilterChain remove(ShaderFilter filter) {
+        filters.remove(filter);
+        return this;
+    }
+
+    public void clear() {
+        filters.clear();
+    }
+
+    public List<ShaderFilter> getFilters() {
+        return filters;
+    }
+
+    /**
+     * Adds a Gaussian blur as a horizontal and a vertical pass.
+     */
+    public FilterChain blur(double sigma) {
+        add(ShaderFilter.blur(sigma, true));
+        return add(ShaderFilter.blur(sigma, false));
+    }
+
+    /**
+     * Adds a bloom: a bright pass, a blur and the sum with the input.
+     */
+    public FilterChain bloom(double threshold, double sigma, double intensity) {
+        add(ShaderFilter.brightPass(threshold));
+        blur(sigma);
+        return add(ShaderFilter.addOriginal(intensity));
+    }
+
+    /**
+     * Runs the filters on a texture and returns the GL name of the texture
+     * holding the result, which stays valid until the next call. The input
+     * is returned if there are no filters.
+     */
+    public int apply(GL2 gl, int texture, int width, int height) {
+        if (filters.isEmpty()) {
+            return texture;
+        }
+        allocate(gl, width, height);
+
+        int[] prev = new int[2];
+        gl.glGetIntegerv(GL.GL_FRAMEBUFFER_BINDING, prev, 0);
+        gl.glGetIntegerv(GL2.GL_CURRENT_PROGRAM, prev, 1);
+        begin(gl);
+        gl.glViewport(0, 0, width, height);
+
+        int source = texture;
+        int target = 0;
+        for (ShaderFilter f : filters) {
+            gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, fbos[target]);
+            f.apply(gl, source, texture, width, height);
+            source = textures[target];
+            target ^= 1;
+        }
+
+        gl.glActiveTexture(GL.GL_TEXTURE1);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+        gl.glActiveTexture(GL.GL_TEXTURE0);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+        gl.glUseProgram(prev[1]);
+        gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, prev[0]);
+        end(gl);
+        return source;
+    }
+
+    /**
+     * Redirects rendering into an offscreen target of the given size, usually
+     * the size of the viewport.
+     */
+    public void beginCapture(GL2 gl, int width, int height) {
+        if (capturing) {
+            throw new IllegalStateException("beginCapture() is already called.");
+        }
+        allocateScene(gl, width, height);
+
+        gl.glGetIntegerv(GL.GL_FRAMEBUFFER_BINDING, captureState, 0);
+        gl.glGetIntegerv(GL.GL_VIEWPORT, captureState, 1);
+        gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, sceneFbo);
+        gl.glViewport(0, 0, width, height);
+        capturing = true;
+    }
+
+    /**
+     * Runs the filters on what was rendered since
+     * {@link #beginCapture(GL2, int, int)} and draws the result to the
+     * previous framebuffer.
+     */
+    public void endCapture(GL2 gl) {
+        if (!capturing) {
+            throw new IllegalStateException("beginCapture() is not called.");
+        }
+        capturing = false;
+
+        gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, captureState[0]);
+        int result = apply(gl, sceneTexture, sceneWidth, sceneHeight);
+
+        if (copyProgram == 0) {
+            copyProgram = ShaderFilter.link(gl,
+                "#version 120\n" +
+                "uniform sampler2D source;\n" +
+                "void main() {\n" +
+                "    gl_FragColor = texture2D(source, gl_TexCoord[0].st);\n" +
+                "}\n");
+        }
+
+        int[] prevProgram = new int[1];
+        gl.glGetIntegerv(GL2.GL_CURRENT_PROGRAM, prevProgram, 0);
+        begin(gl);
+        gl.glViewport(captureState[1], captureState[2], captureState[3], captureState[4]);
+        gl.glActiveTexture(GL.GL_TEXTURE0);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, result);
+        gl.glUseProgram(copyProgram);
+        gl.glUniform1i(gl.glGetUniformLocation(copyProgram, "source"), 0);
+        drawQuad(gl);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+        gl.glUseProgram(prevProgram[0]);
+        end(gl);
+    }
+
+    /**
+     * Deletes the render targets and the shader programs of the filters.
+     */
+    public void dispose(GL2 gl) {
+        for (ShaderFilter f : filters) {
+            f.dispose(gl);
+        }
+        if (copyProgram != 0) {
+            gl.glDeleteProgram(copyProgram);
+            copyProgram = 0;
+        }
+        releaseTargets(gl);
+        releaseScene(gl);
+    }
+
+    private void begin(GL2 gl) {
+        gl.glPushAttrib(GL2.GL_VIEWPORT_BIT | GL2.GL_ENABLE_BIT | GL2.GL_TEXTURE_BIT |
+                        GL2.GL_TRANSFORM_BIT | GL2.GL_COLOR_BUFFER_BIT);
+        gl.glMatrixMode(GL2.GL_PROJECTION);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+
+        gl.glDisable(GL.GL_DEPTH_TEST);
+        gl.glDisable(GL.GL_BLEND);
+        gl.glDisable(GL.GL_CULL_FACE);
+        gl.glDisable(GL2.GL_LIGHTING);
+    }
+
+    private void end(GL2 gl) {
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glPopMatrix();
+        gl.glMatrixMode(GL2.GL_PROJECTION);
+        gl.glPopMatrix();
+        gl.glPopAttrib();
+    }
+
+    static void drawQuad(GL2 gl) {
+        gl.glBegin(GL2.GL_QUADS);
+        gl.glTexCoord2f(0f, 0f);
+        gl.glVertex2f(-1f, -1f);
+        gl.glTexCoord2f(1f, 0f);
+        gl.glVertex2f( 1f, -1f);
+        gl.glTexCoord2f(1f, 1f);
+        gl.glVertex2f( 1f,  1f);
+        gl.glTexCoord2f(0f, 1f);
+        gl.glVertex2f(-1f,  1f);
+        gl.glEnd();
+    }
+
+    private void allocate(GL2 gl, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Width and height must be more than zero.");
+        }
+        if (fbos[0] != 0 && this.width == width && this.height == height) {
+            return;
+        }
+        releaseTargets(gl);
+
+        gl.glGenTextures(2, textures, 0);
+        gl.glGenFramebuffers(2, fbos, 0);
+        for (int i = 0; i < 2; i++) {
+            createColorTexture(gl, textures[i], width, height);
+            attach(gl, fbos[i], textures[i], 0);
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    private void allocateScene(GL2 gl, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Width and height must be more than zero.");
+        }
+        if (sceneFbo != 0 && sceneWidth == width && sceneHeight == height) {
+            return;
+        }
+        releaseScene(gl);
+
+        int[] ids = new int[1];
+        gl.glGenTextures(1, ids, 0);
+        sceneTexture = ids[0];
+        createColorTexture(gl, sceneTexture, width, height);
+
+        gl.glGenRenderbuffers(1, ids, 0);
+        sceneDepth = ids[0];
+        gl.glBindRenderbuffer(GL.GL_RENDERBUFFER, sceneDepth);
+        gl.glRenderbufferStorage(GL.GL_RENDERBUFFER, GL.GL_DEPTH24_STENCIL8, width, height);
+        gl.glBindRenderbuffer(GL.GL_RENDERBUFFER, 0);
+
+        gl.glGenFramebuffers(1, ids, 0);
+        sceneFbo = ids[0];
+        attach(gl, sceneFbo, sceneTexture, sceneDepth);
+
+        sceneWidth = width;
+        sceneHeight = height;
+    }
+
+    private static void createColorTexture(GL2 gl, int texture, int width, int height) {
+        gl.glPushAttrib(GL2.GL_TEXTURE_BIT);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, texture);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+        gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA8, width, height, 0,
+                        GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, null);
+        gl.glPopAttrib();
+    }
+
+    private static void attach(GL2 gl, int fbo, int texture, int depthStencil) {
+        int[] prev = new int[1];
+        gl.glGetIntegerv(GL.GL_FRAMEBUFFER_BINDING, prev, 0);
+        gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, fbo);
+        gl.glFramebufferTexture2D(GL.GL_FRAMEBUFFER, GL.GL_COLOR_ATTACHMENT0, GL.GL_TEXTURE_2D, texture, 0);
+        if (depthStencil != 0) {
+            gl.glFramebufferRenderbuffer(GL.GL_FRAMEBUFFER, GL.GL_DEPTH_ATTACHMENT, GL.GL_RENDERBUFFER, depthStencil);
+            gl.glFramebufferRenderbuffer(GL.GL_FRAMEBUFFER, GL.GL_STENCIL_ATTACHMENT, GL.GL_RENDERBUFFER, depthStencil);
+        }
+        int status = gl.glCheckFramebufferStatus(GL.GL_FRAMEBUFFER);
+        gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, prev[0]);
+
+        if (status != GL.GL_FRAMEBUFFER_COMPLETE) {
+            throw new CasmiRuntimeException("Filter framebuffer is incomplete: 0x" + Integer.toHexString(status));
+        }
+    }
+
+    private void releaseTargets(GL2 gl) {
+        if (fbos[0] != 0) {
+            gl.glDeleteFramebuffers(2, fbos, 0);
+            gl.glDeleteTextures(2, textures, 0);
+            fbos[0] = fbos[1] = textures[0] = textures[1] = 0;
+            width = height = 0;
+        }
+    }
+
+    private void releaseScene(GL2 gl) {
+        if (sceneFbo != 0) {
+            gl.glDeleteFramebuffers(1, new int[] {sceneFbo}, 0);
+            gl.glDeleteTextures(1, new int[] {sceneTexture}, 0);
+            gl.glDeleteRenderbuffers(1, new int[] {sceneDepth}, 0);
+            sceneFbo = sceneTexture = sceneDepth = 0;
+            sceneWidth = sceneHeight = 0;
+        }
+    }
+}
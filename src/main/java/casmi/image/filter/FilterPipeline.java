@@ -0,0 +1,489 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import casmi.image.Image;
+
+/**
+ * Sequence of image filters run over the ARGB pixels of an {@link Image}.
+ * <p>
+ * Each pass is split into bands of rows which are processed in parallel on
+ * a shared ForkJoinPool. Consecutive point operations are fused into one
+ * pass, and those given by lookup tables into a single table per channel,
+ * so that a chain of adjustments reads and writes the pixels once.
+ * Convolutions treat the four channels independently and clamp at the
+ * edges.
+ *
+ * <pre>
+ * Image out = new FilterPipeline()
+ *     .gaussianBlur(2.0)
+ *     .levels(0.1, 0.9, 1.2, 0.0, 1.0)
+ *     .grayscale()
+ *     .resize(640, 360)
+ *     .apply(in);
+ * </pre>
+ *
+ * A pipeline can be applied from several threads once it is built.
+ *
+ * @author Xcoo Inc.
+ */
+public class FilterPipeline {
+
+    // rows per task are chosen so that a task has at least this many pixels
+    private static final int MIN_PIXELS_PER_TASK = 16384;
+
+    private static class Pool {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    private final List<Object> stages = new ArrayList<Object>();
+
+    private static class Convolution {
+        final float[] kernelX, kernelY;
+
+        Convolution(float[] kernelX, float[] kernelY) {
+            this.kernelX = kernelX;
+            this.kernelY = kernelY;
+        }
+    }
+
+    private static class Resize {
+        final int width, height;
+
+        Resize(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * Adds a point operation.
+     */
+    public FilterPipeline point(PointOp op) {
+        if (op == null) {
+            throw new IllegalArgumentException("op must not be null.");
+        }
+        stages.add(op);
+        return this;
+    }
+
+    public FilterPipeline threshold(double threshold) {
+        return point(PointOp.threshold(threshold));
+    }
+
+    public FilterPipeline levels(double inBlack, double inWhite, double gamma,
+                                 double outBlack, double outWhite) {
+        return point(PointOp.levels(inBlack, inWhite, gamma, outBlack, outWhite));
+    }
+
+    public FilterPipeline invert() {
+        return point(PointOp.invert());
+    }
+
+    public FilterPipeline grayscale() {
+        return point(PointOp.grayscale());
+    }
+
+    public FilterPipeline rgbToHsb() {
+        return point(PointOp.rgbToHsb());
+    }
+
+    public FilterPipeline hsbToRgb() {
+        return point(PointOp.hsbToRgb());
+    }
+
+    /**
+     * Adds a separable convolution: a horizontal pass with kernelX followed by
+     * a vertical pass with kernelY. Kernels must have odd lengths; either can
+     * be null to skip the pass.
+     */
+    public FilterPipeline convolve(float[] kernelX, float[] kernelY) {
+        checkKernel(kernelX);
+        checkKernel(kernelY);
+        stages.add(new Convolution(kernelX == null ? null : kernelX.clone(),
+                                   kernelY == null ? null : kernelY.clone()));
+        return this;
+    }
+
+    private static void checkKernel(float[] kernel) {
+        if (kernel != null && kernel.length % 2 == 0) {
+            throw new IllegalArgumentException("Kernel length must be odd.");
+        }
+    }
+
+    /**
+     * Adds a Gaussian blur.
+     *
+     * @param sigma
+     *            The standard deviation in pixels.
+     */
+    public FilterPipeline gaussianBlur(double sigma) {
+        if (sigma <= 0.0) {
+            throw new IllegalArgumentException("sigma must be more than zero.");
+        }
+        int r = (int) Math.ceil(sigma * 3.0);
+        float[] k = new float[2 * r + 1];
+        double sum = 0.0;
+        for (int i = -r; i <= r; i++) {
+            sum += k[i + r] = (float) Math.exp(-(i * i) / (2.0 * sigma * sigma));
+        }
+        for (int i = 0; i < k.length; i++) {
+            k[i] /= sum;
+        }
+        return convolve(k, k);
+    }
+
+    /**
+     * Adds a box blur over (2 * radius + 1) pixels square.
+     */
+    public FilterPipeline boxBlur(int radius) {
+        if (radius < 1) {
+            throw new IllegalArgumentException("radius must be more than zero.");
+        }
+        float[] k = new float[2 * radius + 1];
+        Arrays.fill(k, 1.0f / k.length);
+        return convolve(k, k);
+    }
+
+    /**
+     * Adds a resize: bilinear when enlarging, area averaging when shrinking.
+     */
+    public FilterPipeline resize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Width and height must be more than zero.");
+        }
+        stages.add(new Resize(width, height));
+        return this;
+    }
+
+    /**
+     * Returns the number of passes over the pixels after fusing point
+     * operations.
+     */
+    public int getPassCount() {
+        return compile().size();
+    }
+
+    /**
+     * Runs the filters and returns the result as a new Image. The source is
+     * not modified.
+     */
+    public Image apply(Image src) {
+        int[] size = {src.getWidth(), src.getHeight()};
+        int[] pixels = filter(src.getPixelData(), false, size);
+
+        Image dst = new Image(size[0], size[1]);
+        dst.setPixels(pixels);
+        return dst;
+    }
+
+    /**
+     * Runs the filters on the pixels of the Image itself and marks it dirty.
+     *
+     * @throws IllegalStateException
+     *             if the pipeline resizes.
+     */
+    public void applyInPlace(Image image) {
+        for (Object s : stages) {
+            if (s instanceof Resize) {
+                throw new IllegalStateException("A resizing pipeline cannot be applied in place.");
+            }
+        }
+        int[] target = image.getPixelData();
+        int[] pixels = filter(target, true, new int[] {image.getWidth(), image.getHeight()});
+        if (pixels != target) {
+            System.arraycopy(pixels, 0, target, 0, target.length);
+        }
+        image.markDirty();
+    }
+
+    // runs all passes; size is updated to the size of the returned pixels
+    private int[] filter(int[] pixels, boolean writable, int[] size) {
+        int w = size[0], h = size[1];
+        for (Pass pass : compile()) {
+            int dw = pass.outWidth(w), dh = pass.outHeight(h);
+            int[] out = pass.inPlace() && writable ? pixels : new int[dw * dh];
+            run(pass, pixels, out, w, h, dw, dh);
+            pixels = out;
+            writable = true;
+            w = dw;
+            h = dh;
+        }
+        size[0] = w;
+        size[1] = h;
+        return pixels;
+    }
+
+    private List<Pass> compile() {
+        List<Pass> passes = new ArrayList<Pass>();
+        List<PointOp> ops = new ArrayList<PointOp>();
+
+        for (Object s : stages) {
+            if (s instanceof PointOp) {
+                PointOp op = (PointOp) s;
+                int last = ops.size() - 1;
+                if (last >= 0 && ops.get(last) instanceof PointOp.TableOp && op.getTables() != null) {
+                    ops.set(last, ((PointOp.TableOp) ops.get(last)).then(op.getTables()));
+                } else if (op.getTables() != null) {
+                    ops.add(new PointOp.TableOp(op.getTables()));
+                } else {
+                    ops.add(op);
+                }
+                continue;
+            }
+
+            if (!ops.isEmpty()) {
+                passes.add(new PointPass(ops.toArray(new PointOp[ops.size()])));
+                ops.clear();
+            }
+            if (s instanceof Convolution) {
+                Convolution c = (Convolution) s;
+                if (c.kernelX != null) {
+                    passes.add(new ConvolvePass(c.kernelX, true));
+                }
+                if (c.kernelY != null) {
+                    passes.add(new ConvolvePass(c.kernelY, false));
+                }
+            } else {
+                Resize r = (Resize) s;
+                passes.add(new ResizePass(r.width, r.height));
+            }
+        }
+        if (!ops.isEmpty()) {
+            passes.add(new PointPass(ops.toArray(new PointOp[ops.size()])));
+        }
+        return passes;
+    }
+
+    private static void run(Pass pass, int[] src, int[] dst, int sw, int sh, int dw, int dh) {
+        int rowsPerTask = Math.max(1, MIN_PIXELS_PER_TASK / Math.max(1, dw));
+        PassTask task = new PassTask(pass, src, dst, sw, sh, dw, dh, 0, dh, rowsPerTask);
+        if (dh <= rowsPerTask) {
+            task.compute();
+        } else {
+            Pool.POOL.invoke(task);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class PassTask extends RecursiveAction {
+        private final Pass pass;
+        private final int[] src, dst;
+        private final int sw, sh, dw, dh;
+        private final int from, to, rowsPerTask;
+
+        PassTask(Pass pass, int[] src, int[] dst, int sw, int sh, int dw, int dh,
+                 int from, int to, int rowsPerTask) {
+            this.pass = pass;
+            this.src = src;
+            this.dst = dst;
+            this.sw = sw;
+            this.sh = sh;
+            this.dw = dw;
+            this.dh = dh;
+            this.from = from;
+            this.to = to;
+            this.rowsPerTask = rowsPerTask;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > rowsPerTask) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new PassTask(pass, src, dst, sw, sh, dw, dh, from, mid, rowsPerTask),
+                          new PassTask(pass, src, dst, sw, sh, dw, dh, mid, to, rowsPerTask));
+            } else {
+                pass.run(src, dst, sw, sh, dw, from, to);
+            }
+        }
+    }
+
+    // one read of the source and one write of the destination
+    private static abstract class Pass {
+        int outWidth(int w) {
+            return w;
+        }
+
+        int outHeight(int h) {
+            return h;
+        }
+
+        boolean inPlace() {
+            return false;
+        }
+
+        // writes destination rows [from, to)
+        abstract void run(int[] src, int[] dst, int sw, int sh, int dw, int from, int to);
+    }
+
+    private static class PointPass extends Pass {
+        private final PointOp[] ops;
+
+        PointPass(PointOp[] ops) {
+            this.ops = ops;
+        }
+
+        @Override
+        boolean inPlace() {
+            return true;
+        }
+
+        @Override
+        void run(int[] src, int[] dst, int sw, int sh, int dw, int from, int to) {
+            final PointOp[] ops = this.ops;
+            for (int i = from * sw, end = to * sw; i < end; i++) {
+                int p = src[i];
+                for (PointOp op : ops) {
+                    p = op.apply(p);
+                }
+                dst[i] = p;
+            }
+        }
+    }
+
+    private static class ConvolvePass extends Pass {
+        private final float[] kernel;
+        private final boolean horizontal;
+
+        ConvolvePass(float[] kernel, boolean horizontal) {
+            this.kernel = kernel;
+            this.horizontal = horizontal;
+        }
+
+        @Override
+        void run(int[] src, int[] dst, int sw, int sh, int dw, int from, int to) {
+            final float[] k = kernel;
+            final int r = k.length / 2;
+            for (int y = from; y < to; y++) {
+                for (int x = 0; x < sw; x++) {
+                    float a = 0f, red = 0f, g = 0f, b = 0f;
+                    for (int i = -r; i <= r; i++) {
+                        int p;
+                        if (horizontal) {
+                            int sx = x + i;
+                            sx = sx < 0 ? 0 : (sx >= sw ? sw - 1 : sx);
+                            p = src[y * sw + sx];
+                        } else {
+                            int sy = y + i;
+                            sy = sy < 0 ? 0 : (sy >= sh ? sh - 1 : sy);
+                            p = src[sy * sw + x];
+                        }
+                        float w = k[i + r];
+                        a   += (p >>> 24) * w;
+                        red += ((p >> 16) & 0xff) * w;
+                        g   += ((p >> 8) & 0xff) * w;
+                        b   += (p & 0xff) * w;
+                    }
+                    dst[y * sw + x] = PointOp.clamp(Math.round(a)) << 24 |
+                                      PointOp.clamp(Math.round(red)) << 16 |
+                                      PointOp.clamp(Math.round(g)) << 8 |
+                                      PointOp.clamp(Math.round(b));
+                }
+            }
+        }
+    }
+
+    private static class ResizePass extends Pass {
+        private final int width, height;
+
+        ResizePass(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        int outWidth(int w) {
+            return width;
+        }
+
+        @Override
+        int outHeight(int h) {
+            return height;
+        }
+
+        @Override
+        void run(int[] src, int[] dst, int sw, int sh, int dw, int from, int to) {
+            if (width <= sw && height <= sh) {
+                shrink(src, dst, sw, sh, from, to);
+            } else {
+                bilinear(src, dst, sw, sh, from, to);
+            }
+        }
+
+        private void shrink(int[] src, int[] dst, int sw, int sh, int from, int to) {
+            for (int y = from; y < to; y++) {
+                int y0 = (int) ((long) y * sh / height);
+                int y1 = Math.max(y0 + 1, (int) ((long) (y + 1) * sh / height));
+                for (int x = 0; x < width; x++) {
+                    int x0 = (int) ((long) x * sw / width);
+                    int x1 = Math.max(x0 + 1, (int) ((long) (x + 1) * sw / width));
+                    long a = 0, r = 0, g = 0, b = 0;
+                    for (int sy = y0; sy < y1; sy++) {
+                        for (int sx = x0; sx < x1; sx++) {
+                            int p = src[sy * sw + sx];
+                            a += p >>> 24;
+                            r += (p >> 16) & 0xff;
+                            g += (p >> 8) & 0xff;
+                            b += p & 0xff;
+                        }
+                    }
+                    long n = (long) (x1 - x0) * (y1 - y0);
+                    long half = n / 2;
+                    dst[y * width + x] = (int) ((a + half) / n) << 24 |
+                                         (int) ((r + half) / n) << 16 |
+                                         (int) ((g + half) / n) << 8 |
+                                         (int) ((b + half) / n);
+                }
+            }
+        }
+
+        private void bilinear(int[] src, int[] dst, int sw, int sh, int from, int to) {
+            float scaleX = (float) sw / width, scaleY = (float) sh / height;
+            for (int y = from; y < to; y++) {
+                float fy = Math.max(0f, (y + 0.5f) * scaleY - 0.5f);
+                int y0 = Math.min((int) fy, sh - 1);
+                int y1 = Math.min(y0 + 1, sh - 1);
+                float ty = fy - y0;
+                for (int x = 0; x < width; x++) {
+                    float fx = Math.max(0f, (x + 0.5f) * scaleX - 0.5f);
+                    int x0 = Math.min((int) fx, sw - 1);
+                    int x1 = Math.min(x0 + 1, sw - 1);
+                    float tx = fx - x0;
+
+                    int p00 = src[y0 * sw + x0], p10 = src[y0 * sw + x1];
+                    int p01 = src[y1 * sw + x0], p11 = src[y1 * sw + x1];
+                    int result = 0;
+                    for (int shift = 0; shift < 32; shift += 8) {
+                        float top    = ((p00 >>> shift) & 0xff) * (1f - tx) + ((p10 >>> shift) & 0xff) * tx;
+                        float bottom = ((p01 >>> shift) & 0xff) * (1f - tx) + ((p11 >>> shift) & 0xff) * tx;
+                        result |= PointOp.clamp(Math.round(top * (1f - ty) + bottom * ty)) << shift;
+                    }
+                    dst[y * width + x] = result;
+                }
+            }
+        }
+    }
+}
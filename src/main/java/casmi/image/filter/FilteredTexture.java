@@ -0,0 +1,107 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image.filter;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+import casmi.image.Texture;
+
+/**
+ * Texture which shows another Texture through a {@link FilterChain}.
+ * <p>
+ * The chain runs on every {@link #render(GL2)}, so animated uniforms and
+ * sources such as a NoiseTexture are filtered every frame.
+ *
+ * @author Xcoo Inc.
+ */
+public class FilteredTexture extends Texture {
+
+    private final Texture source;
+    private final FilterChain chain;
+    private final int textureWidth, textureHeight;
+
+    private int result = 0;
+
+    /**
+     * Creates a new FilteredTexture filtering the source at its size.
+     */
+    public FilteredTexture(Texture source, FilterChain chain) {
+        this(source, chain, (int) source.getWidth(), (int) source.getHeight());
+    }
+
+    /**
+     * Creates a new FilteredTexture filtering the source at the given size.
+     */
+    public FilteredTexture(Texture source, FilterChain chain, int width, int height) {
+        super(width, height);
+
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Width and height must be more than zero.");
+        }
+        this.source = source;
+        this.chain = chain;
+        this.textureWidth = width;
+        this.textureHeight = height;
+    }
+
+    public Texture getSource() {
+        return source;
+    }
+
+    public FilterChain getChain() {
+        return chain;
+    }
+
+    @Override
+    public void render(GL2 gl) {
+        source.render(gl);
+
+        // the source binds its own texture, whichever kind it is
+        int[] bound = new int[1];
+        gl.glPushAttrib(GL2.GL_ENABLE_BIT | GL2.GL_TEXTURE_BIT);
+        source.enableTexture(gl);
+        gl.glGetIntegerv(GL.GL_TEXTURE_BINDING_2D, bound, 0);
+        source.disableTexture(gl);
+        gl.glPopAttrib();
+
+        result = bound[0] == 0 ? 0 : chain.apply(gl, bound[0], textureWidth, textureHeight);
+    }
+
+    @Override
+    public void enableTexture(GL2 gl) {
+        gl.glEnable(GL.GL_TEXTURE_2D);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, result);
+    }
+
+    @Override
+    public void disableTexture(GL2 gl) {
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+        gl.glDisable(GL.GL_TEXTURE_2D);
+    }
+
+    /**
+     * Releases the GL objects of the chain.
+     */
+    public void dispose(GL2 gl) {
+        chain.dispose(gl);
+        result = 0;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image.filter;
+
+import java.awt.Color;
+
+/**
+ * Operation which maps each ARGB pixel independently of the others.
+ * <p>
+ * Consecutive point operations in a {@link FilterPipeline} run in a single
+ * pass. Operations which map each channel independently also provide lookup
+ * tables, which are composed into one table per channel.
+ *
+ * @author Xcoo Inc.
+ */
+abstract public class PointOp {
+
+    /**
+     * Returns the new ARGB value of the pixel.
+     */
+    abstract public int apply(int argb);
+
+    /**
+     * Returns tables of 256 entries for alpha, red, green and blue if the
+     * operation maps each channel independently, or null.
+     */
+    int[][] getTables() {
+        return null;
+    }
+
+    /**
+     * Point operation given by a lookup table per channel.
+     */
+    static class TableOp extends PointOp {
+        final int[][] tables;
+
+        TableOp(int[][] tables) {
+            this.tables = tables;
+        }
+
+        @Override
+        public int apply(int p) {
+            return tables[0][p >>> 24] << 24 |
+                   tables[1][(p >> 16) & 0xff] << 16 |
+                   tables[2][(p >> 8) & 0xff] << 8 |
+                   tables[3][p & 0xff];
+        }
+
+        @Override
+        int[][] getTables() {
+            return tables;
+        }
+
+        // this followed by next
+        TableOp then(int[][] next) {
+            int[][] t = new int[4][256];
+            for (int c = 0; c < 4; c++) {
+                for (int i = 0; i < 256; i++) {
+                    t[c][i] = next[c][tables[c][i]];
+                }
+            }
+            return new TableOp(t);
+        }
+    }
+
+    private static int[] identity() {
+        int[] t = new int[256];
+        for (int i = 0; i < 256; i++) {
+            t[i] = i;
+        }
+        return t;
+    }
+
+    /**
+     * Inverts red, green and blue.
+     */
+    public static PointOp invert() {
+        int[] inv = new int[256];
+        for (int i = 0; i < 256; i++) {
+            inv[i] = 255 - i;
+        }
+        return new TableOp(new int[][] {identity(), inv, inv.clone(), inv.clone()});
+    }
+
+    /**
+     * Maps red, green and blue from [inBlack, inWhite] to [outBlack,
+     * outWhite] with the gamma correction. Values are from 0.0 to 1.0.
+     */
+    public static PointOp levels(double inBlack, double inWhite, double gamma,
+                                 double outBlack, double outWhite) {
+        if (inWhite <= inBlack) {
+            throw new IllegalArgumentException("inWhite must be more than inBlack.");
+        }
+        if (gamma <= 0.0) {
+            throw new IllegalArgumentException("gamma must be more than zero.");
+        }
+
+        int[] t = new int[256];
+        for (int i = 0; i < 256; i++) {
+            double v = (i / 255.0 - inBlack) / (inWhite - inBlack);
+            v = Math.min(1.0, Math.max(0.0, v));
+            v = Math.pow(v, 1.0 / gamma);
+            v = outBlack + v * (outWhite - outBlack);
+            t[i] = clamp((int) Math.round(v * 255.0));
+        }
+        return new TableOp(new int[][] {identity(), t, t.clone(), t.clone()});
+    }
+
+    /**
+     * Sets pixels whose luminance is at least the threshold to white and the
+     * others to black, keeping alpha.
+     *
+     * @param threshold
+     *            The threshold from 0.0 to 1.0.
+     */
+    public static PointOp threshold(double threshold) {
+        final int t = (int) Math.round(threshold * 255.0 * 1024.0);
+        return new PointOp() {
+            @Override
+            public int apply(int p) {
+                int luma = ((p >> 16) & 0xff) * 306 + ((p >> 8) & 0xff) * 601 + (p & 0xff) * 117;
+                return (p & 0xff000000) | (luma >= t ? 0xffffff : 0);
+            }
+        };
+    }
+
+    /**
+     * Converts to gray by luminance (ITU-R BT.601), keeping alpha.
+     */
+    public static PointOp grayscale() {
+        return new PointOp() {
+            @Override
+            public int apply(int p) {
+                int luma = (((p >> 16) & 0xff) * 306 + ((p >> 8) & 0xff) * 601 + (p & 0xff) * 117 + 512) >> 10;
+                return (p & 0xff000000) | luma << 16 | luma << 8 | luma;
+            }
+        };
+    }
+
+    /**
+     * Converts RGB to HSB, storing hue, saturation and brightness in the red,
+     * green and blue channels.
+     */
+    public static PointOp rgbToHsb() {
+        return new PointOp() {
+            private final ThreadLocal<float[]> hsb = new ThreadLocal<float[]>() {
+                @Override
+                protected float[] initialValue() {
+                    return new float[3];
+                }
+            };
+
+            @Override
+            public int apply(int p) {
+                float[] v = Color.RGBtoHSB((p >> 16) & 0xff, (p >> 8) & 0xff, p & 0xff, hsb.get());
+                return (p & 0xff000000) |
+                       clamp(Math.round(v[0] * 255f)) << 16 |
+                       clamp(Math.round(v[1] * 255f)) << 8 |
+                       clamp(Math.round(v[2] * 255f));
+            }
+        };
+    }
+
+    /**
+     * Converts HSB stored in the red, green and blue channels back to RGB.
+     */
+    public static PointOp hsbToRgb() {
+        return new PointOp() {
+            @Override
+            public int apply(int p) {
+                int rgb = Color.HSBtoRGB(((p >> 16) & 0xff) / 255f, ((p >> 8) & 0xff) / 255f, (p & 0xff) / 255f);
+                return (p & 0xff000000) | (rgb & 0xffffff);
+            }
+        };
+    }
+
+    static int clamp(int v) {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image.filter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+import casmi.exception.CasmiRuntimeException;
+import casmi.image.Texture;
+
+/**
+ * One pass of a {@link FilterChain}: a fragment shader drawn over the whole
+ * target.
+ * <p>
+ * The shader is GLSL 1.20 and receives the following uniforms:
+ * <ul>
+ * <li>{@code sampler2D source} - the output of the previous pass</li>
+ * <li>{@code sampler2D original} - the input of the chain</li>
+ * <li>{@code sampler2D map} - the texture given by {@link #setTexture(Texture)}</li>
+ * <li>{@code vec2 texelSize} - the size of a pixel in texture coordinates</li>
+ * </ul>
+ * and the texture coordinate in {@code gl_TexCoord[0].st}. Other uniforms
+ * are set by {@link #setUniform(String, float...)}.
+ *
+ * @author Xcoo Inc.
+ */
+public class ShaderFilter {
+
+    static final String VERTEX_SHADER =
+        "#version 120\n" +
+        "void main() {\n" +
+        "    gl_TexCoord[0] = gl_MultiTexCoord0;\n" +
+        "    gl_Position = gl_Vertex;\n" +
+        "}\n";
+
+    private static final String HEADER =
+        "#version 120\n" +
+        "uniform sampler2D source;\n" +
+        "uniform sampler2D original;\n" +
+        "uniform sampler2D map;\n" +
+        "uniform vec2 texelSize;\n";
+
+    private static final int MAX_BLUR_RADIUS = 32;
+
+    private final String fragmentSource;
+    private final Map<String, float[]> uniforms = new LinkedHashMap<String, float[]>();
+    private Texture texture;
+
+    private int program = 0;
+
+    /**
+     * Creates a new ShaderFilter.
+     *
+     * @param fragmentSource
+     *            The body of the fragment shader after the declarations of
+     *            the standard uniforms, which must not be repeated.
+     */
+    public ShaderFilter(String fragmentSource) {
+        this.fragmentSource = HEADER + fragmentSource;
+    }
+
+    /**
+     * Sets a float, vec2, vec3 or vec4 uniform, applied in the next pass.
+     */
+    public synchronized void setUniform(String name, float... values) {
+        if (values.length < 1 || 4 < values.length) {
+            throw new IllegalArgumentException("A uniform must have 1 to 4 values.");
+        }
+        uniforms.put(name, values.clone());
+    }
+
+    /**
+     * Sets the texture bound to the {@code map} uniform.
+     */
+    public void setTexture(Texture texture) {
+        this.texture = texture;
+    }
+
+    public Texture getTexture() {
+        return texture;
+    }
+
+    /**
+     * Gaussian blur along one axis; use a horizontal and a vertical pass for
+     * a full blur.
+     *
+     * @param sigma
+     *            The standard deviation in pixels, up to 10.
+     */
+    public static ShaderFilter blur(double sigma, boolean horizontal) {
+        if (sigma <= 0.0) {
+            throw new IllegalArgumentException("sigma must be more than zero.");
+        }
+        int r = (int) Math.ceil(sigma * 3.0);
+        if (r > MAX_BLUR_RADIUS) {
+            throw new IllegalArgumentException("sigma is too large.");
+        }
+
+        double[] w = new double[r + 1];
+        double sum = 0.0;
+        for (int i = 0; i <= r; i++) {
+            w[i] = Math.exp(-(i * i) / (2.0 * sigma * sigma));
+            sum += i == 0 ? w[i] : 2.0 * w[i];
+        }
+
+        String dir = horizontal ? "vec2(texelSize.x, 0.0)" : "vec2(0.0, texelSize.y)";
+        StringBuilder sb = new StringBuilder();
+        sb.append("void main() {\n");
+        sb.append("    vec2 uv = gl_TexCoord[0].st;\n");
+        sb.append("    vec2 d = ").append(dir).append(";\n");
+        sb.append("    vec4 c = texture2D(source, uv) * ").append((float) (w[0] / sum)).append(";\n");
+        for (int i = 1; i <= r; i++) {
+            float k = (float) (w[i] / sum);
+            sb.append("    c += (texture2D(source, uv + d * ").append(i).append(".0) + ")
+              .append("texture2D(source, uv - d * ").append(i).append(".0)) * ").append(k).append(";\n");
+        }
+        sb.append("    gl_FragColor = c;\n");
+        sb.append("}\n");
+        return new ShaderFilter(sb.toString());
+    }
+
+    /**
+     * Color grading: brightness and contrast around the mid gray, saturation
+     * and gamma. The uniforms of the same names can be changed later.
+     */
+    public static ShaderFilter colorGrade(double brightness, double contrast,
+                                          double saturation, double gamma) {
+        ShaderFilter f = new ShaderFilter(
+            "uniform float brightness;\n" +
+            "uniform float contrast;\n" +
+            "uniform float saturation;\n" +
+            "uniform float gamma;\n" +
+            "void main() {\n" +
+            "    vec4 c = texture2D(source, gl_TexCoord[0].st);\n" +
+            "    vec3 rgb = (c.rgb - 0.5) * contrast + 0.5 + brightness;\n" +
+            "    float luma = dot(rgb, vec3(0.299, 0.587, 0.114));\n" +
+            "    rgb = mix(vec3(luma), rgb, saturation);\n" +
+            "    rgb = pow(clamp(rgb, 0.0, 1.0), vec3(1.0 / gamma));\n" +
+            "    gl_FragColor = vec4(rgb, c.a);\n" +
+            "}\n");
+        f.setUniform("brightness", (float) brightness);
+        f.setUniform("contrast", (float) contrast);
+        f.setUniform("saturation", (float) saturation);
+        f.setUniform("gamma", (float) gamma);
+        return f;
+    }
+
+    /**
+     * Keeps the part of the colors brighter than the threshold, which is the
+     * first pass of a bloom.
+     */
+    public static ShaderFilter brightPass(double threshold) {
+        ShaderFilter f = new ShaderFilter(
+            "uniform float threshold;\n" +
+            "void main() {\n" +
+            "    vec4 c = texture2D(source, gl_TexCoord[0].st);\n" +
+            "    gl_FragColor = vec4(max(c.rgb - threshold, 0.0) / max(1.0 - threshold, 1e-4), c.a);\n" +
+            "}\n");
+        f.setUniform("threshold", (float) threshold);
+        return f;
+    }
+
+    /**
+     * Adds the output of the previous pass to the input of the chain.
+     */
+    public static ShaderFilter addOriginal(double intensity) {
+        ShaderFilter f = new ShaderFilter(
+            "uniform float intensity;\n" +
+            "void main() {\n" +
+            "    vec4 o = texture2D(original, gl_TexCoord[0].st);\n" +
+            "    vec4 c = texture2D(source, gl_TexCoord[0].st);\n" +
+            "    gl_FragColor = vec4(o.rgb + c.rgb * intensity, o.a);\n" +
+            "}\n");
+        f.setUniform("intensity", (float) intensity);
+        return f;
+    }
+
+    /**
+     * Offsets the texture coordinates by the red and green channels of the
+     * map, where 0.5 means no offset.
+     *
+     * @param scale
+     *            The largest offset in texture coordinates.
+     */
+    public static ShaderFilter displace(Texture map, double scale) {
+        ShaderFilter f = new ShaderFilter(
+            "uniform float scale;\n" +
+            "void main() {\n" +
+            "    vec2 offset = (texture2D(map, gl_TexCoord[0].st).rg - 0.5) * 2.0 * scale;\n" +
+            "    gl_FragColor = texture2D(source, gl_TexCoord[0].st + offset);\n" +
+            "}\n");
+        f.setUniform("scale", (float) scale);
+        f.setTexture(map);
+        return f;
+    }
+
+    // draws the pass into the bound framebuffer
+    void apply(GL2 gl, int sourceTexture, int originalTexture, int width, int height) {
+        if (program == 0) {
+            program = link(gl, fragmentSource);
+        }
+
+        if (texture != null) {
+            gl.glActiveTexture(GL.GL_TEXTURE2);
+            texture.render(gl);
+            texture.enableTexture(gl);
+        }
+        gl.glActiveTexture(GL.GL_TEXTURE1);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, originalTexture);
+        gl.glActiveTexture(GL.GL_TEXTURE0);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, sourceTexture);
+
+        gl.glUseProgram(program);
+        gl.glUniform1i(gl.glGetUniformLocation(program, "source"), 0);
+        gl.glUniform1i(gl.glGetUniformLocation(program, "original"), 1);
+        gl.glUniform1i(gl.glGetUniformLocation(program, "map"), 2);
+        gl.glUniform2f(gl.glGetUniformLocation(program, "texelSize"), 1f / width, 1f / height);
+        synchronized (this) {
+            for (Map.Entry<String, float[]> e : uniforms.entrySet()) {
+                int location = gl.glGetUniformLocation(program, e.getKey());
+                float[] v = e.getValue();
+                switch (v.length) {
+                case 1:  gl.glUniform1f(location, v[0]); break;
+                case 2:  gl.glUniform2f(location, v[0], v[1]); break;
+                case 3:  gl.glUniform3f(location, v[0], v[1], v[2]); break;
+                default: gl.glUniform4f(location, v[0], v[1], v[2], v[3]); break;
+                }
+            }
+        }
+
+        FilterChain.drawQuad(gl);
+
+        if (texture != null) {
+            gl.glActiveTexture(GL.GL_TEXTURE2);
+            texture.disableTexture(gl);
+            gl.glActiveTexture(GL.GL_TEXTURE0);
+        }
+    }
+
+    /**
+     * Deletes the shader program. It is compiled again when the filter is
+     * used next.
+     */
+    public void dispose(GL2 gl) {
+        if (program != 0) {
+            gl.glDeleteProgram(program);
+            program = 0;
+        }
+    }
+
+    static int link(GL2 gl, String fragmentSource) {
+        int vs = compile(gl, GL2.GL_VERTEX_SHADER, VERTEX_SHADER);
+        int fs;
+        try {
+            fs = compile(gl, GL2.GL_FRAGMENT_SHADER, fragmentSource);
+        } catch (CasmiRuntimeException e) {
+            gl.glDeleteShader(vs);
+            throw e;
+        }
+
+        int p = gl.glCreateProgram();
+        gl.glAttachShader(p, vs);
+        gl.glAttachShader(p, fs);
+        gl.glLinkProgram(p);
+        gl.glDeleteShader(vs);
+        gl.glDeleteShader(fs);
+
+        int[] status = new int[1];
+        gl.glGetProgramiv(p, GL2.GL_LINK_STATUS, status, 0);
+        if (status[0] == GL.GL_FALSE) {
+            int[] length = new int[1];
+            gl.glGetProgramiv(p, GL2.GL_INFO_LOG_LENGTH, length, 0);
+            byte[] log = new byte[Math.max(length[0], 1)];
+            gl.glGetProgramInfoLog(p, log.length, length, 0, log, 0);
+            gl.glDeleteProgram(p);
+            throw new CasmiRuntimeException("Failed to link filter shader: " + new String(log, 0, length[0]));
+        }
+        return p;
+    }
+
+    private static int compile(GL2 gl, int type, String source) {
+        int shader = gl.glCreateShader(type);
+        gl.glShaderSource(shader, 1, new String[] {source}, (int[]) null, 0);
+        gl.glCompileShader(shader);
+
+        int[] status = new int[1];
+        gl.glGetShaderiv(shader, GL2.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == GL.GL_FALSE) {
+            int[] length = new int[1];
+            gl.glGetShaderiv(shader, GL2.GL_INFO_LOG_LENGTH, length, 0);
+            byte[] log = new byte[Math.max(length[0], 1)];
+            gl.glGetShaderInfoLog(shader, log.length, length, 0, log, 0);
+            gl.glDeleteShader(shader);
+            throw new CasmiRuntimeException("Failed to compile filter shader: " + new String(log, 0, length[0]));
+        }
+        return shader;
+    }
+}
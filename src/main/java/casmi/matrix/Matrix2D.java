@@ -268,6 +268,18 @@ public class Matrix2D implements Matrix {
         return result;
     }
 
+    /**
+     * Multiply the x and y coordinates of a Vertex against this matrix and
+     * write the result to target. The z coordinate of target is not changed.
+     * The source and target can be the same.
+     */
+    public Vector3D multInto(Vector3D source, Vector3D target) {
+        double x = source.getX(), y = source.getY();
+        target.set(m00 * x + m01 * y + m02,
+                   m10 * x + m11 * y + m12);
+        return target;
+    }
+
     /**
      * Multiply a two element vector against this matrix.
      * If out is null or not length four, a new double array will be returned.
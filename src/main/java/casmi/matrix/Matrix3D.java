@@ -19,6 +19,7 @@
 
 package casmi.matrix;
 
+import java.nio.FloatBuffer;
 import java.text.NumberFormat;
 
 /**
@@ -152,6 +153,23 @@ public class Matrix3D implements Matrix {
         return target;
     }
 
+    /**
+     * Copies the matrix contents into a 16 entry double array in column-major
+     * order, as used by glLoadMatrixd() and glMultMatrixd().
+     * If target is null (or not the correct size), a new array will be created.
+     */
+    public double[] getColumnMajor(double[] target) {
+        if ((target == null) || (target.length != 16)) {
+            target = new double[16];
+        }
+        target[0]  = m00; target[1]  = m10; target[2]  = m20; target[3]  = m30;
+        target[4]  = m01; target[5]  = m11; target[6]  = m21; target[7]  = m31;
+        target[8]  = m02; target[9]  = m12; target[10] = m22; target[11] = m32;
+        target[12] = m03; target[13] = m13; target[14] = m23; target[15] = m33;
+
+        return target;
+    }
+
     @Override
     public void set(Matrix matrix) {
         if (matrix instanceof Matrix3D) {
@@ -453,6 +471,18 @@ public class Matrix3D implements Matrix {
         return result;
     }
 
+    /**
+     * Multiply a vector against this matrix and write the result to target.
+     * The source and target can be the same.
+     */
+    public Vector3D multInto(Vector3D source, Vector3D target) {
+        double x = source.getX(), y = source.getY(), z = source.getZ();
+        target.set(m00 * x + m01 * y + m02 * z + m03,
+                   m10 * x + m11 * y + m12 * z + m13,
+                   m20 * x + m21 * y + m22 * z + m23);
+        return target;
+    }
+
     /**
      * Multiply a three or four element vector against this matrix. If out is
      * null or not length 3 or 4, a new double array (length 3) will be returned.
@@ -522,6 +552,177 @@ public class Matrix3D implements Matrix {
         return m30 * x + m31 * y + m32 * z + m33 * w;
     }
 
+    //////////////////////////////////////////////////////////////
+
+    // Bulk transformation of points. The upper 3x4 part of the matrix is
+    // applied to each (x, y, z) as in mult(double[], double[]) with a three
+    // element target. Matrix elements are kept in locals so that the loops
+    // can be optimized by the JIT compiler.
+
+    /**
+     * Transforms interleaved points. Each point is read from src at
+     * srcOffset + i * srcStride and written to dst at dstOffset + i * dstStride.
+     * Other elements (e.g. normals or texture coordinates) are not changed.
+     * src and dst may be the same array with the same offset and stride.
+     */
+    public void transform(double[] src, int srcOffset, int srcStride,
+                          double[] dst, int dstOffset, int dstStride, int count) {
+        checkRange(src.length, srcOffset, srcStride, count);
+        checkRange(dst.length, dstOffset, dstStride, count);
+
+        final double a00 = m00, a01 = m01, a02 = m02, a03 = m03;
+        final double a10 = m10, a11 = m11, a12 = m12, a13 = m13;
+        final double a20 = m20, a21 = m21, a22 = m22, a23 = m23;
+
+        int s = srcOffset, d = dstOffset;
+        for (int i = 0; i < count; i++, s += srcStride, d += dstStride) {
+            double x = src[s], y = src[s + 1], z = src[s + 2];
+            dst[d]     = a00 * x + a01 * y + a02 * z + a03;
+            dst[d + 1] = a10 * x + a11 * y + a12 * z + a13;
+            dst[d + 2] = a20 * x + a21 * y + a22 * z + a23;
+        }
+    }
+
+    /**
+     * Transforms packed (x, y, z, x, y, z, ...) points.
+     */
+    public void transform(double[] src, double[] dst, int count) {
+        transform(src, 0, 3, dst, 0, 3, count);
+    }
+
+    /**
+     * Transforms interleaved points.
+     *
+     * @see #transform(double[], int, int, double[], int, int, int)
+     */
+    public void transform(float[] src, int srcOffset, int srcStride,
+                          float[] dst, int dstOffset, int dstStride, int count) {
+        checkRange(src.length, srcOffset, srcStride, count);
+        checkRange(dst.length, dstOffset, dstStride, count);
+
+        final double a00 = m00, a01 = m01, a02 = m02, a03 = m03;
+        final double a10 = m10, a11 = m11, a12 = m12, a13 = m13;
+        final double a20 = m20, a21 = m21, a22 = m22, a23 = m23;
+
+        int s = srcOffset, d = dstOffset;
+        for (int i = 0; i < count; i++, s += srcStride, d += dstStride) {
+            double x = src[s], y = src[s + 1], z = src[s + 2];
+            dst[d]     = (float)(a00 * x + a01 * y + a02 * z + a03);
+            dst[d + 1] = (float)(a10 * x + a11 * y + a12 * z + a13);
+            dst[d + 2] = (float)(a20 * x + a21 * y + a22 * z + a23);
+        }
+    }
+
+    /**
+     * Transforms packed (x, y, z, x, y, z, ...) points.
+     */
+    public void transform(float[] src, float[] dst, int count) {
+        transform(src, 0, 3, dst, 0, 3, count);
+    }
+
+    /**
+     * Transforms points stored as separate coordinate arrays (structure of
+     * arrays). Elements from offset to offset + count - 1 are transformed.
+     * The output arrays may be the input arrays.
+     */
+    public void transform(double[] xs, double[] ys, double[] zs,
+                          double[] outX, double[] outY, double[] outZ,
+                          int offset, int count) {
+        checkRange(xs.length,   offset, 1, count, 1);
+        checkRange(ys.length,   offset, 1, count, 1);
+        checkRange(zs.length,   offset, 1, count, 1);
+        checkRange(outX.length, offset, 1, count, 1);
+        checkRange(outY.length, offset, 1, count, 1);
+        checkRange(outZ.length, offset, 1, count, 1);
+
+        final double a00 = m00, a01 = m01, a02 = m02, a03 = m03;
+        final double a10 = m10, a11 = m11, a12 = m12, a13 = m13;
+        final double a20 = m20, a21 = m21, a22 = m22, a23 = m23;
+
+        int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            double x = xs[i], y = ys[i], z = zs[i];
+            outX[i] = a00 * x + a01 * y + a02 * z + a03;
+            outY[i] = a10 * x + a11 * y + a12 * z + a13;
+            outZ[i] = a20 * x + a21 * y + a22 * z + a23;
+        }
+    }
+
+    /**
+     * Transforms points stored as separate coordinate arrays.
+     *
+     * @see #transform(double[], double[], double[], double[], double[], double[], int, int)
+     */
+    public void transform(float[] xs, float[] ys, float[] zs,
+                          float[] outX, float[] outY, float[] outZ,
+                          int offset, int count) {
+        checkRange(xs.length,   offset, 1, count, 1);
+        checkRange(ys.length,   offset, 1, count, 1);
+        checkRange(zs.length,   offset, 1, count, 1);
+        checkRange(outX.length, offset, 1, count, 1);
+        checkRange(outY.length, offset, 1, count, 1);
+        checkRange(outZ.length, offset, 1, count, 1);
+
+        final float a00 = (float)m00, a01 = (float)m01, a02 = (float)m02, a03 = (float)m03;
+        final float a10 = (float)m10, a11 = (float)m11, a12 = (float)m12, a13 = (float)m13;
+        final float a20 = (float)m20, a21 = (float)m21, a22 = (float)m22, a23 = (float)m23;
+
+        int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            float x = xs[i], y = ys[i], z = zs[i];
+            outX[i] = a00 * x + a01 * y + a02 * z + a03;
+            outY[i] = a10 * x + a11 * y + a12 * z + a13;
+            outZ[i] = a20 * x + a21 * y + a22 * z + a23;
+        }
+    }
+
+    /**
+     * Transforms interleaved points in float buffers, e.g. direct buffers
+     * used for vertex arrays. Indices are relative to the current positions
+     * of the buffers, and the positions are not changed. src and dst may be
+     * the same buffer.
+     */
+    public void transform(FloatBuffer src, int srcStride, FloatBuffer dst, int dstStride, int count) {
+        int sp = src.position(), dp = dst.position();
+        checkRange(src.limit(), sp, srcStride, count);
+        checkRange(dst.limit(), dp, dstStride, count);
+
+        final double a00 = m00, a01 = m01, a02 = m02, a03 = m03;
+        final double a10 = m10, a11 = m11, a12 = m12, a13 = m13;
+        final double a20 = m20, a21 = m21, a22 = m22, a23 = m23;
+
+        int s = sp, d = dp;
+        for (int i = 0; i < count; i++, s += srcStride, d += dstStride) {
+            double x = src.get(s), y = src.get(s + 1), z = src.get(s + 2);
+            dst.put(d,     (float)(a00 * x + a01 * y + a02 * z + a03));
+            dst.put(d + 1, (float)(a10 * x + a11 * y + a12 * z + a13));
+            dst.put(d + 2, (float)(a20 * x + a21 * y + a22 * z + a23));
+        }
+    }
+
+    /**
+     * Transforms packed (x, y, z, x, y, z, ...) points in float buffers.
+     */
+    public void transform(FloatBuffer src, FloatBuffer dst, int count) {
+        transform(src, 3, dst, 3, count);
+    }
+
+    private static void checkRange(int length, int offset, int stride, int count) {
+        if (stride < 3) {
+            throw new IllegalArgumentException("Stride must be 3 or more.");
+        }
+        checkRange(length, offset, stride, count, 3);
+    }
+
+    private static void checkRange(int length, int offset, int stride, int count, int elements) {
+        if (offset < 0 || count < 0) {
+            throw new IllegalArgumentException("Offset and count must not be negative.");
+        }
+        if (count > 0 && (long)offset + (long)(count - 1) * stride + elements > length) {
+            throw new IllegalArgumentException("The array is too short for " + count + " points.");
+        }
+    }
+
     /**
      * Transpose this matrix.
      */
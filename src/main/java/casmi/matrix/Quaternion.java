@@ -0,0 +1,331 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.matrix;
+
+/**
+ * Quaternion class for representing rotations.
+ * <p>
+ * Angles are in radians as in Matrix3D. Methods whose names end with Local
+ * modify this quaternion, and methods taking a destination write the result
+ * to it, so that they can be used without allocation.
+ *
+ * @author Xcoo Inc.
+ */
+public class Quaternion {
+
+    // below this angle between two rotations, slerp() falls back to nlerp()
+    private static final double SLERP_THRESHOLD = 0.9995;
+
+    private double x = 0.0;
+    private double y = 0.0;
+    private double z = 0.0;
+    private double w = 1.0;
+
+    /**
+     * Creates a new identity Quaternion.
+     */
+    public Quaternion() {
+    }
+
+    public Quaternion(double x, double y, double z, double w) {
+        set(x, y, z, w);
+    }
+
+    public Quaternion(Quaternion q) {
+        set(q);
+    }
+
+    /**
+     * Creates a new Quaternion which rotates by the angle around the axis.
+     *
+     * @param angle
+     *            The angle in radians.
+     * @param axisX
+     *            x of the axis.
+     * @param axisY
+     *            y of the axis.
+     * @param axisZ
+     *            z of the axis.
+     */
+    public static Quaternion fromAxisAngle(double angle, double axisX, double axisY, double axisZ) {
+        Quaternion q = new Quaternion();
+        q.setAxisAngle(angle, axisX, axisY, axisZ);
+        return q;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getZ() {
+        return z;
+    }
+
+    public double getW() {
+        return w;
+    }
+
+    public void set(double x, double y, double z, double w) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.w = w;
+    }
+
+    public void set(Quaternion q) {
+        set(q.x, q.y, q.z, q.w);
+    }
+
+    public void setIdentity() {
+        set(0.0, 0.0, 0.0, 1.0);
+    }
+
+    /**
+     * Sets the rotation by the angle around the axis. The axis need not be
+     * normalized. A zero axis results in the identity.
+     */
+    public void setAxisAngle(double angle, double axisX, double axisY, double axisZ) {
+        double len = Math.sqrt(axisX * axisX + axisY * axisY + axisZ * axisZ);
+        if (len == 0.0) {
+            setIdentity();
+            return;
+        }
+
+        double s = Math.sin(angle / 2.0) / len;
+        set(axisX * s, axisY * s, axisZ * s, Math.cos(angle / 2.0));
+    }
+
+    /**
+     * Sets the rotation from angles around the axes, applied in the same
+     * order as Element: around z first, then x, then y.
+     */
+    public void setEuler(double rotateX, double rotateY, double rotateZ) {
+        double cx = Math.cos(rotateX / 2.0), sx = Math.sin(rotateX / 2.0);
+        double cy = Math.cos(rotateY / 2.0), sy = Math.sin(rotateY / 2.0);
+        double cz = Math.cos(rotateZ / 2.0), sz = Math.sin(rotateZ / 2.0);
+
+        // (qz * qx) * qy
+        double zxX = cz * sx;
+        double zxY = sz * sx;
+        double zxZ = sz * cx;
+        double zxW = cz * cx;
+
+        set(zxX * cy - zxZ * sy,
+            zxW * sy + zxY * cy,
+            zxX * sy + zxZ * cy,
+            zxW * cy - zxY * sy);
+    }
+
+    public double dot(Quaternion q) {
+        return x * q.x + y * q.y + z * q.z + w * q.w;
+    }
+
+    public double length() {
+        return Math.sqrt(x * x + y * y + z * z + w * w);
+    }
+
+    /**
+     * Normalizes this quaternion. A zero quaternion becomes the identity.
+     */
+    public Quaternion normalizeLocal() {
+        double len = length();
+        if (len == 0.0) {
+            setIdentity();
+        } else {
+            set(x / len, y / len, z / len, w / len);
+        }
+        return this;
+    }
+
+    /**
+     * Conjugates this quaternion, which is the inverse rotation for a unit
+     * quaternion.
+     */
+    public Quaternion conjugateLocal() {
+        set(-x, -y, -z, w);
+        return this;
+    }
+
+    /**
+     * Returns the product this * q as a new Quaternion. The result rotates
+     * by q first and then by this.
+     */
+    public Quaternion mult(Quaternion q) {
+        return multInto(q, new Quaternion());
+    }
+
+    /**
+     * Sets this quaternion to this * q.
+     */
+    public Quaternion multLocal(Quaternion q) {
+        return multInto(q, this);
+    }
+
+    /**
+     * Writes this * q to dest. dest may be this or q.
+     */
+    public Quaternion multInto(Quaternion q, Quaternion dest) {
+        double rx = w * q.x + x * q.w + y * q.z - z * q.y;
+        double ry = w * q.y - x * q.z + y * q.w + z * q.x;
+        double rz = w * q.z + x * q.y - y * q.x + z * q.w;
+        double rw = w * q.w - x * q.x - y * q.y - z * q.z;
+        dest.set(rx, ry, rz, rw);
+        return dest;
+    }
+
+    /**
+     * Rotates the vector by this unit quaternion and writes the result to
+     * dest. dest may be v.
+     */
+    public Vector3D rotate(Vector3D v, Vector3D dest) {
+        double vx = v.getX(), vy = v.getY(), vz = v.getZ();
+
+        // t = 2 * (q.xyz x v), v' = v + w * t + q.xyz x t
+        double tx = 2.0 * (y * vz - z * vy);
+        double ty = 2.0 * (z * vx - x * vz);
+        double tz = 2.0 * (x * vy - y * vx);
+
+        dest.set(vx + w * tx + (y * tz - z * ty),
+                 vy + w * ty + (z * tx - x * tz),
+                 vz + w * tz + (x * ty - y * tx));
+        return dest;
+    }
+
+    /**
+     * Returns the rotation matrix of this unit quaternion as a new Matrix3D.
+     */
+    public Matrix3D toMatrix3D() {
+        return toMatrix3D(new Matrix3D());
+    }
+
+    /**
+     * Writes the rotation matrix of this unit quaternion to dest.
+     */
+    public Matrix3D toMatrix3D(Matrix3D dest) {
+        double xx = x * x, yy = y * y, zz = z * z;
+        double xy = x * y, xz = x * z, yz = y * z;
+        double wx = w * x, wy = w * y, wz = w * z;
+
+        dest.set(1.0 - 2.0 * (yy + zz), 2.0 * (xy - wz),       2.0 * (xz + wy),       0.0,
+                 2.0 * (xy + wz),       1.0 - 2.0 * (xx + zz), 2.0 * (yz - wx),       0.0,
+                 2.0 * (xz - wy),       2.0 * (yz + wx),       1.0 - 2.0 * (xx + yy), 0.0,
+                 0.0,                   0.0,                   0.0,                   1.0);
+        return dest;
+    }
+
+    /**
+     * Writes the rotation matrix of this unit quaternion to a 16 entry array
+     * in column-major order, as used by glMultMatrixd().
+     * If target is null (or not the correct size), a new array will be created.
+     */
+    public double[] getColumnMajor(double[] target) {
+        if (target == null || target.length != 16) {
+            target = new double[16];
+        }
+
+        double xx = x * x, yy = y * y, zz = z * z;
+        double xy = x * y, xz = x * z, yz = y * z;
+        double wx = w * x, wy = w * y, wz = w * z;
+
+        target[0]  = 1.0 - 2.0 * (yy + zz);
+        target[1]  = 2.0 * (xy + wz);
+        target[2]  = 2.0 * (xz - wy);
+        target[3]  = 0.0;
+
+        target[4]  = 2.0 * (xy - wz);
+        target[5]  = 1.0 - 2.0 * (xx + zz);
+        target[6]  = 2.0 * (yz + wx);
+        target[7]  = 0.0;
+
+        target[8]  = 2.0 * (xz + wy);
+        target[9]  = 2.0 * (yz - wx);
+        target[10] = 1.0 - 2.0 * (xx + yy);
+        target[11] = 0.0;
+
+        target[12] = 0.0;
+        target[13] = 0.0;
+        target[14] = 0.0;
+        target[15] = 1.0;
+
+        return target;
+    }
+
+    /**
+     * Spherical linear interpolation between two unit quaternions along the
+     * shorter arc. The result is written to dest, which may be a or b.
+     *
+     * @param t
+     *            0.0 for a, 1.0 for b.
+     */
+    public static Quaternion slerp(Quaternion a, Quaternion b, double t, Quaternion dest) {
+        double bx = b.x, by = b.y, bz = b.z, bw = b.w;
+        double cos = a.dot(b);
+        if (cos < 0.0) {
+            cos = -cos;
+            bx = -bx; by = -by; bz = -bz; bw = -bw;
+        }
+
+        if (cos > SLERP_THRESHOLD) {
+            return lerp(a, bx, by, bz, bw, t, dest);
+        }
+
+        double theta = Math.acos(cos);
+        double sin = Math.sin(theta);
+        double sa = Math.sin((1.0 - t) * theta) / sin;
+        double sb = Math.sin(t * theta) / sin;
+
+        dest.set(a.x * sa + bx * sb,
+                 a.y * sa + by * sb,
+                 a.z * sa + bz * sb,
+                 a.w * sa + bw * sb);
+        return dest;
+    }
+
+    /**
+     * Normalized linear interpolation between two unit quaternions along the
+     * shorter arc. Cheaper than slerp() but the angular speed is not
+     * constant. The result is written to dest, which may be a or b.
+     */
+    public static Quaternion nlerp(Quaternion a, Quaternion b, double t, Quaternion dest) {
+        if (a.dot(b) < 0.0) {
+            return lerp(a, -b.x, -b.y, -b.z, -b.w, t, dest);
+        }
+        return lerp(a, b.x, b.y, b.z, b.w, t, dest);
+    }
+
+    private static Quaternion lerp(Quaternion a, double bx, double by, double bz, double bw,
+                                   double t, Quaternion dest) {
+        double s = 1.0 - t;
+        dest.set(a.x * s + bx * t,
+                 a.y * s + by * t,
+                 a.z * s + bz * t,
+                 a.w * s + bw * t);
+        return dest.normalizeLocal();
+    }
+
+    @Override
+    public String toString() {
+        return "(" + x + ", " + y + ", " + z + ", " + w + ")";
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.matrix;
+
+import java.util.Arrays;
+
+/**
+ * Per-thread pool of temporary vectors and matrices for hot loops.
+ * <p>
+ * Objects are taken between {@link #push()} and {@link #pop()}; pop() makes
+ * every object taken since the matching push() available again. Objects
+ * must not be kept after pop().
+ *
+ * <pre>
+ * ScratchPool pool = ScratchPool.get();
+ * pool.push();
+ * try {
+ *     Vector3D tmp = pool.vector3D();
+ *     ...
+ * } finally {
+ *     pool.pop();
+ * }
+ * </pre>
+ *
+ * @author Xcoo Inc.
+ */
+public final class ScratchPool {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final ThreadLocal<ScratchPool> POOLS = new ThreadLocal<ScratchPool>() {
+        @Override
+        protected ScratchPool initialValue() {
+            return new ScratchPool();
+        }
+    };
+
+    private Vector2D[] vector2Ds = new Vector2D[INITIAL_CAPACITY];
+    private Vector3D[] vector3Ds = new Vector3D[INITIAL_CAPACITY];
+    private Vector4D[] vector4Ds = new Vector4D[INITIAL_CAPACITY];
+    private Matrix2D[] matrix2Ds = new Matrix2D[INITIAL_CAPACITY];
+    private Matrix3D[] matrix3Ds = new Matrix3D[INITIAL_CAPACITY];
+
+    private int vector2DTop, vector3DTop, vector4DTop, matrix2DTop, matrix3DTop;
+
+    // saved tops, five entries per push()
+    private int[] frames = new int[5 * INITIAL_CAPACITY];
+    private int frameTop = 0;
+
+    private ScratchPool() {
+    }
+
+    /**
+     * Returns the pool of the current thread.
+     */
+    public static ScratchPool get() {
+        return POOLS.get();
+    }
+
+    /**
+     * Starts a new scope.
+     */
+    public void push() {
+        if (frameTop + 5 > frames.length) {
+            frames = Arrays.copyOf(frames, frames.length * 2);
+        }
+        frames[frameTop++] = vector2DTop;
+        frames[frameTop++] = vector3DTop;
+        frames[frameTop++] = vector4DTop;
+        frames[frameTop++] = matrix2DTop;
+        frames[frameTop++] = matrix3DTop;
+    }
+
+    /**
+     * Ends the scope started by the last push() and releases the objects
+     * taken in it.
+     */
+    public void pop() {
+        if (frameTop == 0) {
+            throw new IllegalStateException("pop() is called without push().");
+        }
+        matrix3DTop = frames[--frameTop];
+        matrix2DTop = frames[--frameTop];
+        vector4DTop = frames[--frameTop];
+        vector3DTop = frames[--frameTop];
+        vector2DTop = frames[--frameTop];
+    }
+
+    /**
+     * Returns a zero vector.
+     */
+    public Vector2D vector2D() {
+        if (vector2DTop == vector2Ds.length) {
+            vector2Ds = Arrays.copyOf(vector2Ds, vector2Ds.length * 2);
+        }
+        Vector2D v = vector2Ds[vector2DTop];
+        if (v == null) {
+            v = vector2Ds[vector2DTop] = new Vector2D();
+        } else {
+            v.set(0.0, 0.0);
+        }
+        vector2DTop++;
+        return v;
+    }
+
+    /**
+     * Returns a zero vector.
+     */
+    public Vector3D vector3D() {
+        if (vector3DTop == vector3Ds.length) {
+            vector3Ds = Arrays.copyOf(vector3Ds, vector3Ds.length * 2);
+        }
+        Vector3D v = vector3Ds[vector3DTop];
+        if (v == null) {
+            v = vector3Ds[vector3DTop] = new Vector3D();
+        } else {
+            v.set(0.0, 0.0, 0.0);
+        }
+        vector3DTop++;
+        return v;
+    }
+
+    /**
+     * Returns a zero vector.
+     */
+    public Vector4D vector4D() {
+        if (vector4DTop == vector4Ds.length) {
+            vector4Ds = Arrays.copyOf(vector4Ds, vector4Ds.length * 2);
+        }
+        Vector4D v = vector4Ds[vector4DTop];
+        if (v == null) {
+            v = vector4Ds[vector4DTop] = new Vector4D();
+        } else {
+            v.set(0.0, 0.0, 0.0, 0.0);
+        }
+        vector4DTop++;
+        return v;
+    }
+
+    /**
+     * Returns an identity matrix.
+     */
+    public Matrix2D matrix2D() {
+        if (matrix2DTop == matrix2Ds.length) {
+            matrix2Ds = Arrays.copyOf(matrix2Ds, matrix2Ds.length * 2);
+        }
+        Matrix2D m = matrix2Ds[matrix2DTop];
+        if (m == null) {
+            m = matrix2Ds[matrix2DTop] = new Matrix2D();
+        } else {
+            m.reset();
+        }
+        matrix2DTop++;
+        return m;
+    }
+
+    /**
+     * Returns an identity matrix.
+     */
+    public Matrix3D matrix3D() {
+        if (matrix3DTop == matrix3Ds.length) {
+            matrix3Ds = Arrays.copyOf(matrix3Ds, matrix3Ds.length * 2);
+        }
+        Matrix3D m = matrix3Ds[matrix3DTop];
+        if (m == null) {
+            m = matrix3Ds[matrix3DTop] = new Matrix3D();
+        } else {
+            m.reset();
+        }
+        matrix3DTop++;
+        return m;
+    }
+}
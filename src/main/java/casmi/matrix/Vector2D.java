@@ -16,6 +16,11 @@ public class Vector2D {
         this.y = y;
     }
 
+    public Vector2D(Vector2D v) {
+        this.x = v.x;
+        this.y = v.y;
+    }
+
     public double getX() {
         return x;
     }
@@ -37,6 +42,11 @@ public class Vector2D {
         this.y = y;
     }
 
+    public void set(Vector2D v) {
+        this.x = v.x;
+        this.y = v.y;
+    }
+
     public Vector2D mult(Vector2D a) {
         Vector2D result;
         result = new Vector2D(a.x*this.x, a.y*this.y);
@@ -77,6 +87,97 @@ public class Vector2D {
         return this.x*this.x+this.y*this.y;
     }
 
+    public double length() {
+        return Math.sqrt(lengthSquared());
+    }
+
+    // The following methods modify this vector or write to the destination
+    // vector instead of creating a new one, and return the modified vector.
+
+    public Vector2D addLocal(Vector2D v) {
+        this.x += v.x;
+        this.y += v.y;
+        return this;
+    }
+
+    public Vector2D addLocal(double num) {
+        this.x += num;
+        this.y += num;
+        return this;
+    }
+
+    public Vector2D subLocal(Vector2D v) {
+        this.x -= v.x;
+        this.y -= v.y;
+        return this;
+    }
+
+    public Vector2D multLocal(Vector2D a) {
+        this.x *= a.x;
+        this.y *= a.y;
+        return this;
+    }
+
+    public Vector2D multLocal(double b) {
+        this.x *= b;
+        this.y *= b;
+        return this;
+    }
+
+    public Vector2D parLocal(Vector2D a) {
+        this.x /= a.x;
+        this.y /= a.y;
+        return this;
+    }
+
+    public Vector2D parLocal(double a) {
+        this.x /= a;
+        this.y /= a;
+        return this;
+    }
+
+    /**
+     * Normalizes this vector. A zero vector is left unchanged.
+     */
+    public Vector2D normalizeLocal() {
+        double len = length();
+        if (len != 0.0) {
+            parLocal(len);
+        }
+        return this;
+    }
+
+    public Vector2D addInto(Vector2D v, Vector2D dest) {
+        dest.set(this.x+v.x, this.y+v.y);
+        return dest;
+    }
+
+    public Vector2D subInto(Vector2D v, Vector2D dest) {
+        dest.set(this.x-v.x, this.y-v.y);
+        return dest;
+    }
+
+    public Vector2D multInto(Vector2D a, Vector2D dest) {
+        dest.set(a.x*this.x, a.y*this.y);
+        return dest;
+    }
+
+    public Vector2D multInto(double b, Vector2D dest) {
+        dest.set(this.x*b, this.y*b);
+        return dest;
+    }
+
+    public Vector2D parInto(double a, Vector2D dest) {
+        dest.set(this.x/a, this.y/a);
+        return dest;
+    }
+
+    public static double getDistanceSquared(Vector2D a, Vector2D b) {
+        double dx = a.x - b.x;
+        double dy = a.y - b.y;
+        return dx * dx + dy * dy;
+    }
+
     public static double getDistance(Vector2D a, Vector2D b) {
         return Math.sqrt(Math.pow(a.x-b.x,2.0) + Math.pow(a.y - b.y, 2.0));
     }
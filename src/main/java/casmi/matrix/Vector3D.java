@@ -48,6 +48,12 @@ public class Vector3D {
         this.z = z;
     }
 
+    public Vector3D(Vector3D v) {
+        this.x = v.x;
+        this.y = v.y;
+        this.z = v.z;
+    }
+
     public double getX() {
         return x;
     }
@@ -83,6 +89,12 @@ public class Vector3D {
         this.y = y;
     }
 
+    public void set(Vector3D v) {
+        this.x = v.x;
+        this.y = v.y;
+        this.z = v.z;
+    }
+
     public Vector3D mult(Vector3D a) {
         Vector3D result;
         result = new Vector3D(a.x*this.x,a.y*this.y,a.z*this.z);
@@ -123,6 +135,105 @@ public class Vector3D {
         return this.x*this.x+this.y*this.y+this.z*this.z;
     }
 
+    public double length() {
+        return Math.sqrt(lengthSquared());
+    }
+
+    // The following methods modify this vector or write to the destination
+    // vector instead of creating a new one, and return the modified vector.
+
+    public Vector3D addLocal(Vector3D v) {
+        this.x += v.x;
+        this.y += v.y;
+        this.z += v.z;
+        return this;
+    }
+
+    public Vector3D addLocal(double num) {
+        this.x += num;
+        this.y += num;
+        this.z += num;
+        return this;
+    }
+
+    public Vector3D subLocal(Vector3D v) {
+        this.x -= v.x;
+        this.y -= v.y;
+        this.z -= v.z;
+        return this;
+    }
+
+    public Vector3D multLocal(Vector3D a) {
+        this.x *= a.x;
+        this.y *= a.y;
+        this.z *= a.z;
+        return this;
+    }
+
+    public Vector3D multLocal(double b) {
+        this.x *= b;
+        this.y *= b;
+        this.z *= b;
+        return this;
+    }
+
+    public Vector3D parLocal(Vector3D a) {
+        this.x /= a.x;
+        this.y /= a.y;
+        this.z /= a.z;
+        return this;
+    }
+
+    public Vector3D parLocal(double a) {
+        this.x /= a;
+        this.y /= a;
+        this.z /= a;
+        return this;
+    }
+
+    /**
+     * Normalizes this vector. A zero vector is left unchanged.
+     */
+    public Vector3D normalizeLocal() {
+        double len = length();
+        if (len != 0.0) {
+            parLocal(len);
+        }
+        return this;
+    }
+
+    public Vector3D addInto(Vector3D v, Vector3D dest) {
+        dest.set(this.x+v.x, this.y+v.y, this.z+v.z);
+        return dest;
+    }
+
+    public Vector3D subInto(Vector3D v, Vector3D dest) {
+        dest.set(this.x-v.x, this.y-v.y, this.z-v.z);
+        return dest;
+    }
+
+    public Vector3D multInto(Vector3D a, Vector3D dest) {
+        dest.set(a.x*this.x, a.y*this.y, a.z*this.z);
+        return dest;
+    }
+
+    public Vector3D multInto(double b, Vector3D dest) {
+        dest.set(this.x*b, this.y*b, this.z*b);
+        return dest;
+    }
+
+    public Vector3D parInto(double a, Vector3D dest) {
+        dest.set(this.x/a, this.y/a, this.z/a);
+        return dest;
+    }
+
+    public static double getDistanceSquared(Vector3D a, Vector3D b) {
+        double dx = a.x - b.x;
+        double dy = a.y - b.y;
+        double dz = a.z - b.z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
     public static double getDistance(Vector3D a, Vector3D b) {
         return Math.sqrt(Math.pow(a.x-b.x,2.0) + Math.pow(a.y - b.y, 2.0) + Math.pow(a.z - b.z, 2.0));
     }
@@ -135,6 +246,14 @@ public class Vector3D {
         return new Vector3D(a.y * b.z - a.z * b.y, a.z * b.x - a.x * b.z, a.x * b.y - a.y * b.x);
     }
 
+    /**
+     * Writes the cross product of a and b to dest. dest may be a or b.
+     */
+    public static Vector3D crossProduct(Vector3D a, Vector3D b, Vector3D dest) {
+        dest.set(a.y * b.z - a.z * b.y, a.z * b.x - a.x * b.z, a.x * b.y - a.y * b.x);
+        return dest;
+    }
+
     @Override
     public String toString() {
         return "(" + x + ", " + y + ", " + z + ")";
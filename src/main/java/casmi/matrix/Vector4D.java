@@ -177,16 +177,118 @@ public class Vector4D {
     }
     
     public void normalize() {
-        this.set(this.normalized());
+        this.parLocal(this.norm());
+    }
+
+    // The following methods modify this vector or write to the destination
+    // vector instead of creating a new one, and return the modified vector.
+
+    public Vector4D addLocal(Vector4D v) {
+        this.x += v.x;
+        this.y += v.y;
+        this.z += v.z;
+        this.w += v.w;
+        return this;
+    }
+
+    public Vector4D addLocal(double b) {
+        this.x += b;
+        this.y += b;
+        this.z += b;
+        this.w += b;
+        return this;
+    }
+
+    public Vector4D subLocal(Vector4D v) {
+        this.x -= v.x;
+        this.y -= v.y;
+        this.z -= v.z;
+        this.w -= v.w;
+        return this;
+    }
+
+    public Vector4D multLocal(Vector4D a) {
+        this.x *= a.x;
+        this.y *= a.y;
+        this.z *= a.z;
+        this.w *= a.w;
+        return this;
+    }
+
+    public Vector4D multLocal(double b) {
+        this.x *= b;
+        this.y *= b;
+        this.z *= b;
+        this.w *= b;
+        return this;
+    }
+
+    public Vector4D parLocal(Vector4D a) {
+        this.x /= a.x;
+        this.y /= a.y;
+        this.z /= a.z;
+        this.w /= a.w;
+        return this;
+    }
+
+    public Vector4D parLocal(double b) {
+        this.x /= b;
+        this.y /= b;
+        this.z /= b;
+        this.w /= b;
+        return this;
+    }
+
+    public Vector4D addInto(Vector4D v, Vector4D dest) {
+        dest.set(this.x+v.x, this.y+v.y, this.z+v.z, this.w+v.w);
+        return dest;
+    }
+
+    public Vector4D subInto(Vector4D v, Vector4D dest) {
+        dest.set(this.x-v.x, this.y-v.y, this.z-v.z, this.w-v.w);
+        return dest;
+    }
+
+    public Vector4D multInto(Vector4D a, Vector4D dest) {
+        dest.set(a.x*this.x, a.y*this.y, a.z*this.z, a.w*this.w);
+        return dest;
+    }
+
+    public Vector4D multInto(double b, Vector4D dest) {
+        dest.set(this.x*b, this.y*b, this.z*b, this.w*b);
+        return dest;
+    }
+
+    public Vector4D parInto(double b, Vector4D dest) {
+        dest.set(this.x/b, this.y/b, this.z/b, this.w/b);
+        return dest;
+    }
+
+    /**
+     * Copies the components into a 4 element array. If target is null or
+     * shorter than 4, a new array is created.
+     */
+    public double[] getArray(double[] target) {
+        if (target == null || target.length < 4) {
+            target = new double[4];
+        }
+        target[0] = this.x;
+        target[1] = this.y;
+        target[2] = this.z;
+        target[3] = this.w;
+        return target;
     }
     
     public static double getDistance(Vector4D a, Vector4D b) {
-        Vector4D sub = a.sub(b);
-        return sub.norm();
+        double dx = a.x - b.x;
+        double dy = a.y - b.y;
+        double dz = a.z - b.z;
+        double dw = a.w - b.w;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz + dw * dw);
     }
 
     public static double dotProduct(Vector4D a, Vector4D b) {
-        return a.mult(b).sum();
+        return a.x * b.x + a.y * b.y + a.z * b.z + a.w * b.w;
     }
 
     @Override
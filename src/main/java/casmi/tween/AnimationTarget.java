@@ -35,4 +35,5 @@ public enum AnimationTarget {
     ROTATION_Z,
     ALPHA_STROKE, ALPHA_FILL,
     SCALE_X, SCALE_Y, SCALE_Z,
+    ORIENTATION,
 }
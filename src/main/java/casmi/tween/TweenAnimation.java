@@ -19,7 +19,7 @@
 
 package casmi.tween;
 
-
+import casmi.matrix.Quaternion;
 
 /**
  * Tween Animation
@@ -45,6 +45,10 @@ public class TweenAnimation {
 
     private TweenEquation equation;
 
+    // used by ORIENTATION, which interpolates value from 0 to 1
+    final Quaternion startOrientation = new Quaternion();
+    final Quaternion endOrientation = new Quaternion();
+
     public TweenAnimation(AnimationTarget target, double startValue, double targetValue, double duration, Class<? extends TweenEquation> equationClazz) {
         this.target = target;
         this.setStartValue(startValue);
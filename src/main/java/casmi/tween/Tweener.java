@@ -23,9 +23,12 @@ import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import casmi.graphics.element.Element;
+import casmi.matrix.Quaternion;
 import casmi.matrix.Vector2D;
 import casmi.matrix.Vector3D;
 import casmi.tween.TweenAnimation.TweenAnimationStatus;
+import casmi.util.Clock;
+import casmi.util.SystemClock;
 
 /**
  * TweenElement class.
@@ -37,10 +40,14 @@ import casmi.tween.TweenAnimation.TweenAnimationStatus;
  */
 public class Tweener {
 
+    private static volatile Clock clock = new SystemClock();
+
     private double initialPositionX, initialPositionY, initialPositionZ;
     private double initialRotationX, initialRotationY, initialRotationZ;
     private double initialScaleX, initialScaleY, initialScaleZ;
     private double initialStrokeAlpha, initialFillAlpha;
+    private Quaternion initialOrientation;
+    private final Quaternion currentOrientation = new Quaternion();
 
     private Element element;
 
@@ -59,6 +66,21 @@ public class Tweener {
     public Tweener() {
     }
 
+    /**
+     * Sets the clock which all Tweeners use to compute the animation time.
+     * The default clock is the system clock.
+     *
+     * @param c
+     *            The clock, or {@code null} to restore the system clock.
+     */
+    public static void setClock(Clock c) {
+        clock = (c == null) ? new SystemClock() : c;
+    }
+
+    public static Clock getClock() {
+        return clock;
+    }
+
     public Tweener(Element e) {
         this.element = e;
         init();
@@ -144,6 +166,26 @@ public class Tweener {
         animations.add(new TweenAnimation(AnimationTarget.ALPHA_FILL, initialFillAlpha, val, duration, equationClazz));
     }
 
+    /**
+     * Animates the orientation of the element by spherical linear
+     * interpolation. The animation starts from the current orientation, or
+     * from the orientation equal to the rotation angles if the element is
+     * rotated by angles.
+     *
+     * @param q
+     *            The target orientation.
+     * @param duration
+     *            The duration in milliseconds.
+     * @param equationClazz
+     *            The easing equation.
+     */
+    public void animateOrientation(Quaternion q, double duration, Class<? extends TweenEquation> equationClazz) {
+        TweenAnimation a = new TweenAnimation(AnimationTarget.ORIENTATION, 0.0, 1.0, duration, equationClazz);
+        a.endOrientation.set(q);
+        a.endOrientation.normalizeLocal();
+        animations.add(a);
+    }
+
     public final void clear() {
         this.animations.clear();
     }
@@ -159,6 +201,7 @@ public class Tweener {
             element.setScale(initialScaleX, initialScaleY, initialScaleZ);
             element.setStrokeColorAlpha(initialStrokeAlpha);
             element.setFillColorAlpha(initialFillAlpha);
+            element.setOrientation(initialOrientation);
         }
     }
 
@@ -175,6 +218,8 @@ public class Tweener {
             initialScaleZ = element.getScaleZ();
             initialStrokeAlpha = element.getStrokeColor().getAlpha();
             initialFillAlpha = element.getFillColor().getAlpha();
+            Quaternion q = element.getOrientation();
+            initialOrientation = (q == null) ? null : new Quaternion(q);
         }
     }
 
@@ -185,7 +230,7 @@ public class Tweener {
 
         init();
 
-        long currentTime = System.currentTimeMillis();
+        long currentTime = clock.currentTimeMillis();
 
         for (TweenAnimation a : this.animations) {
             a.start(currentTime);
@@ -235,6 +280,16 @@ public class Tweener {
                 a.setStartValue(initialStrokeAlpha);
                 break;
 
+            case ORIENTATION:
+                if (initialOrientation == null) {
+                    a.startOrientation.setEuler(Math.toRadians(initialRotationX),
+                                                Math.toRadians(initialRotationY),
+                                                Math.toRadians(initialRotationZ));
+                } else {
+                    a.startOrientation.set(initialOrientation);
+                }
+                break;
+
             default:
                 break;
             }
@@ -252,7 +307,7 @@ public class Tweener {
             return; // do nothing
         }
 
-        long currentTime = System.currentTimeMillis();
+        long currentTime = clock.currentTimeMillis();
 
         for (TweenAnimation a : this.animations) {
             a.render(currentTime);
@@ -302,6 +357,11 @@ public class Tweener {
                     element.setStrokeColorAlpha(a.getValue());
                     break;
 
+                case ORIENTATION:
+                    Quaternion.slerp(a.startOrientation, a.endOrientation, a.getValue(), currentOrientation);
+                    element.setOrientation(currentOrientation);
+                    break;
+
                 default:
                     break;
             }
@@ -0,0 +1,86 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.util;
+
+/**
+ * Deterministic clock which only moves when it is advanced explicitly.
+ * Used to step animations frame by frame independent of the wall-clock time.
+ *
+ * @author Xcoo Inc.
+ */
+public class FrameClock implements Clock {
+
+    private double time;
+    private double frameDuration;
+
+    /**
+     * Creates a new FrameClock which advances {@code 1000 / fps} milliseconds per frame.
+     *
+     * @param fps
+     *            The number of frames per second.
+     */
+    public FrameClock(double fps) {
+        this(0, fps);
+    }
+
+    /**
+     * Creates a new FrameClock.
+     *
+     * @param startTime
+     *            The initial time in milliseconds.
+     * @param fps
+     *            The number of frames per second.
+     */
+    public FrameClock(long startTime, double fps) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("FPS must be more than zero.");
+        }
+
+        this.time = startTime;
+        this.frameDuration = 1000.0 / fps;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return (long)time;
+    }
+
+    /**
+     * Advances the clock by one frame.
+     */
+    public void advance() {
+        time += frameDuration;
+    }
+
+    /**
+     * Advances the clock by the given milliseconds.
+     */
+    public void advance(double millis) {
+        time += millis;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    public double getFrameDuration() {
+        return frameDuration;
+    }
+}
@@ -22,9 +22,13 @@ package casmi.util;
 import java.util.Random;
 
 /**
+ * Perlin noise, compatible with Processing.
+ * <p>
+ * The static methods use a shared default generator.
+ *
  * @author Y. Ban
  */
-public class Noise {
+public class Noise extends NoiseGenerator {
 
     private static final float PRECISION = 0.5f;
     private static final int TABLE_LENGTH = (int) (360f / PRECISION);
@@ -36,12 +40,8 @@ public class Noise {
 
     private static final int PERLIN_SIZE = 4095;
 
-    private static int perlin_octaves = 4; // default to medium smooth
-    private static float perlin_amp_falloff = 0.5f; // 50% reduction/octave
-
-    private static int perlin_TWOPI, perlin_PI;
-    private static float[] perlin_cosTable;
-    private static float[] perlin;
+    private static final int perlin_TWOPI, perlin_PI;
+    private static final float[] perlin_cosTable;
 
     static {
         perlin_cosTable = new float[TABLE_LENGTH];
@@ -50,30 +50,94 @@ public class Noise {
             perlin_cosTable[i] = (float) Math.cos(i / 180.0f * Math.PI * PRECISION);
         }
 
-        perlin_TWOPI = perlin_PI = TABLE_LENGTH;
-        perlin_PI /= 2;
+        perlin_TWOPI = TABLE_LENGTH;
+        perlin_PI = TABLE_LENGTH / 2;
+    }
+
+    private static volatile Noise defaultNoise = new Noise(new Random().nextLong());
+
+    private final float[] perlin;
+
+    /**
+     * Creates a generator with the default octaves and falloff.
+     *
+     * @param seed
+     *            The seed of the permutation table.
+     */
+    public Noise(long seed) {
+        this(seed, DEFAULT_OCTAVES, DEFAULT_FALLOFF);
+    }
+
+    /**
+     * Creates a generator.
+     *
+     * @param seed
+     *            The seed of the permutation table.
+     * @param octaves
+     *            The number of octaves summed up.
+     * @param falloff
+     *            The amplitude factor of each successive octave.
+     */
+    public Noise(long seed, int octaves, float falloff) {
+        super(seed, octaves, falloff);
+
+        Random r = new Random(seed);
+        perlin = new float[PERLIN_SIZE + 1];
+        for (int i = 0; i < PERLIN_SIZE + 1; i++) {
+            perlin[i] = r.nextFloat();
+        }
     }
 
-    private static java.util.Random r = null;
+    /**
+     * Returns a copy of the 4096 entry random table, so that the same noise
+     * can be evaluated elsewhere, e.g. in a shader.
+     */
+    public float[] getTable() {
+        return perlin.clone();
+    }
 
     public static float noise(float x) {
-        return noise(x, 0f, 0f);
+        return defaultNoise.get(x, 0f, 0f);
     }
 
     public static float noise(float x, float y) {
-        return noise(x, y, 0f);
+        return defaultNoise.get(x, y, 0f);
     }
 
     public static float noise(float x, float y, float z) {
-        if (perlin == null) {
-            if (r == null) {
-                r = new Random();
-            }
-            perlin = new float[PERLIN_SIZE + 1];
-            for (int i = 0; i < PERLIN_SIZE + 1; i++) {
-                perlin[i] = r.nextFloat(); // (float)Math.random();
-            }
-        }
+        return defaultNoise.get(x, y, z);
+    }
+
+    public static void setSeed(long seed) {
+        Noise n = defaultNoise;
+        defaultNoise = new Noise(seed, n.octaves, n.falloff);
+    }
+
+    /**
+     * Sets the number of octaves of the default generator.
+     */
+    public static void noiseDetail(int octaves) {
+        Noise n = defaultNoise;
+        defaultNoise = new Noise(n.seed, octaves, n.falloff);
+    }
+
+    /**
+     * Sets the number of octaves and the falloff of the default generator.
+     */
+    public static void noiseDetail(int octaves, float falloff) {
+        defaultNoise = new Noise(defaultNoise.seed, octaves, falloff);
+    }
+
+    /**
+     * Returns the generator used by the static methods.
+     */
+    public static Noise getDefault() {
+        return defaultNoise;
+    }
+
+    @Override
+    public float get(float x, float y, float z) {
+        final float[] perlin = this.perlin;
 
         if (x < 0)
             x = -x;
@@ -93,7 +157,7 @@ public class Noise {
 
         float n1, n2, n3;
 
-        for (int i = 0; i < perlin_octaves; i++) {
+        for (int i = 0; i < octaves; i++) {
             int of = xi + (yi << PERLIN_YWRAPB) + (zi << PERLIN_ZWRAPB);
 
             rxf = noise_fsc(xf);
@@ -115,7 +179,7 @@ public class Noise {
             n1 += noise_fsc(zf) * (n2 - n1);
 
             r += n1 * ampl;
-            ampl *= perlin_amp_falloff;
+            ampl *= falloff;
             xi <<= 1;
             xf *= 2;
             yi <<= 1;
@@ -143,12 +207,4 @@ public class Noise {
         return 0.5f * (1.0f - perlin_cosTable[(int) (i * perlin_PI)
                 % perlin_TWOPI]);
     }
-
-    public static void setSeed(long seed) {
-        if (r == null)
-            r = new Random();
-        r.setSeed(seed);
-
-        perlin = null;
-    }
 }
@@ -0,0 +1,226 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Base class of seeded noise generators.
+ * <p>
+ * Generators are immutable after construction, so one instance can be
+ * sampled from any number of threads. The fill methods evaluate whole grids
+ * and split large ones across a shared thread pool.
+ *
+ * @author Xcoo Inc.
+ */
+abstract public class NoiseGenerator {
+
+    public static final int DEFAULT_OCTAVES = 4;        // default to medium smooth
+    public static final float DEFAULT_FALLOFF = 0.5f;   // 50% reduction/octave
+
+    // grids with fewer values than this are filled on the calling thread
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    protected final long seed;
+    protected final int octaves;
+    protected final float falloff;
+
+    /**
+     * @param seed
+     *            The seed of the permutation table.
+     * @param octaves
+     *            The number of octaves summed up.
+     * @param falloff
+     *            The amplitude factor of each successive octave.
+     */
+    protected NoiseGenerator(long seed, int octaves, float falloff) {
+        if (octaves < 1) {
+            throw new IllegalArgumentException("octaves must be more than zero");
+        }
+
+        this.seed = seed;
+        this.octaves = octaves;
+        this.falloff = falloff;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getOctaves() {
+        return octaves;
+    }
+
+    public float getFalloff() {
+        return falloff;
+    }
+
+    public float get(float x) {
+        return get(x, 0f);
+    }
+
+    public float get(float x, float y) {
+        return get(x, y, 0f);
+    }
+
+    /**
+     * Returns the noise value at the point, in the range [0, 1).
+     */
+    abstract public float get(float x, float y, float z);
+
+    /**
+     * Returns the 4D noise value. Generators which support 4D override this.
+     *
+     * @throws UnsupportedOperationException
+     *             if the generator has no 4D noise.
+     */
+    float get4D(float x, float y, float z, float w) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " has no 4D noise");
+    }
+
+    /**
+     * Fills {@code dest[offset + i]} with {@code get(x + i * stepX)}.
+     */
+    public void fill1D(float[] dest, int offset, int width, float x, float stepX) {
+        fill(2, dest, offset, width, 1, 1, x, 0f, 0f, 0f, stepX, 0f, 0f);
+    }
+
+    /**
+     * Fills a row-major grid, {@code dest[offset + j * width + i]} with
+     * {@code get(x + i * stepX, y + j * stepY)}.
+     */
+    public void fill2D(float[] dest, int offset, int width, int height,
+                       float x, float y, float stepX, float stepY) {
+        fill(2, dest, offset, width, height, 1, x, y, 0f, 0f, stepX, stepY, 0f);
+    }
+
+    /**
+     * Fills a row-major grid sampled on the plane at z, which is useful for
+     * animating a 2D field over time.
+     */
+    public void fill2D(float[] dest, int offset, int width, int height,
+                       float x, float y, float z, float stepX, float stepY) {
+        fill(3, dest, offset, width, height, 1, x, y, z, 0f, stepX, stepY, 0f);
+    }
+
+    /**
+     * Fills a grid of width * height * depth values, x varying fastest, with
+     * {@code get(x + i * stepX, y + j * stepY, z + k * stepZ)}.
+     */
+    public void fill3D(float[] dest, int offset, int width, int height, int depth,
+                       float x, float y, float z, float stepX, float stepY, float stepZ) {
+        fill(3, dest, offset, width, height, depth, x, y, z, 0f, stepX, stepY, stepZ);
+    }
+
+    // dims selects get(x, y), get(x, y, z) or get4D(x, y, z, w)
+    void fill(int dims, float[] dest, int offset, int width, int height, int depth,
+              float x, float y, float z, float w, float stepX, float stepY, float stepZ) {
+        if (width < 0 || height < 0 || depth < 0) {
+            throw new IllegalArgumentException("grid size must not be negative");
+        }
+        long size = (long) width * height * depth;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("grid must not have more than Integer.MAX_VALUE values");
+        }
+        if (offset < 0 || offset + size > dest.length) {
+            throw new IllegalArgumentException("dest is too small for the grid");
+        }
+        if (size == 0) {
+            return;
+        }
+
+        FillTask task = new FillTask(dims, dest, offset, width, height,
+                                     x, y, z, w, stepX, stepY, stepZ, 0, (int) ((long) height * depth));
+        if (size < PARALLEL_THRESHOLD) {
+            task.compute();
+        } else {
+            Pool.POOL.invoke(task);
+        }
+    }
+
+    private static class Pool {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    // fills rows [from, to) of all slices; row r is row (r % height) of slice (r / height)
+    @SuppressWarnings("serial")
+    private class FillTask extends RecursiveAction {
+
+        private final int dims;
+        private final float[] dest;
+        private final int offset, width, height;
+        private final float x, y, z, w, stepX, stepY, stepZ;
+        private final int from, to;
+
+        FillTask(int dims, float[] dest, int offset, int width, int height,
+                 float x, float y, float z, float w, float stepX, float stepY, float stepZ,
+                 int from, int to) {
+            this.dims = dims;
+            this.dest = dest;
+            this.offset = offset;
+            this.width = width;
+            this.height = height;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.w = w;
+            this.stepX = stepX;
+            this.stepY = stepY;
+            this.stepZ = stepZ;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && (long) (to - from) * width > PARALLEL_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new FillTask(dims, dest, offset, width, height, x, y, z, w, stepX, stepY, stepZ, from, mid),
+                          new FillTask(dims, dest, offset, width, height, x, y, z, w, stepX, stepY, stepZ, mid, to));
+                return;
+            }
+
+            NoiseGenerator g = NoiseGenerator.this;
+            for (int r = from; r < to; r++) {
+                float py = y + (r % height) * stepY;
+                float pz = z + (r / height) * stepZ;
+                int d = (int) (offset + (long) r * width);
+                switch (dims) {
+                case 2:
+                    for (int i = 0; i < width; i++) {
+                        dest[d + i] = g.get(x + i * stepX, py);
+                    }
+                    break;
+                case 3:
+                    for (int i = 0; i < width; i++) {
+                        dest[d + i] = g.get(x + i * stepX, py, pz);
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < width; i++) {
+                        dest[d + i] = g.get4D(x + i * stepX, py, pz, w);
+                    }
+                    break;
+                }
+            }
+        }
+    }
+}
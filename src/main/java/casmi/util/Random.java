@@ -19,25 +19,66 @@
 
 package casmi.util;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+import casmi.matrix.Vector2D;
 import casmi.matrix.Vector3D;
 
 /**
+ * Random numbers for sketches.
+ * <p>
+ * Each thread draws from its own {@link RandomStream}, so calls from many
+ * threads do not contend. After {@link #setSeed(long)}, the calling thread
+ * uses stream 0 of the seed and other threads get streams 1, 2, ... in the
+ * order they first call a method. For parallel work which must be
+ * reproducible regardless of scheduling, create a {@link RandomStream} per
+ * task instead.
+ *
  * @author Y. Ban
  */
 public class Random {
 
-    private static java.util.Random r = null;
+    private static volatile long seed = System.nanoTime() ^ 0x5deece66dL;
+    private static volatile int generation = 0;
+    private static final AtomicLong nextStream = new AtomicLong();
+
+    private static final ThreadLocal<Local> LOCAL = new ThreadLocal<Local>() {
+        @Override
+        protected Local initialValue() {
+            return new Local();
+        }
+    };
+
+    private static class Local {
+        int generation = -1;
+        RandomStream stream;
+    }
+
+    /**
+     * Returns the stream of the calling thread.
+     */
+    public static final RandomStream current() {
+        Local l = LOCAL.get();
+        int g = generation;
+        if (l.generation != g) {
+            long s = seed;
+            long index = nextStream.getAndIncrement();
+            if (l.stream == null) {
+                l.stream = new RandomStream(s, index);
+            } else {
+                l.stream.setSeed(s, index);
+            }
+            l.generation = g;
+        }
+        return l.stream;
+    }
 
     public static final int random(int max) {
 
         if (max == 0)
             return 0;
 
-        if (r == null)
-            r = new java.util.Random();
-
-
-        return r.nextInt(max);
+        return current().nextInt(max);
     }
 
     public static final int random(int min, int max) {
@@ -54,10 +95,7 @@ public class Random {
         if (max == 0)
             return 0;
 
-        if (r == null)
-            r = new java.util.Random();
-
-        return r.nextFloat() * max;
+        return current().nextFloat() * max;
     }
 
     public static final float random(float min, float max) {
@@ -69,11 +107,38 @@ public class Random {
         return random(diff) + min;
     }
 
-    public static final void setSeed(long seed) {
-        if (r == null)
-            r = new java.util.Random();
+    /**
+     * Returns a normally distributed value with mean 0 and standard deviation 1.
+     */
+    public static final double gaussian() {
+        return current().nextGaussian();
+    }
+
+    public static final double gaussian(double mean, double sd) {
+        return current().nextGaussian(mean, sd);
+    }
 
-        r.setSeed(seed);
+    public static final void fill(float[] dest, float min, float max) {
+        current().fill(dest, 0, dest.length, min, max);
+    }
+
+    public static final void fill(double[] dest, double min, double max) {
+        current().fill(dest, 0, dest.length, min, max);
+    }
+
+    public static final void fillGaussian(float[] dest, float mean, float sd) {
+        current().fillGaussian(dest, 0, dest.length, mean, sd);
+    }
+
+    public static final void fillGaussian(double[] dest, double mean, double sd) {
+        current().fillGaussian(dest, 0, dest.length, mean, sd);
+    }
+
+    public static final synchronized void setSeed(long seed) {
+        Random.seed = seed;
+        nextStream.set(0);
+        generation++;
+        current();
     }
 
     /**
@@ -82,7 +147,36 @@ public class Random {
      * @return vertex
      */
     public static final Vector3D randVertex2d() {
-        float theta = random((float)(Math.PI*2.0));
-        return new Vector3D(Math.cos(theta),Math.sin(theta));
+        return current().randVertex2d(new Vector3D());
+    }
+
+    /**
+     * Sets dest to a random point on the unit circle.
+     */
+    public static final Vector2D randVertex2d(Vector2D dest) {
+        return current().randVertex2d(dest);
+    }
+
+    /**
+     * Sets dest to a random point on the unit circle in the xy plane.
+     */
+    public static final Vector3D randVertex2d(Vector3D dest) {
+        return current().randVertex2d(dest);
+    }
+
+    /**
+     * returns a random Vertex that represents a point on the unit sphere
+     *
+     * @return vertex
+     */
+    public static final Vector3D randVertex3d() {
+        return current().randVertex3d(new Vector3D());
+    }
+
+    /**
+     * Sets dest to a random point on the unit sphere.
+     */
+    public static final Vector3D randVertex3d(Vector3D dest) {
+        return current().randVertex3d(dest);
     }
 }
@@ -0,0 +1,259 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.util;
+
+import casmi.matrix.Vector2D;
+import casmi.matrix.Vector3D;
+
+/**
+ * Fast pseudo random number generator (xoshiro256**).
+ * <p>
+ * Unlike {@link java.util.Random}, an instance has no synchronization, so it
+ * must be used by one thread at a time; give each thread or task its own
+ * stream instead. Streams created with the same seed and stream index always
+ * produce the same sequence, and {@link #split()} derives a new independent
+ * stream from an existing one.
+ *
+ * @author Xcoo Inc.
+ */
+public final class RandomStream {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long s0, s1, s2, s3;
+
+    private double nextGaussian;
+    private boolean haveNextGaussian = false;
+
+    /**
+     * Creates stream 0 of the seed.
+     */
+    public RandomStream(long seed) {
+        this(seed, 0);
+    }
+
+    /**
+     * Creates a stream of the seed. Different stream indices give
+     * statistically independent sequences.
+     *
+     * @param seed
+     *            The seed.
+     * @param stream
+     *            The index of the stream, e.g. a thread or task number.
+     */
+    public RandomStream(long seed, long stream) {
+        setSeed(seed, stream);
+    }
+
+    /**
+     * Restarts the sequence of the seed and stream.
+     */
+    public void setSeed(long seed, long stream) {
+        long sm = seed ^ mix64(stream + GOLDEN_GAMMA);
+        s0 = mix64(sm += GOLDEN_GAMMA);
+        s1 = mix64(sm += GOLDEN_GAMMA);
+        s2 = mix64(sm += GOLDEN_GAMMA);
+        s3 = mix64(sm +  GOLDEN_GAMMA);
+        haveNextGaussian = false;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns a new stream seeded from this one, for handing to another
+     * thread. This stream advances by one value.
+     */
+    public RandomStream split() {
+        return new RandomStream(nextLong(), nextLong());
+    }
+
+    public long nextLong() {
+        final long result = Long.rotateLeft(s1 * 5, 7) * 9;
+        final long t = s1 << 17;
+
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft(s3, 45);
+
+        return result;
+    }
+
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    /**
+     * Returns a uniformly distributed value from 0 (inclusive) to bound
+     * (exclusive).
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+
+        // Lemire's multiply and reject
+        long m = (nextLong() >>> 32) * bound;
+        long l = m & 0xffffffffL;
+        if (l < bound) {
+            long threshold = (0x100000000L - bound) % bound;
+            while (l < threshold) {
+                m = (nextLong() >>> 32) * bound;
+                l = m & 0xffffffffL;
+            }
+        }
+        return (int) (m >>> 32);
+    }
+
+    /**
+     * Returns a uniformly distributed value from 0 (inclusive) to 1
+     * (exclusive).
+     */
+    public float nextFloat() {
+        return (nextLong() >>> 40) * 0x1.0p-24f;
+    }
+
+    /**
+     * Returns a uniformly distributed value from 0 (inclusive) to 1
+     * (exclusive).
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    public boolean nextBoolean() {
+        return nextLong() < 0;
+    }
+
+    /**
+     * Returns a normally distributed value with mean 0 and standard
+     * deviation 1 (Marsaglia polar method).
+     */
+    public double nextGaussian() {
+        if (haveNextGaussian) {
+            haveNextGaussian = false;
+            return nextGaussian;
+        }
+
+        double v1, v2, s;
+        do {
+            v1 = 2.0 * nextDouble() - 1.0;
+            v2 = 2.0 * nextDouble() - 1.0;
+            s = v1 * v1 + v2 * v2;
+        } while (s >= 1.0 || s == 0.0);
+
+        double multiplier = Math.sqrt(-2.0 * Math.log(s) / s);
+        nextGaussian = v2 * multiplier;
+        haveNextGaussian = true;
+        return v1 * multiplier;
+    }
+
+    public double nextGaussian(double mean, double sd) {
+        return mean + nextGaussian() * sd;
+    }
+
+    /**
+     * Fills {@code dest[offset]} to {@code dest[offset + count - 1]} with
+     * uniformly distributed values from min (inclusive) to max (exclusive).
+     */
+    public void fill(float[] dest, int offset, int count, float min, float max) {
+        checkRange(dest.length, offset, count);
+        float range = max - min;
+        for (int i = offset, end = offset + count; i < end; i++) {
+            dest[i] = min + nextFloat() * range;
+        }
+    }
+
+    /**
+     * Fills {@code dest[offset]} to {@code dest[offset + count - 1]} with
+     * uniformly distributed values from min (inclusive) to max (exclusive).
+     */
+    public void fill(double[] dest, int offset, int count, double min, double max) {
+        checkRange(dest.length, offset, count);
+        double range = max - min;
+        for (int i = offset, end = offset + count; i < end; i++) {
+            dest[i] = min + nextDouble() * range;
+        }
+    }
+
+    /**
+     * Fills {@code dest[offset]} to {@code dest[offset + count - 1]} with
+     * normally distributed values.
+     */
+    public void fillGaussian(float[] dest, int offset, int count, float mean, float sd) {
+        checkRange(dest.length, offset, count);
+        for (int i = offset, end = offset + count; i < end; i++) {
+            dest[i] = (float) (mean + nextGaussian() * sd);
+        }
+    }
+
+    /**
+     * Fills {@code dest[offset]} to {@code dest[offset + count - 1]} with
+     * normally distributed values.
+     */
+    public void fillGaussian(double[] dest, int offset, int count, double mean, double sd) {
+        checkRange(dest.length, offset, count);
+        for (int i = offset, end = offset + count; i < end; i++) {
+            dest[i] = mean + nextGaussian() * sd;
+        }
+    }
+
+    private static void checkRange(int length, int offset, int count) {
+        if (offset < 0 || count < 0 || offset + count > length) {
+            throw new IllegalArgumentException("offset and count are out of the array");
+        }
+    }
+
+    /**
+     * Sets dest to a random point on the unit circle.
+     */
+    public Vector2D randVertex2d(Vector2D dest) {
+        double theta = nextDouble() * Math.PI * 2.0;
+        dest.set(Math.cos(theta), Math.sin(theta));
+        return dest;
+    }
+
+    /**
+     * Sets dest to a random point on the unit circle in the xy plane.
+     */
+    public Vector3D randVertex2d(Vector3D dest) {
+        double theta = nextDouble() * Math.PI * 2.0;
+        dest.set(Math.cos(theta), Math.sin(theta), 0.0);
+        return dest;
+    }
+
+    /**
+     * Sets dest to a random point on the unit sphere.
+     */
+    public Vector3D randVertex3d(Vector3D dest) {
+        double z = 2.0 * nextDouble() - 1.0;
+        double theta = nextDouble() * Math.PI * 2.0;
+        double r = Math.sqrt(1.0 - z * z);
+        dest.set(r * Math.cos(theta), r * Math.sin(theta), z);
+        return dest;
+    }
+}
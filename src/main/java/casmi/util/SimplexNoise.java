@@ -0,0 +1,367 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.util;
+
+import java.util.Random;
+
+/**
+ * Simplex noise in 2D, 3D and 4D.
+ * <p>
+ * Octaves and falloff have the same meaning as in {@link Noise} and values
+ * are in the same range, so the two generators are interchangeable. Simplex
+ * noise has no axis-aligned artifacts, at a somewhat higher cost per sample
+ * than the table-based {@link Noise}. The 4D noise can be used for seamless
+ * loops; see
+ * {@link #fillLoop2D(float[], int, int, int, float, float, float, float, float, float)}.
+ * <p>
+ * Based on the public domain implementation by Stefan Gustavson, with a
+ * kernel radius of 0.5 in all dimensions, which avoids the small seams that
+ * the original 0.6 leaves in 3D and 4D.
+ *
+ * @author Xcoo Inc.
+ */
+public class SimplexNoise extends NoiseGenerator {
+
+    private static final double F2 = 0.5 * (Math.sqrt(3.0) - 1.0);
+    private static final double G2 = (3.0 - Math.sqrt(3.0)) / 6.0;
+    private static final double F3 = 1.0 / 3.0;
+    private static final double G3 = 1.0 / 6.0;
+    private static final double F4 = (Math.sqrt(5.0) - 1.0) / 4.0;
+    private static final double G4 = (5.0 - Math.sqrt(5.0)) / 20.0;
+
+    private static final byte[] GRAD3 = {
+        1, 1, 0,  -1, 1, 0,  1, -1, 0,  -1, -1, 0,
+        1, 0, 1,  -1, 0, 1,  1, 0, -1,  -1, 0, -1,
+        0, 1, 1,  0, -1, 1,  0, 1, -1,  0, -1, -1
+    };
+
+    private static final byte[] GRAD4 = {
+        0, 1, 1, 1,  0, 1, 1, -1,  0, 1, -1, 1,  0, 1, -1, -1,
+        0, -1, 1, 1,  0, -1, 1, -1,  0, -1, -1, 1,  0, -1, -1, -1,
+        1, 0, 1, 1,  1, 0, 1, -1,  1, 0, -1, 1,  1, 0, -1, -1,
+        -1, 0, 1, 1,  -1, 0, 1, -1,  -1, 0, -1, 1,  -1, 0, -1, -1,
+        1, 1, 0, 1,  1, 1, 0, -1,  1, -1, 0, 1,  1, -1, 0, -1,
+        -1, 1, 0, 1,  -1, 1, 0, -1,  -1, -1, 0, 1,  -1, -1, 0, -1,
+        1, 1, 1, 0,  1, 1, -1, 0,  1, -1, 1, 0,  1, -1, -1, 0,
+        -1, 1, 1, 0,  -1, 1, -1, 0,  -1, -1, 1, 0,  -1, -1, -1, 0
+    };
+
+    private final short[] perm = new short[512];
+    private final short[] permMod12 = new short[512];
+
+    /**
+     * Creates a generator with the default octaves and falloff.
+     *
+     * @param seed
+     *            The seed of the permutation table.
+     */
+    public SimplexNoise(long seed) {
+        this(seed, DEFAULT_OCTAVES, DEFAULT_FALLOFF);
+    }
+
+    /**
+     * Creates a generator.
+     *
+     * @param seed
+     *            The seed of the permutation table.
+     * @param octaves
+     *            The number of octaves summed up.
+     * @param falloff
+     *            The amplitude factor of each successive octave.
+     */
+    public SimplexNoise(long seed, int octaves, float falloff) {
+        super(seed, octaves, falloff);
+
+        short[] p = new short[256];
+        for (int i = 0; i < 256; i++) {
+            p[i] = (short) i;
+        }
+        Random r = new Random(seed);
+        for (int i = 255; i > 0; i--) {
+            int j = r.nextInt(i + 1);
+            short t = p[i];
+            p[i] = p[j];
+            p[j] = t;
+        }
+        for (int i = 0; i < 512; i++) {
+            perm[i] = p[i & 255];
+            permMod12[i] = (short) (perm[i] % 12);
+        }
+    }
+
+    @Override
+    public float get(float x, float y) {
+        double r = 0.0, ampl = 0.5, freq = 1.0;
+        for (int i = 0; i < octaves; i++) {
+            r += ampl * (simplex(x * freq, y * freq) + 1.0) * 0.5;
+            ampl *= falloff;
+            freq *= 2.0;
+        }
+        return (float) r;
+    }
+
+    @Override
+    public float get(float x, float y, float z) {
+        double r = 0.0, ampl = 0.5, freq = 1.0;
+        for (int i = 0; i < octaves; i++) {
+            r += ampl * (simplex(x * freq, y * freq, z * freq) + 1.0) * 0.5;
+            ampl *= falloff;
+            freq *= 2.0;
+        }
+        return (float) r;
+    }
+
+    /**
+     * Returns the 4D noise value at the point, in the range [0, 1).
+     */
+    public float get(float x, float y, float z, float w) {
+        double r = 0.0, ampl = 0.5, freq = 1.0;
+        for (int i = 0; i < octaves; i++) {
+            r += ampl * (simplex(x * freq, y * freq, z * freq, w * freq) + 1.0) * 0.5;
+            ampl *= falloff;
+            freq *= 2.0;
+        }
+        return (float) r;
+    }
+
+    @Override
+    float get4D(float x, float y, float z, float w) {
+        return get(x, y, z, w);
+    }
+
+    /**
+     * Fills a row-major grid of the 3D slice of 4D noise at (z, w).
+     */
+    public void fill2D(float[] dest, int offset, int width, int height,
+                       float x, float y, float z, float w, float stepX, float stepY) {
+        fill(4, dest, offset, width, height, 1, x, y, z, w, stepX, stepY, 0f);
+    }
+
+    /**
+     * Fills a row-major grid that loops seamlessly over time. The frame is
+     * sampled on a circle of the given radius in the zw plane, so phase 0 and
+     * phase 1 give the same grid.
+     *
+     * @param phase
+     *            The position in the loop, from 0 to 1.
+     * @param radius
+     *            The radius of the circle; larger values change faster.
+     */
+    public void fillLoop2D(float[] dest, int offset, int width, int height,
+                           float x, float y, float stepX, float stepY,
+                           float radius, float phase) {
+        double a = 2.0 * Math.PI * phase;
+        fill2D(dest, offset, width, height, x, y,
+               (float) (radius * Math.cos(a)), (float) (radius * Math.sin(a)), stepX, stepY);
+    }
+
+    private static int fastFloor(double x) {
+        int xi = (int) x;
+        return x < xi ? xi - 1 : xi;
+    }
+
+    private static double dot(int g, double x, double y) {
+        return GRAD3[g] * x + GRAD3[g + 1] * y;
+    }
+
+    private static double dot(int g, double x, double y, double z) {
+        return GRAD3[g] * x + GRAD3[g + 1] * y + GRAD3[g + 2] * z;
+    }
+
+    private static double dot(int g, double x, double y, double z, double w) {
+        return GRAD4[g] * x + GRAD4[g + 1] * y + GRAD4[g + 2] * z + GRAD4[g + 3] * w;
+    }
+
+    // raw 2D simplex noise in [-1, 1]
+    private double simplex(double xin, double yin) {
+        double s = (xin + yin) * F2;
+        int i = fastFloor(xin + s);
+        int j = fastFloor(yin + s);
+        double t = (i + j) * G2;
+        double x0 = xin - (i - t);
+        double y0 = yin - (j - t);
+
+        int i1, j1;
+        if (x0 > y0) {
+            i1 = 1; j1 = 0;
+        } else {
+            i1 = 0; j1 = 1;
+        }
+
+        double x1 = x0 - i1 + G2;
+        double y1 = y0 - j1 + G2;
+        double x2 = x0 - 1.0 + 2.0 * G2;
+        double y2 = y0 - 1.0 + 2.0 * G2;
+
+        int ii = i & 255;
+        int jj = j & 255;
+
+        double n = 0.0;
+        double t0 = 0.5 - x0 * x0 - y0 * y0;
+        if (t0 > 0) {
+            t0 *= t0;
+            n += t0 * t0 * dot(permMod12[ii + perm[jj]] * 3, x0, y0);
+        }
+        double t1 = 0.5 - x1 * x1 - y1 * y1;
+        if (t1 > 0) {
+            t1 *= t1;
+            n += t1 * t1 * dot(permMod12[ii + i1 + perm[jj + j1]] * 3, x1, y1);
+        }
+        double t2 = 0.5 - x2 * x2 - y2 * y2;
+        if (t2 > 0) {
+            t2 *= t2;
+            n += t2 * t2 * dot(permMod12[ii + 1 + perm[jj + 1]] * 3, x2, y2);
+        }
+        return 70.0 * n;
+    }
+
+    // raw 3D simplex noise in [-1, 1]
+    private double simplex(double xin, double yin, double zin) {
+        double s = (xin + yin + zin) * F3;
+        int i = fastFloor(xin + s);
+        int j = fastFloor(yin + s);
+        int k = fastFloor(zin + s);
+        double t = (i + j + k) * G3;
+        double x0 = xin - (i - t);
+        double y0 = yin - (j - t);
+        double z0 = zin - (k - t);
+
+        int i1, j1, k1, i2, j2, k2;
+        if (x0 >= y0) {
+            if (y0 >= z0) {
+                i1 = 1; j1 = 0; k1 = 0; i2 = 1; j2 = 1; k2 = 0;
+            } else if (x0 >= z0) {
+                i1 = 1; j1 = 0; k1 = 0; i2 = 1; j2 = 0; k2 = 1;
+            } else {
+                i1 = 0; j1 = 0; k1 = 1; i2 = 1; j2 = 0; k2 = 1;
+            }
+        } else {
+            if (y0 < z0) {
+                i1 = 0; j1 = 0; k1 = 1; i2 = 0; j2 = 1; k2 = 1;
+            } else if (x0 < z0) {
+                i1 = 0; j1 = 1; k1 = 0; i2 = 0; j2 = 1; k2 = 1;
+            } else {
+                i1 = 0; j1 = 1; k1 = 0; i2 = 1; j2 = 1; k2 = 0;
+            }
+        }
+
+        double x1 = x0 - i1 + G3;
+        double y1 = y0 - j1 + G3;
+        double z1 = z0 - k1 + G3;
+        double x2 = x0 - i2 + 2.0 * G3;
+        double y2 = y0 - j2 + 2.0 * G3;
+        double z2 = z0 - k2 + 2.0 * G3;
+        double x3 = x0 - 1.0 + 3.0 * G3;
+        double y3 = y0 - 1.0 + 3.0 * G3;
+        double z3 = z0 - 1.0 + 3.0 * G3;
+
+        int ii = i & 255;
+        int jj = j & 255;
+        int kk = k & 255;
+
+        double n = 0.0;
+        double t0 = 0.5 - x0 * x0 - y0 * y0 - z0 * z0;
+        if (t0 > 0) {
+            t0 *= t0;
+            n += t0 * t0 * dot(permMod12[ii + perm[jj + perm[kk]]] * 3, x0, y0, z0);
+        }
+        double t1 = 0.5 - x1 * x1 - y1 * y1 - z1 * z1;
+        if (t1 > 0) {
+            t1 *= t1;
+            n += t1 * t1 * dot(permMod12[ii + i1 + perm[jj + j1 + perm[kk + k1]]] * 3, x1, y1, z1);
+        }
+        double t2 = 0.5 - x2 * x2 - y2 * y2 - z2 * z2;
+        if (t2 > 0) {
+            t2 *= t2;
+            n += t2 * t2 * dot(permMod12[ii + i2 + perm[jj + j2 + perm[kk + k2]]] * 3, x2, y2, z2);
+        }
+        double t3 = 0.5 - x3 * x3 - y3 * y3 - z3 * z3;
+        if (t3 > 0) {
+            t3 *= t3;
+            n += t3 * t3 * dot(permMod12[ii + 1 + perm[jj + 1 + perm[kk + 1]]] * 3, x3, y3, z3);
+        }
+        return 70.0 * n;
+    }
+
+    // raw 4D simplex noise in [-1, 1]
+    private double simplex(double x, double y, double z, double w) {
+        double s = (x + y + z + w) * F4;
+        int i = fastFloor(x + s);
+        int j = fastFloor(y + s);
+        int k = fastFloor(z + s);
+        int l = fastFloor(w + s);
+        double t = (i + j + k + l) * G4;
+        double x0 = x - (i - t);
+        double y0 = y - (j - t);
+        double z0 = z - (k - t);
+        double w0 = w - (l - t);
+
+        // rank the coordinates to find the simplex
+        int rankx = 0, ranky = 0, rankz = 0, rankw = 0;
+        if (x0 > y0) rankx++; else ranky++;
+        if (x0 > z0) rankx++; else rankz++;
+        if (x0 > w0) rankx++; else rankw++;
+        if (y0 > z0) ranky++; else rankz++;
+        if (y0 > w0) ranky++; else rankw++;
+        if (z0 > w0) rankz++; else rankw++;
+
+        int i1 = rankx >= 3 ? 1 : 0, j1 = ranky >= 3 ? 1 : 0, k1 = rankz >= 3 ? 1 : 0, l1 = rankw >= 3 ? 1 : 0;
+        int i2 = rankx >= 2 ? 1 : 0, j2 = ranky >= 2 ? 1 : 0, k2 = rankz >= 2 ? 1 : 0, l2 = rankw >= 2 ? 1 : 0;
+        int i3 = rankx >= 1 ? 1 : 0, j3 = ranky >= 1 ? 1 : 0, k3 = rankz >= 1 ? 1 : 0, l3 = rankw >= 1 ? 1 : 0;
+
+        double x1 = x0 - i1 + G4, y1 = y0 - j1 + G4, z1 = z0 - k1 + G4, w1 = w0 - l1 + G4;
+        double x2 = x0 - i2 + 2.0 * G4, y2 = y0 - j2 + 2.0 * G4, z2 = z0 - k2 + 2.0 * G4, w2 = w0 - l2 + 2.0 * G4;
+        double x3 = x0 - i3 + 3.0 * G4, y3 = y0 - j3 + 3.0 * G4, z3 = z0 - k3 + 3.0 * G4, w3 = w0 - l3 + 3.0 * G4;
+        double x4 = x0 - 1.0 + 4.0 * G4, y4 = y0 - 1.0 + 4.0 * G4, z4 = z0 - 1.0 + 4.0 * G4, w4 = w0 - 1.0 + 4.0 * G4;
+
+        int ii = i & 255;
+        int jj = j & 255;
+        int kk = k & 255;
+        int ll = l & 255;
+
+        double n = 0.0;
+        double t0 = 0.5 - x0 * x0 - y0 * y0 - z0 * z0 - w0 * w0;
+        if (t0 > 0) {
+            t0 *= t0;
+            n += t0 * t0 * dot((perm[ii + perm[jj + perm[kk + perm[ll]]]] & 31) * 4, x0, y0, z0, w0);
+        }
+        double t1 = 0.5 - x1 * x1 - y1 * y1 - z1 * z1 - w1 * w1;
+        if (t1 > 0) {
+            t1 *= t1;
+            n += t1 * t1 * dot((perm[ii + i1 + perm[jj + j1 + perm[kk + k1 + perm[ll + l1]]]] & 31) * 4, x1, y1, z1, w1);
+        }
+        double t2 = 0.5 - x2 * x2 - y2 * y2 - z2 * z2 - w2 * w2;
+        if (t2 > 0) {
+            t2 *= t2;
+            n += t2 * t2 * dot((perm[ii + i2 + perm[jj + j2 + perm[kk + k2 + perm[ll + l2]]]] & 31) * 4, x2, y2, z2, w2);
+        }
+        double t3 = 0.5 - x3 * x3 - y3 * y3 - z3 * z3 - w3 * w3;
+        if (t3 > 0) {
+            t3 *= t3;
+            n += t3 * t3 * dot((perm[ii + i3 + perm[jj + j3 + perm[kk + k3 + perm[ll + l3]]]] & 31) * 4, x3, y3, z3, w3);
+        }
+        double t4 = 0.5 - x4 * x4 - y4 * y4 - z4 * z4 - w4 * w4;
+        if (t4 > 0) {
+            t4 *= t4;
+            n += t4 * t4 * dot((perm[ii + 1 + perm[jj + 1 + perm[kk + 1 + perm[ll + 1]]]] & 31) * 4, x4, y4, z4, w4);
+        }
+        return 57.0 * n;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.graphics.canvas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import casmi.graphics.element.Element;
+import casmi.graphics.element.Rect;
+
+/**
+ * @author Xcoo Inc.
+ */
+public class CanvasTest {
+
+    private Canvas canvas;
+    private Rect a, b, c, d;
+
+    @Before
+    public void setUp() {
+        canvas = new Canvas();
+        a = new Rect(1, 1);
+        b = new Rect(2, 2);
+        c = new Rect(3, 3);
+        d = new Rect(4, 4);
+    }
+
+    private void assertElements(Element... expected) {
+        assertEquals(expected.length, canvas.getSize());
+        for (int i = 0; i < expected.length; i++) {
+            assertSame("index " + i, expected[i], canvas.get(i));
+        }
+    }
+
+    @Test
+    public void testChangesAreQueuedUntilApplied() {
+        canvas.add(a);
+        assertTrue(canvas.hasPendingCommands());
+        assertEquals(0, canvas.elementList.size());
+
+        canvas.applyCommands();
+        assertFalse(canvas.hasPendingCommands());
+        assertEquals(1, canvas.elementList.size());
+    }
+
+    @Test
+    public void testAddAddAtAndMoveKeepOrder() {
+        canvas.add(a);
+        canvas.add(b);
+        canvas.add(0, c);
+        canvas.add(100, d);
+        assertElements(c, a, b, d);
+
+        canvas.move(d, 0);
+        canvas.move(c, 3);
+        assertElements(d, a, b, c);
+
+        canvas.move(a, -5);
+        assertElements(a, d, b, c);
+    }
+
+    @Test
+    public void testMoveOfUnknownElementIsIgnored() {
+        canvas.add(a);
+        canvas.move(b, 0);
+        assertElements(a);
+    }
+
+    @Test
+    public void testDuplicateAddIsIgnored() {
+        canvas.add(a);
+        canvas.add(a);
+        canvas.add(0, a);
+        canvas.add(b);
+        assertElements(a, b);
+
+        canvas.replace(Arrays.asList(b, c, b));
+        assertElements(b, c);
+
+        // a was dropped by replace, so it can be added again
+        canvas.add(a);
+        assertElements(b, c, a);
+    }
+
+    @Test
+    public void testBatchedRemove() {
+        canvas.add(a);
+        canvas.add(b);
+        canvas.add(c);
+        canvas.add(d);
+        canvas.applyCommands();
+
+        canvas.remove(b);
+        canvas.remove(d);
+        canvas.remove(b);
+        assertElements(a, c);
+    }
+
+    @Test
+    public void testRemoveIsOrderedWithOtherChanges() {
+        canvas.add(a);
+        canvas.remove(a);
+        canvas.add(b);
+        canvas.remove(b);
+        canvas.add(a);
+        assertElements(a);
+    }
+
+    @Test
+    public void testClear() {
+        canvas.add(a);
+        canvas.add(b);
+        canvas.clear();
+        canvas.add(c);
+        assertElements(c);
+
+        canvas.add(a);
+        assertElements(c, a);
+    }
+
+    @Test
+    public void testPublishedListIsNotModified() {
+        canvas.add(a);
+        canvas.applyCommands();
+        List<Element> rendered = canvas.elementList;
+
+        canvas.add(b);
+        canvas.remove(a);
+        canvas.applyCommands();
+
+        assertEquals(1, rendered.size());
+        assertSame(a, rendered.get(0));
+        assertElements(b);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.graphics.canvas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import casmi.graphics.element.Rect;
+import casmi.tween.Tweener;
+
+/**
+ * Checks the locking between the update and rendering threads. Only the
+ * parts of a frame which do not need GL are run.
+ *
+ * @author Xcoo Inc.
+ */
+public class RootCanvasTest {
+
+    private RootCanvas root;
+    private Rect rect;
+
+    @Before
+    public void setUp() {
+        root = new RootCanvas();
+        rect = new Rect(10, 10);
+    }
+
+    @Test(timeout = 5000)
+    public void testUpdateDoesNotWaitForRendering() throws Exception {
+        root.setDoubleBuffered(true);
+
+        final CountDownLatch rendering = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        // holds the monitor like a frame being drawn
+        Thread renderer = new Thread() {
+            @Override
+            public void run() {
+                synchronized (root) {
+                    rendering.countDown();
+                    try {
+                        done.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        renderer.start();
+        rendering.await();
+
+        root.beginUpdate();
+        try {
+            Tweener t = new Tweener();
+            root.addTweener(t);
+            root.removeTweener(t);
+            root.add(rect);
+            assertEquals(1, root.getSize());
+            assertSame(rect, root.get(0));
+            root.setCamera(null);
+            root.setProjection(null);
+            root.addCanvas(new Canvas());
+        } finally {
+            root.endUpdate();
+        }
+
+        done.countDown();
+        renderer.join();
+    }
+
+    @Test(timeout = 5000)
+    public void testFrameDuringUpdateReusesSnapshots() throws Exception {
+        root.setDoubleBuffered(true);
+        root.add(rect);
+
+        final CountDownLatch updating = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Thread updater = new Thread() {
+            @Override
+            public void run() {
+                root.beginUpdate();
+                try {
+                    updating.countDown();
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    root.endUpdate();
+                }
+            }
+        };
+        updater.start();
+        updating.await();
+
+        // must not wait for the update
+        root.prepareFrame();
+        assertEquals(1, root.getSize());
+        assertFalse(rect.hasSnapshot());
+
+        done.countDown();
+        updater.join();
+
+        root.prepareFrame();
+        assertTrue(rect.hasSnapshot());
+    }
+
+    @Test(timeout = 5000)
+    public void testSnapshotsAreClearedWhenSingleBuffered() {
+        root.setDoubleBuffered(true);
+        root.add(rect);
+        root.prepareFrame();
+        assertTrue(rect.hasSnapshot());
+
+        root.setDoubleBuffered(false);
+        root.prepareFrame();
+        assertFalse(rect.hasSnapshot());
+    }
+
+    @Test(timeout = 5000)
+    public void testReplaceCanvases() {
+        Canvas a = new Canvas();
+        Canvas b = new Canvas();
+        a.add(rect);
+        root.addCanvas(a);
+        root.replaceCanvases(Arrays.asList(b));
+        root.setDoubleBuffered(true);
+        root.prepareFrame();
+
+        // a is no longer rendered, so its queued change stays
+        assertTrue(a.hasPendingCommands());
+    }
+}
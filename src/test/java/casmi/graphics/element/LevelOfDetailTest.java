@@ -0,0 +1,162 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.graphics.element;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Xcoo Inc.
+ */
+public class LevelOfDetailTest {
+
+    private static final int HEIGHT = 600;
+    private static final int SEGMENTS = 32;
+
+    // column-major like glGetDoublev
+
+    private static double[] translation(double z) {
+        return new double[] {1, 0, 0, 0,  0, 1, 0, 0,  0, 0, 1, 0,  0, 0, z, 1};
+    }
+
+    private static double[] scaled(double s, double z) {
+        return new double[] {s, 0, 0, 0,  0, s, 0, 0,  0, 0, s, 0,  0, 0, z, 1};
+    }
+
+    // gluPerspective with a field of view of 90 degrees
+    private static double[] perspective() {
+        double near = 1.0, far = 10000.0;
+        return new double[] {1, 0, 0, 0,  0, 1, 0, 0,
+                             0, 0, (far + near) / (near - far), -1,
+                             0, 0, 2 * far * near / (near - far), 0};
+    }
+
+    // glOrtho of a view 100 units high
+    private static double[] ortho() {
+        return new double[] {0.02, 0, 0, 0,  0, 0.02, 0, 0,  0, 0, -0.001, 0,  0, 0, 0, 1};
+    }
+
+    // the distance at which a unit sphere has the ideal level
+    private static double distanceFor(double ideal) {
+        double desired = SEGMENTS / Math.pow(2.0, ideal);
+        double pixelRadius = desired * 6.0 / (2.0 * Math.PI);
+        return HEIGHT * 0.5 / pixelRadius;
+    }
+
+    private static int update(LevelOfDetail lod, double[] model, double radius) {
+        return lod.update(model, perspective(), HEIGHT, 0, 0, 0, radius, SEGMENTS);
+    }
+
+    @After
+    public void resetBias() {
+        LevelOfDetail.setQualityBias(0.0);
+    }
+
+    @Test
+    public void projectsTheBoundingSphere() {
+        LevelOfDetail lod = new LevelOfDetail();
+        update(lod, translation(-10.0), 1.0);
+        // radius * focal length * half the viewport / distance, doubled
+        assertEquals(60.0, lod.getProjectedSize(), 1e-9);
+
+        lod.update(translation(-10.0), ortho(), HEIGHT, 0, 0, 0, 5.0, SEGMENTS);
+        // ortho ignores the distance: 5 units of a 100 unit view
+        assertEquals(60.0, lod.getProjectedSize(), 1e-9);
+    }
+
+    @Test
+    public void scaleOfTheModelMatrixCounts() {
+        LevelOfDetail a = new LevelOfDetail();
+        LevelOfDetail b = new LevelOfDetail();
+        update(a, scaled(3.0, -50.0), 1.0);
+        update(b, translation(-50.0), 3.0);
+        assertEquals(b.getProjectedSize(), a.getProjectedSize(), 1e-9);
+    }
+
+    @Test
+    public void nearIsFullDetailAndFarIsCoarsest() {
+        LevelOfDetail lod = new LevelOfDetail();
+        assertEquals(0, update(lod, translation(-2.0), 1.0));
+        // 32 segments halve 5 times down to 1
+        assertEquals(5, update(lod, translation(-5000.0), 1.0));
+        assertEquals(2, update(lod, translation(-distanceFor(2.0)), 1.0));
+    }
+
+    @Test
+    public void insideTheSphereIsFullDetail() {
+        LevelOfDetail lod = new LevelOfDetail();
+        update(lod, translation(-5000.0), 1.0);
+        assertEquals(0, update(lod, translation(-0.5), 1.0));
+        assertTrue(Double.isInfinite(lod.getProjectedSize()));
+    }
+
+    @Test
+    public void behindTheCameraIsCoarsest() {
+        LevelOfDetail lod = new LevelOfDetail();
+        assertEquals(5, update(lod, translation(10.0), 1.0));
+        assertEquals(0.0, lod.getProjectedSize(), 0.0);
+    }
+
+    @Test
+    public void levelChangesOnlyBeyondTheHysteresis() {
+        LevelOfDetail lod = new LevelOfDetail();
+        assertEquals(0, update(lod, translation(-distanceFor(0.0)), 1.0));
+
+        // within half a level plus the margin of 0.25
+        assertEquals(0, update(lod, translation(-distanceFor(0.7)), 1.0));
+        assertEquals(1, update(lod, translation(-distanceFor(0.8)), 1.0));
+
+        // and back
+        assertEquals(1, update(lod, translation(-distanceFor(0.3)), 1.0));
+        assertEquals(1, update(lod, translation(-distanceFor(1.7)), 1.0));
+        assertEquals(0, update(lod, translation(-distanceFor(0.2)), 1.0));
+    }
+
+    @Test
+    public void qualityBiasDoublesTheSegments() {
+        LevelOfDetail lod = new LevelOfDetail();
+        assertEquals(3, update(lod, translation(-distanceFor(3.0)), 1.0));
+
+        LevelOfDetail.setQualityBias(1.0);
+        LevelOfDetail biased = new LevelOfDetail();
+        assertEquals(2, update(biased, translation(-distanceFor(3.0)), 1.0));
+    }
+
+    @Test
+    public void disabledIsAlwaysFullDetail() {
+        LevelOfDetail lod = new LevelOfDetail();
+        update(lod, translation(-5000.0), 1.0);
+        lod.setEnabled(false);
+        assertEquals(0, lod.getLevel());
+        assertEquals(0, update(lod, translation(-5000.0), 1.0));
+    }
+
+    @Test
+    public void segmentsHalvePerLevelDownToTheMinimum() {
+        assertEquals(32, LevelOfDetail.segments(32, 0, 6));
+        assertEquals(8, LevelOfDetail.segments(32, 2, 6));
+        assertEquals(6, LevelOfDetail.segments(32, 4, 6));
+        // never more than the configured segments
+        assertEquals(4, LevelOfDetail.segments(4, 3, 6));
+    }
+}
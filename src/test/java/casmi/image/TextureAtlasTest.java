@@ -0,0 +1,141 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import casmi.util.RandomStream;
+
+/**
+ * @author Xcoo Inc.
+ */
+public class TextureAtlasTest {
+
+    private static final int PAGE = 256, PADDING = 2;
+
+    private static Image newImage(int w, int h, int seed) {
+        Image image = new Image(w, h);
+        int[] pixels = new int[w * h];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | seed * 7919 + i;
+        }
+        image.setPixels(pixels);
+        return image;
+    }
+
+    // {page, x, y, w, h} of the image area of the texture in pixels
+    private static int[] placement(TextureAtlas atlas, Texture t) {
+        int page = -1;
+        for (int i = 0; i < atlas.getPageCount(); i++) {
+            if (atlas.getPage(i) == t.getImage()) {
+                page = i;
+            }
+        }
+        int x0 = Math.round(t.getRegionU0() * PAGE);
+        int y0 = Math.round(t.getRegionV0() * PAGE);
+        int x1 = Math.round(t.getRegionU1() * PAGE);
+        int y1 = Math.round(t.getRegionV1() * PAGE);
+        return new int[] {page, x0, y0, x1 - x0, y1 - y0};
+    }
+
+    @Test
+    public void packsWithoutOverlap() {
+        TextureAtlas atlas = new TextureAtlas(PAGE, PAGE, PADDING);
+        RandomStream r = new RandomStream(17L);
+        List<Image> images = new ArrayList<Image>();
+        for (int i = 0; i < 120; i++) {
+            images.add(newImage(1 + r.nextInt(60), 1 + r.nextInt(60), i));
+        }
+        List<Texture> textures = atlas.addAll(images);
+        assertTrue(atlas.getPageCount() > 1);
+
+        List<int[]> placed = new ArrayList<int[]>();
+        for (int i = 0; i < textures.size(); i++) {
+            Image image = images.get(i);
+            int[] p = placement(atlas, textures.get(i));
+            assertTrue(p[0] >= 0);
+            assertEquals(image.getWidth(), p[3]);
+            assertEquals(image.getHeight(), p[4]);
+            assertEquals(image.getWidth(), textures.get(i).getWidth(), 0.0);
+
+            // the padded area lies within the page
+            assertTrue(p[1] - PADDING >= 0 && p[2] - PADDING >= 0);
+            assertTrue(p[1] + p[3] + PADDING <= PAGE && p[2] + p[4] + PADDING <= PAGE);
+
+            for (int[] q : placed) {
+                if (q[0] != p[0]) {
+                    continue;
+                }
+                boolean apart = p[1] + p[3] + PADDING <= q[1] - PADDING ||
+                                q[1] + q[3] + PADDING <= p[1] - PADDING ||
+                                p[2] + p[4] + PADDING <= q[2] - PADDING ||
+                                q[2] + q[4] + PADDING <= p[2] - PADDING;
+                assertTrue("padded regions overlap", apart);
+            }
+            placed.add(p);
+        }
+
+        double occupancy = atlas.getOccupancy();
+        assertTrue(occupancy > 0.0 && occupancy <= 1.0);
+    }
+
+    @Test
+    public void copiesPixelsAndRepeatsEdges() {
+        TextureAtlas atlas = new TextureAtlas(PAGE, PAGE, PADDING);
+        atlas.add(newImage(30, 20, 1));
+        Image image = newImage(10, 6, 2);
+        int[] p = placement(atlas, atlas.add(image));
+
+        int[] src = new int[10 * 6];
+        image.getPixels(src);
+        int[] page = new int[PAGE * PAGE];
+        atlas.getPage(p[0]).getPixels(page);
+
+        for (int y = 0; y < 6; y++) {
+            for (int x = 0; x < 10; x++) {
+                assertEquals(src[y * 10 + x], page[(p[2] + y) * PAGE + p[1] + x]);
+            }
+            assertEquals(src[y * 10], page[(p[2] + y) * PAGE + p[1] - PADDING]);
+            assertEquals(src[y * 10 + 9], page[(p[2] + y) * PAGE + p[1] + 10 + PADDING - 1]);
+        }
+        assertEquals(src[0], page[(p[2] - PADDING) * PAGE + p[1] - PADDING]);
+        assertEquals(src[59], page[(p[2] + 6 + PADDING - 1) * PAGE + p[1] + 10 + PADDING - 1]);
+    }
+
+    @Test
+    public void addingMarksThePageDirty() {
+        TextureAtlas atlas = new TextureAtlas(PAGE, PAGE, PADDING);
+        atlas.add(newImage(8, 8, 3));
+        assertTrue(atlas.getPage(0).isDirty());
+        assertFalse(new Image(4, 4).isDirty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsImagesLargerThanAPage() {
+        new TextureAtlas(PAGE, PAGE, PADDING).add(new Image(PAGE - 1, 8));
+    }
+}
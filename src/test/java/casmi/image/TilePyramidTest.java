@@ -0,0 +1,195 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Xcoo Inc.
+ */
+public class TilePyramidTest {
+
+    private static final int WIDTH = 100, HEIGHT = 70, TILE = 32;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BufferedImage source;
+    private File pyramid;
+
+    @Before
+    public void build() throws IOException {
+        source = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                source.setRGB(x, y, 0xff000000 | x << 16 | y << 8 | ((x * y) & 0xff));
+            }
+        }
+        File png = folder.newFile("source.png");
+        ImageIO.write(source, "png", png);
+
+        pyramid = new File(folder.getRoot(), "source.ctp");
+        TilePyramid.build(png, pyramid, TILE);
+    }
+
+    @Test
+    public void headerRoundTrip() throws IOException {
+        TilePyramid p = new TilePyramid(pyramid);
+        try {
+            assertEquals(WIDTH, p.getWidth());
+            assertEquals(HEIGHT, p.getHeight());
+            assertEquals(TILE, p.getTileSize());
+            // 100x70, 50x35, 25x18
+            assertEquals(3, p.getLevelCount());
+            assertEquals(4, p.getColumns(0));
+            assertEquals(3, p.getRows(0));
+            assertEquals(2, p.getColumns(1));
+            assertEquals(2, p.getRows(1));
+            assertEquals(25, p.getLevelWidth(2));
+            assertEquals(18, p.getLevelHeight(2));
+            assertEquals(1, p.getColumns(2));
+            assertEquals(1, p.getRows(2));
+        } finally {
+            p.close();
+        }
+    }
+
+    @Test
+    public void tilesHoldTheSourcePixels() throws IOException {
+        TilePyramid p = new TilePyramid(pyramid);
+        try {
+            for (int r = 0; r < p.getRows(0); r++) {
+                for (int c = 0; c < p.getColumns(0); c++) {
+                    ByteBuffer tile = p.getTile(0, c, r);
+                    assertEquals(TILE * TILE * 4, tile.remaining());
+                    for (int j = 0; j < TILE; j++) {
+                        for (int i = 0; i < TILE; i++) {
+                            int x = c * TILE + i, y = r * TILE + j;
+                            int expected = x < WIDTH && y < HEIGHT ? source.getRGB(x, y) : 0;
+                            assertEquals(expected, tile.getInt((j * TILE + i) * 4));
+                        }
+                    }
+                }
+            }
+        } finally {
+            p.close();
+        }
+    }
+
+    @Test
+    public void lowerLevelsAverageTheLevelAbove() throws IOException {
+        TilePyramid p = new TilePyramid(pyramid);
+        try {
+            ByteBuffer tile = p.getTile(1, 0, 0);
+            for (int y = 0; y < TILE; y += 5) {
+                for (int x = 0; x < TILE; x += 5) {
+                    int r = 0, g = 0;
+                    for (int q = 0; q < 4; q++) {
+                        int rgb = source.getRGB(2 * x + (q & 1), 2 * y + (q >> 1));
+                        r += (rgb >> 16) & 0xff;
+                        g += (rgb >> 8) & 0xff;
+                    }
+                    int pixel = tile.getInt((y * TILE + x) * 4);
+                    assertEquals(0xff, pixel >>> 24);
+                    assertEquals((r + 2) / 4, (pixel >> 16) & 0xff);
+                    assertEquals((g + 2) / 4, (pixel >> 8) & 0xff);
+                }
+            }
+        } finally {
+            p.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTilesOutOfThePyramid() throws IOException {
+        TilePyramid p = new TilePyramid(pyramid);
+        try {
+            p.getTile(2, 1, 0);
+        } finally {
+            p.close();
+        }
+    }
+
+    private void expectBroken(int offset, int value) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(pyramid, "rw");
+        try {
+            f.seek(offset);
+            f.writeInt(Integer.reverseBytes(value));
+        } finally {
+            f.close();
+        }
+        try {
+            new TilePyramid(pyramid).close();
+            fail("The broken header was accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void rejectsWrongMagic() throws IOException {
+        expectBroken(0, 0x12345678);
+    }
+
+    @Test
+    public void rejectsZeroTileSize() throws IOException {
+        expectBroken(12, 0);
+    }
+
+    @Test
+    public void rejectsOddTileSize() throws IOException {
+        expectBroken(12, TILE + 1);
+    }
+
+    @Test
+    public void rejectsHugeLevelCount() throws IOException {
+        expectBroken(16, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void rejectsHugeSize() throws IOException {
+        expectBroken(4, Integer.MAX_VALUE);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedFiles() throws IOException {
+        RandomAccessFile f = new RandomAccessFile(pyramid, "rw");
+        try {
+            f.setLength(f.length() - 1);
+        } finally {
+            f.close();
+        }
+        new TilePyramid(pyramid).close();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.image.filter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import casmi.image.Image;
+
+/**
+ * @author Xcoo Inc.
+ */
+public class FilterPipelineTest {
+
+    // large enough to be split into several tasks
+    private static final int W = 300, H = 200;
+
+    private static Image newImage(int[] pixels, int w, int h) {
+        Image image = new Image(w, h);
+        image.setPixels(pixels);
+        return image;
+    }
+
+    private static int[] pixelsOf(Image image) {
+        int[] pixels = new int[image.getWidth() * image.getHeight()];
+        image.getPixels(pixels);
+        return pixels;
+    }
+
+    private static int[] gradient() {
+        int[] pixels = new int[W * H];
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                pixels[y * W + x] = 0xff000000 | (x & 0xff) << 16 | (y & 0xff) << 8 | ((x + y) & 0xff);
+            }
+        }
+        return pixels;
+    }
+
+    @Test
+    public void pointOperationsAreFusedIntoOnePass() {
+        FilterPipeline p = new FilterPipeline().invert().levels(0.1, 0.9, 1.2, 0.0, 1.0).grayscale().invert();
+        assertEquals(1, p.getPassCount());
+
+        // a point pass on each side of the horizontal and vertical blur passes
+        assertEquals(4, new FilterPipeline().invert().gaussianBlur(1.0).invert().getPassCount());
+    }
+
+    @Test
+    public void invertTwiceIsIdentity() {
+        int[] src = gradient();
+        Image out = new FilterPipeline().invert().invert().apply(newImage(src, W, H));
+        assertArrayEquals(src, pixelsOf(out));
+    }
+
+    @Test
+    public void invertKeepsAlpha() {
+        int[] src = {0x80102030, 0x00ffffff};
+        Image out = new FilterPipeline().invert().apply(newImage(src, 2, 1));
+        assertArrayEquals(new int[] {0x80efdfcf, 0x00000000}, pixelsOf(out));
+    }
+
+    @Test
+    public void applyDoesNotModifySource() {
+        int[] src = gradient();
+        Image in = newImage(src, W, H);
+        new FilterPipeline().grayscale().boxBlur(2).apply(in);
+        assertArrayEquals(src, pixelsOf(in));
+    }
+
+    @Test
+    public void blurKeepsUniformImage() {
+        int[] src = new int[W * H];
+        Arrays.fill(src, 0xff336699);
+        Image out = new FilterPipeline().gaussianBlur(2.5).boxBlur(3).apply(newImage(src, W, H));
+        assertArrayEquals(src, pixelsOf(out));
+    }
+
+    @Test
+    public void boxBlurSpreadsAnImpulseEvenly() {
+        int w = 7, h = 7;
+        int[] src = new int[w * h];
+        src[3 * w + 3] = 0xffff0000;
+        Image out = new FilterPipeline().boxBlur(1).apply(newImage(src, w, h));
+        int[] dst = pixelsOf(out);
+
+        int center = (dst[3 * w + 3] >> 16) & 0xff;
+        for (int y = 2; y <= 4; y++) {
+            for (int x = 2; x <= 4; x++) {
+                assertEquals(center, (dst[y * w + x] >> 16) & 0xff, 1);
+            }
+        }
+        assertEquals(255 / 9.0, center, 1.0);
+        assertEquals(0, (dst[0] >> 16) & 0xff);
+    }
+
+    @Test
+    public void inPlaceMatchesApply() {
+        FilterPipeline p = new FilterPipeline().gaussianBlur(1.5).grayscale();
+        int[] expected = pixelsOf(p.apply(newImage(gradient(), W, H)));
+
+        Image image = newImage(gradient(), W, H);
+        p.applyInPlace(image);
+        assertArrayEquals(expected, pixelsOf(image));
+    }
+
+    @Test
+    public void resizeChangesSizeAndKeepsUniformColor() {
+        int[] src = new int[W * H];
+        Arrays.fill(src, 0xff204060);
+        Image small = new FilterPipeline().resize(75, 50).apply(newImage(src, W, H));
+        assertEquals(75, small.getWidth());
+        assertEquals(50, small.getHeight());
+        for (int p : pixelsOf(small)) {
+            assertEquals(0xff204060, p);
+        }
+
+        Image large = new FilterPipeline().resize(W * 2, H * 2).apply(newImage(src, W, H));
+        for (int p : pixelsOf(large)) {
+            assertEquals(0xff204060, p);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void resizingPipelineCannotApplyInPlace() {
+        new FilterPipeline().resize(10, 10).applyInPlace(new Image(20, 20));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEvenKernels() {
+        new FilterPipeline().convolve(new float[] {0.5f, 0.5f}, null);
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.matrix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Xcoo Inc.
+ */
+public class Matrix3DTest {
+
+    private static final double EPS = 1e-12;
+    private static final double FLOAT_EPS = 1e-3;
+    private static final int COUNT = 17;
+
+    private Matrix3D m;
+    private double[] points;
+
+    @Before
+    public void setUp() {
+        m = new Matrix3D(0.8, -0.3,  0.5, 10.0,
+                         0.2,  1.1, -0.4, -5.0,
+                        -0.6,  0.1,  0.9,  2.5,
+                         0.0,  0.0,  0.0,  1.0);
+
+        Random random = new Random(42);
+        points = new double[COUNT * 3];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = random.nextDouble() * 200.0 - 100.0;
+        }
+    }
+
+    private double[] expected(int i) {
+        double[] p = {points[i * 3], points[i * 3 + 1], points[i * 3 + 2]};
+        return m.mult(p, new double[3]);
+    }
+
+    @Test
+    public void testMultInto() {
+        for (int i = 0; i < COUNT; i++) {
+            Vector3D v = new Vector3D(points[i * 3], points[i * 3 + 1], points[i * 3 + 2]);
+            Vector3D r = m.multInto(v, new Vector3D());
+            double[] e = expected(i);
+            assertEquals(e[0], r.getX(), EPS);
+            assertEquals(e[1], r.getY(), EPS);
+            assertEquals(e[2], r.getZ(), EPS);
+
+            // in place
+            assertSame(v, m.multInto(v, v));
+            assertEquals(e[0], v.getX(), EPS);
+            assertEquals(e[1], v.getY(), EPS);
+            assertEquals(e[2], v.getZ(), EPS);
+        }
+    }
+
+    @Test
+    public void testTransformPackedDoubles() {
+        double[] dst = new double[points.length];
+        m.transform(points, dst, COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            double[] e = expected(i);
+            for (int k = 0; k < 3; k++) {
+                assertEquals(e[k], dst[i * 3 + k], EPS);
+            }
+        }
+    }
+
+    @Test
+    public void testTransformInterleavedDoubles() {
+        // (x, y, z, u, v) in, (w, x, y, z) out
+        double[] src = new double[2 + COUNT * 5];
+        for (int i = 0; i < COUNT; i++) {
+            System.arraycopy(points, i * 3, src, 2 + i * 5, 3);
+            src[2 + i * 5 + 3] = -1.0;
+            src[2 + i * 5 + 4] = -2.0;
+        }
+        double[] dst = new double[1 + COUNT * 4];
+
+        m.transform(src, 2, 5, dst, 1, 4, COUNT);
+
+        assertEquals(0.0, dst[0], 0.0);
+        for (int i = 0; i < COUNT; i++) {
+            double[] e = expected(i);
+            for (int k = 0; k < 3; k++) {
+                assertEquals(e[k], dst[1 + i * 4 + k], EPS);
+            }
+            assertEquals(0.0, dst[1 + i * 4 + 3], 0.0);
+            assertEquals(-1.0, src[2 + i * 5 + 3], 0.0);
+            assertEquals(-2.0, src[2 + i * 5 + 4], 0.0);
+        }
+    }
+
+    @Test
+    public void testTransformDoublesInPlace() {
+        double[] data = points.clone();
+        m.transform(data, data, COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            double[] e = expected(i);
+            for (int k = 0; k < 3; k++) {
+                assertEquals(e[k], data[i * 3 + k], EPS);
+            }
+        }
+    }
+
+    @Test
+    public void testTransformPackedFloats() {
+        float[] src = new float[points.length];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (float)points[i];
+        }
+        float[] dst = new float[src.length];
+
+        m.transform(src, dst, COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            double[] e = expected(i);
+            for (int k = 0; k < 3; k++) {
+                assertEquals(e[k], dst[i * 3 + k], FLOAT_EPS);
+            }
+        }
+
+        float[] strided = new float[COUNT * 4];
+        m.transform(src, 0, 3, strided, 0, 4, COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            for (int k = 0; k < 3; k++) {
+                assertEquals(dst[i * 3 + k], strided[i * 4 + k], 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void testTransformStructureOfArrays() {
+        double[] xs = new double[COUNT], ys = new double[COUNT], zs = new double[COUNT];
+        float[] fxs = new float[COUNT], fys = new float[COUNT], fzs = new float[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            xs[i] = points[i * 3];
+            ys[i] = points[i * 3 + 1];
+            zs[i] = points[i * 3 + 2];
+            fxs[i] = (float)xs[i];
+            fys[i] = (float)ys[i];
+            fzs[i] = (float)zs[i];
+        }
+        double[] ox = new double[COUNT], oy = new double[COUNT], oz = new double[COUNT];
+
+        // only the middle part
+        m.transform(xs, ys, zs, ox, oy, oz, 2, COUNT - 4);
+        // in place
+        m.transform(fxs, fys, fzs, fxs, fys, fzs, 0, COUNT);
+
+        for (int i = 0; i < COUNT; i++) {
+            double[] e = expected(i);
+            if (2 <= i && i < COUNT - 2) {
+                assertEquals(e[0], ox[i], EPS);
+                assertEquals(e[1], oy[i], EPS);
+                assertEquals(e[2], oz[i], EPS);
+            } else {
+                assertEquals(0.0, ox[i], 0.0);
+            }
+            assertEquals(e[0], fxs[i], FLOAT_EPS);
+            assertEquals(e[1], fys[i], FLOAT_EPS);
+            assertEquals(e[2], fzs[i], FLOAT_EPS);
+        }
+    }
+
+    @Test
+    public void testTransformFloatBuffer() {
+        FloatBuffer src = FloatBuffer.allocate(1 + COUNT * 3);
+        src.put(0.0f);
+        for (double p : points) {
+            src.put((float)p);
+        }
+        src.position(1);
+        FloatBuffer dst = FloatBuffer.allocate(COUNT * 4);
+
+        m.transform(src, 3, dst, 4, COUNT);
+
+        // positions are not changed
+        assertEquals(1, src.position());
+        assertEquals(0, dst.position());
+        for (int i = 0; i < COUNT; i++) {
+            double[] e = expected(i);
+            for (int k = 0; k < 3; k++) {
+                assertEquals(e[k], dst.get(i * 4 + k), FLOAT_EPS);
+            }
+        }
+
+        FloatBuffer packed = FloatBuffer.allocate(COUNT * 3);
+        m.transform(src, packed, COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(dst.get(i * 4), packed.get(i * 3), 0.0f);
+        }
+    }
+
+    @Test
+    public void testTransformOfZeroPoints() {
+        m.transform(new double[0], new double[0], 0);
+        m.transform(new double[0], new double[0], new double[0],
+                    new double[0], new double[0], new double[0], 0, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTransformTooShortSource() {
+        m.transform(new double[8], new double[9], 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTransformTooShortDestination() {
+        m.transform(new float[9], 0, 3, new float[10], 0, 4, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTransformSmallStride() {
+        m.transform(new double[9], 0, 2, new double[9], 0, 3, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTransformNegativeOffset() {
+        m.transform(new double[9], -1, 3, new double[9], 0, 3, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTransformNegativeCount() {
+        m.transform(new double[9], new double[9], -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTransformOffsetPastEnd() {
+        m.transform(new double[9], 7, 3, new double[9], 0, 3, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTransformStructureOfArraysTooShort() {
+        m.transform(new double[4], new double[4], new double[3],
+                    new double[4], new double[4], new double[4], 1, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTransformFloatBufferPastLimit() {
+        FloatBuffer src = FloatBuffer.allocate(9);
+        src.limit(8);
+        m.transform(src, FloatBuffer.allocate(9), 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTransformFloatBufferPastLimitFromPosition() {
+        FloatBuffer src = FloatBuffer.allocate(9);
+        src.position(1);
+        m.transform(src, FloatBuffer.allocate(9), 3);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.matrix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Xcoo Inc.
+ */
+public class QuaternionTest {
+
+    private static final double EPS = 1e-9;
+
+    // row-major 3x3 rotation matrices
+
+    private static double[] rotationX(double a) {
+        double c = Math.cos(a), s = Math.sin(a);
+        return new double[] {1, 0, 0,  0, c, -s,  0, s, c};
+    }
+
+    private static double[] rotationY(double a) {
+        double c = Math.cos(a), s = Math.sin(a);
+        return new double[] {c, 0, s,  0, 1, 0,  -s, 0, c};
+    }
+
+    private static double[] rotationZ(double a) {
+        double c = Math.cos(a), s = Math.sin(a);
+        return new double[] {c, -s, 0,  s, c, 0,  0, 0, 1};
+    }
+
+    private static double[] mult(double[] a, double[] b) {
+        double[] r = new double[9];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                for (int k = 0; k < 3; k++) {
+                    r[i * 3 + j] += a[i * 3 + k] * b[k * 3 + j];
+                }
+            }
+        }
+        return r;
+    }
+
+    private static void assertQuaternion(Quaternion expected, Quaternion actual) {
+        // q and -q are the same rotation
+        double sign = expected.dot(actual) < 0.0 ? -1.0 : 1.0;
+        assertEquals(expected.getX(), sign * actual.getX(), EPS);
+        assertEquals(expected.getY(), sign * actual.getY(), EPS);
+        assertEquals(expected.getZ(), sign * actual.getZ(), EPS);
+        assertEquals(expected.getW(), sign * actual.getW(), EPS);
+    }
+
+    @Test
+    public void testSetEulerMatchesElementRotationOrder() {
+        double rx = Math.toRadians(30), ry = Math.toRadians(-75), rz = Math.toRadians(120);
+
+        // Element.move calls glRotated for z, x and y in this order
+        double[] expected = mult(mult(rotationZ(rz), rotationX(rx)), rotationY(ry));
+
+        Quaternion q = new Quaternion();
+        q.setEuler(rx, ry, rz);
+        assertEquals(1.0, q.length(), EPS);
+
+        double[] m = q.getColumnMajor(null);
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                assertEquals("m" + i + j, expected[i * 3 + j], m[j * 4 + i], EPS);
+            }
+        }
+    }
+
+    @Test
+    public void testSetEulerOfSingleAxes() {
+        Quaternion q = new Quaternion();
+
+        q.setEuler(0.5, 0.0, 0.0);
+        assertQuaternion(Quaternion.fromAxisAngle(0.5, 1, 0, 0), q);
+
+        q.setEuler(0.0, 0.5, 0.0);
+        assertQuaternion(Quaternion.fromAxisAngle(0.5, 0, 1, 0), q);
+
+        q.setEuler(0.0, 0.0, 0.5);
+        assertQuaternion(Quaternion.fromAxisAngle(0.5, 0, 0, 1), q);
+
+        q.setEuler(0.0, 0.0, 0.0);
+        assertQuaternion(new Quaternion(), q);
+    }
+
+    @Test
+    public void testSlerpEndpoints() {
+        Quaternion a = Quaternion.fromAxisAngle(0.3, 1, 2, 3);
+        Quaternion b = Quaternion.fromAxisAngle(2.0, -1, 0, 1);
+
+        assertQuaternion(a, Quaternion.slerp(a, b, 0.0, new Quaternion()));
+        assertQuaternion(b, Quaternion.slerp(a, b, 1.0, new Quaternion()));
+    }
+
+    @Test
+    public void testSlerpHasConstantAngularSpeed() {
+        Quaternion a = new Quaternion();
+        Quaternion b = Quaternion.fromAxisAngle(Math.PI / 2.0, 0, 0, 1);
+
+        Quaternion half = Quaternion.slerp(a, b, 0.5, new Quaternion());
+        assertQuaternion(Quaternion.fromAxisAngle(Math.PI / 4.0, 0, 0, 1), half);
+
+        Quaternion quarter = Quaternion.slerp(a, b, 0.25, new Quaternion());
+        assertQuaternion(Quaternion.fromAxisAngle(Math.PI / 8.0, 0, 0, 1), quarter);
+    }
+
+    @Test
+    public void testSlerpTakesShortestPath() {
+        Quaternion a = new Quaternion();
+        Quaternion b = Quaternion.fromAxisAngle(Math.toRadians(90), 0, 1, 0);
+        Quaternion negB = new Quaternion(-b.getX(), -b.getY(), -b.getZ(), -b.getW());
+
+        // -b is the same rotation, so the path must be the same 90 degrees
+        Quaternion half = Quaternion.slerp(a, negB, 0.5, new Quaternion());
+        assertQuaternion(Quaternion.fromAxisAngle(Math.toRadians(45), 0, 1, 0), half);
+        assertTrue(half.getW() > 0.0);
+    }
+
+    @Test
+    public void testSlerpOfCloseQuaternions() {
+        Quaternion a = Quaternion.fromAxisAngle(1.0, 0, 0, 1);
+        Quaternion b = Quaternion.fromAxisAngle(1.0 + 1e-8, 0, 0, 1);
+
+        Quaternion r = Quaternion.slerp(a, b, 0.5, new Quaternion());
+        assertEquals(1.0, r.length(), EPS);
+        assertQuaternion(Quaternion.fromAxisAngle(1.0 + 5e-9, 0, 0, 1), r);
+    }
+
+    @Test
+    public void testSlerpIntoOperand() {
+        Quaternion a = new Quaternion();
+        Quaternion b = Quaternion.fromAxisAngle(1.0, 1, 0, 0);
+
+        Quaternion r = Quaternion.slerp(a, b, 1.0, a);
+        assertSame(a, r);
+        assertQuaternion(b, a);
+    }
+
+    @Test
+    public void testNlerpIsNormalized() {
+        Quaternion a = Quaternion.fromAxisAngle(0.2, 1, 0, 0);
+        Quaternion b = Quaternion.fromAxisAngle(2.5, 0, 1, 1);
+
+        for (int i = 0; i <= 10; i++) {
+            Quaternion r = Quaternion.nlerp(a, b, i / 10.0, new Quaternion());
+            assertEquals(1.0, r.length(), EPS);
+        }
+
+        assertQuaternion(a, Quaternion.nlerp(a, b, 0.0, new Quaternion()));
+        assertQuaternion(b, Quaternion.nlerp(a, b, 1.0, new Quaternion()));
+    }
+
+    @Test
+    public void testNlerpTakesShortestPath() {
+        Quaternion a = new Quaternion();
+        Quaternion b = Quaternion.fromAxisAngle(Math.toRadians(90), 1, 0, 0);
+        Quaternion negB = new Quaternion(-b.getX(), -b.getY(), -b.getZ(), -b.getW());
+
+        // symmetric, so the halfway point of nlerp equals that of slerp
+        Quaternion half = Quaternion.nlerp(a, negB, 0.5, new Quaternion());
+        assertQuaternion(Quaternion.fromAxisAngle(Math.toRadians(45), 1, 0, 0), half);
+    }
+}
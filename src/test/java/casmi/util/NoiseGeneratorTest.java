@@ -0,0 +1,100 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Xcoo Inc.
+ */
+public class NoiseGeneratorTest {
+
+    @Test
+    public void sameSeedGivesSameNoise() {
+        Noise a = new Noise(42L);
+        Noise b = new Noise(42L);
+        for (int i = 0; i < 100; i++) {
+            float x = i * 0.37f, y = i * 0.11f, z = i * 0.05f;
+            assertEquals(a.get(x, y, z), b.get(x, y, z), 0f);
+        }
+    }
+
+    @Test
+    public void differentSeedsGiveDifferentNoise() {
+        Noise a = new Noise(1L);
+        Noise b = new Noise(2L);
+        boolean differs = false;
+        for (int i = 0; i < 100 && !differs; i++) {
+            differs = a.get(i * 0.37f, i * 0.11f) != b.get(i * 0.37f, i * 0.11f);
+        }
+        assertTrue(differs);
+    }
+
+    @Test
+    public void valuesAreInUnitRange() {
+        Noise n = new Noise(7L);
+        float[] grid = new float[64 * 64];
+        n.fill2D(grid, 0, 64, 64, -10f, -10f, 0.31f, 0.31f);
+        for (float v : grid) {
+            assertTrue(v >= 0f && v < 1f);
+        }
+    }
+
+    @Test
+    public void fill2DMatchesGet() {
+        Noise n = new Noise(3L);
+        int w = 17, h = 9, offset = 5;
+        float[] grid = new float[offset + w * h];
+        n.fill2D(grid, offset, w, h, 1.5f, 2.5f, 0.1f, 0.2f);
+        for (int j = 0; j < h; j++) {
+            for (int i = 0; i < w; i++) {
+                assertEquals(n.get(1.5f + i * 0.1f, 2.5f + j * 0.2f), grid[offset + j * w + i], 0f);
+            }
+        }
+    }
+
+    @Test
+    public void parallelFill3DMatchesGet() {
+        Noise n = new Noise(11L);
+        int w = 64, h = 32, d = 8;
+        float[] grid = new float[w * h * d];
+        n.fill3D(grid, 0, w, h, d, 0f, 0f, 0f, 0.05f, 0.07f, 0.3f);
+        for (int k = 0; k < d; k += 3) {
+            for (int j = 0; j < h; j += 5) {
+                for (int i = 0; i < w; i += 7) {
+                    assertEquals(n.get(i * 0.05f, j * 0.07f, k * 0.3f), grid[(k * h + j) * w + i], 0f);
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooSmallDestination() {
+        new Noise(0L).fill2D(new float[10], 0, 4, 4, 0f, 0f, 1f, 1f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsGridsLargerThanAnArray() {
+        new Noise(0L).fill3D(new float[1], 0, 65536, 65536, 2, 0f, 0f, 0f, 1f, 1f, 1f);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Xcoo Inc.
+ */
+public class RandomStreamTest {
+
+    @Test
+    public void sameSeedAndStreamGiveSameSequence() {
+        RandomStream a = new RandomStream(123L, 4L);
+        RandomStream b = new RandomStream(123L, 4L);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(a.nextLong(), b.nextLong());
+        }
+    }
+
+    @Test
+    public void setSeedRestartsTheSequence() {
+        RandomStream r = new RandomStream(5L);
+        long first = r.nextLong();
+        r.nextGaussian();
+        r.setSeed(5L, 0L);
+        assertEquals(first, r.nextLong());
+    }
+
+    @Test
+    public void streamsDiffer() {
+        RandomStream a = new RandomStream(123L, 0L);
+        RandomStream b = new RandomStream(123L, 1L);
+        int same = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (a.nextLong() == b.nextLong()) {
+                same++;
+            }
+        }
+        assertEquals(0, same);
+    }
+
+    @Test
+    public void valuesAreInRange() {
+        RandomStream r = new RandomStream(77L);
+        for (int i = 0; i < 100000; i++) {
+            float f = r.nextFloat();
+            assertTrue(f >= 0f && f < 1f);
+            double d = r.nextDouble();
+            assertTrue(d >= 0.0 && d < 1.0);
+            int n = r.nextInt(7);
+            assertTrue(n >= 0 && n < 7);
+        }
+    }
+
+    @Test
+    public void nextIntIsRoughlyUniform() {
+        RandomStream r = new RandomStream(99L);
+        int[] counts = new int[10];
+        int samples = 100000;
+        for (int i = 0; i < samples; i++) {
+            counts[r.nextInt(10)]++;
+        }
+        for (int c : counts) {
+            assertEquals(samples / 10, c, samples / 100);
+        }
+    }
+
+    @Test
+    public void gaussianHasUnitMoments() {
+        RandomStream r = new RandomStream(31L);
+        int samples = 100000;
+        double sum = 0.0, sumSq = 0.0;
+        for (int i = 0; i < samples; i++) {
+            double g = r.nextGaussian();
+            sum += g;
+            sumSq += g * g;
+        }
+        double mean = sum / samples;
+        assertEquals(0.0, mean, 0.02);
+        assertEquals(1.0, sumSq / samples - mean * mean, 0.02);
+    }
+
+    @Test
+    public void fillStaysWithinBounds() {
+        RandomStream r = new RandomStream(8L);
+        float[] dest = new float[1000];
+        dest[0] = -1f;
+        dest[999] = -1f;
+        r.fill(dest, 1, 998, 2f, 3f);
+        assertEquals(-1f, dest[0], 0f);
+        assertEquals(-1f, dest[999], 0f);
+        for (int i = 1; i < 999; i++) {
+            assertTrue(dest[i] >= 2f && dest[i] < 3f);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveBound() {
+        new RandomStream(0L).nextInt(0);
+    }
+}
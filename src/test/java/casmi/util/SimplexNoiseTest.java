@@ -0,0 +1,90 @@
+/*
+ *   casmi
+ *   http://casmi.github.com/
+ *   Copyright (C) 2011, Xcoo, Inc.
+ *
+ *  casmi is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package casmi.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Xcoo Inc.
+ */
+public class SimplexNoiseTest {
+
+    @Test
+    public void sameSeedGivesSameNoise() {
+        SimplexNoise a = new SimplexNoise(42L);
+        SimplexNoise b = new SimplexNoise(42L);
+        for (int i = 0; i < 100; i++) {
+            float x = i * 0.37f, y = i * 0.11f, z = i * 0.05f, w = i * 0.23f;
+            assertEquals(a.get(x, y), b.get(x, y), 0f);
+            assertEquals(a.get(x, y, z), b.get(x, y, z), 0f);
+            assertEquals(a.get(x, y, z, w), b.get(x, y, z, w), 0f);
+        }
+    }
+
+    @Test
+    public void valuesAreInUnitRange() {
+        SimplexNoise n = new SimplexNoise(5L);
+        float[] grid = new float[48 * 48 * 4];
+        n.fill3D(grid, 0, 48, 48, 4, -7f, -7f, -7f, 0.29f, 0.29f, 1.3f);
+        for (float v : grid) {
+            assertTrue(v >= 0f && v < 1f);
+        }
+        n.fill2D(grid, 0, 48, 48, -7f, -7f, 0.5f, 2.5f, 0.29f, 0.29f);
+        for (float v : grid) {
+            assertTrue(v >= 0f && v < 1f);
+        }
+    }
+
+    @Test
+    public void fill2DMatches4DGet() {
+        SimplexNoise n = new SimplexNoise(9L);
+        int w = 13, h = 7;
+        float[] grid = new float[w * h];
+        n.fill2D(grid, 0, w, h, 0.5f, 1.5f, 0.25f, 0.75f, 0.1f, 0.2f);
+        for (int j = 0; j < h; j++) {
+            for (int i = 0; i < w; i++) {
+                assertEquals(n.get(0.5f + i * 0.1f, 1.5f + j * 0.2f, 0.25f, 0.75f), grid[j * w + i], 0f);
+            }
+        }
+    }
+
+    @Test
+    public void loopIsSeamless() {
+        SimplexNoise n = new SimplexNoise(1L);
+        int w = 32, h = 32;
+        float[] first = new float[w * h];
+        float[] last = new float[w * h];
+        float[] middle = new float[w * h];
+        n.fillLoop2D(first, 0, w, h, 0f, 0f, 0.1f, 0.1f, 1f, 0f);
+        n.fillLoop2D(last, 0, w, h, 0f, 0f, 0.1f, 0.1f, 1f, 1f);
+        n.fillLoop2D(middle, 0, w, h, 0f, 0f, 0.1f, 0.1f, 1f, 0.5f);
+        assertArrayEquals(first, last, 1e-5f);
+
+        boolean differs = false;
+        for (int i = 0; i < first.length && !differs; i++) {
+            differs = Math.abs(first[i] - middle[i]) > 1e-3f;
+        }
+        assertTrue(differs);
+    }
+}